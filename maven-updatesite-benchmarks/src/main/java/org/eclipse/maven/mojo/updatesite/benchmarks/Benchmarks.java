@@ -0,0 +1,43 @@
+package org.eclipse.maven.mojo.updatesite.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of the benchmarks jar. Accepts the usual JMH command line and
+ * always adds the GC profiler, so that the allocation rate is reported next
+ * to the throughput.
+ * <p>
+ * Built by the <code>benchmarks</code> profile of the parent, it is neither
+ * installed nor deployed: <code>mvn -Pbenchmarks package</code>, then
+ * <code>java -jar target/benchmarks.jar [ModelHelper|Sftp] [jmh options]</code>
+ */
+public final class Benchmarks {
+
+	/**
+	 * Constructor.
+	 */
+	private Benchmarks() {
+	}
+
+	/**
+	 * Run the benchmarks.
+	 * 
+	 * @param args
+	 *            JMH command line
+	 * @throws CommandLineOptionException
+	 *             on invalid command line
+	 * @throws RunnerException
+	 *             if a benchmark failed
+	 */
+	public static void main(String[] args) throws CommandLineOptionException,
+			RunnerException {
+		new Runner(new OptionsBuilder().parent(new CommandLineOptions(args))
+				.addProfiler(GCProfiler.class).build()).run();
+	}
+
+}
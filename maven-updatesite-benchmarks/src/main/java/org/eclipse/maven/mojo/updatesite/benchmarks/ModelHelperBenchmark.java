@@ -0,0 +1,190 @@
+package org.eclipse.maven.mojo.updatesite.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import noNamespace.RepositoryDocument;
+
+import org.eclipse.maven.mojo.updatesite.ModelHelper;
+import org.eclipse.maven.mojo.updatesite.ModelHelper.TYPE;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link ModelHelper} operations on composites of growing number of
+ * children.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModelHelperBenchmark {
+
+	/**
+	 * Location added then removed by the benchmarks creating a child.
+	 */
+	private static final String NEW_LOCATION = "new";
+
+	/**
+	 * Number of children of the composite.
+	 */
+	@Param({ "10", "100", "1000", "10000", "100000" })
+	private int children;
+
+	/**
+	 * Helper under test.
+	 */
+	private ModelHelper modelHelper;
+
+	/**
+	 * Serialized composite.
+	 */
+	private byte[] content;
+
+	/**
+	 * Parsed composite.
+	 */
+	private RepositoryDocument repositoryDocument;
+
+	/**
+	 * Composite file for the streaming variant.
+	 */
+	private File compositeFile;
+
+	/**
+	 * Existing location, in the middle of the children.
+	 */
+	private String existingLocation;
+
+	/**
+	 * Build the composite.
+	 * 
+	 * @throws IOException
+	 *             on error
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		modelHelper = new ModelHelper();
+		RepositoryDocument document = modelHelper.newRepositoryDocument(
+				"benchmark", TYPE.METADATA);
+		List<String> locations = new ArrayList<String>(children);
+		for (int i = 0; i < children; i++) {
+			locations.add("1.0." + i);
+		}
+		modelHelper.appendChildren(document, locations);
+		existingLocation = locations.get(children / 2);
+
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		modelHelper.write(document, TYPE.METADATA, outputStream);
+		content = outputStream.toByteArray();
+		repositoryDocument = modelHelper
+				.parseCompositeContent(new ByteArrayInputStream(content));
+
+		compositeFile = File.createTempFile("compositeContent", ".xml");
+		OutputStream fileOutputStream = new FileOutputStream(compositeFile);
+		try {
+			fileOutputStream.write(content);
+		} finally {
+			fileOutputStream.close();
+		}
+	}
+
+	/**
+	 * Delete the composite file.
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		compositeFile.delete();
+	}
+
+	/**
+	 * Parse the composite.
+	 * 
+	 * @return parsed document
+	 */
+	@Benchmark
+	public RepositoryDocument parseCompositeContent() {
+		return modelHelper.parseCompositeContent(new ByteArrayInputStream(
+				content));
+	}
+
+	/**
+	 * Append an existing child, which only updates the timestamp.
+	 * 
+	 * @return false
+	 */
+	@Benchmark
+	public boolean appendExistingChild() {
+		return modelHelper.appendChild(repositoryDocument, existingLocation);
+	}
+
+	/**
+	 * Append a new child and remove it, to keep the document size.
+	 * 
+	 * @return removed locations
+	 */
+	@Benchmark
+	public List<String> appendAndRemoveChild() {
+		modelHelper.appendChild(repositoryDocument, NEW_LOCATION);
+		return modelHelper.removeChildren(repositoryDocument,
+				Collections.singleton(NEW_LOCATION));
+	}
+
+	/**
+	 * Append a new child with the streaming variant, from the composite file.
+	 * 
+	 * @return true
+	 */
+	@Benchmark
+	public boolean appendChildStreaming() {
+		return modelHelper.appendChild(compositeFile, NEW_LOCATION,
+				TYPE.ARTIFACT, NullOutputStream.INSTANCE);
+	}
+
+	/**
+	 * Serialize in memory and read back.
+	 * 
+	 * @return number of bytes read
+	 * @throws IOException
+	 *             on error
+	 */
+	@Benchmark
+	public long getInputStream() throws IOException {
+		InputStream inputStream = modelHelper.getInputStream(
+				repositoryDocument, TYPE.ARTIFACT);
+		return inputStream.skip(Long.MAX_VALUE);
+	}
+
+	/**
+	 * Serialize to a stream.
+	 */
+	@Benchmark
+	public void save() {
+		modelHelper.save(repositoryDocument, TYPE.ARTIFACT, new PrintStream(
+				NullOutputStream.INSTANCE));
+	}
+
+}
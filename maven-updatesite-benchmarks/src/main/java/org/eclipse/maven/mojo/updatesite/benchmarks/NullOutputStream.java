@@ -0,0 +1,29 @@
+package org.eclipse.maven.mojo.updatesite.benchmarks;
+
+import java.io.OutputStream;
+
+/**
+ * {@link OutputStream} discarding everything, to measure serialization alone.
+ */
+final class NullOutputStream extends OutputStream {
+
+	/**
+	 * Shared instance, the stream has no state.
+	 */
+	static final NullOutputStream INSTANCE = new NullOutputStream();
+
+	/**
+	 * Constructor.
+	 */
+	private NullOutputStream() {
+	}
+
+	@Override
+	public void write(int b) {
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) {
+	}
+
+}
@@ -0,0 +1,238 @@
+package org.eclipse.maven.mojo.updatesite.sftp;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.maven.mojo.updatesite.harness.EmbeddedSftpServer;
+import org.eclipse.maven.mojo.updatesite.logger.AbstractLogger;
+import org.eclipse.maven.mojo.updatesite.logger.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.SftpException;
+
+/**
+ * {@link Sftp} operations against an {@link EmbeddedSftpServer}. Latency is
+ * the one of the loopback, so the results compare the client side cost and
+ * the number of round trips, not a real deployment. In the package of
+ * {@link Sftp} to reset its remote cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SftpBenchmark {
+
+	/**
+	 * Remote folder of the benchmarks.
+	 */
+	private static final String FOLDER = "/benchmark";
+
+	/**
+	 * Existing remote file.
+	 */
+	private static final String EXISTING_FILE = FOLDER + "/existing";
+
+	/**
+	 * Logger discarding messages.
+	 */
+	private static final Logger LOGGER = new AbstractLogger() {
+		@Override
+		public boolean isEnabled(Level level) {
+			return false;
+		}
+
+		public void log(Level level, String message) {
+		}
+	};
+
+	/**
+	 * Server.
+	 */
+	private EmbeddedSftpServer server;
+
+	/**
+	 * Connection under test.
+	 */
+	private Sftp sftp;
+
+	/**
+	 * Content to put, per size.
+	 */
+	@State(Scope.Thread)
+	public static class Content {
+
+		/**
+		 * Size of the content in bytes.
+		 */
+		@Param({ "1024", "65536", "1048576" })
+		private int size;
+
+		/**
+		 * Random content.
+		 */
+		private byte[] data;
+
+		/**
+		 * Generate the content.
+		 */
+		@Setup(Level.Trial)
+		public void setUp() {
+			data = new byte[size];
+			new Random(size).nextBytes(data);
+		}
+
+	}
+
+	/**
+	 * Tree recreated before each deletion.
+	 */
+	@State(Scope.Thread)
+	public static class Tree {
+
+		/**
+		 * Remote path of the tree.
+		 */
+		private static final String PATH = FOLDER + "/tree";
+
+		/**
+		 * Number of sub folders.
+		 */
+		private static final int FOLDERS = 10;
+
+		/**
+		 * Number of files of the tree.
+		 */
+		@Param({ "10", "100" })
+		private int files;
+
+		/**
+		 * Create the tree directly in the server root.
+		 * 
+		 * @param benchmark
+		 *            holding the server
+		 * @throws IOException
+		 *             on error
+		 * @throws SftpException
+		 *             on error
+		 */
+		@Setup(Level.Invocation)
+		public void setUp(SftpBenchmark benchmark) throws IOException,
+				SftpException {
+			File tree = new File(benchmark.server.getRoot(), PATH);
+			for (int i = 0; i < files; i++) {
+				File folder = new File(tree, "folder" + i % FOLDERS);
+				folder.mkdirs();
+				new File(folder, "file" + i).createNewFile();
+			}
+			benchmark.sftp.invalidate(PATH);
+		}
+
+	}
+
+	/**
+	 * Start the server and connect.
+	 * 
+	 * @throws IOException
+	 *             on error
+	 * @throws JSchException
+	 *             on error
+	 * @throws SftpException
+	 *             on error
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws IOException, JSchException, SftpException {
+		server = new EmbeddedSftpServer();
+		File folder = new File(server.getRoot(), FOLDER);
+		folder.mkdirs();
+		new File(folder, "existing").createNewFile();
+		sftp = new Sftp(LOGGER, server.getKnownHosts().getAbsolutePath(),
+				server.getIdentity().getAbsolutePath());
+		sftp.openSession(EmbeddedSftpServer.USER,
+				EmbeddedSftpServer.PASSPHRASE, "localhost", server.getPort());
+		sftp.cd(FOLDER);
+	}
+
+	/**
+	 * Disconnect and stop the server.
+	 * 
+	 * @throws IOException
+	 *             on error
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		sftp.disconnect();
+		server.stop();
+	}
+
+	/**
+	 * Check a file with a <code>stat</code> round trip.
+	 * 
+	 * @return true
+	 * @throws SftpException
+	 *             on error
+	 */
+	@Benchmark
+	public boolean fileExists() throws SftpException {
+		sftp.invalidate(FOLDER);
+		return sftp.fileExists(EXISTING_FILE);
+	}
+
+	/**
+	 * Check a file answered by the remote cache.
+	 * 
+	 * @return true
+	 * @throws SftpException
+	 *             on error
+	 */
+	@Benchmark
+	public boolean fileExistsCached() throws SftpException {
+		return sftp.fileExists(EXISTING_FILE);
+	}
+
+	/**
+	 * Upload a file.
+	 * 
+	 * @param content
+	 *            to upload
+	 * @throws SftpException
+	 *             on error
+	 */
+	@Benchmark
+	public void put(Content content) throws SftpException {
+		sftp.put(new ByteArrayInputStream(content.data), "put.bin");
+	}
+
+	/**
+	 * Delete a tree.
+	 * 
+	 * @param tree
+	 *            to delete
+	 * @throws SftpException
+	 *             on error
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public void rmtree(Tree tree) throws SftpException {
+		sftp.rmtree(Tree.PATH, true);
+	}
+
+}
@@ -0,0 +1,745 @@
+package org.eclipse.maven.mojo.updatesite;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.jar.JarEntry;
+import java.util.jar.JarInputStream;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * Metadata repository aggregating the installable units of the children of
+ * a composite, so that p2 clients load a single <code>content.xml</code>
+ * instead of one per child.
+ * <p>
+ * The aggregate is maintained incrementally: each merge copies the units of
+ * the previous aggregate event by event, drops those provided only by
+ * removed or replaced children, and adds the units of the new children. A
+ * unit provided by several children is written once. The repository
+ * references of the children, such as the update sites of their
+ * dependencies, are merged the same way, once per location and type. The
+ * children providing each unit and each reference are kept in the sidecar
+ * {@link MetadataAggregator#INDEX}, so that no child but the merged ones is
+ * ever read again.
+ * <p>
+ * Only metadata is aggregated: artifacts stay in the child repositories,
+ * resolved through the composite artifact repository.
+ */
+public class MetadataAggregator {
+
+	/**
+	 * Metadata file of a simple repository.
+	 */
+	public static final String CONTENT = "content.xml";
+
+	/**
+	 * Compressed metadata file of a simple repository.
+	 */
+	public static final String CONTENT_JAR = "content.jar";
+
+	/**
+	 * Sidecar listing the children providing each unit.
+	 */
+	public static final String INDEX = "aggregate.index";
+
+	/**
+	 * UTF-8.
+	 */
+	private static final String UTF_8 = "UTF-8";
+
+	/**
+	 * First line of the sidecar.
+	 */
+	private static final String HEADER = "updatesite-aggregate 1";
+
+	/**
+	 * Type of a simple metadata repository.
+	 */
+	private static final String LOCAL_METADATA_REPOSITORY = "org.eclipse.equinox.internal.p2.metadata.repository.LocalMetadataRepository";
+
+	/**
+	 * XML prolog and "metadataRepository" PI.
+	 */
+	private static final String HEADER_XML = "<?xml version='1.0' encoding='UTF-8'?>\n"
+			+ "<?metadataRepository version='1.1.0'?>\n";
+
+	/**
+	 * "units" element.
+	 */
+	private static final String UNITS = "units";
+
+	/**
+	 * "unit" element.
+	 */
+	private static final String UNIT = "unit";
+
+	/**
+	 * "references" element.
+	 */
+	private static final String REFERENCES = "references";
+
+	/**
+	 * "repository" element, of a reference.
+	 */
+	private static final String REPOSITORY = "repository";
+
+	/**
+	 * First field of the sidecar lines of the references.
+	 */
+	private static final String REFERENCE = "reference";
+
+	/**
+	 * "id" attribute.
+	 */
+	private static final QName ID = new QName("id");
+
+	/**
+	 * "version" attribute.
+	 */
+	private static final QName VERSION = new QName("version");
+
+	/**
+	 * "uri" attribute, of a reference.
+	 */
+	private static final QName URI = new QName("uri");
+
+	/**
+	 * "url" attribute, of a reference written by older p2 versions.
+	 */
+	private static final QName URL = new QName("url");
+
+	/**
+	 * "type" attribute, of a reference.
+	 */
+	private static final QName TYPE = new QName("type");
+
+	/**
+	 * Indentation of a unit or a reference.
+	 */
+	private static final String UNIT_INDENT = "\n    ";
+
+	/**
+	 * Children providing each unit, by "id version".
+	 */
+	private final SortedMap<String, SortedSet<String>> providers = new TreeMap<String, SortedSet<String>>();
+
+	/**
+	 * Children providing each reference, by "type location".
+	 */
+	private final SortedMap<String, SortedSet<String>> references = new TreeMap<String, SortedSet<String>>();
+
+	/**
+	 * Read the sidecar of the previous aggregate.
+	 * 
+	 * @param inputStream
+	 *            sidecar content, closed on return
+	 * @throws IOException
+	 *             on error
+	 */
+	public void readIndex(InputStream inputStream) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				inputStream, UTF_8));
+		try {
+			if (!HEADER.equals(reader.readLine())) {
+				return;
+			}
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split("\t");
+				if (fields.length == 2) {
+					providers.put(fields[0], children(fields[1]));
+				} else if (fields.length == 3 && REFERENCE.equals(fields[0])) {
+					references.put(fields[1], children(fields[2]));
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Write the sidecar of the merged aggregate.
+	 * 
+	 * @param outputStream
+	 *            to write to, not closed
+	 * @throws IOException
+	 *             on error
+	 */
+	public void writeIndex(OutputStream outputStream) throws IOException {
+		Writer writer = new OutputStreamWriter(outputStream, UTF_8);
+		writer.write(HEADER);
+		writer.write('\n');
+		for (Map.Entry<String, SortedSet<String>> entry : providers.entrySet()) {
+			writeIndexLine(writer, entry.getKey(), entry.getValue());
+		}
+		// older versions skip these lines, having three fields
+		for (Map.Entry<String, SortedSet<String>> entry : references
+				.entrySet()) {
+			writer.write(REFERENCE);
+			writer.write('\t');
+			writeIndexLine(writer, entry.getKey(), entry.getValue());
+		}
+		writer.flush();
+	}
+
+	/**
+	 * Parse the children of a sidecar line.
+	 * 
+	 * @param field
+	 *            space separated locations
+	 * @return locations
+	 */
+	private static SortedSet<String> children(String field) {
+		SortedSet<String> children = new TreeSet<String>();
+		for (String child : field.split(" ")) {
+			if (child.length() > 0) {
+				children.add(child);
+			}
+		}
+		return children;
+	}
+
+	/**
+	 * Write a sidecar line.
+	 * 
+	 * @param writer
+	 *            output
+	 * @param key
+	 *            of the unit or reference
+	 * @param children
+	 *            providing it
+	 * @throws IOException
+	 *             on error
+	 */
+	private static void writeIndexLine(Writer writer, String key,
+			Set<String> children) throws IOException {
+		writer.write(key);
+		writer.write('\t');
+		boolean first = true;
+		for (String child : children) {
+			if (!first) {
+				writer.write(' ');
+			}
+			writer.write(child);
+			first = false;
+		}
+		writer.write('\n');
+	}
+
+	/**
+	 * Merge children into the aggregate.
+	 * 
+	 * @param name
+	 *            of the aggregated repository
+	 * @param previous
+	 *            previous aggregate, {@link MetadataAggregator#CONTENT} or
+	 *            {@link MetadataAggregator#CONTENT_JAR}, null if none
+	 * @param added
+	 *            metadata file of each added or replaced child, by location
+	 * @param removed
+	 *            locations of the removed children
+	 * @param compressed
+	 *            true to write a {@link MetadataAggregator#CONTENT_JAR}
+	 * @param out
+	 *            to output, not closed
+	 * @return number of units of the aggregate
+	 */
+	public int merge(String name, File previous, Map<String, File> added,
+			Collection<String> removed, boolean compressed, OutputStream out) {
+		try {
+			Set<String> replaced = new HashSet<String>(removed);
+			replaced.addAll(added.keySet());
+			forget(providers, replaced);
+			forget(references, replaced);
+
+			// first pass: units and references kept from the aggregate and
+			// added ones
+			Set<String> kept = new HashSet<String>();
+			Set<String> keptReferences = new HashSet<String>();
+			if (previous != null) {
+				Set<String> units = new LinkedHashSet<String>();
+				Set<String> refs = new LinkedHashSet<String>();
+				keys(previous, units, refs);
+				kept.addAll(units);
+				kept.retainAll(providers.keySet());
+				keptReferences.addAll(refs);
+				keptReferences.retainAll(references.keySet());
+			}
+			Set<String> fresh = new LinkedHashSet<String>();
+			Set<String> freshReferences = new LinkedHashSet<String>();
+			for (Map.Entry<String, File> child : added.entrySet()) {
+				Set<String> units = new LinkedHashSet<String>();
+				Set<String> refs = new LinkedHashSet<String>();
+				keys(child.getValue(), units, refs);
+				provide(providers, units, child.getKey());
+				provide(references, refs, child.getKey());
+				fresh.addAll(units);
+				freshReferences.addAll(refs);
+			}
+			kept.removeAll(fresh);
+			keptReferences.removeAll(freshReferences);
+			// units and references missing from the aggregate are forgotten
+			providers.keySet().retainAll(union(kept, fresh));
+			references.keySet().retainAll(
+					union(keptReferences, freshReferences));
+			int size = kept.size() + fresh.size();
+			int referencesSize = keptReferences.size()
+					+ freshReferences.size();
+
+			OutputStream outputStream = out;
+			JarOutputStream jarOutputStream = null;
+			if (compressed) {
+				jarOutputStream = new JarOutputStream(out);
+				jarOutputStream.putNextEntry(new JarEntry(CONTENT));
+				outputStream = jarOutputStream;
+			}
+			outputStream.write(HEADER_XML.getBytes(Charset.forName(UTF_8)));
+			XMLEventFactory eventFactory = XMLEventFactory.newInstance();
+			XMLEventWriter writer = XMLOutputFactory.newInstance()
+					.createXMLEventWriter(outputStream, UTF_8);
+			writer.add(eventFactory.createCharacters(""));
+			writeStart(eventFactory, writer, name, compressed);
+			writeSectionStart(eventFactory, writer, UNITS, size);
+			if (previous != null && !kept.isEmpty()) {
+				copyElements(previous, UNITS, kept, eventFactory, writer);
+			}
+			for (File file : added.values()) {
+				copyElements(file, UNITS, fresh, eventFactory, writer);
+			}
+			writeSectionEnd(eventFactory, writer, UNITS);
+			if (referencesSize > 0) {
+				writeSectionStart(eventFactory, writer, REFERENCES,
+						referencesSize);
+				if (previous != null && !keptReferences.isEmpty()) {
+					copyElements(previous, REFERENCES, keptReferences,
+							eventFactory, writer);
+				}
+				for (File file : added.values()) {
+					copyElements(file, REFERENCES, freshReferences,
+							eventFactory, writer);
+				}
+				writeSectionEnd(eventFactory, writer, REFERENCES);
+			}
+			writeEnd(eventFactory, writer);
+			writer.flush();
+			outputStream.write('\n');
+			if (jarOutputStream != null) {
+				jarOutputStream.finish();
+			}
+			return size;
+		} catch (XMLStreamException e) {
+			throw new ModelException(e.getLocalizedMessage(), e);
+		} catch (IOException e) {
+			throw new ModelException(e.getLocalizedMessage(), e);
+		}
+	}
+
+	/**
+	 * Children providing a unit.
+	 * 
+	 * @param id
+	 *            of the unit
+	 * @param version
+	 *            of the unit
+	 * @return locations, empty if the unit is not aggregated
+	 */
+	public Set<String> getProviders(String id, String version) {
+		SortedSet<String> children = providers.get(id + " " + version);
+		if (children == null) {
+			return new TreeSet<String>();
+		}
+		return new TreeSet<String>(children);
+	}
+
+	/**
+	 * Forget replaced children, and the entries they alone provided.
+	 * 
+	 * @param entries
+	 *            children by unit or reference
+	 * @param replaced
+	 *            locations of the removed or replaced children
+	 */
+	private static void forget(Map<String, SortedSet<String>> entries,
+			Set<String> replaced) {
+		for (Iterator<SortedSet<String>> iterator = entries.values()
+				.iterator(); iterator.hasNext();) {
+			SortedSet<String> children = iterator.next();
+			children.removeAll(replaced);
+			if (children.isEmpty()) {
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * Record a child as providing entries.
+	 * 
+	 * @param entries
+	 *            children by unit or reference
+	 * @param keys
+	 *            of the entries of the child
+	 * @param child
+	 *            location
+	 */
+	private static void provide(Map<String, SortedSet<String>> entries,
+			Set<String> keys, String child) {
+		for (String key : keys) {
+			SortedSet<String> children = entries.get(key);
+			if (children == null) {
+				children = new TreeSet<String>();
+				entries.put(key, children);
+			}
+			children.add(child);
+		}
+	}
+
+	/**
+	 * @param first
+	 *            set
+	 * @param second
+	 *            set
+	 * @return union of both sets
+	 */
+	private static Set<String> union(Set<String> first, Set<String> second) {
+		Set<String> union = new HashSet<String>(first);
+		union.addAll(second);
+		return union;
+	}
+
+	/**
+	 * Keys of the units and references of a metadata file.
+	 * 
+	 * @param file
+	 *            {@link MetadataAggregator#CONTENT} or
+	 *            {@link MetadataAggregator#CONTENT_JAR}
+	 * @param units
+	 *            receives "id version" of each unit, in document order
+	 * @param refs
+	 *            receives "type location" of each reference, in document
+	 *            order
+	 * @throws IOException
+	 *             on error
+	 * @throws XMLStreamException
+	 *             on error
+	 */
+	private void keys(File file, Set<String> units, Set<String> refs)
+			throws IOException, XMLStreamException {
+		InputStream inputStream = open(file);
+		try {
+			XMLEventReader reader = XMLInputFactory.newInstance()
+					.createXMLEventReader(inputStream);
+			int depth = 0;
+			String section = null;
+			while (reader.hasNext()) {
+				XMLEvent event = reader.nextEvent();
+				if (event.isStartElement()) {
+					depth++;
+					StartElement startElement = event.asStartElement();
+					if (depth == 2) {
+						section = startElement.getName().getLocalPart();
+					}
+					String key = key(startElement, depth, section);
+					if (key == null) {
+						continue;
+					}
+					if (UNITS.equals(section)) {
+						units.add(key);
+					} else {
+						refs.add(key);
+					}
+				} else if (event.isEndElement()) {
+					depth--;
+				}
+			}
+			reader.close();
+		} finally {
+			inputStream.close();
+		}
+	}
+
+	/**
+	 * Copy the units or the references of a metadata file, each at most
+	 * once.
+	 * 
+	 * @param file
+	 *            {@link MetadataAggregator#CONTENT} or
+	 *            {@link MetadataAggregator#CONTENT_JAR}
+	 * @param section
+	 *            "units" or "references"
+	 * @param selected
+	 *            keys of the elements to copy, removed once copied
+	 * @param eventFactory
+	 *            event factory
+	 * @param writer
+	 *            output
+	 * @throws IOException
+	 *             on error
+	 * @throws XMLStreamException
+	 *             on error
+	 */
+	private void copyElements(File file, String section,
+			Set<String> selected, XMLEventFactory eventFactory,
+			XMLEventWriter writer) throws IOException, XMLStreamException {
+		InputStream inputStream = open(file);
+		try {
+			XMLEventReader reader = XMLInputFactory.newInstance()
+					.createXMLEventReader(inputStream);
+			int depth = 0;
+			String current = null;
+			while (reader.hasNext()) {
+				XMLEvent event = reader.nextEvent();
+				if (event.isEndElement()) {
+					depth--;
+				}
+				if (!event.isStartElement()) {
+					continue;
+				}
+				depth++;
+				StartElement startElement = event.asStartElement();
+				if (depth == 2) {
+					current = startElement.getName().getLocalPart();
+				}
+				if (!section.equals(current)) {
+					continue;
+				}
+				String key = key(startElement, depth, current);
+				if (key == null) {
+					continue;
+				}
+				boolean copy = selected.remove(key);
+				if (copy) {
+					writer.add(eventFactory.createCharacters(UNIT_INDENT));
+					writer.add(event);
+				}
+				// copy or skip the element content and end
+				int unitDepth = 1;
+				while (unitDepth > 0) {
+					event = reader.nextEvent();
+					if (event.isStartElement()) {
+						unitDepth++;
+					} else if (event.isEndElement()) {
+						unitDepth--;
+					}
+					if (copy) {
+						writer.add(event);
+					}
+				}
+				depth--;
+			}
+			reader.close();
+		} finally {
+			inputStream.close();
+		}
+	}
+
+	/**
+	 * Key of a unit or reference element of a metadata repository.
+	 * 
+	 * @param startElement
+	 *            element
+	 * @param depth
+	 *            of the element, 1 for the repository
+	 * @param section
+	 *            name of the enclosing element at depth 2
+	 * @return "id version" of a unit, "type location" of a reference, null
+	 *         if the element is neither
+	 */
+	private static String key(StartElement startElement, int depth,
+			String section) {
+		if (depth != 3) {
+			return null;
+		}
+		String name = startElement.getName().getLocalPart();
+		if (UNITS.equals(section) && UNIT.equals(name)) {
+			Attribute id = startElement.getAttributeByName(ID);
+			Attribute version = startElement.getAttributeByName(VERSION);
+			if (id == null || version == null) {
+				return null;
+			}
+			return id.getValue() + " " + version.getValue();
+		}
+		if (REFERENCES.equals(section) && REPOSITORY.equals(name)) {
+			Attribute location = startElement.getAttributeByName(URI);
+			if (location == null) {
+				location = startElement.getAttributeByName(URL);
+			}
+			Attribute type = startElement.getAttributeByName(TYPE);
+			if (location == null || type == null) {
+				return null;
+			}
+			return type.getValue() + " " + location.getValue();
+		}
+		return null;
+	}
+
+	/**
+	 * Write the repository start and its properties.
+	 * 
+	 * @param eventFactory
+	 *            event factory
+	 * @param writer
+	 *            output
+	 * @param name
+	 *            of the repository
+	 * @param compressed
+	 *            value of p2.compressed
+	 * @throws XMLStreamException
+	 *             on error
+	 */
+	private static void writeStart(XMLEventFactory eventFactory,
+			XMLEventWriter writer, String name, boolean compressed)
+			throws XMLStreamException {
+		writer.add(eventFactory.createStartElement("", "", REPOSITORY));
+		writer.add(eventFactory.createAttribute("name", name));
+		writer.add(eventFactory.createAttribute("type",
+				LOCAL_METADATA_REPOSITORY));
+		writer.add(eventFactory.createAttribute("version", "1"));
+		writer.add(eventFactory.createCharacters("\n  "));
+		writer.add(eventFactory.createStartElement("", "", "properties"));
+		writer.add(eventFactory.createAttribute("size", "2"));
+		writeProperty(eventFactory, writer, "p2.timestamp",
+				String.valueOf(new Date().getTime()));
+		writeProperty(eventFactory, writer, "p2.compressed",
+				String.valueOf(compressed));
+		writer.add(eventFactory.createCharacters("\n  "));
+		writer.add(eventFactory.createEndElement("", "", "properties"));
+	}
+
+	/**
+	 * Write the start of the units or the references.
+	 * 
+	 * @param eventFactory
+	 *            event factory
+	 * @param writer
+	 *            output
+	 * @param section
+	 *            "units" or "references"
+	 * @param size
+	 *            number of elements
+	 * @throws XMLStreamException
+	 *             on error
+	 */
+	private static void writeSectionStart(XMLEventFactory eventFactory,
+			XMLEventWriter writer, String section, int size)
+			throws XMLStreamException {
+		writer.add(eventFactory.createCharacters("\n  "));
+		writer.add(eventFactory.createStartElement("", "", section));
+		writer.add(eventFactory.createAttribute("size", String.valueOf(size)));
+	}
+
+	/**
+	 * Write the end of the units or the references.
+	 * 
+	 * @param eventFactory
+	 *            event factory
+	 * @param writer
+	 *            output
+	 * @param section
+	 *            "units" or "references"
+	 * @throws XMLStreamException
+	 *             on error
+	 */
+	private static void writeSectionEnd(XMLEventFactory eventFactory,
+			XMLEventWriter writer, String section) throws XMLStreamException {
+		writer.add(eventFactory.createCharacters("\n  "));
+		writer.add(eventFactory.createEndElement("", "", section));
+	}
+
+	/**
+	 * Write a property element.
+	 * 
+	 * @param eventFactory
+	 *            event factory
+	 * @param writer
+	 *            output
+	 * @param name
+	 *            of the property
+	 * @param value
+	 *            of the property
+	 * @throws XMLStreamException
+	 *             on error
+	 */
+	private static void writeProperty(XMLEventFactory eventFactory,
+			XMLEventWriter writer, String name, String value)
+			throws XMLStreamException {
+		writer.add(eventFactory.createCharacters("\n    "));
+		writer.add(eventFactory.createStartElement("", "", "property"));
+		writer.add(eventFactory.createAttribute("name", name));
+		writer.add(eventFactory.createAttribute("value", value));
+		writer.add(eventFactory.createEndElement("", "", "property"));
+	}
+
+	/**
+	 * Write the repository end.
+	 * 
+	 * @param eventFactory
+	 *            event factory
+	 * @param writer
+	 *            output
+	 * @throws XMLStreamException
+	 *             on error
+	 */
+	private static void writeEnd(XMLEventFactory eventFactory,
+			XMLEventWriter writer) throws XMLStreamException {
+		writer.add(eventFactory.createCharacters("\n"));
+		writer.add(eventFactory.createEndElement("", "", REPOSITORY));
+	}
+
+	/**
+	 * Open a metadata file, uncompressing a jar.
+	 * 
+	 * @param file
+	 *            {@link MetadataAggregator#CONTENT} or
+	 *            {@link MetadataAggregator#CONTENT_JAR}
+	 * @return uncompressed content
+	 * @throws IOException
+	 *             on error or if the jar has no
+	 *             {@link MetadataAggregator#CONTENT} entry
+	 */
+	private static InputStream open(File file) throws IOException {
+		InputStream inputStream = new FileInputStream(file);
+		if (!file.getName().endsWith(".jar")) {
+			return inputStream;
+		}
+		JarInputStream jarInputStream = new JarInputStream(inputStream);
+		ZipEntry entry;
+		while ((entry = jarInputStream.getNextEntry()) != null) {
+			if (CONTENT.equals(entry.getName())) {
+				return jarInputStream;
+			}
+		}
+		jarInputStream.close();
+		throw new IOException(CONTENT + " not found in " + file);
+	}
+
+}
@@ -2,11 +2,40 @@ package org.eclipse.maven.mojo.updatesite;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.jar.JarEntry;
+import java.util.jar.JarInputStream;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
 
 import noNamespace.Repository;
 import noNamespace.Repository.Children;
@@ -15,9 +44,9 @@ import noNamespace.Repository.Properties;
 import noNamespace.Repository.Properties.Property;
 import noNamespace.RepositoryDocument;
 
+import org.apache.xmlbeans.XmlCursor;
 import org.apache.xmlbeans.XmlException;
 import org.apache.xmlbeans.XmlOptions;
-import org.apache.xmlbeans.impl.common.IOUtil;
 
 /**
  * Helper class to Manipulate the Composite repository metadata files.
@@ -44,6 +73,16 @@ public class ModelHelper {
 	 */
 	private static final String COMPOSITE_ARTIFACT_REPOSITORY_VERSION_1_0_0 = "<?compositeArtifactRepository version='1.0.0'?>\n";
 
+	/**
+	 * Name of the file telling p2 clients which repository files to fetch.
+	 */
+	public static final String P2_INDEX = "p2.index";
+
+	/**
+	 * End of a factory order, no other format to probe.
+	 */
+	private static final String P2_INDEX_END = "\\!";
+
 	/**
 	 * Enum to represent the 2 kinds of metadata files.
 	 * 
@@ -53,9 +92,9 @@ public class ModelHelper {
 	public enum TYPE {
 		METADATA(
 				"org.eclipse.equinox.internal.p2.metadata.repository.CompositeMetadataRepository",
-				"compositeContent.xml"), ARTIFACT(
+				"compositeContent.xml", "compositeContent.jar"), ARTIFACT(
 				"org.eclipse.equinox.internal.p2.artifact.repository.CompositeArtifactRepository",
-				"compositeArtifacts.xml");
+				"compositeArtifacts.xml", "compositeArtifacts.jar");
 
 		/**
 		 * Class name used in the file.
@@ -67,15 +106,22 @@ public class ModelHelper {
 		 */
 		private String filename;
 
+		/**
+		 * Filename of the compressed variant.
+		 */
+		private String jarFilename;
+
 		/**
 		 * Constructor.
 		 * 
 		 * @param className
 		 * @param filename
+		 * @param jarFilename
 		 */
-		private TYPE(String className, String filename) {
+		private TYPE(String className, String filename, String jarFilename) {
 			this.className = className;
 			this.filename = filename;
+			this.jarFilename = jarFilename;
 		}
 
 		/**
@@ -96,8 +142,142 @@ public class ModelHelper {
 			return filename;
 		}
 
+		/**
+		 * Getter for {@link TYPE#jarFilename}.
+		 * 
+		 * @return filename of the jar holding the compressed file.
+		 */
+		public String getJarFilename() {
+			return jarFilename;
+		}
+
 	}
 
+	/**
+	 * Composite document serialized once, from which both the metadata and
+	 * the artifact files are written. Only the repository type attribute and
+	 * the processing instruction differ between them.
+	 */
+	public final class RenderedDocument {
+
+		/**
+		 * Serialized document without header.
+		 */
+		private final byte[] body;
+
+		/**
+		 * Offset of the type attribute value in {@link RenderedDocument#body}.
+		 */
+		private final int typeStart;
+
+		/**
+		 * Offset after the type attribute value in
+		 * {@link RenderedDocument#body}.
+		 */
+		private final int typeEnd;
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param body
+		 *            serialized document
+		 * @param typeStart
+		 *            offset of the type value
+		 * @param typeEnd
+		 *            offset after the type value
+		 */
+		private RenderedDocument(byte[] body, int typeStart, int typeEnd) {
+			this.body = body;
+			this.typeStart = typeStart;
+			this.typeEnd = typeEnd;
+		}
+
+		/**
+		 * Write the document as given type.
+		 * 
+		 * @param type
+		 *            to apply
+		 * @param out
+		 *            to output, not closed
+		 * @throws IOException
+		 *             on write error
+		 */
+		public void write(ModelHelper.TYPE type, OutputStream out)
+				throws IOException {
+			out.write(getHeader(type));
+			out.write(body, 0, typeStart);
+			out.write(type.getClassName().getBytes(Charset.forName(UTF_8)));
+			out.write(body, typeEnd, body.length - typeEnd);
+			out.write(NEW_LINE);
+		}
+
+		/**
+		 * Write the document as given type, compressed in a jar.
+		 * 
+		 * @param type
+		 *            to apply
+		 * @param out
+		 *            to output, not closed
+		 * @throws IOException
+		 *             on write error
+		 */
+		public void writeJar(ModelHelper.TYPE type, OutputStream out)
+				throws IOException {
+			ZipOutputStream jarOutputStream = openJar(type, out);
+			write(type, jarOutputStream);
+			jarOutputStream.finish();
+		}
+	}
+
+	/**
+	 * Placeholder of the repository type while rendering.
+	 */
+	private static final String TYPE_MARKER = "type-";
+	/**
+	 * Trailing new line.
+	 */
+	private static final byte[] NEW_LINE = { '\n' };
+	/**
+	 * "repository" element.
+	 */
+	private static final String REPOSITORY = "repository";
+	/**
+	 * "property" element.
+	 */
+	private static final String PROPERTY = "property";
+	/**
+	 * "children" element.
+	 */
+	private static final String CHILDREN = "children";
+	/**
+	 * "child" element.
+	 */
+	private static final String CHILD = "child";
+	/**
+	 * "location" attribute.
+	 */
+	private static final QName LOCATION = new QName("location");
+	/**
+	 * "size" attribute.
+	 */
+	private static final QName SIZE = new QName("size");
+	/**
+	 * "type" attribute.
+	 */
+	private static final QName TYPE_ATTRIBUTE = new QName("type");
+	/**
+	 * "name" attribute.
+	 */
+	private static final QName NAME = new QName("name");
+	/**
+	 * "value" attribute.
+	 */
+	private static final QName VALUE = new QName("value");
+	/**
+	 * Indentation of a child element in the streamed output.
+	 */
+	private static final String CHILD_INDENT = "  ";
+
 	/**
 	 * {@link XmlOptions} to customize the serialization.
 	 */
@@ -146,6 +326,85 @@ public class ModelHelper {
 		return document;
 	}
 
+	/**
+	 * Content of the {@link ModelHelper#P2_INDEX} of a composite repository.
+	 * The composite factories also look for the jar variants.
+	 * 
+	 * @return index content
+	 */
+	public byte[] getCompositeIndex() {
+		return getIndex(TYPE.METADATA.getFilename() + "," + P2_INDEX_END,
+				TYPE.ARTIFACT.getFilename() + "," + P2_INDEX_END);
+	}
+
+	/**
+	 * Content of the {@link ModelHelper#P2_INDEX} of a repository aggregated
+	 * by {@link MetadataAggregator}, which has no artifacts.
+	 * 
+	 * @return index content
+	 */
+	public byte[] getAggregateIndex() {
+		return getIndex(MetadataAggregator.CONTENT + "," + P2_INDEX_END,
+				P2_INDEX_END);
+	}
+
+	/**
+	 * Content of the {@link ModelHelper#P2_INDEX} of a local repository,
+	 * listing the formats found in the folder.
+	 * 
+	 * @param repository
+	 *            local repository folder
+	 * @return index content, null if the folder is not a repository
+	 */
+	public byte[] getIndex(File repository) {
+		if (new File(repository, TYPE.METADATA.getFilename()).exists()
+				|| new File(repository, TYPE.METADATA.getJarFilename())
+						.exists()) {
+			return getCompositeIndex();
+		}
+		String metadata = getFactoryOrder(repository, "content");
+		String artifact = getFactoryOrder(repository, "artifacts");
+		if (metadata == null || artifact == null) {
+			return null;
+		}
+		return getIndex(metadata, artifact);
+	}
+
+	/**
+	 * Factory order of a simple repository file.
+	 * 
+	 * @param repository
+	 *            local repository folder
+	 * @param name
+	 *            file base name
+	 * @return factory order, null if no format is present
+	 */
+	private String getFactoryOrder(File repository, String name) {
+		boolean xz = new File(repository, name + ".xml.xz").exists();
+		boolean xml = xz || new File(repository, name + ".xml").exists()
+				|| new File(repository, name + ".jar").exists();
+		if (!xml) {
+			return null;
+		}
+		return (xz ? name + ".xml.xz," : "") + name + ".xml," + P2_INDEX_END;
+	}
+
+	/**
+	 * Format a {@link ModelHelper#P2_INDEX}.
+	 * 
+	 * @param metadata
+	 *            metadata factory order
+	 * @param artifact
+	 *            artifact factory order
+	 * @return index content
+	 */
+	private byte[] getIndex(String metadata, String artifact) {
+		String index = "version=1\n" + "metadata.repository.factory.order="
+				+ metadata + "\n" + "artifact.repository.factory.order="
+				+ artifact + "\n";
+		return index.getBytes(Charset.forName(UTF_8));
+	}
+
 	/**
 	 * Parse repository.
 	 * 
@@ -178,40 +437,169 @@ public class ModelHelper {
 	 */
 	public boolean appendChild(RepositoryDocument repositoryDocument,
 			String location) {
+		return !appendChildren(repositoryDocument,
+				Collections.singletonList(location)).isEmpty();
+
+	}
+
+	/**
+	 * Append child locations, ignoring the existing ones. Update the
+	 * p2.timestamp and the children size.
+	 * 
+	 * @param repositoryDocument
+	 *            to update.
+	 * @param locations
+	 *            of the children
+	 * @return newly created locations
+	 */
+	public List<String> appendChildren(RepositoryDocument repositoryDocument,
+			Collection<String> locations) {
+		Repository repository = repositoryDocument.getRepository();
+		Children children = repository.getChildren();
+		List<String> added = new ArrayList<String>();
+		ChildLocations index = getChildLocationSet(repositoryDocument);
+		for (String location : locations) {
+			if (index.locations.add(location)) {
+				children.addNewChild().setLocation(location);
+				added.add(location);
+			}
+		}
+		children.setSize(children.sizeOfChildArray());
+		updateTimestamp(repository);
+		index.sync(repositoryDocument);
+		return added;
+	}
+
+	/**
+	 * Remove child locations. Update the p2.timestamp and the children size.
+	 * 
+	 * @param repositoryDocument
+	 *            to update.
+	 * @param locations
+	 *            of the children
+	 * @return removed locations
+	 */
+	public List<String> removeChildren(RepositoryDocument repositoryDocument,
+			Collection<String> locations) {
 		Repository repository = repositoryDocument.getRepository();
+		Children children = repository.getChildren();
+		List<String> removed = new ArrayList<String>();
+		ChildLocations index = getChildLocationSet(repositoryDocument);
+		Set<String> toRemove = new HashSet<String>();
+		for (String location : locations) {
+			if (index.locations.contains(location)) {
+				toRemove.add(location);
+			}
+		}
+		if (toRemove.isEmpty()) {
+			return removed;
+		}
+		for (int i = children.sizeOfChildArray() - 1; i >= 0; i--) {
+			String location = children.getChildArray(i).getLocation();
+			if (toRemove.contains(location)) {
+				children.removeChild(i);
+				removed.add(0, location);
+			}
+		}
+		index.locations.removeAll(removed);
+		children.setSize(children.sizeOfChildArray());
+		updateTimestamp(repository);
+		index.sync(repositoryDocument);
+		return removed;
+	}
 
+	/**
+	 * Get the child locations.
+	 * 
+	 * @param repositoryDocument
+	 *            to read
+	 * @return locations in document order
+	 */
+	public List<String> getChildLocations(RepositoryDocument repositoryDocument) {
+		List<Child> childList = repositoryDocument.getRepository()
+				.getChildren().getChildList();
+		List<String> locations = new ArrayList<String>(childList.size());
+		for (Child child : childList) {
+			locations.add(child.getLocation());
+		}
+		return locations;
+	}
+
+	/**
+	 * Update the p2.timestamp property.
+	 * 
+	 * @param repository
+	 *            to update
+	 */
+	private void updateTimestamp(Repository repository) {
 		for (Property property : repository.getProperties().getPropertyList()) {
 			if ("p2.timestamp".equals(property.getName())) {
 				property.setValue(String.valueOf(new Date().getTime()));
 			}
 		}
-
-		Child child = createChild(repository.getChildren(), location);
-
-		return child != null;
-
 	}
 
 	/**
-	 * Create a child if it doesn't already exist.
+	 * Locations of the children, built on the first update of the document
+	 * and kept in it. Built again when the document was modified outside of
+	 * this helper since.
 	 * 
-	 * @param children
-	 *            children node to support addition
-	 * @param location
-	 *            of the new child node
-	 * @return child node if newly created null otherwise
+	 * @param repositoryDocument
+	 *            to read
+	 * @return locations, to keep up to date by the caller
 	 */
-	private Child createChild(Children children, String location) {
+	private ChildLocations getChildLocationSet(
+			RepositoryDocument repositoryDocument) {
+		XmlCursor cursor = repositoryDocument.newCursor();
+		try {
+			ChildLocations index = (ChildLocations) cursor
+					.getBookmark(ChildLocations.class);
+			if (index == null) {
+				index = new ChildLocations();
+				cursor.setBookmark(index);
+			}
+			if (index.stamp == null || index.stamp.hasChanged()) {
+				index.locations.clear();
+				index.locations.addAll(getChildLocations(repositoryDocument));
+				index.stamp = cursor.getDocChangeStamp();
+			}
+			return index;
+		} finally {
+			cursor.dispose();
+		}
+	}
 
-		for (Child child : children.getChildList()) {
-			if (child.getLocation().equals(location)) {
-				return null;
+	/**
+	 * Locations of the children of a document, attached to the document as a
+	 * bookmark so that they live as long as it does.
+	 */
+	private static final class ChildLocations extends XmlCursor.XmlBookmark {
+
+		/**
+		 * Locations.
+		 */
+		private final Set<String> locations = new HashSet<String>();
+
+		/**
+		 * State of the document the locations are up to date with.
+		 */
+		private XmlCursor.ChangeStamp stamp;
+
+		/**
+		 * Record the locations as up to date with the document, once updated
+		 * along with it.
+		 * 
+		 * @param repositoryDocument
+		 *            updated document
+		 */
+		private void sync(RepositoryDocument repositoryDocument) {
+			XmlCursor cursor = repositoryDocument.newCursor();
+			try {
+				stamp = cursor.getDocChangeStamp();
+			} finally {
+				cursor.dispose();
 			}
 		}
-		Child child = children.addNewChild();
-		children.setSize(children.getSize() + 1);
-		child.setLocation(location);
-		return child;
 	}
 
 	/**
@@ -227,53 +615,475 @@ public class ModelHelper {
 	public void save(RepositoryDocument document, ModelHelper.TYPE type,
 			PrintStream out) {
 
-		out.print(XML_VERSION_1_0_ENCODING_UTF_8);
-		switch (type) {
-		case METADATA:
-			out.print(COMPOSITE_METADATA_REPOSITORY_VERSION_1_0_0);
-			break;
-		case ARTIFACT:
-			out.print(COMPOSITE_ARTIFACT_REPOSITORY_VERSION_1_0_0);
-			break;
-		default:
-			break;
-		}
-
 		try {
+			out.write(getHeader(type));
 			document.save(out, xmlOptions);
 		} catch (IOException e) {
 			throw new ModelException(e.getLocalizedMessage(), e);
 		}
 	}
 
+	/**
+	 * Serialize the document as given type in memory. Prefer
+	 * {@link ModelHelper#write(RepositoryDocument, TYPE, OutputStream)} to
+	 * avoid the intermediate copy.
+	 * 
+	 * @param repositoryDocument
+	 *            to serialize
+	 * @param type
+	 *            to apply
+	 * @return serialized document
+	 */
 	public InputStream getInputStream(RepositoryDocument repositoryDocument,
 			ModelHelper.TYPE type) {
 
 		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
 		try {
-			outputStream.write(XML_VERSION_1_0_ENCODING_UTF_8.getBytes(Charset
-					.forName(UTF_8)));
-			switch (type) {
-			case METADATA:
-				outputStream.write(COMPOSITE_METADATA_REPOSITORY_VERSION_1_0_0
-						.getBytes(Charset.forName(UTF_8)));
+			write(repositoryDocument, type, outputStream);
+		} catch (IOException e) {
+			throw new ModelException(e.getLocalizedMessage(), e);
+		}
+
+		return new ByteArrayInputStream(outputStream.toByteArray());
+	}
+
+	/**
+	 * Open a jar with a single entry named after the given type, as p2
+	 * expects for compressed repository files.
+	 * 
+	 * @param type
+	 *            of the entry
+	 * @param out
+	 *            to output
+	 * @return stream to write the uncompressed document to. Closing it
+	 *         completes the jar and closes the output.
+	 * @throws IOException
+	 *             on write error
+	 */
+	public ZipOutputStream openJar(ModelHelper.TYPE type, OutputStream out)
+			throws IOException {
+		JarOutputStream jarOutputStream = new JarOutputStream(out);
+		jarOutputStream.putNextEntry(new JarEntry(type.getFilename()));
+		return jarOutputStream;
+	}
+
+	/**
+	 * Read the document of given type from a jar.
+	 * 
+	 * @param type
+	 *            of the entry
+	 * @param in
+	 *            jar content
+	 * @return stream of the uncompressed document. Closing it closes the
+	 *         input.
+	 * @throws IOException
+	 *             on read error or if the entry is missing
+	 */
+	public InputStream readJar(ModelHelper.TYPE type, InputStream in)
+			throws IOException {
+		JarInputStream jarInputStream = new JarInputStream(in);
+		ZipEntry entry;
+		while ((entry = jarInputStream.getNextEntry()) != null) {
+			if (type.getFilename().equals(entry.getName())) {
+				return jarInputStream;
+			}
+		}
+		jarInputStream.close();
+		throw new IOException(type.getFilename() + " not found in "
+				+ type.getJarFilename());
+	}
+
+	/**
+	 * Serialize the document once for both {@link TYPE}s. A copy carries the
+	 * type placeholder: the document itself is left unchanged, it may be
+	 * read concurrently.
+	 * 
+	 * @param repositoryDocument
+	 *            to serialize
+	 * @return rendered document
+	 */
+	public RenderedDocument render(RepositoryDocument repositoryDocument) {
+		RepositoryDocument copy = (RepositoryDocument) repositoryDocument
+				.copy();
+		String marker = TYPE_MARKER + UUID.randomUUID();
+		copy.getRepository().setType(marker);
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		try {
+			copy.save(outputStream, xmlOptions);
+		} catch (IOException e) {
+			throw new ModelException(e.getLocalizedMessage(), e);
+		}
+		byte[] body = outputStream.toByteArray();
+		byte[] markerBytes = marker.getBytes(Charset.forName(UTF_8));
+		int typeStart = indexOf(body, markerBytes);
+		if (typeStart < 0) {
+			throw new ModelException("Repository type not found");
+		}
+		return new RenderedDocument(body, typeStart, typeStart
+				+ markerBytes.length);
+	}
+
+	/**
+	 * Find bytes.
+	 * 
+	 * @param data
+	 *            to search in
+	 * @param pattern
+	 *            to search for
+	 * @return first offset or -1
+	 */
+	private static int indexOf(byte[] data, byte[] pattern) {
+		for (int i = 0; i <= data.length - pattern.length; i++) {
+			int j = 0;
+			while (j < pattern.length && data[i + j] == pattern[j]) {
+				j++;
+			}
+			if (j == pattern.length) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Serialize the document as given type directly to a stream.
+	 * 
+	 * @param repositoryDocument
+	 *            to serialize
+	 * @param type
+	 *            to apply
+	 * @param out
+	 *            to output, not closed
+	 * @throws IOException
+	 *             on write error
+	 */
+	public void write(RepositoryDocument repositoryDocument,
+			ModelHelper.TYPE type, OutputStream out) throws IOException {
+		out.write(getHeader(type));
+		repositoryDocument.save(out, xmlOptions);
+		out.write(NEW_LINE);
+	}
+
+	/**
+	 * Streaming variant of
+	 * {@link ModelHelper#appendChild(RepositoryDocument, String)}: copy a
+	 * composite file event by event to the given type, updating the
+	 * p2.timestamp and adding the child location if absent. The children
+	 * size attribute is set to the actual number of children. The document is
+	 * never loaded in memory: a first pass counts the children and looks for
+	 * the location, a second one copies the events.
+	 * 
+	 * @param compositeFile
+	 *            composite file to read
+	 * @param location
+	 *            of the child
+	 * @param type
+	 *            {@link TYPE} of the output
+	 * @param out
+	 *            to output, not closed
+	 * @return true if the child is newly created
+	 */
+	public boolean appendChild(File compositeFile, String location,
+			ModelHelper.TYPE type, OutputStream out) {
+		return updateChildren(compositeFile, location,
+				Collections.<String> emptySet(), type, out);
+	}
+
+	/**
+	 * Streaming variant of
+	 * {@link ModelHelper#appendChild(RepositoryDocument, String)} followed by
+	 * {@link ModelHelper#removeChildren(RepositoryDocument, Collection)}: as
+	 * {@link ModelHelper#appendChild(File, String, TYPE, OutputStream)},
+	 * leaving out the given child locations.
+	 * 
+	 * @param compositeFile
+	 *            composite file to read
+	 * @param location
+	 *            of the child to add
+	 * @param removed
+	 *            locations of the children to leave out
+	 * @param type
+	 *            {@link TYPE} of the output
+	 * @param out
+	 *            to output, not closed
+	 * @return true if the child is newly created
+	 */
+	public boolean updateChildren(File compositeFile, String location,
+			Collection<String> removed, ModelHelper.TYPE type,
+			OutputStream out) {
+		Set<String> removedSet = new HashSet<String>(removed);
+		removedSet.remove(location);
+		try {
+			int size = 0;
+			boolean found = false;
+			for (String child : getChildLocations(compositeFile)) {
+				if (!removedSet.contains(child)) {
+					size++;
+					found |= location.equals(child);
+				}
+			}
+			if (!found) {
+				size++;
+			}
+
+			InputStream inputStream = new FileInputStream(compositeFile);
+			try {
+				copy(inputStream, found ? null : location, removedSet, size,
+						type, out);
+			} finally {
+				inputStream.close();
+			}
+			return !found;
+		} catch (XMLStreamException e) {
+			throw new ModelException(e.getLocalizedMessage(), e);
+		} catch (IOException e) {
+			throw new ModelException(e.getLocalizedMessage(), e);
+		}
+	}
+
+	/**
+	 * Streaming variant of
+	 * {@link ModelHelper#getChildLocations(RepositoryDocument)}.
+	 * 
+	 * @param compositeFile
+	 *            composite file to read
+	 * @return locations in document order
+	 */
+	public List<String> getChildLocations(File compositeFile) {
+		List<String> locations = new ArrayList<String>();
+		try {
+			InputStream inputStream = new FileInputStream(compositeFile);
+			try {
+				XMLStreamReader reader = XMLInputFactory.newInstance()
+						.createXMLStreamReader(inputStream);
+				while (reader.hasNext()) {
+					if (reader.next() == XMLStreamConstants.START_ELEMENT
+							&& CHILD.equals(reader.getLocalName())) {
+						locations.add(reader.getAttributeValue(null,
+								LOCATION.getLocalPart()));
+					}
+				}
+				reader.close();
+			} finally {
+				inputStream.close();
+			}
+		} catch (XMLStreamException e) {
+			throw new ModelException(e.getLocalizedMessage(), e);
+		} catch (IOException e) {
+			throw new ModelException(e.getLocalizedMessage(), e);
+		}
+		return locations;
+	}
+
+	/**
+	 * Copy a composite document to the given type.
+	 * 
+	 * @param inputStream
+	 *            composite document
+	 * @param location
+	 *            of the child to add, null if none
+	 * @param removed
+	 *            locations of the children to leave out
+	 * @param size
+	 *            number of children in the output
+	 * @param type
+	 *            {@link TYPE} of the output
+	 * @param out
+	 *            to output, not closed
+	 * @throws XMLStreamException
+	 *             on error
+	 * @throws IOException
+	 *             on error
+	 */
+	private void copy(InputStream inputStream, String location,
+			Set<String> removed, int size, ModelHelper.TYPE type,
+			OutputStream out) throws XMLStreamException, IOException {
+		out.write(getHeader(type));
+
+		XMLEventFactory eventFactory = XMLEventFactory.newInstance();
+		XMLEventReader reader = XMLInputFactory.newInstance()
+				.createXMLEventReader(inputStream);
+		XMLEventWriter writer = XMLOutputFactory.newInstance()
+				.createXMLEventWriter(out, UTF_8);
+		String timestamp = String.valueOf(new Date().getTime());
+		boolean emptyChildren = false;
+		int depth = 0;
+		while (reader.hasNext()) {
+			XMLEvent event = reader.nextEvent();
+			boolean childrenStart = false;
+			switch (event.getEventType()) {
+			case XMLStreamConstants.START_DOCUMENT:
+			case XMLStreamConstants.END_DOCUMENT:
+			case XMLStreamConstants.PROCESSING_INSTRUCTION:
+				continue;
+			case XMLStreamConstants.CHARACTERS:
+			case XMLStreamConstants.SPACE:
+				if (depth == 0 || isRemoved(reader.peek(), removed)) {
+					continue;
+				}
 				break;
-			case ARTIFACT:
-				outputStream.write(COMPOSITE_ARTIFACT_REPOSITORY_VERSION_1_0_0
-						.getBytes(Charset.forName(UTF_8)));
+			case XMLStreamConstants.START_ELEMENT:
+				depth++;
+				StartElement startElement = event.asStartElement();
+				String name = startElement.getName().getLocalPart();
+				if (isRemoved(event, removed)) {
+					skip(reader);
+					depth--;
+					continue;
+				}
+				if (REPOSITORY.equals(name)) {
+					event = replaceAttribute(eventFactory, startElement,
+							TYPE_ATTRIBUTE, type.getClassName());
+				} else if (PROPERTY.equals(name)
+						&& isAttribute(startElement, NAME, "p2.timestamp")) {
+					event = replaceAttribute(eventFactory, startElement,
+							VALUE, timestamp);
+				} else if (CHILDREN.equals(name)) {
+					event = replaceAttribute(eventFactory, startElement, SIZE,
+							String.valueOf(size));
+					childrenStart = true;
+				}
+				break;
+			case XMLStreamConstants.END_ELEMENT:
+				depth--;
+				if (location != null
+						&& CHILDREN.equals(event.asEndElement().getName()
+								.getLocalPart())) {
+					writer.add(eventFactory
+							.createCharacters(emptyChildren ? "\n" + CHILD_INDENT
+									+ CHILD_INDENT : CHILD_INDENT));
+					writer.add(eventFactory.createStartElement(new QName(CHILD),
+							Collections.singletonList(
+									eventFactory.createAttribute(LOCATION,
+											location)).iterator(), null));
+					writer.add(eventFactory.createEndElement(new QName(CHILD),
+							null));
+					writer.add(eventFactory.createCharacters("\n"
+							+ CHILD_INDENT));
+				}
 				break;
 			default:
 				break;
 			}
+			writer.add(event);
+			emptyChildren = childrenStart;
+		}
+		writer.flush();
+		reader.close();
+		out.write(NEW_LINE);
+	}
 
-			IOUtil.copyCompletely(
-					repositoryDocument.newInputStream(xmlOptions), outputStream);
-			outputStream.write("\n".getBytes(Charset.forName(UTF_8)));
-		} catch (IOException e) {
-			throw new ModelException(e.getLocalizedMessage(), e);
+	/**
+	 * Check if an event starts a child left out of the output.
+	 * 
+	 * @param event
+	 *            to check, may be null
+	 * @param removed
+	 *            locations of the children to leave out
+	 * @return true if the event starts a removed child
+	 */
+	private boolean isRemoved(XMLEvent event, Set<String> removed) {
+		if (removed.isEmpty() || event == null || !event.isStartElement()) {
+			return false;
+		}
+		StartElement startElement = event.asStartElement();
+		if (!CHILD.equals(startElement.getName().getLocalPart())) {
+			return false;
 		}
+		Attribute attribute = startElement.getAttributeByName(LOCATION);
+		return attribute != null && removed.contains(attribute.getValue());
+	}
 
-		return new ByteArrayInputStream(outputStream.toByteArray());
+	/**
+	 * Skip the content and the end of the current element.
+	 * 
+	 * @param reader
+	 *            positioned after a start element
+	 * @throws XMLStreamException
+	 *             on error
+	 */
+	private void skip(XMLEventReader reader) throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0) {
+			XMLEvent event = reader.nextEvent();
+			if (event.isStartElement()) {
+				depth++;
+			} else if (event.isEndElement()) {
+				depth--;
+			}
+		}
+	}
+
+	/**
+	 * Check an attribute value.
+	 * 
+	 * @param startElement
+	 *            element
+	 * @param name
+	 *            of the attribute
+	 * @param value
+	 *            expected
+	 * @return true if the attribute has the value
+	 */
+	private boolean isAttribute(StartElement startElement, QName name,
+			String value) {
+		Attribute attribute = startElement.getAttributeByName(name);
+		return attribute != null && value.equals(attribute.getValue());
+	}
+
+	/**
+	 * Copy a start element with an attribute set to a new value.
+	 * 
+	 * @param eventFactory
+	 *            event factory
+	 * @param startElement
+	 *            to copy
+	 * @param name
+	 *            of the attribute
+	 * @param value
+	 *            new value
+	 * @return new start element
+	 */
+	@SuppressWarnings("unchecked")
+	private StartElement replaceAttribute(XMLEventFactory eventFactory,
+			StartElement startElement, QName name, String value) {
+		List<Attribute> attributes = new ArrayList<Attribute>();
+		boolean replaced = false;
+		for (Iterator<Attribute> iterator = startElement.getAttributes(); iterator
+				.hasNext();) {
+			Attribute attribute = iterator.next();
+			if (attribute.getName().equals(name)) {
+				attribute = eventFactory.createAttribute(name, value);
+				replaced = true;
+			}
+			attributes.add(attribute);
+		}
+		if (!replaced) {
+			attributes.add(eventFactory.createAttribute(name, value));
+		}
+		return eventFactory.createStartElement(startElement.getName(),
+				attributes.iterator(), startElement.getNamespaces());
+	}
+
+	/**
+	 * XML prolog and processing instruction of a type.
+	 * 
+	 * @param type
+	 *            {@link TYPE} of the document
+	 * @return header bytes
+	 */
+	private byte[] getHeader(ModelHelper.TYPE type) {
+		switch (type) {
+		case METADATA:
+			return (XML_VERSION_1_0_ENCODING_UTF_8 + COMPOSITE_METADATA_REPOSITORY_VERSION_1_0_0)
+					.getBytes(Charset.forName(UTF_8));
+		case ARTIFACT:
+			return (XML_VERSION_1_0_ENCODING_UTF_8 + COMPOSITE_ARTIFACT_REPOSITORY_VERSION_1_0_0)
+					.getBytes(Charset.forName(UTF_8));
+		default:
+			return XML_VERSION_1_0_ENCODING_UTF_8.getBytes(Charset
+					.forName(UTF_8));
+		}
 	}
 
 }
@@ -1,8 +1,20 @@
 package org.eclipse.maven.mojo.updatesite;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
 
 import junit.framework.Assert;
+import noNamespace.Repository.Children;
 import noNamespace.RepositoryDocument;
 
 import org.junit.Test;
@@ -39,4 +51,353 @@ public class XMLBeanTest {
 
 	}
 
+	@Test
+	public void testStreamingAppendChild() throws IOException {
+		File compositeFile = copyCompositeContent();
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Assert.assertFalse("Child should exist!", modelHelper.appendChild(
+				compositeFile, "0.0.2", ModelHelper.TYPE.ARTIFACT, out));
+		RepositoryDocument repositoryDocument = modelHelper
+				.parseCompositeContent(new ByteArrayInputStream(out
+						.toByteArray()));
+		Assert.assertEquals(ModelHelper.TYPE.ARTIFACT.getClassName(),
+				repositoryDocument.getRepository().getType());
+		Assert.assertEquals(2, repositoryDocument.getRepository()
+				.getChildren().getSize());
+
+		out.reset();
+		Assert.assertTrue("Child should by created!", modelHelper.appendChild(
+				compositeFile, "0.0.3", ModelHelper.TYPE.METADATA, out));
+		repositoryDocument = modelHelper
+				.parseCompositeContent(new ByteArrayInputStream(out
+						.toByteArray()));
+		Assert.assertEquals(3, repositoryDocument.getRepository()
+				.getChildren().getSize());
+		Assert.assertEquals("0.0.3", repositoryDocument.getRepository()
+				.getChildren().getChildArray(2).getLocation());
+		Assert.assertFalse("Timestamp should be updated", "1327418315900"
+				.equals(repositoryDocument.getRepository().getProperties()
+						.getPropertyArray(1).getValue()));
+	}
+
+	@Test
+	public void testStreamingRemoveChildren() throws IOException {
+		File compositeFile = copyCompositeContent();
+		Assert.assertEquals(Arrays.asList("0.0.1", "0.0.2"),
+				modelHelper.getChildLocations(compositeFile));
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Assert.assertTrue("Child should by created!", modelHelper
+				.updateChildren(compositeFile, "0.0.3",
+						Arrays.asList("0.0.1", "0.0.4"),
+						ModelHelper.TYPE.METADATA, out));
+		RepositoryDocument repositoryDocument = modelHelper
+				.parseCompositeContent(new ByteArrayInputStream(out
+						.toByteArray()));
+		Assert.assertEquals(Arrays.asList("0.0.2", "0.0.3"),
+				modelHelper.getChildLocations(repositoryDocument));
+		Assert.assertEquals(2, repositoryDocument.getRepository()
+				.getChildren().getSize());
+
+		out.reset();
+		Assert.assertFalse("Child should exist!", modelHelper.updateChildren(
+				compositeFile, "0.0.2", Arrays.asList("0.0.1", "0.0.2"),
+				ModelHelper.TYPE.ARTIFACT, out));
+		repositoryDocument = modelHelper
+				.parseCompositeContent(new ByteArrayInputStream(out
+						.toByteArray()));
+		Assert.assertEquals(Arrays.asList("0.0.2"),
+				modelHelper.getChildLocations(repositoryDocument));
+		Assert.assertEquals(1, repositoryDocument.getRepository()
+				.getChildren().getSize());
+	}
+
+	@Test
+	public void testBatchChildren() {
+		RepositoryDocument repositoryDocument = modelHelper
+				.parseCompositeContent(XMLBeanTest.class
+						.getResourceAsStream("/compositeContent.xml"));
+		List<String> added = modelHelper.appendChildren(repositoryDocument,
+				Arrays.asList("0.0.2", "0.0.3", "0.0.4", "0.0.3"));
+		Assert.assertEquals(Arrays.asList("0.0.3", "0.0.4"), added);
+		Assert.assertEquals(4, repositoryDocument.getRepository()
+				.getChildren().getSize());
+
+		List<String> removed = modelHelper.removeChildren(repositoryDocument,
+				Arrays.asList("0.0.1", "0.0.3", "0.0.9"));
+		Assert.assertEquals(Arrays.asList("0.0.1", "0.0.3"), removed);
+		Assert.assertEquals(Arrays.asList("0.0.2", "0.0.4"),
+				modelHelper.getChildLocations(repositoryDocument));
+		Assert.assertEquals(2, repositoryDocument.getRepository()
+				.getChildren().getSize());
+
+		Assert.assertTrue("Child should by created!",
+				modelHelper.appendChild(repositoryDocument, "0.0.1"));
+		Assert.assertFalse("Child should exist!",
+				modelHelper.appendChild(repositoryDocument, "0.0.4"));
+	}
+
+	@Test
+	public void testChildIndexFollowsUpdates() {
+		RepositoryDocument repositoryDocument = modelHelper
+				.parseCompositeContent(XMLBeanTest.class
+						.getResourceAsStream("/compositeContent.xml"));
+		Assert.assertTrue(modelHelper.appendChild(repositoryDocument, "0.0.3"));
+		Assert.assertEquals(Arrays.asList("0.0.3"), modelHelper
+				.removeChildren(repositoryDocument, Arrays.asList("0.0.3")));
+		Assert.assertTrue(modelHelper.appendChild(repositoryDocument, "0.0.3"));
+		Assert.assertFalse(modelHelper.appendChild(repositoryDocument, "0.0.3"));
+		Assert.assertEquals(Collections.emptyList(), modelHelper
+				.removeChildren(repositoryDocument, Arrays.asList("0.0.4")));
+	}
+
+	@Test
+	public void testBatchChildrenAfterExternalEdit() {
+		RepositoryDocument repositoryDocument = modelHelper
+				.parseCompositeContent(XMLBeanTest.class
+						.getResourceAsStream("/compositeContent.xml"));
+		modelHelper.appendChildren(repositoryDocument, Arrays.asList("0.0.3"));
+		Children children = repositoryDocument.getRepository().getChildren();
+		children.removeChild(children.sizeOfChildArray() - 1);
+		children.addNewChild().setLocation("0.0.4");
+
+		Assert.assertEquals(Arrays.asList("0.0.3"), modelHelper
+				.appendChildren(repositoryDocument, Arrays.asList("0.0.3")));
+		Assert.assertEquals(Arrays.asList("0.0.4"), modelHelper
+				.removeChildren(repositoryDocument, Arrays.asList("0.0.4")));
+	}
+
+	@Test
+	public void testRender() throws IOException {
+		RepositoryDocument repositoryDocument = modelHelper
+				.parseCompositeContent(XMLBeanTest.class
+						.getResourceAsStream("/compositeContent.xml"));
+		String original = repositoryDocument.getRepository().getType();
+		ModelHelper.RenderedDocument renderedDocument = modelHelper
+				.render(repositoryDocument);
+		Assert.assertEquals(original, repositoryDocument.getRepository()
+				.getType());
+		for (ModelHelper.TYPE type : ModelHelper.TYPE.values()) {
+			ByteArrayOutputStream rendered = new ByteArrayOutputStream();
+			renderedDocument.write(type, rendered);
+			repositoryDocument.getRepository().setType(type.getClassName());
+			ByteArrayOutputStream written = new ByteArrayOutputStream();
+			modelHelper.write(repositoryDocument, type, written);
+			Assert.assertEquals(written.toString("UTF-8"),
+					rendered.toString("UTF-8"));
+		}
+	}
+
+	@Test
+	public void testJar() throws IOException {
+		RepositoryDocument repositoryDocument = modelHelper
+				.parseCompositeContent(XMLBeanTest.class
+						.getResourceAsStream("/compositeContent.xml"));
+		ModelHelper.RenderedDocument renderedDocument = modelHelper
+				.render(repositoryDocument);
+		for (ModelHelper.TYPE type : ModelHelper.TYPE.values()) {
+			ByteArrayOutputStream rendered = new ByteArrayOutputStream();
+			renderedDocument.write(type, rendered);
+			ByteArrayOutputStream jar = new ByteArrayOutputStream();
+			renderedDocument.writeJar(type, jar);
+			InputStream inputStream = modelHelper.readJar(type,
+					new ByteArrayInputStream(jar.toByteArray()));
+			ByteArrayOutputStream read = new ByteArrayOutputStream();
+			int b;
+			while ((b = inputStream.read()) != -1) {
+				read.write(b);
+			}
+			inputStream.close();
+			Assert.assertEquals(rendered.toString("UTF-8"),
+					read.toString("UTF-8"));
+		}
+	}
+
+	@Test
+	public void testIndex() throws IOException {
+		File repository = File.createTempFile("repository", "");
+		repository.delete();
+		repository.mkdir();
+		try {
+			Assert.assertNull(modelHelper.getIndex(repository));
+			File content = new File(repository, "content.jar");
+			File artifacts = new File(repository, "artifacts.xml.xz");
+			content.createNewFile();
+			artifacts.createNewFile();
+			Assert.assertEquals("version=1\n"
+					+ "metadata.repository.factory.order=content.xml,\\!\n"
+					+ "artifact.repository.factory.order="
+					+ "artifacts.xml.xz,artifacts.xml,\\!\n", new String(
+					modelHelper.getIndex(repository), "UTF-8"));
+			content.delete();
+			artifacts.delete();
+			File composite = new File(repository, "compositeContent.jar");
+			composite.createNewFile();
+			Assert.assertEquals(new String(modelHelper.getCompositeIndex(),
+					"UTF-8"), new String(modelHelper.getIndex(repository),
+					"UTF-8"));
+			composite.delete();
+		} finally {
+			repository.delete();
+		}
+	}
+
+	@Test
+	public void testAggregate() throws IOException {
+		File a = writeContent("a", "x 1", "y 1");
+		File b = writeContent("b", "y 1", "z 1");
+		File c = writeContent("c", "x 2");
+		File aggregate = File.createTempFile("aggregate", ".jar");
+		aggregate.deleteOnExit();
+		Map<String, File> added = new LinkedHashMap<String, File>();
+		added.put("1.0.0", a);
+		added.put("1.0.1", b);
+		MetadataAggregator aggregator = new MetadataAggregator();
+		FileOutputStream outputStream = new FileOutputStream(aggregate);
+		try {
+			Assert.assertEquals(3, aggregator.merge("My Repo", null, added,
+					Collections.<String> emptySet(), true, outputStream));
+		} finally {
+			outputStream.close();
+		}
+		Assert.assertEquals(
+				new TreeSet<String>(Arrays.asList("1.0.0", "1.0.1")),
+				aggregator.getProviders("y", "1"));
+
+		// incremental: only the sidecar and the previous aggregate are read
+		ByteArrayOutputStream sidecar = new ByteArrayOutputStream();
+		aggregator.writeIndex(sidecar);
+		aggregator = new MetadataAggregator();
+		aggregator.readIndex(new ByteArrayInputStream(sidecar.toByteArray()));
+		ByteArrayOutputStream merged = new ByteArrayOutputStream();
+		Assert.assertEquals(3, aggregator.merge("My Repo", aggregate,
+				Collections.singletonMap("1.0.2", c),
+				Collections.singleton("1.0.0"), false, merged));
+		String content = merged.toString("UTF-8");
+		Assert.assertTrue(content,
+				content.contains("<?metadataRepository version='1.1.0'?>"));
+		Assert.assertTrue(content, content.contains("<units size=\"3\">"));
+		Assert.assertFalse(content, content.contains("id=\"x\" version=\"1\""));
+		Assert.assertTrue(content, content.contains("id=\"y\" version=\"1\""));
+		Assert.assertTrue(content, content.contains("id=\"z\" version=\"1\""));
+		Assert.assertTrue(content, content.contains("id=\"x\" version=\"2\""));
+		Assert.assertEquals(1, content.split("id=\"y\"").length - 1);
+		Assert.assertTrue(content, content.contains("<touchpoint>"));
+		Assert.assertEquals(Collections.singleton("1.0.1"),
+				aggregator.getProviders("y", "1"));
+		Assert.assertTrue(aggregator.getProviders("x", "1").isEmpty());
+	}
+
+	@Test
+	public void testAggregateReferences() throws IOException {
+		File a = writeContent("a", Arrays.asList("0 http://a", "1 http://a"),
+				"x 1");
+		File b = writeContent("b", Arrays.asList("0 http://a", "0 http://b"),
+				"y 1");
+		File aggregate = File.createTempFile("aggregate", ".xml");
+		aggregate.deleteOnExit();
+		Map<String, File> added = new LinkedHashMap<String, File>();
+		added.put("1.0.0", a);
+		added.put("1.0.1", b);
+		MetadataAggregator aggregator = new MetadataAggregator();
+		ByteArrayOutputStream first = new ByteArrayOutputStream();
+		aggregator.merge("My Repo", null, added,
+				Collections.<String> emptySet(), false, first);
+		FileOutputStream outputStream = new FileOutputStream(aggregate);
+		try {
+			first.writeTo(outputStream);
+		} finally {
+			outputStream.close();
+		}
+		String content = first.toString("UTF-8");
+		Assert.assertTrue(content, content.contains("<references size=\"3\">"));
+		Assert.assertEquals(2, content.split("uri=\"http://a\"").length - 1);
+		Assert.assertEquals(1, content.split("uri=\"http://b\"").length - 1);
+		Assert.assertTrue(content.indexOf("</units>") < content
+				.indexOf("<references"));
+
+		// the references of a removed child go, shared ones stay
+		ByteArrayOutputStream sidecar = new ByteArrayOutputStream();
+		aggregator.writeIndex(sidecar);
+		aggregator = new MetadataAggregator();
+		aggregator.readIndex(new ByteArrayInputStream(sidecar.toByteArray()));
+		ByteArrayOutputStream merged = new ByteArrayOutputStream();
+		aggregator.merge("My Repo", aggregate, Collections
+				.<String, File> emptyMap(), Collections.singleton("1.0.1"),
+				false, merged);
+		content = merged.toString("UTF-8");
+		Assert.assertTrue(content, content.contains("<references size=\"2\">"));
+		Assert.assertEquals(2, content.split("uri=\"http://a\"").length - 1);
+		Assert.assertFalse(content, content.contains("http://b"));
+
+		aggregator = new MetadataAggregator();
+		merged = new ByteArrayOutputStream();
+		aggregator.merge("My Repo", null, Collections.singletonMap("1.0.2",
+				writeContent("c", "z 1")), Collections.<String> emptySet(),
+				false, merged);
+		content = merged.toString("UTF-8");
+		Assert.assertFalse(content, content.contains("<references"));
+	}
+
+	private File writeContent(String name, String... units)
+			throws IOException {
+		return writeContent(name, Collections.<String> emptyList(), units);
+	}
+
+	private File writeContent(String name, List<String> references,
+			String... units) throws IOException {
+		File content = File.createTempFile("content-" + name, ".xml");
+		content.deleteOnExit();
+		StringBuilder builder = new StringBuilder(
+				"<?xml version='1.0' encoding='UTF-8'?>\n"
+						+ "<?metadataRepository version='1.1.0'?>\n"
+						+ "<repository name='" + name + "'>\n  <units size='"
+						+ units.length + "'>\n");
+		for (String unit : units) {
+			String[] key = unit.split(" ");
+			builder.append("    <unit id='" + key[0] + "' version='" + key[1]
+					+ "'>\n      <touchpoint/>\n    </unit>\n");
+		}
+		builder.append("  </units>\n");
+		if (!references.isEmpty()) {
+			builder.append("  <references size='" + references.size()
+					+ "'>\n");
+			for (String reference : references) {
+				String[] key = reference.split(" ");
+				builder.append("    <repository uri='" + key[1] + "' url='"
+						+ key[1] + "' type='" + key[0]
+						+ "' options='1'/>\n");
+			}
+			builder.append("  </references>\n");
+		}
+		builder.append("</repository>\n");
+		FileOutputStream outputStream = new FileOutputStream(content);
+		try {
+			outputStream.write(builder.toString().getBytes("UTF-8"));
+		} finally {
+			outputStream.close();
+		}
+		return content;
+	}
+
+	private File copyCompositeContent() throws IOException {
+		File compositeFile = File.createTempFile("compositeContent", ".xml");
+		compositeFile.deleteOnExit();
+		InputStream inputStream = XMLBeanTest.class
+				.getResourceAsStream("/compositeContent.xml");
+		FileOutputStream fileOutputStream = new FileOutputStream(compositeFile);
+		try {
+			byte[] buffer = new byte[1024];
+			int read;
+			while ((read = inputStream.read(buffer)) != -1) {
+				fileOutputStream.write(buffer, 0, read);
+			}
+		} finally {
+			fileOutputStream.close();
+			inputStream.close();
+		}
+		return compositeFile;
+	}
+
 }
@@ -1,11 +1,36 @@
 package org.eclipse.maven.mojo.updatesite;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -13,12 +38,38 @@ import noNamespace.RepositoryDocument;
 
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
 import org.apache.maven.project.MavenProject;
 import org.apache.maven.settings.Server;
 import org.apache.maven.settings.Settings;
+import org.eclipse.maven.mojo.updatesite.ModelHelper.RenderedDocument;
 import org.eclipse.maven.mojo.updatesite.ModelHelper.TYPE;
+import org.eclipse.maven.mojo.updatesite.checksum.Manifest;
+import org.eclipse.maven.mojo.updatesite.configuration.Retention;
 import org.eclipse.maven.mojo.updatesite.configuration.Site;
+import org.eclipse.maven.mojo.updatesite.logger.AsyncLogger;
+import org.eclipse.maven.mojo.updatesite.logger.Event;
+import org.eclipse.maven.mojo.updatesite.logger.Event.Activity;
 import org.eclipse.maven.mojo.updatesite.logger.Logger;
+import org.eclipse.maven.mojo.updatesite.logger.MavenLogger;
+import org.eclipse.maven.mojo.updatesite.logger.PrefixLog;
+import org.eclipse.maven.mojo.updatesite.metrics.JsonWriter;
+import org.eclipse.maven.mojo.updatesite.metrics.Metrics;
+import org.eclipse.maven.mojo.updatesite.sftp.ArchiveUpload;
+import org.eclipse.maven.mojo.updatesite.sftp.AsyncDelete;
+import org.eclipse.maven.mojo.updatesite.sftp.ChannelPool;
+import org.eclipse.maven.mojo.updatesite.sftp.ChecksumVerification;
+import org.eclipse.maven.mojo.updatesite.sftp.DeltaUpload;
+import org.eclipse.maven.mojo.updatesite.sftp.Journal;
+import org.eclipse.maven.mojo.updatesite.sftp.LocalFileSystem;
+import org.eclipse.maven.mojo.updatesite.sftp.LockRenewal;
+import org.eclipse.maven.mojo.updatesite.sftp.ParallelUpload;
+import org.eclipse.maven.mojo.updatesite.sftp.RemoteFile;
+import org.eclipse.maven.mojo.updatesite.sftp.RemoteFileSystem;
+import org.eclipse.maven.mojo.updatesite.sftp.RemoteIndex;
+import org.eclipse.maven.mojo.updatesite.sftp.RemoteLock;
+import org.eclipse.maven.mojo.updatesite.sftp.ResumableUpload;
+import org.eclipse.maven.mojo.updatesite.sftp.SessionPool;
 import org.eclipse.maven.mojo.updatesite.sftp.Sftp;
 
 import com.jcraft.jsch.JSchException;
@@ -84,11 +135,356 @@ public class DeployMojo extends AbstractMojo {
 	 */
 	private File siteDirectory;
 
+	/**
+	 * Number of sftp channels used to upload the site files concurrently over
+	 * the ssh session. Can be overridden per {@link Site}.
+	 * 
+	 * @parameter expression="${updatesite.parallelism}" default-value="1"
+	 */
+	private int parallelism;
+
+	/**
+	 * Incremental deploy: when the version folder already exists, upload only
+	 * new or modified files and delete remote files absent from the site
+	 * instead of emptying the folder and uploading everything.
+	 * 
+	 * @parameter expression="${updatesite.delta}" default-value="false"
+	 */
+	private boolean delta;
+
+	/**
+	 * In {@link DeployMojo#delta} mode, compare files of equal size by MD5
+	 * checksum instead of modification time. The remote checksums are
+	 * computed by md5sum on the server, which needs a shell access: without
+	 * one, the modification time is compared. The remote files are never
+	 * downloaded.
+	 * 
+	 * @parameter expression="${updatesite.deltaChecksum}"
+	 *            default-value="false"
+	 */
+	private boolean deltaChecksum;
+
+	/**
+	 * Staged deploy: upload into a hidden sibling of the version folder and
+	 * rename it into place once complete, so that clients never see a
+	 * partially uploaded repository. The replaced folder is deleted in
+	 * background, or by the next deploy if that fails. Exclusive with
+	 * {@link DeployMojo#delta}.
+	 * 
+	 * @parameter expression="${updatesite.staged}" default-value="false"
+	 */
+	private boolean staged;
+
+	/**
+	 * Seconds to wait at the end of a deploy for the replaced and expired
+	 * folders deleted in background. The folders not deleted by then are
+	 * left to the next staged or pruning deploy of the site.
+	 * 
+	 * @parameter expression="${updatesite.deleteTimeout}" default-value="60"
+	 */
+	private int deleteTimeout;
+
+	/**
+	 * Update existing composite files by streaming them through a temporary
+	 * file instead of loading them in memory. Memory use no longer depends on
+	 * the number of children.
+	 * 
+	 * @parameter expression="${updatesite.streamingComposites}"
+	 *            default-value="false"
+	 */
+	private boolean streamingComposites;
+
+	/**
+	 * Merge the metadata of the children of each site composite into a
+	 * single repository, the folder {@link DeployMojo#AGGREGATE}, which
+	 * compositeContent lists instead of the children: clients load one
+	 * content file rather than one per child. Only the deployed child is
+	 * merged on each deploy. compositeArtifacts still lists every child.
+	 * 
+	 * @parameter expression="${updatesite.aggregate}" default-value="false"
+	 */
+	private boolean aggregate;
+
+	/**
+	 * Number of sites deployed concurrently. Above one, the deployment goes on
+	 * for the other sites when one fails and all the failures are reported
+	 * together.
+	 * 
+	 * @parameter expression="${updatesite.siteParallelism}"
+	 *            default-value="1"
+	 */
+	private int siteParallelism;
+
+	/**
+	 * Share SSH sessions between sites and reactor modules deploying to the
+	 * same user@host:port, instead of a new handshake per deployment. The
+	 * sessions are closed once the last module of the reactor has been
+	 * reached and no other module is still deploying. Opt-in, as the
+	 * sessions then outlive the mojo execution that opened them.
+	 * 
+	 * @parameter expression="${updatesite.reuseSessions}"
+	 *            default-value="false"
+	 */
+	private boolean reuseSessions;
+
+	/**
+	 * Upload the site as a single tar stream unpacked by the server through
+	 * an exec channel, instead of one sftp transfer per file. Falls back to
+	 * the per-file upload when the server does not run commands or has no
+	 * tar. Exclusive with {@link DeployMojo#delta}.
+	 * 
+	 * @parameter expression="${updatesite.archiveUpload}"
+	 *            default-value="false"
+	 */
+	private boolean archiveUpload;
+
+	/**
+	 * Publish compositeContent.jar and compositeArtifacts.jar next to the xml
+	 * files, as announced by the p2.compressed property, and read the jar
+	 * first when it exists. Opt-in, as it adds two files to every composite
+	 * folder. When disabled, jars left by previous deploys are deleted so
+	 * that clients do not get stale content.
+	 * 
+	 * @parameter expression="${updatesite.compressComposites}"
+	 *            default-value="false"
+	 */
+	private boolean compressComposites;
+
+	/**
+	 * JSON report of the deployment: files, bytes, retries and latency
+	 * histograms of the remote operations per site and per phase (init,
+	 * rmtree, upload, composite, parent). Not written when empty.
+	 * 
+	 * @parameter expression="${updatesite.report}"
+	 *            default-value="${project.build.directory}/updatesite-report.json"
+	 */
+	private File report;
+
+	/**
+	 * Seconds between two progress summaries of the uploads and deletions,
+	 * which are not logged file by file. Per-file lines are logged at debug
+	 * level.
+	 * 
+	 * @parameter expression="${updatesite.progressInterval}"
+	 *            default-value="5"
+	 */
+	private int progressInterval;
+
+	/**
+	 * Journal the uploaded files and the completed steps of each site in
+	 * {@link DeployMojo#journalDirectory}, so that a deployment interrupted
+	 * by a dropped connection is resumed by the next run of the same local
+	 * site: the version folder is not emptied, uploaded files are skipped and
+	 * partially written ones are completed. A rebuilt site starts over. The
+	 * journal is deleted once the site is deployed. Not used with
+	 * {@link DeployMojo#delta} or {@link DeployMojo#archiveUpload}. Opt-in:
+	 * a resumed deployment keeps the remote files recorded in the journal
+	 * instead of uploading the whole site again.
+	 * 
+	 * @parameter expression="${updatesite.resume}" default-value="false"
+	 */
+	private boolean resume;
+
+	/**
+	 * Folder of the deployment journals.
+	 * 
+	 * @parameter expression="${updatesite.journalDirectory}"
+	 *            default-value="${project.build.directory}/updatesite-journal"
+	 */
+	private File journalDirectory;
+
+	/**
+	 * Compute the SHA-256 and MD5 checksums of the site files before upload,
+	 * in {@link DeployMojo#checksumDirectory}, and publish them in the version
+	 * folder once the files are uploaded. In {@link DeployMojo#delta} mode,
+	 * files are then compared with the previous deploy by checksum. Opt-in:
+	 * the version folders then hold checksums.sha256 and checksums.md5 next
+	 * to the site files.
+	 * 
+	 * @parameter expression="${updatesite.checksums}" default-value="false"
+	 */
+	private boolean checksums;
+
+	/**
+	 * Number of threads hashing the site files, 0 for one per processor.
+	 * 
+	 * @parameter expression="${updatesite.checksumThreads}"
+	 *            default-value="0"
+	 */
+	private int checksumThreads;
+
+	/**
+	 * Folder of the checksum manifests.
+	 * 
+	 * @parameter expression="${updatesite.checksumDirectory}"
+	 *            default-value="${project.build.directory}/updatesite-checksums"
+	 */
+	private File checksumDirectory;
+
+	/**
+	 * Once the files and their manifest are uploaded, check them on the
+	 * server with <code>sha256sum -c</code> and fail the deploy on mismatch.
+	 * Skipped when the server does not run commands or has no sha256sum.
+	 * Requires {@link DeployMojo#checksums}. Opt-in: it opens an exec channel
+	 * and runs a command on the server.
+	 * 
+	 * @parameter expression="${updatesite.verifyChecksums}"
+	 *            default-value="false"
+	 */
+	private boolean verifyChecksums;
+
+	/**
+	 * Maintain {@link RemoteIndex#FILENAME} at the base path of each site:
+	 * the folders and files deployed there. The folders it records are
+	 * listed once up front instead of looking up each path. It is merged with
+	 * the changes of the deploy under the lock of the base path, see
+	 * {@link DeployMojo#lockComposites}. Opt-in, as it adds a file at the base
+	 * path; the file is ignored when disabled and can be deleted.
+	 * 
+	 * @parameter expression="${updatesite.remoteIndex}" default-value="false"
+	 */
+	private boolean remoteIndex;
+
+	/**
+	 * Lock each composite folder while its composite files are read, merged
+	 * and written back, so that concurrent deploys into the same parent keep
+	 * the children added by each other. One channel of the session is
+	 * reserved to renew the locks: the deploy fails when none is free.
+	 * Opt-in: each locked folder holds a {@link RemoteLock#NAME} folder while
+	 * its composites are updated.
+	 * 
+	 * @parameter expression="${updatesite.lockComposites}"
+	 *            default-value="false"
+	 */
+	private boolean lockComposites;
+
+	/**
+	 * Seconds after which a composite lock seen unchanged is considered left
+	 * by a dead deploy and broken.
+	 * 
+	 * @parameter expression="${updatesite.lockLease}" default-value="120"
+	 */
+	private int lockLease;
+
+	/**
+	 * Seconds to wait at most for a composite lock.
+	 * 
+	 * @parameter expression="${updatesite.lockTimeout}" default-value="600"
+	 */
+	private int lockTimeout;
+
+	/**
+	 * Projects of the reactor, to detect the last module.
+	 * 
+	 * @parameter expression="${reactorProjects}"
+	 * @readonly
+	 */
+	private List<MavenProject> reactorProjects;
+
+	/**
+	 * Size of copy buffers.
+	 */
+	private static final int BUFFER_SIZE = 8192;
+
+	/**
+	 * Prefix of the staging folder name, followed by the version.
+	 */
+	private static final String STAGING_PREFIX = ".";
+
+	/**
+	 * Infix of a staging folder name.
+	 */
+	private static final String STAGING_INFIX = ".staging-";
+
+	/**
+	 * Infix of a replaced folder name waiting for deletion.
+	 */
+	private static final String RETIRED_INFIX = ".old-";
+
+	/**
+	 * Folder of the repository aggregating the metadata of the children of a
+	 * site composite.
+	 */
+	private static final String AGGREGATE = "aggregate";
+
+	/**
+	 * Journal step: content of the previous version folder deleted.
+	 */
+	private static final String STEP_CLEAR = "clear";
+
+	/**
+	 * Journal step: site uploaded.
+	 */
+	private static final String STEP_UPLOAD = "upload";
+
+	/**
+	 * Journal step: staging folder renamed into place.
+	 */
+	private static final String STEP_PUBLISH = "publish";
+
+	/**
+	 * Journal step: composite files of the site updated.
+	 */
+	private static final String STEP_COMPOSITE = "composite";
+
+	/**
+	 * Journal step: composite files of the parents updated.
+	 */
+	private static final String STEP_PARENT = "parent";
+
+	/**
+	 * Journal key of the staging folder.
+	 */
+	private static final String KEY_STAGING = "staging";
+
+	/**
+	 * Maximum number of channels updating the parent composites.
+	 */
+	private static final int PARENT_CHANNELS = 4;
+
+	/**
+	 * Maximum number of channels deleting folders in background.
+	 */
+	private static final int DELETE_CHANNELS = 4;
+
+	/**
+	 * Log of the site deployed by the current thread.
+	 */
+	private final ThreadLocal<Log> siteLog = new ThreadLocal<Log>();
+
 	/**
 	 * {@link ModelHelper}.
 	 */
 	private ModelHelper modelHelper = new ModelHelper();
 
+	/**
+	 * Executor of the artifact composite uploads, shared by the sites and
+	 * parent levels of the deployment.
+	 */
+	private ExecutorService compositeExecutor;
+
+	/**
+	 * Checksums of the site files, null if disabled.
+	 */
+	private Manifest manifest;
+
+	/**
+	 * Manifest files to publish with the site.
+	 */
+	private File[] manifestFiles;
+
+	/**
+	 * Metrics of the deployed sites.
+	 */
+	private final Map<Site, Metrics> siteMetrics = Collections
+			.synchronizedMap(new LinkedHashMap<Site, Metrics>());
+
+	/**
+	 * Sites deployed without error.
+	 */
+	private final Set<Site> completedSites = Collections
+			.synchronizedSet(new HashSet<Site>());
+
 	/**
 	 * Group number host for {@link DeployMojo#SFTP_PATTERN}.
 	 */
@@ -112,183 +508,1867 @@ public class DeployMojo extends AbstractMojo {
 			.compile("^sftp://([^/^:)]+)\\:?(\\d+)?(.*)$");
 
 	/**
-	 * {@inheritDoc}.
+	 * Group number path for {@link DeployMojo#FILE_PATTERN}.
+	 */
+	static final int FILE_PATTERN_PATH = 1;
+
+	/**
+	 * URL {@link Pattern} of a folder of the build host, such as an NFS
+	 * mount, deployed to through {@link LocalFileSystem}.
+	 */
+	static final Pattern FILE_PATTERN = Pattern.compile("^file://(/.*)$");
+
+	/**
+	 * {@inheritDoc}.
+	 */
+	public void execute() throws MojoExecutionException {
+
+		if (staged && delta) {
+			throw new MojoExecutionException(
+					"staged and delta deploy can not be combined");
+		}
+		if (archiveUpload && delta) {
+			throw new MojoExecutionException(
+					"archive upload and delta deploy can not be combined");
+		}
+
+		try {
+			createChildIndex();
+			createManifest();
+		} catch (IOException e) {
+			throw new MojoExecutionException(e.getLocalizedMessage(), e);
+		}
+
+		if (reuseSessions) {
+			SessionPool.getInstance().retain(reactorProjects);
+		}
+		compositeExecutor = Executors.newCachedThreadPool();
+		try {
+			deploySites();
+		} finally {
+			compositeExecutor.shutdown();
+			writeReport();
+			if (reuseSessions) {
+				SessionPool.getInstance().release(isLastReactorProject());
+			}
+		}
+
+	}
+
+	/**
+	 * Write the metrics of the deployed sites to
+	 * {@link DeployMojo#report}. A failure to write is logged, it does not
+	 * fail the deployment.
+	 */
+	private void writeReport() {
+		if (report == null || siteMetrics.isEmpty()) {
+			return;
+		}
+		SimpleDateFormat format = new SimpleDateFormat(
+				"yyyy-MM-dd'T'HH:mm:ss'Z'");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+		JsonWriter json = new JsonWriter();
+		json.beginObject();
+		json.name("project").value(
+				mavenProject.getGroupId() + ":" + mavenProject.getArtifactId());
+		json.name("version").value(mavenProject.getVersion());
+		json.name("timestamp").value(format.format(new Date()));
+		json.name("configuration").beginObject();
+		json.name("parallelism").value(parallelism);
+		json.name("siteParallelism").value(siteParallelism);
+		json.name("delta").value(delta);
+		json.name("staged").value(staged);
+		json.name("deleteTimeout").value(deleteTimeout);
+		json.name("archiveUpload").value(archiveUpload);
+		json.name("streamingComposites").value(streamingComposites);
+		json.name("aggregate").value(aggregate);
+		json.name("compressComposites").value(compressComposites);
+		json.name("reuseSessions").value(reuseSessions);
+		json.name("checksums").value(checksums);
+		json.name("verifyChecksums").value(verifyChecksums);
+		json.name("remoteIndex").value(remoteIndex);
+		json.endObject();
+		json.name("sites").beginArray();
+		for (Site site : sites) {
+			Metrics metrics = siteMetrics.get(site);
+			if (metrics == null) {
+				continue;
+			}
+			json.beginObject();
+			json.name("site").value(getLabel(site));
+			json.name("completed").value(completedSites.contains(site));
+			metrics.write(json);
+			json.endObject();
+		}
+		json.endArray();
+		json.endObject();
+
+		try {
+			report.getParentFile().mkdirs();
+			Writer writer = new OutputStreamWriter(
+					new FileOutputStream(report), "UTF-8");
+			try {
+				writer.write(json.toString());
+			} finally {
+				writer.close();
+			}
+			getLog().info("Deploy report: " + report);
+		} catch (IOException e) {
+			getLog().warn(
+					"Could not write deploy report " + report + ": "
+							+ e.getLocalizedMessage());
+		}
+	}
+
+	/**
+	 * Check if the current project is the last one of the reactor. In a
+	 * parallel build, modules before it may still be running.
+	 * 
+	 * @return true if no other module comes after this one
+	 */
+	private boolean isLastReactorProject() {
+		return reactorProjects == null
+				|| reactorProjects.isEmpty()
+				|| reactorProjects.get(reactorProjects.size() - 1) == mavenProject;
+	}
+
+	/**
+	 * Deploy every site, concurrently if configured.
+	 * 
+	 * @throws MojoExecutionException
+	 *             on error
+	 */
+	private void deploySites() throws MojoExecutionException {
+
+		if (siteParallelism <= 1 || sites.size() <= 1) {
+			for (Site site : sites) {
+				deploy(site);
+			}
+			return;
+		}
+
+		ExecutorService executorService = Executors.newFixedThreadPool(Math
+				.min(siteParallelism, sites.size()));
+		try {
+			Map<Site, Future<Void>> deployments = new LinkedHashMap<Site, Future<Void>>();
+			for (final Site site : sites) {
+				deployments.put(site,
+						executorService.submit(new Callable<Void>() {
+							public Void call() throws MojoExecutionException {
+								siteLog.set(new PrefixLog(DeployMojo.super
+										.getLog(), "[" + getLabel(site) + "] "));
+								try {
+									deploy(site);
+								} finally {
+									siteLog.remove();
+								}
+								return null;
+							}
+						}));
+			}
+			awaitDeployments(deployments);
+		} finally {
+			executorService.shutdownNow();
+		}
+
+	}
+
+	/**
+	 * Wait for all the site deployments and report every failure.
+	 * 
+	 * @param deployments
+	 *            pending deployments by site
+	 * @throws MojoExecutionException
+	 *             listing the failed sites
+	 */
+	private void awaitDeployments(Map<Site, Future<Void>> deployments)
+			throws MojoExecutionException {
+		Map<Site, Throwable> failures = new LinkedHashMap<Site, Throwable>();
+		for (Entry<Site, Future<Void>> deployment : deployments.entrySet()) {
+			try {
+				deployment.getValue().get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new MojoExecutionException("Deployment interrupted", e);
+			} catch (ExecutionException e) {
+				failures.put(deployment.getKey(), e.getCause());
+			}
+		}
+		if (failures.isEmpty()) {
+			return;
+		}
+		StringBuilder message = new StringBuilder();
+		message.append(failures.size()).append(" of ")
+				.append(deployments.size()).append(" site(s) failed:");
+		for (Entry<Site, Throwable> failure : failures.entrySet()) {
+			message.append("\n\t").append(getLabel(failure.getKey()))
+					.append(": ")
+					.append(failure.getValue().getLocalizedMessage());
+			getLog().error(getLabel(failure.getKey()) + " failed",
+					failure.getValue());
+		}
+		throw new MojoExecutionException(message.toString(), failures
+				.values().iterator().next());
+	}
+
+	/**
+	 * Label of a site in logs.
+	 * 
+	 * @param site
+	 *            to label
+	 * @return name@baseURL
+	 */
+	private String getLabel(Site site) {
+		return site.getName() + "@" + site.getBaseURL();
+	}
+
+	/**
+	 * Log of the site deployed by the current thread, prefixed when sites are
+	 * deployed concurrently.
+	 * 
+	 * @return log
+	 */
+	@Override
+	public Log getLog() {
+		Log log = siteLog.get();
+		if (log != null) {
+			return log;
+		}
+		return super.getLog();
+	}
+
+	/**
+	 * Deploy update site.
+	 * 
+	 * @param site
+	 *            to deploy to.
+	 * @throws MojoExecutionException
+	 *             on error.
+	 */
+	private void deploy(Site site) throws MojoExecutionException {
+
+		Matcher fileMatcher = FILE_PATTERN.matcher(site.getBaseURL());
+		Matcher matcher = SFTP_PATTERN.matcher(site.getBaseURL());
+		boolean local = fileMatcher.matches();
+		if (!local && !matcher.matches()) {
+			throw new MojoExecutionException(site.getBaseURL()
+					+ " is not a valid sftp or file url");
+		}
+		String host = null;
+		int port = SSH_PORT;
+		String basePath;
+		String user = null;
+		String pass = null;
+		if (local) {
+			basePath = fileMatcher.group(FILE_PATTERN_PATH);
+		} else {
+			host = matcher.group(SFTP_PATTERN_HOST);
+			String portAsString = matcher.group(SFTP_PATTERN_PORT);
+			if (portAsString != null) {
+				port = Integer.parseInt(portAsString);
+			}
+			basePath = matcher.group(SFTP_PATTERN_PATH);
+
+			Server server = settings.getServer(site.getServerId());
+			if (server == null) {
+				throw new MojoExecutionException("Could not find serverId: \""
+						+ site.getServerId() + "\"");
+			}
+
+			pass = server.getPassphrase();
+
+			if (pass == null) {
+				throw new MojoExecutionException(
+						"Passphrase could not be null");
+			}
+
+			user = server.getUsername();
+		}
+
+		AsyncLogger logger = new AsyncLogger(new MavenLogger(getLog()),
+				progressInterval * 1000L);
+		Sftp ssh = null;
+		RemoteFileSystem sftp;
+		if (local) {
+			sftp = new LocalFileSystem(logger);
+		} else {
+			ssh = new Sftp(logger, knownHost, identity);
+			if (reuseSessions) {
+				ssh.setSessionPool(SessionPool.getInstance());
+			}
+			sftp = ssh;
+		}
+		Metrics metrics = new Metrics();
+		siteMetrics.put(site, metrics);
+		sftp.setMetrics(metrics);
+
+		AsyncDelete asyncDelete = new AsyncDelete(sftp, logger,
+				DELETE_CHANNELS);
+		LockRenewal lockRenewal = new LockRenewal(lockLease * 1000L, logger);
+		Journal journal = null;
+		RemoteIndex index = null;
+
+		try {
+
+			journal = openJournal(site);
+
+			if (ssh != null) {
+				ssh.openSession(user, pass, host, port);
+			}
+			if (lockComposites) {
+				// before the transfers take the free channels of the session
+				lockRenewal.reserve(sftp);
+			}
+
+			if (remoteIndex) {
+				index = RemoteIndex.open(sftp, basePath);
+				getLog().debug(
+						(index.isLoaded() ? "Read " : "No ")
+								+ RemoteIndex.FILENAME + " in " + basePath);
+			}
+
+			boolean newRepo = initRepository(site, basePath, sftp,
+					lockRenewal);
+			String siteFolder = sftp.pwd();
+
+			String childLocation = mavenProject.getVersion();
+			if (isPending(journal, STEP_PUBLISH)) {
+				if (staged) {
+					childLocation = initStagingLocation(sftp, asyncDelete,
+							journal);
+				} else if (isPending(journal, STEP_UPLOAD)) {
+					childLocation = initChildLocation(sftp, journal);
+				}
+			}
+
+			metrics.startPhase(Metrics.UPLOAD);
+			// a staging folder can vanish: compare again until published
+			if (staged ? isPending(journal, STEP_PUBLISH) : isPending(
+					journal, STEP_UPLOAD)) {
+				if (archiveUpload) {
+					uploadArchive(site, childLocation, sftp, logger);
+				} else {
+					updloadFiles(siteDirectory, childLocation, sftp,
+							getParallelism(site), logger, journal);
+				}
+				uploadManifest(sftp, childLocation);
+				verifyManifest(sftp, childLocation, logger);
+				done(journal, STEP_UPLOAD);
+			}
+
+			if (staged && isPending(journal, STEP_PUBLISH)) {
+				publishStagingLocation(sftp, childLocation, asyncDelete);
+				done(journal, STEP_PUBLISH);
+			}
+
+			metrics.startPhase(Metrics.COMPOSITE);
+			if (!isPending(journal, STEP_COMPOSITE)) {
+				getLog().debug("Composite files already updated");
+			} else {
+				RemoteLock lock = lockComposite(sftp, siteFolder,
+						lockRenewal);
+				try {
+					// another deploy may have created it since the folder
+					if ((newRepo && lock == null)
+							|| sftp.fileDoesNotExist("compositeContent.xml")) {
+						RepositoryDocument repositoryDocument = modelHelper
+								.newRepositoryDocument(site.getName(),
+										ModelHelper.TYPE.ARTIFACT);
+						modelHelper.appendChild(repositoryDocument,
+								mavenProject.getVersion());
+						updateCompositeMetafiles(sftp, repositoryDocument,
+								updateAggregate(sftp, site, modelHelper
+										.getChildLocations(repositoryDocument),
+										Collections.<String> emptySet(), index),
+								index);
+					} else {
+						List<String> expired = appendCompositeChild(sftp,
+								mavenProject.getVersion(), site, index);
+						retire(sftp, expired, asyncDelete, index);
+						if (!staged && site.getRetention() != null
+								&& site.getRetention().isEnabled()) {
+							deleteLeftovers(sftp, asyncDelete);
+						}
+					}
+				} finally {
+					unlock(lock);
+				}
+				done(journal, STEP_COMPOSITE);
+			}
+
+			metrics.startPhase(Metrics.PARENT);
+			if (isPending(journal, STEP_PARENT)) {
+				updateParentRepo(site, sftp, index, lockRenewal);
+				done(journal, STEP_PARENT);
+			}
+			if (index != null) {
+				indexSite(index, siteFolder + "/" + mavenProject.getVersion());
+				RemoteLock lock = lockComposite(sftp, index.getBase(),
+						lockRenewal);
+				try {
+					index.store(sftp);
+				} finally {
+					unlock(lock);
+				}
+			}
+			completedSites.add(site);
+			if (journal != null) {
+				journal.delete();
+			}
+
+		} catch (JSchException e) {
+			throw new MojoExecutionException(e.getLocalizedMessage(), e);
+		} catch (SftpException e) {
+			throw new MojoExecutionException(e.getLocalizedMessage(), e);
+		} catch (IOException e) {
+			throw new MojoExecutionException(e.getLocalizedMessage(), e);
+		} finally {
+			metrics.finish();
+			asyncDelete.await(deleteTimeout * 1000L);
+			lockRenewal.close();
+			sftp.disconnect();
+			logger.close();
+			if (journal != null) {
+				journal.close();
+			}
+		}
+
+	}
+
+	/**
+	 * Open the journal of a site deployment, resuming the one left by an
+	 * interrupted deployment of the same version and local files. The files
+	 * are identified by the {@link Manifest} when checksums are enabled, by
+	 * their sizes and modification times otherwise.
+	 * 
+	 * @param site
+	 *            to deploy to
+	 * @return journal, null if resume is disabled
+	 * @throws IOException
+	 *             if the journal could not be opened
+	 */
+	private Journal openJournal(Site site) throws IOException {
+		if (!resume || journalDirectory == null || delta || archiveUpload) {
+			return null;
+		}
+		String label = getLabel(site);
+		File file = new File(journalDirectory, label.replaceAll(
+				"[^A-Za-z0-9._-]", "_") + ".journal");
+		String fingerprint = manifest != null ? manifest.getFingerprint()
+				: Manifest.fingerprint(siteDirectory);
+		Journal journal = new Journal(file, label + " "
+				+ mavenProject.getVersion() + (staged ? " staged" : "") + " "
+				+ fingerprint);
+		if (journal.isResumed()) {
+			getLog().info("Resuming interrupted deployment from " + file);
+		}
+		return journal;
+	}
+
+	/**
+	 * @param journal
+	 *            of the deployment, null if none
+	 * @param step
+	 *            name
+	 * @return true if the step was not completed by a previous deployment
+	 */
+	private boolean isPending(Journal journal, String step) {
+		return journal == null || !journal.isDone(step);
+	}
+
+	/**
+	 * Record a completed step in the journal, if any.
+	 * 
+	 * @param journal
+	 *            of the deployment, null if none
+	 * @param step
+	 *            name
+	 * @throws IOException
+	 *             if the journal could not be written
+	 */
+	private void done(Journal journal, String step) throws IOException {
+		if (journal != null) {
+			journal.done(step);
+		}
+	}
+
+	/**
+	 * Add a child to the composite files of the current folder, removing the
+	 * children expired according to the retention policy.
+	 * 
+	 * @param sftp
+	 *            connection
+	 * @param location
+	 *            of the child
+	 * @param site
+	 *            deployed site, giving the retention policy
+	 * @param index
+	 *            remote index to record the composite in, null if none
+	 * @return removed children
+	 * @throws SftpException
+	 *             on error
+	 * @throws IOException
+	 *             on error
+	 * @throws JSchException
+	 *             if the auxiliary channel could not be opened
+	 */
+	private List<String> appendCompositeChild(RemoteFileSystem sftp,
+			String location, Site site, RemoteIndex index) throws SftpException,
+			IOException, JSchException {
+		if (streamingComposites) {
+			return streamCompositeChild(sftp, location, site, index);
+		}
+		InputStream inputStream = openCompositeContent(sftp);
+
+		RepositoryDocument repositoryDocument = modelHelper
+				.parseCompositeContent(inputStream);
+		boolean added = modelHelper.appendChild(repositoryDocument, location);
+		List<String> expired = expired(sftp, site.getRetention(),
+				modelHelper.getChildLocations(repositoryDocument), location);
+		if (!added && expired.isEmpty() && isListed(sftp, location)) {
+			return expired;
+		}
+		modelHelper.removeChildren(repositoryDocument, expired);
+
+		updateCompositeMetafiles(sftp, repositoryDocument,
+				updateAggregate(sftp, site,
+						modelHelper.getChildLocations(repositoryDocument),
+						expired, index), index);
+		return expired;
+	}
+
+	/**
+	 * Add a child to the composite files of the current folder, removing the
+	 * children expired according to the retention policy, streaming through
+	 * temporary files.
+	 * 
+	 * @param sftp
+	 *            connection
+	 * @param location
+	 *            of the child
+	 * @param site
+	 *            deployed site, giving the retention policy
+	 * @param index
+	 *            remote index to record the composite in, null if none
+	 * @return removed children
+	 * @throws SftpException
+	 *             on error
+	 * @throws IOException
+	 *             on error
+	 * @throws JSchException
+	 *             if the auxiliary channel could not be opened
+	 */
+	private List<String> streamCompositeChild(RemoteFileSystem sftp,
+			String location, Site site, RemoteIndex index) throws SftpException,
+			IOException, JSchException {
+		File compositeFile = fetchCompositeFile(sftp);
+		try {
+			List<String> children = modelHelper
+					.getChildLocations(compositeFile);
+			boolean added = !children.contains(location);
+			if (added) {
+				children.add(location);
+			}
+			List<String> expired = expired(sftp, site.getRetention(),
+					children, location);
+			if (!added && expired.isEmpty() && isListed(sftp, location)) {
+				return expired;
+			}
+			children.removeAll(expired);
+			writeCompositeFile(sftp, compositeFile, location, expired,
+					updateAggregate(sftp, site, children, expired, index),
+					index);
+			return expired;
+		} finally {
+			compositeFile.delete();
+		}
+	}
+
+	/**
+	 * Select the children of the current composite folder expired according
+	 * to a retention policy, from the modification time of their folders.
+	 * 
+	 * @param sftp
+	 *            connection
+	 * @param retention
+	 *            retention policy, null to keep every child
+	 * @param children
+	 *            locations, in the order they were added
+	 * @param current
+	 *            location of the deployed child
+	 * @return locations to remove
+	 * @throws SftpException
+	 *             on error
+	 */
+	private List<String> expired(RemoteFileSystem sftp, Retention retention,
+			List<String> children, String current) throws SftpException {
+		if (retention == null || !retention.isEnabled()) {
+			return Collections.emptyList();
+		}
+		Map<String, Long> modified = new HashMap<String, Long>();
+		for (RemoteFile remoteFile : sftp.ls(".")) {
+			if (remoteFile.isDir()) {
+				modified.put(remoteFile.getFilename(),
+						Long.valueOf(remoteFile.getMTime() * 1000L));
+			}
+		}
+		return retention.expired(children, modified, current,
+				System.currentTimeMillis());
+	}
+
+	/**
+	 * Move the folders of removed children of the current composite folder
+	 * out of the way and delete them in background.
+	 * 
+	 * @param sftp
+	 *            connection
+	 * @param expired
+	 *            removed children
+	 * @param asyncDelete
+	 *            background deletion
+	 * @param index
+	 *            remote index, null if none
+	 * @throws SftpException
+	 *             on error
+	 */
+	private void retire(RemoteFileSystem sftp, List<String> expired,
+			AsyncDelete asyncDelete, RemoteIndex index) throws SftpException {
+		String pwd = sftp.pwd();
+		for (String child : expired) {
+			if (index != null) {
+				index.removeTree(pwd + "/" + child);
+			}
+			getLog().info("Pruning: " + child);
+			if (sftp.fileDoesNotExist(child)) {
+				continue;
+			}
+			String retiredLocation = STAGING_PREFIX + child + RETIRED_INFIX
+					+ System.currentTimeMillis();
+			sftp.rename(child, retiredLocation);
+			asyncDelete.delete(pwd + "/" + retiredLocation);
+		}
+	}
+
+	/**
+	 * Merge the deployed child into the {@link DeployMojo#AGGREGATE}
+	 * repository of the current composite folder and drop the removed
+	 * children, when {@link DeployMojo#aggregate} is enabled. The first
+	 * aggregation reads the metadata of every existing child once; later
+	 * ones only read the previous aggregate and the deployed site.
+	 * 
+	 * @param sftp
+	 *            connection
+	 * @param site
+	 *            deployed site
+	 * @param children
+	 *            locations listed by the artifact composite, deployed child
+	 *            included
+	 * @param removed
+	 *            locations of the removed children
+	 * @param index
+	 *            remote index, null if none
+	 * @return metadata composite listing the aggregate and the children which
+	 *         are not folders, null if aggregation is disabled
+	 * @throws SftpException
+	 *             on error
+	 * @throws IOException
+	 *             on error
+	 */
+	private RepositoryDocument updateAggregate(RemoteFileSystem sftp, Site site,
+			List<String> children, Collection<String> removed,
+			RemoteIndex index) throws SftpException, IOException {
+		if (!aggregate) {
+			return null;
+		}
+		String location = mavenProject.getVersion();
+		String pwd = sftp.pwd();
+		String folder = pwd + "/" + AGGREGATE;
+		RepositoryDocument metadataDocument = modelHelper
+				.newRepositoryDocument(site.getName(), TYPE.METADATA);
+		modelHelper.appendChild(metadataDocument, AGGREGATE);
+
+		MetadataAggregator aggregator = new MetadataAggregator();
+		Map<String, File> added = new LinkedHashMap<String, File>();
+		List<File> temporaryFiles = new ArrayList<File>();
+		File previous = null;
+		try {
+			boolean bootstrap = mkdir(sftp, folder)
+					|| sftp.fileDoesNotExist(folder + "/"
+							+ MetadataAggregator.INDEX);
+			if (!bootstrap) {
+				aggregator.readIndex(sftp.get(folder + "/"
+						+ MetadataAggregator.INDEX));
+				previous = fetchMetadata(sftp, folder, temporaryFiles);
+			}
+			for (String child : children) {
+				if (child.startsWith(".") || child.indexOf('/') >= 0
+						|| child.indexOf(':') >= 0) {
+					// not deployed here, left to the composite
+					modelHelper.appendChild(metadataDocument, child);
+				} else if (bootstrap && !child.equals(location)) {
+					File file = fetchMetadata(sftp, pwd + "/" + child,
+							temporaryFiles);
+					if (file == null) {
+						getLog().warn("No metadata to aggregate in " + child);
+					} else {
+						added.put(child, file);
+					}
+				}
+			}
+			File metadata = new File(siteDirectory,
+					MetadataAggregator.CONTENT_JAR);
+			if (!metadata.exists()) {
+				metadata = new File(siteDirectory, MetadataAggregator.CONTENT);
+			}
+			if (metadata.exists()) {
+				added.put(location, metadata);
+			} else {
+				getLog().warn("No metadata to aggregate in " + siteDirectory);
+			}
+
+			File merged = File.createTempFile(AGGREGATE, ".xml");
+			temporaryFiles.add(merged);
+			OutputStream outputStream = new BufferedOutputStream(
+					new FileOutputStream(merged), BUFFER_SIZE);
+			int size;
+			try {
+				size = aggregator.merge(site.getName(), previous, added,
+						removed, compressComposites, outputStream);
+			} finally {
+				outputStream.close();
+			}
+			getLog().info(
+					"Aggregated " + size + " units, merged " + added.keySet());
+
+			// content first: a stale index only keeps units out
+			String content = compressComposites ? MetadataAggregator.CONTENT_JAR
+					: MetadataAggregator.CONTENT;
+			String stale = compressComposites ? MetadataAggregator.CONTENT
+					: MetadataAggregator.CONTENT_JAR;
+			sftp.put(merged, folder + "/" + content, false);
+			if (sftp.fileExists(folder + "/" + stale)) {
+				sftp.rm(folder + "/" + stale);
+			}
+			ByteArrayOutputStream sidecar = new ByteArrayOutputStream();
+			aggregator.writeIndex(sidecar);
+			sftp.put(new ByteArrayInputStream(sidecar.toByteArray()), folder
+					+ "/" + MetadataAggregator.INDEX);
+			if (sftp.fileDoesNotExist(folder + "/" + ModelHelper.P2_INDEX)) {
+				sftp.put(
+						new ByteArrayInputStream(modelHelper
+								.getAggregateIndex()), folder + "/"
+								+ ModelHelper.P2_INDEX);
+			}
+			if (index != null) {
+				index.addFolder(folder);
+				index.removeTree(folder + "/" + stale);
+				index.addFile(folder + "/" + content, merged.length(), null);
+				index.addFile(folder + "/" + MetadataAggregator.INDEX, -1, null);
+				index.addFile(folder + "/" + ModelHelper.P2_INDEX, -1, null);
+			}
+		} finally {
+			for (File file : temporaryFiles) {
+				file.delete();
+			}
+		}
+		return metadataDocument;
+	}
+
+	/**
+	 * Download the metadata of a remote repository to a temporary file, from
+	 * the jar if it exists.
+	 * 
+	 * @param sftp
+	 *            connection
+	 * @param folder
+	 *            absolute path of the repository
+	 * @param temporaryFiles
+	 *            to add the temporary file to, for deletion by the caller
+	 * @return temporary file, null if the repository has no metadata
+	 * @throws SftpException
+	 *             on error
+	 * @throws IOException
+	 *             on error
+	 */
+	private File fetchMetadata(RemoteFileSystem sftp, String folder,
+			List<File> temporaryFiles) throws SftpException, IOException {
+		String name = MetadataAggregator.CONTENT_JAR;
+		if (sftp.fileDoesNotExist(folder + "/" + name)) {
+			name = MetadataAggregator.CONTENT;
+			if (sftp.fileDoesNotExist(folder + "/" + name)) {
+				return null;
+			}
+		}
+		File file = File.createTempFile(AGGREGATE,
+				name.substring(name.lastIndexOf('.')));
+		temporaryFiles.add(file);
+		copy(sftp.get(folder + "/" + name), new FileOutputStream(file));
+		return file;
+	}
+
+	/**
+	 * Download the composite metadata of the current folder to a temporary
+	 * file.
+	 * 
+	 * @param sftp
+	 *            connection
+	 * @return temporary file, to delete by the caller
+	 * @throws SftpException
+	 *             on error
+	 * @throws IOException
+	 *             on error
+	 */
+	private File fetchCompositeFile(RemoteFileSystem sftp) throws SftpException,
+			IOException {
+		File compositeFile = File.createTempFile("composite", ".xml");
+		try {
+			copy(openCompositeContent(sftp),
+					new FileOutputStream(compositeFile));
+			return compositeFile;
+		} catch (SftpException e) {
+			compositeFile.delete();
+			throw e;
+		} catch (IOException e) {
+			compositeFile.delete();
+			throw e;
+		}
+	}
+
+	/**
+	 * Write the composite files of the current folder, streaming a downloaded
+	 * composite with a child added and others removed.
+	 * 
+	 * @param sftp
+	 *            connection
+	 * @param compositeFile
+	 *            downloaded composite metadata
+	 * @param location
+	 *            of the child
+	 * @param removed
+	 *            locations of the children to remove
+	 * @param metadataDocument
+	 *            composite metadata to write instead of the streamed one,
+	 *            null if none
+	 * @param index
+	 *            remote index to record the composite in, null if none
+	 * @return true if the child is newly created
+	 * @throws SftpException
+	 *             on error
+	 * @throws IOException
+	 *             on error
+	 * @throws JSchException
+	 *             if the auxiliary channel could not be opened
+	 */
+	private boolean writeCompositeFile(RemoteFileSystem sftp,
+			File compositeFile, String location, Collection<String> removed,
+			RepositoryDocument metadataDocument, RemoteIndex index)
+			throws SftpException, IOException, JSchException {
+		boolean added = false;
+		String pwd = sftp.pwd();
+		RemoteFileSystem auxiliary = compressComposites ? sftp.auxiliary()
+				: null;
+		for (TYPE type : new TYPE[] { TYPE.ARTIFACT, TYPE.METADATA }) {
+			if (type == TYPE.METADATA && metadataDocument != null) {
+				putRepositoryFiles(sftp, modelHelper.render(metadataDocument),
+						type, pwd);
+				continue;
+			}
+			// without auxiliary channel, the jar is spooled and sent after
+			File jarFile = compressComposites && auxiliary == null ? File
+					.createTempFile("composite", ".jar") : null;
+			try {
+				OutputStream outputStream = new BufferedOutputStream(
+						sftp.put(type.getFilename()), BUFFER_SIZE);
+				if (compressComposites) {
+					// jar written alongside, on its own channel
+					outputStream = new TeeOutputStream(outputStream,
+							modelHelper.openJar(type, new BufferedOutputStream(
+									jarFile != null ? new FileOutputStream(
+											jarFile) : auxiliary.put(pwd + "/"
+											+ type.getJarFilename()),
+									BUFFER_SIZE)));
+				}
+				try {
+					added = modelHelper.updateChildren(compositeFile,
+							location, removed, type, outputStream);
+				} finally {
+					outputStream.close();
+				}
+				if (jarFile != null) {
+					InputStream inputStream = new FileInputStream(jarFile);
+					try {
+						sftp.put(inputStream, pwd + "/" + type.getJarFilename());
+					} finally {
+						inputStream.close();
+					}
+				}
+			} finally {
+				if (jarFile != null) {
+					jarFile.delete();
+				}
+			}
+		}
+		if (!compressComposites) {
+			removeCompressedComposites(sftp);
+		}
+		putCompositeIndex(sftp);
+		indexComposite(index, pwd);
+		return added;
+	}
+
+	/**
+	 * Open the composite of the current folder, from the xml unless the jar
+	 * is newer or alone: writers unaware of the jars, such as earlier
+	 * versions of this plugin, only update the xml. The artifact composite is
+	 * read: it lists every child, also when {@link DeployMojo#aggregate}
+	 * replaces them in the metadata composite.
+	 * 
+	 * @param sftp
+	 *            connection
+	 * @return uncompressed content
+	 * @throws SftpException
+	 *             on error
+	 * @throws IOException
+	 *             on error
+	 */
+	private InputStream openCompositeContent(RemoteFileSystem sftp)
+			throws SftpException, IOException {
+		return openComposite(sftp, TYPE.ARTIFACT);
+	}
+
+	/**
+	 * Open a composite of the current folder, from the xml unless the jar is
+	 * newer or alone. The jar is spooled to a temporary file, deleted when
+	 * the returned stream is closed.
+	 * 
+	 * @param sftp
+	 *            connection
+	 * @param type
+	 *            of the composite
+	 * @return uncompressed content
+	 * @throws SftpException
+	 *             on error
+	 * @throws IOException
+	 *             on error
+	 */
+	private InputStream openComposite(RemoteFileSystem sftp, TYPE type)
+			throws SftpException, IOException {
+		if (sftp.fileExists(type.getJarFilename())
+				&& (sftp.fileDoesNotExist(type.getFilename()) || sftp.stat(
+						type.getJarFilename()).getMTime() > sftp.stat(
+						type.getFilename()).getMTime())) {
+			// spooled whole: the sftp stream fails when closed before its end
+			final File jar = File.createTempFile("composite", ".jar");
+			InputStream inputStream;
+			try {
+				copy(sftp.get(type.getJarFilename()), new FileOutputStream(jar));
+				inputStream = new FileInputStream(jar) {
+					@Override
+					public void close() throws IOException {
+						try {
+							super.close();
+						} finally {
+							jar.delete();
+						}
+					}
+				};
+			} catch (IOException e) {
+				jar.delete();
+				throw e;
+			} catch (SftpException e) {
+				jar.delete();
+				throw e;
+			}
+			try {
+				return modelHelper.readJar(type, inputStream);
+			} catch (IOException e) {
+				inputStream.close();
+				throw e;
+			}
+		}
+		return sftp.get(type.getFilename());
+	}
+
+	/**
+	 * Put the {@link ModelHelper#P2_INDEX} of the current composite folder if
+	 * absent, so that clients fetch the composites without probing.
+	 * 
+	 * @param sftp
+	 *            connection
+	 * @throws SftpException
+	 *             on error
+	 */
+	private void putCompositeIndex(RemoteFileSystem sftp)
+			throws SftpException {
+		if (sftp.fileDoesNotExist(ModelHelper.P2_INDEX)) {
+			sftp.put(new ByteArrayInputStream(modelHelper.getCompositeIndex()),
+					ModelHelper.P2_INDEX);
+		}
+	}
+
+	/**
+	 * Generate the {@link ModelHelper#P2_INDEX} of the site when it does not
+	 * provide one, listing the formats found in the site. It is then uploaded
+	 * with the other files of the site.
+	 * 
+	 * @throws IOException
+	 *             if the file could not be written
+	 */
+	private void createChildIndex() throws IOException {
+		File indexFile = new File(siteDirectory, ModelHelper.P2_INDEX);
+		if (indexFile.exists()) {
+			return;
+		}
+		byte[] index = modelHelper.getIndex(siteDirectory);
+		if (index == null) {
+			getLog().debug("No repository found in " + siteDirectory);
+			return;
+		}
+		OutputStream outputStream = new FileOutputStream(indexFile);
+		try {
+			outputStream.write(index);
+		} finally {
+			outputStream.close();
+		}
+		getLog().info("Generated " + indexFile);
+	}
+
+	/**
+	 * Hash the files of the site into {@link DeployMojo#checksumDirectory},
+	 * when checksums are enabled.
+	 * 
+	 * @throws IOException
+	 *             if a file could not be read or the manifest written
+	 */
+	private void createManifest() throws IOException {
+		if (!checksums || checksumDirectory == null) {
+			return;
+		}
+		long start = System.currentTimeMillis();
+		manifest = Manifest.compute(siteDirectory, checksumThreads);
+		manifestFiles = manifest.write(checksumDirectory);
+		getLog().info(
+				"Hashed " + manifest.size() + " file(s) in "
+						+ (System.currentTimeMillis() - start) + " ms");
+	}
+
+	/**
+	 * Read the SHA-256 manifest published by the previous deploy.
+	 * 
+	 * @param sftp
+	 *            connection
+	 * @param dst
+	 *            remote version folder
+	 * @return manifest, null if there is none
+	 * @throws SftpException
+	 *             on error
+	 * @throws IOException
+	 *             on error
+	 */
+	private Manifest readRemoteManifest(RemoteFileSystem sftp, String dst)
+			throws SftpException, IOException {
+		String path = dst + "/" + Manifest.SHA256;
+		if (sftp.fileDoesNotExist(path)) {
+			return null;
+		}
+		return Manifest.read(sftp.get(path));
+	}
+
+	/**
+	 * Publish the manifests in the version folder, after the files they
+	 * describe so that a partial upload is never taken for a complete one.
+	 * 
+	 * @param sftp
+	 *            connection
+	 * @param dst
+	 *            remote version folder
+	 * @throws SftpException
+	 *             on error
+	 * @throws IOException
+	 *             on error
+	 */
+	private void uploadManifest(RemoteFileSystem sftp, String dst)
+			throws SftpException, IOException {
+		if (manifestFiles == null) {
+			return;
+		}
+		for (File file : manifestFiles) {
+			sftp.put(file, dst + "/" + file.getName(), delta);
+		}
+	}
+
+	/**
+	 * Check the uploaded files against the published manifest, on the server
+	 * when it can run sha256sum.
+	 * 
+	 * @param sftp
+	 *            connection
+	 * @param dst
+	 *            remote version folder
+	 * @param logger
+	 *            logger
+	 * @throws MojoExecutionException
+	 *             if a file does not match its checksum
+	 * @throws SftpException
+	 *             on error
+	 * @throws JSchException
+	 *             on error
+	 */
+	private void verifyManifest(RemoteFileSystem sftp, String dst,
+			Logger logger) throws MojoExecutionException, SftpException,
+			JSchException {
+		if (manifestFiles == null || !verifyChecksums) {
+			return;
+		}
+		if (!(sftp instanceof Sftp)) {
+			logger.info("Checksum verification needs sftp, skipped");
+			return;
+		}
+		ChecksumVerification verification = new ChecksumVerification(
+				(Sftp) sftp, logger);
+		if (!verification.isAvailable()) {
+			logger.info("Remote sha256sum not available, "
+					+ "checksums not verified");
+			return;
+		}
+		try {
+			verification.verify(dst);
+		} catch (IOException e) {
+			throw new MojoExecutionException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Delete the compressed composites of the current folder, if any.
+	 * 
+	 * @param sftp
+	 *            connection
+	 * @throws SftpException
+	 *             on error
+	 */
+	private void removeCompressedComposites(RemoteFileSystem sftp)
+			throws SftpException {
+		for (TYPE type : TYPE.values()) {
+			if (sftp.fileExists(type.getJarFilename())) {
+				sftp.rm(type.getJarFilename());
+				getLog().info("Removed " + type.getJarFilename());
+			}
+		}
+	}
+
+	/**
+	 * Copy and close streams.
+	 * 
+	 * @param inputStream
+	 *            to read
+	 * @param outputStream
+	 *            to write
+	 * @throws IOException
+	 *             on error
+	 */
+	private void copy(InputStream inputStream, OutputStream outputStream)
+			throws IOException {
+		try {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int read;
+			while ((read = inputStream.read(buffer)) != -1) {
+				outputStream.write(buffer, 0, read);
+			}
+		} finally {
+			outputStream.close();
+			inputStream.close();
+		}
+	}
+
+	/**
+	 * Push Composite file to site. The document is serialized once and both
+	 * types are uploaded concurrently, the artifact one on the auxiliary
+	 * channel.
+	 * 
+	 * @param sftp
+	 *            connection.
+	 * @param repositoryDocument
+	 *            to publish
+	 * @param index
+	 *            remote index to record the composite in, null if none
+	 * @throws SftpException
+	 *             on error
+	 * @throws IOException
+	 *             on error
+	 * @throws JSchException
+	 *             if the auxiliary channel could not be opened
+	 */
+	private void updateCompositeMetafiles(final RemoteFileSystem sftp,
+			RepositoryDocument repositoryDocument, RemoteIndex index)
+			throws SftpException, IOException, JSchException {
+		updateCompositeMetafiles(sftp, repositoryDocument, null, index);
+	}
+
+	/**
+	 * Push Composite file to site, with a metadata composite differing from
+	 * the artifact one.
+	 * 
+	 * @param sftp
+	 *            connection.
+	 * @param repositoryDocument
+	 *            to publish
+	 * @param metadataDocument
+	 *            to publish as metadata composite, null to publish
+	 *            repositoryDocument
+	 * @param index
+	 *            remote index to record the composite in, null if none
+	 * @throws SftpException
+	 *             on error
+	 * @throws IOException
+	 *             on error
+	 * @throws JSchException
+	 *             if the auxiliary channel could not be opened
+	 */
+	private void updateCompositeMetafiles(final RemoteFileSystem sftp,
+			RepositoryDocument repositoryDocument,
+			RepositoryDocument metadataDocument, RemoteIndex index)
+			throws SftpException, IOException, JSchException {
+		final RenderedDocument renderedDocument = modelHelper
+				.render(repositoryDocument);
+		RenderedDocument renderedMetadata = renderedDocument;
+		if (metadataDocument != null) {
+			renderedMetadata = modelHelper.render(metadataDocument);
+		}
+		final String pwd = sftp.pwd();
+		final RemoteFileSystem auxiliary = sftp.auxiliary();
+		if (auxiliary == null) {
+			// no slot left on the session: one after the other
+			putRepositoryFiles(sftp, renderedDocument, TYPE.ARTIFACT, pwd);
+			putRepositoryFiles(sftp, renderedMetadata, TYPE.METADATA, pwd);
+		} else {
+			Future<Void> artifact = compositeExecutor
+					.submit(new Callable<Void>() {
+						public Void call() throws Exception {
+							putRepositoryFiles(auxiliary, renderedDocument,
+									TYPE.ARTIFACT, pwd);
+							return null;
+						}
+					});
+			boolean written = false;
+			try {
+				putRepositoryFiles(sftp, renderedMetadata, TYPE.METADATA, pwd);
+				written = true;
+			} finally {
+				if (!written) {
+					// do not let the disconnect following the failure
+					// truncate the artifact file
+					awaitQuietly(artifact);
+				}
+			}
+			await(artifact);
+		}
+		if (!compressComposites) {
+			removeCompressedComposites(sftp);
+		}
+		putCompositeIndex(sftp);
+		indexComposite(index, pwd);
+
+	}
+
+	/**
+	 * Record the composite files of a folder in the remote index.
+	 * 
+	 * @param index
+	 *            remote index, null if none
+	 * @param folder
+	 *            absolute path of the composite folder
+	 */
+	private void indexComposite(RemoteIndex index, String folder) {
+		if (index == null) {
+			return;
+		}
+		for (TYPE type : TYPE.values()) {
+			index.addFile(folder + "/" + type.getFilename(), -1, null);
+			if (compressComposites) {
+				index.addFile(folder + "/" + type.getJarFilename(), -1, null);
+			} else {
+				index.removeTree(folder + "/" + type.getJarFilename());
+			}
+		}
+		index.addFile(folder + "/" + ModelHelper.P2_INDEX, -1, null);
+	}
+
+	/**
+	 * Check if the composite files of the current folder, whose artifact
+	 * composite lists a child, need no update: the metadata composite, written
+	 * concurrently, lists it too and both are in the form given by
+	 * {@link DeployMojo#compressComposites}. Never the case with
+	 * {@link DeployMojo#aggregate}, whose aggregate changes with each child.
+	 * 
+	 * @param sftp
+	 *            connection
+	 * @param child
+	 *            location
+	 * @return true if the composite files need no update
+	 * @throws SftpException
+	 *             on error
+	 * @throws IOException
+	 *             on error
+	 */
+	private boolean isListed(RemoteFileSystem sftp, String child)
+			throws SftpException, IOException {
+		if (aggregate) {
+			return false;
+		}
+		for (TYPE type : TYPE.values()) {
+			String jar = type.getJarFilename();
+			// with compressed composites, the jar must not be older
+			if (compressComposites ? sftp.fileDoesNotExist(jar)
+					|| sftp.fileExists(type.getFilename())
+					&& sftp.stat(type.getFilename()).getMTime() > sftp
+							.stat(jar).getMTime() : sftp.fileExists(jar)) {
+				return false;
+			}
+		}
+		if (!modelHelper.getChildLocations(
+				modelHelper.parseCompositeContent(openComposite(sftp,
+						TYPE.METADATA))).contains(child)) {
+			return false;
+		}
+		getLog().info("Composite files already list " + child);
+		return true;
+	}
+
+	/**
+	 * Record the deployed version folder in the remote index, replacing what
+	 * was recorded of a previous deploy of the same version.
+	 * 
+	 * @param index
+	 *            remote index
+	 * @param folder
+	 *            absolute path of the version folder
+	 */
+	private void indexSite(RemoteIndex index, String folder) {
+		index.removeTree(folder);
+		index.addFolder(folder);
+		List<File> folders = new ArrayList<File>();
+		List<String> paths = new ArrayList<String>();
+		folders.add(siteDirectory);
+		paths.add("");
+		while (!folders.isEmpty()) {
+			File[] listFiles = folders.remove(folders.size() - 1).listFiles();
+			String prefix = paths.remove(paths.size() - 1);
+			if (listFiles == null) {
+				continue;
+			}
+			for (File file : listFiles) {
+				String path = prefix + file.getName();
+				if (file.isDirectory()) {
+					index.addFolder(folder + "/" + path);
+					folders.add(file);
+					paths.add(path + "/");
+				} else {
+					index.addFile(folder + "/" + path, file.length(),
+							manifest != null ? manifest.getSha256(path) : null);
+				}
+			}
+		}
+		if (manifestFiles != null) {
+			for (File file : manifestFiles) {
+				index.addFile(folder + "/" + file.getName(), file.length(),
+						null);
+			}
+		}
+	}
+
+	/**
+	 * Put the repository file of a type, and its jar when compressed
+	 * composites are enabled.
+	 * 
+	 * @param sftp
+	 *            connection
+	 * @param renderedDocument
+	 *            to publish
+	 * @param type
+	 *            {@link TYPE} of the document.
+	 * @param folder
+	 *            remote folder
+	 * @throws SftpException
+	 *             on error
+	 * @throws IOException
+	 *             on error
+	 */
+	private void putRepositoryFiles(RemoteFileSystem sftp,
+			RenderedDocument renderedDocument, TYPE type, String folder)
+			throws SftpException, IOException {
+		OutputStream outputStream = new BufferedOutputStream(sftp.put(folder
+				+ "/" + type.getFilename()), BUFFER_SIZE);
+		try {
+			renderedDocument.write(type, outputStream);
+		} finally {
+			outputStream.close();
+		}
+		if (!compressComposites) {
+			return;
+		}
+		outputStream = new BufferedOutputStream(sftp.put(folder + "/"
+				+ type.getJarFilename()), BUFFER_SIZE);
+		try {
+			renderedDocument.writeJar(type, outputStream);
+		} finally {
+			outputStream.close();
+		}
+	}
+
+	/**
+	 * Wait for a background transfer.
+	 * 
+	 * @param future
+	 *            of the transfer
+	 * @throws SftpException
+	 *             thrown by the transfer
+	 * @throws IOException
+	 *             thrown by the transfer or on interruption
+	 */
+	private void await(Future<?> future) throws SftpException, IOException {
+		try {
+			future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(e.getLocalizedMessage());
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof SftpException) {
+				throw (SftpException) cause;
+			}
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new IOException(cause.getLocalizedMessage(), cause);
+		}
+	}
+
+	/**
+	 * Wait for a background transfer on an error path, logging its own
+	 * failure.
+	 * 
+	 * @param future
+	 *            of the transfer
+	 */
+	private void awaitQuietly(Future<?> future) {
+		try {
+			future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			getLog().debug("Background transfer failed too", e.getCause());
+		}
+	}
+
+	/**
+	 * Update the parent composite descriptors, from the parent of the current
+	 * folder up to the first folder without descriptor. The chain of parents
+	 * is resolved up front: the descriptors of every level are fetched
+	 * concurrently, then the levels to update are written back concurrently,
+	 * each on its own channel. Each level lists the folder below it. Earlier
+	 * versions listed the site name at every level: that entry is removed from
+	 * the levels above the parent, unless a folder of that name exists there.
+	 * Levels already listing their child are left as is. When composites are
+	 * locked, only the existence of the
+	 * descriptors is checked up front: each level is read again and written
+	 * back under its lock.
+	 * 
+	 * @param site
+	 *            to publish to
+	 * @param sftp
+	 *            connection, in the site folder
+	 * @param index
+	 *            remote index, null if none
+	 * @param lockRenewal
+	 *            renews the locks of the deployment
+	 * @throws SftpException
+	 *             on error
+	 * @throws IOException
+	 *             on error
+	 * @throws JSchException
+	 *             if a channel could not be opened
+	 */
+	private void updateParentRepo(Site site, RemoteFileSystem sftp,
+			final RemoteIndex index, final LockRenewal lockRenewal)
+			throws SftpException, IOException, JSchException {
+		List<ParentLevel> chain = new ArrayList<ParentLevel>();
+		String folder = sftp.pwd();
+		while (folder.length() > 1) {
+			int i = folder.lastIndexOf('/');
+			String parent = i <= 0 ? "/" : folder.substring(0, i);
+			String child = folder.substring(i + 1);
+			chain.add(new ParentLevel(parent, child, child.equals(site
+					.getName()) ? null : site.getName()));
+			folder = parent;
+		}
+
+		List<ChannelPool.Task<Void>> fetches = new ArrayList<ChannelPool.Task<Void>>();
+		for (final ParentLevel level : chain) {
+			fetches.add(new ChannelPool.Task<Void>() {
+				public Void run(RemoteFileSystem channel) {
+					try {
+						fetchParentLevel(channel, level);
+					} catch (Exception e) {
+						// only a failure below the last level counts
+						level.failure = e;
+					}
+					return null;
+				}
+			});
+		}
+		ChannelPool pool = new ChannelPool(sftp, PARENT_CHANNELS);
+		try {
+			pool.execute(fetches);
+
+			List<ChannelPool.Task<Boolean>> updates = new ArrayList<ChannelPool.Task<Boolean>>();
+			List<ParentLevel> updated = new ArrayList<ParentLevel>();
+			for (final ParentLevel level : chain) {
+				if (level.failure != null) {
+					throw new IOException("Could not read composite of "
+							+ level.folder + ": "
+							+ level.failure.getLocalizedMessage(),
+							level.failure);
+				}
+				if (!level.exists) {
+					getLog().debug("Base repo: " + level.folder);
+					break;
+				}
+				updated.add(level);
+				updates.add(new ChannelPool.Task<Boolean>() {
+					public Boolean run(RemoteFileSystem channel)
+							throws Exception {
+						return Boolean.valueOf(updateParentLevel(channel,
+								level, index, lockRenewal));
+					}
+				});
+			}
+			List<Boolean> added = pool.execute(updates);
+			for (int i = 0; i < updated.size(); i++) {
+				getLog().info(
+						"Updating " + updated.get(i).child + " in "
+								+ updated.get(i).folder + ": "
+								+ (updated.get(i).listed ? "already listed"
+										: added.get(i) ? "added" : "updated"));
+			}
+		} finally {
+			for (ParentLevel level : chain) {
+				if (level.file != null) {
+					level.file.delete();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Check whether a parent level has a composite descriptor and fetch it,
+	 * unless it is to be read under lock.
+	 * 
+	 * @param sftp
+	 *            connection
+	 * @param level
+	 *            to fetch, receiving the descriptor
+	 * @throws SftpException
+	 *             on error
+	 * @throws IOException
+	 *             on error
 	 */
-	public void execute() throws MojoExecutionException {
-
-		for (Site site : sites) {
-			deploy(site);
+	private void fetchParentLevel(RemoteFileSystem sftp, ParentLevel level)
+			throws SftpException, IOException {
+		sftp.cd(level.folder);
+		level.exists = sftp.fileExists(TYPE.ARTIFACT.getFilename());
+		if (!level.exists || lockComposites) {
+			return;
 		}
-
+		fetchParentDescriptor(sftp, level);
 	}
 
 	/**
-	 * Deploy update site.
+	 * Fetch the composite descriptor of a parent level known to have one.
 	 * 
-	 * @param site
-	 *            to deploy to.
-	 * @throws MojoExecutionException
-	 *             on error.
+	 * @param sftp
+	 *            connection, in the folder of the level
+	 * @param level
+	 *            to fetch, receiving the descriptor
+	 * @throws SftpException
+	 *             on error
+	 * @throws IOException
+	 *             on error
 	 */
-	private void deploy(Site site) throws MojoExecutionException {
-
-		Matcher matcher = SFTP_PATTERN.matcher(site.getBaseURL());
-		if (!matcher.matches()) {
-			throw new MojoExecutionException(site.getBaseURL()
-					+ " is not a valid sftp url");
-		}
-		String host = matcher.group(SFTP_PATTERN_HOST);
-		String portAsString = matcher.group(SFTP_PATTERN_PORT);
-		int port;
-		if (portAsString == null) {
-			port = SSH_PORT;
+	private void fetchParentDescriptor(RemoteFileSystem sftp, ParentLevel level)
+			throws SftpException, IOException {
+		if (streamingComposites) {
+			level.file = fetchCompositeFile(sftp);
 		} else {
-			port = Integer.parseInt(portAsString);
-		}
-		String basePath = matcher.group(SFTP_PATTERN_PATH);
-
-		Sftp sftp = new Sftp(new Logger() {
-			@Override
-			public void info(String message) {
-				getLog().info(message);
-
-			}
-		}, knownHost, identity);
-
-		Server server = settings.getServer(site.getServerId());
-		if (server == null) {
-			throw new MojoExecutionException("Could not find serverId: \""
-					+ site.getServerId() + "\"");
-		}
-
-		String pass = server.getPassphrase();
-
-		if (pass == null) {
-			throw new MojoExecutionException("Passphrase could not be null");
+			level.document = modelHelper
+					.parseCompositeContent(openCompositeContent(sftp));
 		}
+	}
 
-		String user = server.getUsername();
-
+	/**
+	 * Add the child of a parent level to its descriptor and write it back,
+	 * fetching the descriptor under lock when composites are locked.
+	 * 
+	 * @param sftp
+	 *            connection
+	 * @param level
+	 *            fetched level
+	 * @param index
+	 *            remote index, null if none
+	 * @param lockRenewal
+	 *            renews the locks of the deployment
+	 * @return true if the child is newly created, false if updated or already
+	 *         listed
+	 * @throws SftpException
+	 *             on error
+	 * @throws IOException
+	 *             on error
+	 * @throws JSchException
+	 *             if the auxiliary channel could not be opened
+	 */
+	private boolean updateParentLevel(RemoteFileSystem sftp, ParentLevel level,
+			RemoteIndex index, LockRenewal lockRenewal) throws SftpException,
+			IOException, JSchException {
+		sftp.cd(level.folder);
+		RemoteLock lock = lockComposite(sftp, level.folder, lockRenewal);
 		try {
-
-			sftp.openSession(user, pass, host, port);
-
-			boolean newRepo = initRepository(site, basePath, sftp);
-
-			String childLocation = initChildLocation(sftp);
-
-			updloadFiles(siteDirectory, childLocation, sftp);
-
-			RepositoryDocument repositoryDocument;
-
-			if (newRepo || sftp.fileDoesNotExist("compositeContent.xml")) {
-				repositoryDocument = modelHelper.newRepositoryDocument(
-						site.getName(), ModelHelper.TYPE.ARTIFACT);
-			} else {
-
-				InputStream inputStream = sftp.get("compositeContent.xml");
-
-				repositoryDocument = modelHelper
-						.parseCompositeContent(inputStream);
+			if (lock != null) {
+				fetchParentDescriptor(sftp, level);
 			}
-
-			modelHelper.appendChild(repositoryDocument,
-					mavenProject.getVersion());
-
-			updateCompositeMetafiles(sftp, repositoryDocument);
-
-			updateParentRepo(site, sftp);
-
-		} catch (JSchException e) {
-			throw new MojoExecutionException(e.getLocalizedMessage(), e);
-		} catch (SftpException e) {
-			throw new MojoExecutionException(e.getLocalizedMessage(), e);
-		} catch (IOException e) {
-			throw new MojoExecutionException(e.getLocalizedMessage(), e);
+			List<String> children = level.file != null ? modelHelper
+					.getChildLocations(level.file) : modelHelper
+					.getChildLocations(level.document);
+			Set<String> removed = Collections.<String> emptySet();
+			if (level.stale != null && children.contains(level.stale)
+					&& sftp.fileDoesNotExist(level.stale)) {
+				removed = Collections.singleton(level.stale);
+			}
+			if (removed.isEmpty() && children.contains(level.child)
+					&& isListed(sftp, level.child)) {
+				level.listed = true;
+				return false;
+			}
+			if (level.file != null) {
+				return writeCompositeFile(sftp, level.file, level.child,
+						removed, null, index);
+			}
+			modelHelper.removeChildren(level.document, removed);
+			boolean added = modelHelper.appendChild(level.document,
+					level.child);
+			updateCompositeMetafiles(sftp, level.document, index);
+			return added;
 		} finally {
-			sftp.disconnect();
+			unlock(lock);
 		}
+	}
 
+	/**
+	 * Composite folder of the parent chain, with the child it should list.
+	 */
+	private static final class ParentLevel {
+
+		/**
+		 * Absolute path of the folder.
+		 */
+		private final String folder;
+
+		/**
+		 * Name of the child folder.
+		 */
+		private final String child;
+
+		/**
+		 * Site name listed by earlier versions instead of the child folder,
+		 * null if the same.
+		 */
+		private final String stale;
+
+		/**
+		 * True if the descriptor already lists the child and is left as is.
+		 */
+		private boolean listed;
+
+		/**
+		 * True if the folder has a composite descriptor.
+		 */
+		private boolean exists;
+
+		/**
+		 * Fetched descriptor, null if absent or streamed.
+		 */
+		private RepositoryDocument document;
+
+		/**
+		 * Fetched descriptor when streaming composites, null otherwise.
+		 */
+		private File file;
+
+		/**
+		 * Failure of the fetch, null if none.
+		 */
+		private Exception failure;
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param folder
+		 *            absolute path of the folder
+		 * @param child
+		 *            name of the child folder
+		 * @param stale
+		 *            site name listed by earlier versions instead of the
+		 *            child folder, null if the same
+		 */
+		private ParentLevel(String folder, String child, String stale) {
+			this.folder = folder;
+			this.child = child;
+			this.stale = stale;
+		}
 	}
 
 	/**
-	 * Push Composite file to site.
+	 * Upload files, through a pool of channels when parallelism is greater
+	 * than one.
 	 * 
+	 * @param folder
+	 *            to upload
+	 * @param dst
+	 *            remote destination
 	 * @param sftp
-	 *            connection.
-	 * @param repositoryDocument
-	 *            to publish
+	 *            connection
+	 * @param parallelism
+	 *            number of concurrent channels
+	 * @param logger
+	 *            logger
+	 * @param journal
+	 *            of the deployment, null if none
 	 * @throws SftpException
 	 *             on error
+	 * @throws IOException
+	 *             on error
+	 * @throws JSchException
+	 *             if channels could not be opened
+	 * @throws MojoExecutionException
+	 *             with all the failed files
 	 */
-	private void updateCompositeMetafiles(Sftp sftp,
-			RepositoryDocument repositoryDocument) throws SftpException {
-		putRepositoryFile(sftp, repositoryDocument, ModelHelper.TYPE.ARTIFACT);
-		putRepositoryFile(sftp, repositoryDocument, ModelHelper.TYPE.METADATA);
-
+	private void updloadFiles(File folder, String dst, RemoteFileSystem sftp,
+			int parallelism, Logger logger, Journal journal)
+			throws SftpException, IOException, JSchException,
+			MojoExecutionException {
+		ParallelUpload parallelUpload = null;
+		if (parallelism > 1) {
+			parallelUpload = new ParallelUpload(sftp, parallelism);
+			parallelUpload.setPreserveMtime(delta);
+			parallelUpload.setJournal(journal);
+		}
+		if (delta) {
+			DeltaUpload deltaUpload = new DeltaUpload(sftp, logger,
+					deltaChecksum);
+			if (manifest != null) {
+				deltaUpload.setManifests(manifest,
+						readRemoteManifest(sftp, dst));
+			}
+			deltaUpload.synchronize(folder, dst, parallelUpload);
+			deltaUpload.logSummary();
+		} else if (journal != null) {
+			ResumableUpload resumableUpload = new ResumableUpload(sftp,
+					journal, logger);
+			resumableUpload.upload(folder, dst, parallelUpload);
+			resumableUpload.logSummary();
+		} else {
+			announce(folder, logger);
+			updloadFiles(folder, dst, sftp, parallelUpload);
+		}
+		if (parallelUpload == null) {
+			return;
+		}
+		Map<String, Exception> failures = parallelUpload.execute();
+		if (!failures.isEmpty()) {
+			StringBuilder message = new StringBuilder();
+			message.append(failures.size()).append(" file(s) failed to upload:");
+			for (Entry<String, Exception> failure : failures.entrySet()) {
+				message.append("\n\t").append(failure.getKey()).append(": ")
+						.append(failure.getValue().getLocalizedMessage());
+			}
+			MojoExecutionException exception = new MojoExecutionException(
+					message.toString());
+			exception.initCause(failures.values().iterator().next());
+			throw exception;
+		}
 	}
 
 	/**
-	 * Put a repository file.
+	 * Announce the files of a folder to upload, for the progress estimates.
 	 * 
-	 * @param sftp
-	 *            connection
-	 * @param repositoryDocument
-	 *            to publish
-	 * @param type
-	 *            {@link TYPE} of the document.
-	 * @throws SftpException
-	 *             on error
+	 * @param folder
+	 *            to upload
+	 * @param logger
+	 *            receiving the announcement
 	 */
-	private void putRepositoryFile(Sftp sftp,
-			RepositoryDocument repositoryDocument, TYPE type)
-			throws SftpException {
-		repositoryDocument.getRepository().setType(type.getClassName());
-		sftp.put(modelHelper.getInputStream(repositoryDocument, type),
-				type.getFilename());
+	private void announce(File folder, Logger logger) {
+		long files = 0;
+		long bytes = 0;
+		List<File> folders = new ArrayList<File>();
+		folders.add(folder);
+		while (!folders.isEmpty()) {
+			File[] listFiles = folders.remove(folders.size() - 1).listFiles();
+			if (listFiles == null) {
+				continue;
+			}
+			for (File file : listFiles) {
+				if (file.isDirectory()) {
+					folders.add(file);
+				} else {
+					files++;
+					bytes += file.length();
+				}
+			}
+		}
+		logger.event(Event.expected(Activity.UPLOAD, files, bytes));
 	}
 
 	/**
-	 * Recursively update parent composite descriptor. Stops when descriptor is
-	 * absent of parent directory.
+	 * Upload the site directory as a tar stream, or file by file if the
+	 * server can not unpack it.
 	 * 
 	 * @param site
-	 *            to publish to
+	 *            to deploy to
+	 * @param dst
+	 *            remote destination
 	 * @param sftp
 	 *            connection
+	 * @param logger
+	 *            logger
 	 * @throws SftpException
 	 *             on error
+	 * @throws IOException
+	 *             on error
+	 * @throws JSchException
+	 *             on error
+	 * @throws MojoExecutionException
+	 *             if the per-file fallback failed
 	 */
-	private void updateParentRepo(Site site, Sftp sftp) throws SftpException {
-		String currentRepoName = sftp.getCurrentFolderName();
-		sftp.cd("..");
-		String pwd = sftp.pwd();
-		getLog().info("Updating " + currentRepoName + " in " + pwd);
-		if (sftp.fileExists("compositeArtifacts.xml")) {
-			InputStream inputStream = sftp.get("compositeContent.xml");
-
-			RepositoryDocument repositoryDocument = modelHelper
-					.parseCompositeContent(inputStream);
-			boolean b = modelHelper.appendChild(repositoryDocument,
-					site.getName());
-			if (b) {
-				getLog().info("Added");
-			} else {
-				getLog().info("Updated");
+	private void uploadArchive(Site site, String dst, RemoteFileSystem sftp,
+			Logger logger) throws SftpException, IOException, JSchException,
+			MojoExecutionException {
+		if (sftp instanceof Sftp) {
+			ArchiveUpload archive = new ArchiveUpload((Sftp) sftp, logger);
+			if (archive.isAvailable()) {
+				archive.upload(siteDirectory, dst);
+				return;
 			}
-
-			updateCompositeMetafiles(sftp, repositoryDocument);
-
-			updateParentRepo(site, sftp);
-
+			logger.info("Remote tar not available, uploading file by file");
 		} else {
-			getLog().debug("Base repo: " + pwd);
+			// files are copied by the kernel, there is no round trip to save
+			logger.info("Archive upload needs sftp, uploading file by file");
 		}
-
+		updloadFiles(siteDirectory, dst, sftp, getParallelism(site), logger,
+				null);
 	}
 
 	/**
-	 * Recursively upload files.
+	 * Recursively upload files. Directories are always created on the given
+	 * connection, files are queued when a {@link ParallelUpload} is given.
 	 * 
 	 * @param folder
 	 *            to upload
@@ -296,13 +2376,15 @@ public class DeployMojo extends AbstractMojo {
 	 *            remote destination
 	 * @param sftp
 	 *            connection
+	 * @param parallelUpload
+	 *            queue of files, null to upload sequentially
 	 * @throws SftpException
 	 *             on error
 	 * @throws IOException
 	 *             on error
 	 */
-	private void updloadFiles(File folder, String dst, Sftp sftp)
-			throws SftpException, IOException {
+	private void updloadFiles(File folder, String dst, RemoteFileSystem sftp,
+			ParallelUpload parallelUpload) throws SftpException, IOException {
 		File[] listFiles = folder.listFiles();
 		for (int i = 0; i < listFiles.length; i++) {
 			File file = listFiles[i];
@@ -314,11 +2396,11 @@ public class DeployMojo extends AbstractMojo {
 				if (sftp.fileDoesNotExist(path)) {
 					sftp.mkdir(path);
 				}
-				updloadFiles(file, path, sftp);
+				updloadFiles(file, path, sftp, parallelUpload);
+			} else if (parallelUpload != null) {
+				parallelUpload.add(file, path);
 			} else {
-				InputStream inputStream = new FileInputStream(file);
-				sftp.put(inputStream, path);
-				inputStream.close();
+				sftp.put(file, path, false);
 			}
 
 		}
@@ -326,26 +2408,174 @@ public class DeployMojo extends AbstractMojo {
 	}
 
 	/**
-	 * Init/reset child repository remote location.
+	 * Number of upload channels for a site.
+	 * 
+	 * @param site
+	 *            to deploy to
+	 * @return site parallelism if set, mojo parallelism otherwise
+	 */
+	private int getParallelism(Site site) {
+		if (site.getParallelism() != null) {
+			return site.getParallelism();
+		}
+		return parallelism;
+	}
+
+	/**
+	 * Init/reset child repository remote location. In
+	 * {@link DeployMojo#delta} mode an existing location is kept as is. When
+	 * resuming an interrupted deployment, it is cleared again unless the
+	 * journal records that it was, files uploaded since then are kept.
 	 * 
 	 * @param sftp
 	 *            connection
+	 * @param journal
+	 *            of the deployment, null if none
 	 * @return child location
 	 * @throws SftpException
 	 *             on error
+	 * @throws IOException
+	 *             if the journal could not be written
 	 */
-	private String initChildLocation(Sftp sftp) throws SftpException {
+	private String initChildLocation(RemoteFileSystem sftp, Journal journal)
+			throws SftpException, IOException {
 		String childLocation = mavenProject.getVersion();
 
 		if (sftp.fileDoesNotExist(childLocation)) {
 			sftp.mkdir(childLocation);
 			getLog().info("Create new child localtion: " + childLocation);
-		} else {
+		} else if (!delta && isPending(journal, STEP_CLEAR)) {
 			sftp.rmtree(childLocation, false);
 		}
+		done(journal, STEP_CLEAR);
 		return childLocation;
 	}
 
+	/**
+	 * Create a new hidden staging folder next to the child location, or reuse
+	 * the one of the interrupted deployment being resumed. Other staging
+	 * folders of the same version, and the replaced folders left by previous
+	 * deploys, are deleted in background.
+	 * 
+	 * @param sftp
+	 *            connection
+	 * @param asyncDelete
+	 *            background deletion
+	 * @param journal
+	 *            of the deployment, null if none
+	 * @return staging location
+	 * @throws SftpException
+	 *             on error
+	 * @throws IOException
+	 *             if the journal could not be written
+	 */
+	private String initStagingLocation(RemoteFileSystem sftp,
+			AsyncDelete asyncDelete, Journal journal) throws SftpException,
+			IOException {
+		String prefix = STAGING_PREFIX + mavenProject.getVersion();
+		String pwd = sftp.pwd();
+		String stagingLocation = null;
+		if (journal != null && journal.isResumed()) {
+			stagingLocation = journal.get(KEY_STAGING);
+		}
+		if (stagingLocation != null && !sftp.fileExists(stagingLocation)) {
+			stagingLocation = null;
+		}
+		for (RemoteFile remoteFile : sftp.ls(".")) {
+			String filename = remoteFile.getFilename();
+			if (filename.equals(stagingLocation)) {
+				continue;
+			}
+			if (filename.startsWith(prefix + STAGING_INFIX)
+					|| isLeftover(filename)) {
+				asyncDelete.delete(pwd + "/" + filename);
+			}
+		}
+		if (stagingLocation != null) {
+			getLog().info("Resuming staging into: " + stagingLocation);
+			return stagingLocation;
+		}
+		stagingLocation = prefix + STAGING_INFIX + System.currentTimeMillis();
+		sftp.mkdir(stagingLocation);
+		if (journal != null) {
+			journal.put(KEY_STAGING, stagingLocation);
+		}
+		getLog().info("Staging into: " + stagingLocation);
+		return stagingLocation;
+	}
+
+	/**
+	 * Delete in background the replaced and expired folders of the current
+	 * folder left by previous deploys.
+	 * 
+	 * @param sftp
+	 *            connection
+	 * @param asyncDelete
+	 *            background deletion
+	 * @throws SftpException
+	 *             on error
+	 */
+	private void deleteLeftovers(RemoteFileSystem sftp,
+			AsyncDelete asyncDelete) throws SftpException {
+		String pwd = sftp.pwd();
+		for (RemoteFile remoteFile : sftp.ls(".")) {
+			if (isLeftover(remoteFile.getFilename())) {
+				asyncDelete.delete(pwd + "/" + remoteFile.getFilename());
+			}
+		}
+	}
+
+	/**
+	 * Check if a folder is a replaced or expired folder which its deploy gave
+	 * up deleting: renamed more than {@link DeployMojo#deleteTimeout} ago.
+	 * 
+	 * @param filename
+	 *            name of the folder
+	 * @return true if the folder is to be deleted
+	 */
+	private boolean isLeftover(String filename) {
+		int i = filename.lastIndexOf(RETIRED_INFIX);
+		if (!filename.startsWith(STAGING_PREFIX) || i <= 0) {
+			return false;
+		}
+		try {
+			return System.currentTimeMillis()
+					- Long.parseLong(filename.substring(i
+							+ RETIRED_INFIX.length())) > deleteTimeout * 1000L;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Swap the staging folder with the child location. The replaced child
+	 * location is deleted in background.
+	 * 
+	 * @param sftp
+	 *            connection
+	 * @param stagingLocation
+	 *            complete staging folder
+	 * @param asyncDelete
+	 *            background deletion
+	 * @throws SftpException
+	 *             on error
+	 */
+	private void publishStagingLocation(RemoteFileSystem sftp,
+			String stagingLocation, AsyncDelete asyncDelete)
+			throws SftpException {
+		String childLocation = mavenProject.getVersion();
+		if (sftp.fileExists(childLocation)) {
+			String retiredLocation = STAGING_PREFIX + childLocation
+					+ RETIRED_INFIX + System.currentTimeMillis();
+			sftp.rename(childLocation, retiredLocation);
+			sftp.rename(stagingLocation, childLocation);
+			asyncDelete.delete(sftp.pwd() + "/" + retiredLocation);
+		} else {
+			sftp.rename(stagingLocation, childLocation);
+		}
+		getLog().info("Published: " + childLocation);
+	}
+
 	/**
 	 * Init repository:
 	 * <ul>
@@ -358,23 +2588,30 @@ public class DeployMojo extends AbstractMojo {
 	 *            remote update site base
 	 * @param sftp
 	 *            connection
+	 * @param lockRenewal
+	 *            renews the locks of the deployment
 	 * @return true in new creation
 	 * @throws SftpException
 	 *             on error
+	 * @throws IOException
+	 *             on error
+	 * @throws JSchException
+	 *             if the auxiliary channel could not be opened
 	 */
-	private boolean initRepository(Site site, String basePath, Sftp sftp)
-			throws SftpException {
+	private boolean initRepository(Site site, String basePath,
+			RemoteFileSystem sftp, LockRenewal lockRenewal)
+			throws SftpException, IOException, JSchException {
 
 		createRemotePath(basePath, sftp);
 
 		if (site.getParent() != null) {
 			String parentPath = site.getParent();
-			createRemoteRepo(parentPath, sftp);
+			createRemoteRepo(parentPath, sftp, lockRenewal);
 		}
 
 		boolean newRepo = false;
-		if (sftp.fileDoesNotExist(site.getName())) {
-			sftp.mkdir(site.getName());
+		if (sftp.fileDoesNotExist(site.getName())
+				&& mkdir(sftp, site.getName())) {
 			getLog().info("Create new repo: " + site.getName());
 			newRepo = true;
 		}
@@ -383,6 +2620,72 @@ public class DeployMojo extends AbstractMojo {
 		return newRepo;
 	}
 
+	/**
+	 * Create a folder, unless created meanwhile by a concurrent deploy.
+	 * 
+	 * @param sftp
+	 *            connection
+	 * @param folder
+	 *            to create
+	 * @return true if created by this call
+	 * @throws SftpException
+	 *             if the folder could not be created and does not exist
+	 */
+	private boolean mkdir(RemoteFileSystem sftp, String folder)
+			throws SftpException {
+		try {
+			sftp.mkdir(folder);
+			return true;
+		} catch (SftpException e) {
+			try {
+				sftp.stat(folder);
+			} catch (SftpException notFound) {
+				throw e;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Lock a composite folder, or the base path holding the
+	 * {@link RemoteIndex}, if composites are locked.
+	 * 
+	 * @param sftp
+	 *            connection
+	 * @param folder
+	 *            absolute path
+	 * @param lockRenewal
+	 *            renews the lock while held
+	 * @return acquired lock, null if composites are not locked
+	 * @throws SftpException
+	 *             on error
+	 * @throws IOException
+	 *             on timeout
+	 */
+	private RemoteLock lockComposite(RemoteFileSystem sftp, String folder,
+			LockRenewal lockRenewal) throws SftpException, IOException {
+		if (!lockComposites) {
+			return null;
+		}
+		RemoteLock lock = new RemoteLock(sftp, folder, lockRenewal,
+				new MavenLogger(getLog()));
+		lock.acquire(lockLease * 1000L, lockTimeout * 1000L);
+		return lock;
+	}
+
+	/**
+	 * Release a lock of
+	 * {@link #lockComposite(RemoteFileSystem, String, LockRenewal)}.
+	 * 
+	 * @param lock
+	 *            to release, may be null
+	 */
+	private static void unlock(RemoteLock lock) {
+		if (lock != null) {
+			lock.release();
+		}
+	}
+
 	/**
 	 * Create remote tree.
 	 * 
@@ -393,7 +2696,8 @@ public class DeployMojo extends AbstractMojo {
 	 * @throws SftpException
 	 *             on error
 	 */
-	private void createRemotePath(String path, Sftp sftp) throws SftpException {
+	private void createRemotePath(String path, RemoteFileSystem sftp)
+			throws SftpException {
 		try {
 			sftp.cd(path);
 		} catch (SftpException e) {
@@ -402,7 +2706,7 @@ public class DeployMojo extends AbstractMojo {
 			while (tokenizer.hasMoreTokens()) {
 				String folder = tokenizer.nextToken();
 				if (sftp.fileDoesNotExist(folder)) {
-					sftp.mkdir(folder);
+					mkdir(sftp, folder);
 				}
 				sftp.cd(folder);
 			}
@@ -420,11 +2724,18 @@ public class DeployMojo extends AbstractMojo {
 	 *            to create
 	 * @param sftp
 	 *            connection
+	 * @param lockRenewal
+	 *            renews the locks of the deployment
 	 * @throws SftpException
 	 *             on error
+	 * @throws IOException
+	 *             on error
+	 * @throws JSchException
+	 *             if the auxiliary channel could not be opened
 	 */
-	protected void createRemoteRepo(String path, Sftp sftp)
-			throws SftpException {
+	protected void createRemoteRepo(String path, RemoteFileSystem sftp,
+			LockRenewal lockRenewal) throws SftpException, IOException,
+			JSchException {
 		try {
 			sftp.cd(path);
 		} catch (SftpException e) {
@@ -432,18 +2743,86 @@ public class DeployMojo extends AbstractMojo {
 			while (tokenizer.hasMoreTokens()) {
 				String folder = tokenizer.nextToken();
 				if (sftp.fileDoesNotExist(folder)) {
-					sftp.mkdir(folder);
+					mkdir(sftp, folder);
 				}
 				sftp.cd(folder);
-				if (sftp.fileDoesNotExist(ModelHelper.TYPE.ARTIFACT
-						.getFilename())) {
-					RepositoryDocument repositoryDocument = modelHelper
-							.newRepositoryDocument(folder,
-									ModelHelper.TYPE.METADATA);
-					updateCompositeMetafiles(sftp, repositoryDocument);
+				if (sftp.fileExists(ModelHelper.TYPE.ARTIFACT.getFilename())) {
+					continue;
 				}
+				RemoteLock lock = lockComposite(sftp, sftp.pwd(),
+						lockRenewal);
+				try {
+					if (lock == null
+							|| sftp.fileDoesNotExist(ModelHelper.TYPE.ARTIFACT
+									.getFilename())) {
+						RepositoryDocument repositoryDocument = modelHelper
+								.newRepositoryDocument(folder,
+										ModelHelper.TYPE.METADATA);
+						updateCompositeMetafiles(sftp, repositoryDocument,
+								null);
+					}
+				} finally {
+					unlock(lock);
+				}
+			}
+		}
+	}
+
+	/**
+	 * {@link OutputStream} writing to two streams.
+	 */
+	private static final class TeeOutputStream extends OutputStream {
+
+		/**
+		 * First output.
+		 */
+		private final OutputStream first;
+
+		/**
+		 * Second output.
+		 */
+		private final OutputStream second;
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param first
+		 *            output
+		 * @param second
+		 *            output
+		 */
+		private TeeOutputStream(OutputStream first, OutputStream second) {
+			this.first = first;
+			this.second = second;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			first.write(b);
+			second.write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			first.write(b, off, len);
+			second.write(b, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			first.flush();
+			second.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				first.close();
+			} finally {
+				second.close();
 			}
 		}
+
 	}
 
 }
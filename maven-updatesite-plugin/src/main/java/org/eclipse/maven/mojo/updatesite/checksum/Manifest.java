@@ -0,0 +1,424 @@
+package org.eclipse.maven.mojo.updatesite.checksum;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * SHA-256 and MD5 checksums of the files of a site, by path relative to the
+ * site folder.
+ * <p>
+ * Files are hashed in parallel, each file by one thread feeding both digests
+ * from a single read: small files through a direct buffer reused by the
+ * thread, larger ones through memory-mapped windows, so that no heap copy of
+ * the content is made. The manifest is written in the format of
+ * <code>sha256sum</code> and <code>md5sum</code>, which can check it
+ * remotely with <code>-c</code>.
+ */
+public class Manifest {
+
+	/**
+	 * Name of the SHA-256 manifest.
+	 */
+	public static final String SHA256 = "checksums.sha256";
+
+	/**
+	 * Name of the MD5 manifest.
+	 */
+	public static final String MD5 = "checksums.md5";
+
+	/**
+	 * Files up to this size are read through the direct buffer of the thread,
+	 * larger ones are mapped.
+	 */
+	static final int BUFFER_SIZE = 1024 * 1024;
+
+	/**
+	 * Size of a mapped window.
+	 */
+	static final long MAP_SIZE = 64L * 1024 * 1024;
+
+	/**
+	 * Separator of checksum and path, binary mode of the coreutils format.
+	 */
+	private static final String SEPARATOR = " *";
+
+	/**
+	 * Encoding of the manifests and fingerprints.
+	 */
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * Hexadecimal digits.
+	 */
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	/**
+	 * Read buffer of the hashing thread.
+	 */
+	private static final ThreadLocal<ByteBuffer> BUFFER = new ThreadLocal<ByteBuffer>() {
+		@Override
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocateDirect(BUFFER_SIZE);
+		}
+	};
+
+	/**
+	 * Digests of the hashing thread, SHA-256 then MD5.
+	 */
+	private static final ThreadLocal<MessageDigest[]> DIGESTS = new ThreadLocal<MessageDigest[]>() {
+		@Override
+		protected MessageDigest[] initialValue() {
+			try {
+				return new MessageDigest[] {
+						MessageDigest.getInstance("SHA-256"),
+						MessageDigest.getInstance("MD5") };
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	};
+
+	/**
+	 * SHA-256 by path.
+	 */
+	private final SortedMap<String, String> sha256 = new TreeMap<String, String>();
+
+	/**
+	 * MD5 by path, empty when read from a SHA-256 manifest.
+	 */
+	private final SortedMap<String, String> md5 = new TreeMap<String, String>();
+
+	/**
+	 * Hash the files of a folder.
+	 *
+	 * @param folder
+	 *            to hash
+	 * @param threads
+	 *            number of hashing threads, 0 for one per processor
+	 * @return manifest of the folder
+	 * @throws IOException
+	 *             if a file could not be read
+	 */
+	public static Manifest compute(File folder, int threads)
+			throws IOException {
+		List<String> paths = new ArrayList<String>();
+		List<File> files = new ArrayList<File>();
+		list(folder, "", paths, files);
+
+		int size = threads > 0 ? threads : Runtime.getRuntime()
+				.availableProcessors();
+		Manifest manifest = new Manifest();
+		if (files.isEmpty()) {
+			return manifest;
+		}
+		ExecutorService executorService = Executors.newFixedThreadPool(Math
+				.min(size, files.size()));
+		try {
+			List<Future<String[]>> futures = new ArrayList<Future<String[]>>(
+					files.size());
+			for (final File file : files) {
+				futures.add(executorService.submit(new Callable<String[]>() {
+					public String[] call() throws IOException {
+						return hash(file);
+					}
+				}));
+			}
+			for (int i = 0; i < futures.size(); i++) {
+				String[] checksums = get(futures.get(i));
+				manifest.sha256.put(paths.get(i), checksums[0]);
+				manifest.md5.put(paths.get(i), checksums[1]);
+			}
+		} finally {
+			executorService.shutdownNow();
+		}
+		return manifest;
+	}
+
+	/**
+	 * Read a SHA-256 manifest.
+	 *
+	 * @param inputStream
+	 *            manifest content, closed on return
+	 * @return manifest without MD5
+	 * @throws IOException
+	 *             on error
+	 */
+	public static Manifest read(InputStream inputStream) throws IOException {
+		Manifest manifest = new Manifest();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				inputStream, "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				int separator = line.indexOf(SEPARATOR);
+				if (separator > 0) {
+					manifest.sha256.put(
+							line.substring(separator + SEPARATOR.length()),
+							line.substring(0, separator));
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return manifest;
+	}
+
+	/**
+	 * Write {@link Manifest#SHA256} and {@link Manifest#MD5} to a folder.
+	 *
+	 * @param folder
+	 *            to write to
+	 * @return written files
+	 * @throws IOException
+	 *             on error
+	 */
+	public File[] write(File folder) throws IOException {
+		folder.mkdirs();
+		File[] files = { new File(folder, SHA256), new File(folder, MD5) };
+		write(files[0], sha256);
+		write(files[1], md5);
+		return files;
+	}
+
+	/**
+	 * @param path
+	 *            relative to the site folder, with '/' separators
+	 * @return SHA-256 in hexadecimal, null if unknown
+	 */
+	public String getSha256(String path) {
+		return sha256.get(path);
+	}
+
+	/**
+	 * @param path
+	 *            relative to the site folder, with '/' separators
+	 * @return MD5 in hexadecimal, null if unknown
+	 */
+	public String getMd5(String path) {
+		return md5.get(path);
+	}
+
+	/**
+	 * @return number of files
+	 */
+	public int size() {
+		return sha256.size();
+	}
+
+	/**
+	 * @return paths of the files, in order
+	 */
+	public List<String> getPaths() {
+		return Collections.unmodifiableList(new ArrayList<String>(sha256
+				.keySet()));
+	}
+
+	/**
+	 * Fingerprint of the manifest, changing with any path or content.
+	 *
+	 * @return SHA-256 of the SHA-256 manifest, in hexadecimal
+	 */
+	public String getFingerprint() {
+		MessageDigest digest = DIGESTS.get()[0];
+		digest.reset();
+		for (Map.Entry<String, String> entry : sha256.entrySet()) {
+			digest.update((entry.getValue() + SEPARATOR + entry.getKey() + "\n")
+					.getBytes(UTF_8));
+		}
+		return hex(digest.digest());
+	}
+
+	/**
+	 * Fingerprint of the files of a folder from their paths, sizes and
+	 * modification times, without reading them: a rebuild changes it even if
+	 * the content is the same.
+	 *
+	 * @param folder
+	 *            to fingerprint
+	 * @return SHA-256 in hexadecimal
+	 */
+	public static String fingerprint(File folder) {
+		List<String> paths = new ArrayList<String>();
+		List<File> files = new ArrayList<File>();
+		list(folder, "", paths, files);
+		MessageDigest digest = DIGESTS.get()[0];
+		digest.reset();
+		for (int i = 0; i < files.size(); i++) {
+			File file = files.get(i);
+			digest.update((file.length() + " " + file.lastModified() + " "
+					+ paths.get(i) + "\n").getBytes(UTF_8));
+		}
+		return hex(digest.digest());
+	}
+
+	/**
+	 * Collect the files of a folder, in path order.
+	 *
+	 * @param folder
+	 *            to list
+	 * @param prefix
+	 *            relative path of the folder
+	 * @param paths
+	 *            relative paths of the files
+	 * @param files
+	 *            files, in the order of the paths
+	 */
+	private static void list(File folder, String prefix, List<String> paths,
+			List<File> files) {
+		File[] listFiles = folder.listFiles();
+		if (listFiles == null) {
+			return;
+		}
+		Arrays.sort(listFiles);
+		for (File file : listFiles) {
+			if (file.isDirectory()) {
+				list(file, prefix + file.getName() + "/", paths, files);
+			} else {
+				paths.add(prefix + file.getName());
+				files.add(file);
+			}
+		}
+	}
+
+	/**
+	 * Hash a file with the digests of the current thread.
+	 *
+	 * @param file
+	 *            to hash
+	 * @return SHA-256 and MD5 in hexadecimal
+	 * @throws IOException
+	 *             on error
+	 */
+	static String[] hash(File file) throws IOException {
+		MessageDigest[] digests = DIGESTS.get();
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = randomAccessFile.getChannel();
+			long size = channel.size();
+			if (size <= BUFFER_SIZE) {
+				ByteBuffer buffer = BUFFER.get();
+				buffer.clear();
+				while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+					continue;
+				}
+				buffer.flip();
+				update(digests, buffer);
+			} else {
+				for (long position = 0; position < size; position += MAP_SIZE) {
+					MappedByteBuffer buffer = channel.map(
+							FileChannel.MapMode.READ_ONLY, position,
+							Math.min(MAP_SIZE, size - position));
+					update(digests, buffer);
+				}
+			}
+		} finally {
+			randomAccessFile.close();
+		}
+		return new String[] { hex(digests[0].digest()),
+				hex(digests[1].digest()) };
+	}
+
+	/**
+	 * Feed every digest with the remaining content of a buffer.
+	 *
+	 * @param digests
+	 *            to update
+	 * @param buffer
+	 *            content, left unchanged
+	 */
+	private static void update(MessageDigest[] digests, ByteBuffer buffer) {
+		for (MessageDigest digest : digests) {
+			digest.update(buffer.duplicate());
+		}
+	}
+
+	/**
+	 * @param bytes
+	 *            to encode
+	 * @return lower case hexadecimal
+	 */
+	private static String hex(byte[] bytes) {
+		char[] chars = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			chars[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+			chars[2 * i + 1] = HEX[bytes[i] & 0xf];
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Wait for a hashed file.
+	 *
+	 * @param future
+	 *            of the hash
+	 * @return checksums
+	 * @throws IOException
+	 *             thrown by the hash or on interruption
+	 */
+	private static String[] get(Future<String[]> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while hashing");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new IOException(cause.getLocalizedMessage(), cause);
+		}
+	}
+
+	/**
+	 * Write a manifest file.
+	 *
+	 * @param file
+	 *            to write
+	 * @param checksums
+	 *            by path
+	 * @throws IOException
+	 *             on error
+	 */
+	private static void write(File file, Map<String, String> checksums)
+			throws IOException {
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+				"UTF-8");
+		try {
+			for (Map.Entry<String, String> entry : checksums.entrySet()) {
+				writer.write(entry.getValue());
+				writer.write(SEPARATOR);
+				writer.write(entry.getKey());
+				writer.write('\n');
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+}
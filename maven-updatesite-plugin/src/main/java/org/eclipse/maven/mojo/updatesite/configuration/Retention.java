@@ -0,0 +1,145 @@
+package org.eclipse.maven.mojo.updatesite.configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Retention policy of the children of a site composite. A child is kept if
+ * any rule keeps it; the others are removed from the composite and their
+ * folders deleted. Without any rule, every child is kept.
+ */
+public class Retention {
+
+	/**
+	 * Milliseconds in a day.
+	 */
+	private static final long DAY = 24L * 60 * 60 * 1000;
+
+	/**
+	 * Number of most recently added children to keep.
+	 */
+	private Integer keepLast;
+
+	/**
+	 * Keep children modified less than this number of days ago.
+	 */
+	private Integer keepDays;
+
+	/**
+	 * Regular expression of the child locations always kept.
+	 */
+	private String keep;
+
+	/**
+	 * Getter for {@link Retention#keepLast}.
+	 *
+	 * @return number of children or null if not set
+	 */
+	public Integer getKeepLast() {
+		return keepLast;
+	}
+
+	/**
+	 * Setter for {@link Retention#keepLast}.
+	 *
+	 * @param keepLast
+	 */
+	public void setKeepLast(Integer keepLast) {
+		this.keepLast = keepLast;
+	}
+
+	/**
+	 * Getter for {@link Retention#keepDays}.
+	 *
+	 * @return number of days or null if not set
+	 */
+	public Integer getKeepDays() {
+		return keepDays;
+	}
+
+	/**
+	 * Setter for {@link Retention#keepDays}.
+	 *
+	 * @param keepDays
+	 */
+	public void setKeepDays(Integer keepDays) {
+		this.keepDays = keepDays;
+	}
+
+	/**
+	 * Getter for {@link Retention#keep}.
+	 *
+	 * @return regular expression or null if not set
+	 */
+	public String getKeep() {
+		return keep;
+	}
+
+	/**
+	 * Setter for {@link Retention#keep}.
+	 *
+	 * @param keep
+	 */
+	public void setKeep(String keep) {
+		this.keep = keep;
+	}
+
+	/**
+	 * @return true if a rule limits the children
+	 */
+	public boolean isEnabled() {
+		return keepLast != null || keepDays != null;
+	}
+
+	/**
+	 * Select the children to remove. The current child and the locations
+	 * which are not a plain folder name are always kept, and not counted by
+	 * {@link Retention#keepLast}.
+	 *
+	 * @param children
+	 *            locations, in the order they were added
+	 * @param modified
+	 *            modification time in milliseconds by location, missing if
+	 *            unknown
+	 * @param current
+	 *            location of the deployed child
+	 * @param now
+	 *            current time in milliseconds
+	 * @return locations to remove, in the order of the children
+	 */
+	public List<String> expired(List<String> children,
+			Map<String, Long> modified, String current, long now) {
+		List<String> expired = new ArrayList<String>();
+		if (!isEnabled()) {
+			return expired;
+		}
+		List<String> folders = new ArrayList<String>(children.size());
+		for (String child : children) {
+			if (!child.startsWith(".") && child.indexOf('/') < 0
+					&& child.indexOf(':') < 0) {
+				folders.add(child);
+			}
+		}
+		Pattern pattern = keep == null ? null : Pattern.compile(keep);
+		int last = folders.size() - (keepLast == null ? 0 : keepLast);
+		for (int i = 0; i < last; i++) {
+			String child = folders.get(i);
+			if (child.equals(current)) {
+				continue;
+			}
+			if (pattern != null && pattern.matcher(child).matches()) {
+				continue;
+			}
+			Long time = modified.get(child);
+			if (keepDays != null && time != null
+					&& now - time.longValue() < keepDays * DAY) {
+				continue;
+			}
+			expired.add(child);
+		}
+		return expired;
+	}
+
+}
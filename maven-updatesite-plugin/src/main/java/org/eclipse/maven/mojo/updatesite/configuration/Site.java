@@ -28,6 +28,17 @@ public class Site {
 	 */
 	private String name;
 
+	/**
+	 * Number of concurrent upload channels, overrides the mojo setting.
+	 */
+	private Integer parallelism;
+
+	/**
+	 * Retention policy of the children of the site composite, null to keep
+	 * them all.
+	 */
+	private Retention retention;
+
 	/**
 	 * Getter for {@link Site#serverId}.
 	 * 
@@ -101,4 +112,40 @@ public class Site {
 		this.name = name;
 	}
 
+	/**
+	 * Getter for {@link Site#parallelism}.
+	 * 
+	 * @return parallelism or null to use the mojo setting
+	 */
+	public Integer getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Setter for {@link Site#parallelism}.
+	 * 
+	 * @param parallelism
+	 */
+	public void setParallelism(Integer parallelism) {
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Getter for {@link Site#retention}.
+	 * 
+	 * @return retention policy or null to keep every child
+	 */
+	public Retention getRetention() {
+		return retention;
+	}
+
+	/**
+	 * Setter for {@link Site#retention}.
+	 * 
+	 * @param retention
+	 */
+	public void setRetention(Retention retention) {
+		this.retention = retention;
+	}
+
 }
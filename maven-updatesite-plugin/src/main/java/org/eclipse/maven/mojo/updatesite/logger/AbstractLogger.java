@@ -0,0 +1,54 @@
+package org.eclipse.maven.mojo.updatesite.logger;
+
+/**
+ * Base {@link Logger} routing every level to
+ * {@link Logger#log(Level, String)} and logging events one by one at debug
+ * level.
+ */
+public abstract class AbstractLogger implements Logger {
+
+	/**
+	 * {@inheritDoc}. All levels by default.
+	 */
+	public boolean isEnabled(Level level) {
+		return true;
+	}
+
+	/**
+	 * {@inheritDoc}.
+	 */
+	public void debug(String message) {
+		log(Level.DEBUG, message);
+	}
+
+	/**
+	 * {@inheritDoc}.
+	 */
+	public void info(String message) {
+		log(Level.INFO, message);
+	}
+
+	/**
+	 * {@inheritDoc}.
+	 */
+	public void warn(String message) {
+		log(Level.WARN, message);
+	}
+
+	/**
+	 * {@inheritDoc}.
+	 */
+	public void error(String message) {
+		log(Level.ERROR, message);
+	}
+
+	/**
+	 * {@inheritDoc}.
+	 */
+	public void event(Event event) {
+		if (isEnabled(Level.DEBUG)) {
+			log(Level.DEBUG, event.toString());
+		}
+	}
+
+}
@@ -0,0 +1,352 @@
+package org.eclipse.maven.mojo.updatesite.logger;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.maven.mojo.updatesite.logger.Event.Activity;
+
+/**
+ * {@link Logger} writing to its delegate from a background thread, so that
+ * the transfer threads never wait for the console. Per-file
+ * {@link Event}s only update counters; they are printed as periodic progress
+ * summaries with rates and estimated remaining time, and one by one at debug
+ * level only. {@link AsyncLogger#close()} flushes the pending messages and
+ * prints the final summaries.
+ */
+public class AsyncLogger extends AbstractLogger {
+
+	/**
+	 * Default delay between progress summaries, in milliseconds.
+	 */
+	public static final long DEFAULT_INTERVAL = 5000;
+
+	/**
+	 * Bytes per megabyte.
+	 */
+	private static final double MEGABYTE = 1024 * 1024;
+
+	/**
+	 * Nanoseconds per second.
+	 */
+	private static final double NANOS_PER_SECOND = 1e9;
+
+	/**
+	 * Message waiting to be written.
+	 */
+	private static class Message {
+
+		/**
+		 * Level.
+		 */
+		private final Level level;
+
+		/**
+		 * Text.
+		 */
+		private final String text;
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param level
+		 *            level
+		 * @param text
+		 *            text
+		 */
+		Message(Level level, String text) {
+			this.level = level;
+			this.text = text;
+		}
+	}
+
+	/**
+	 * Counters of an activity.
+	 */
+	private static class Progress {
+
+		/**
+		 * Announced files.
+		 */
+		private final AtomicLong expectedFiles = new AtomicLong();
+
+		/**
+		 * Announced bytes.
+		 */
+		private final AtomicLong expectedBytes = new AtomicLong();
+
+		/**
+		 * Files done.
+		 */
+		private final AtomicLong files = new AtomicLong();
+
+		/**
+		 * Bytes done.
+		 */
+		private final AtomicLong bytes = new AtomicLong();
+
+		/**
+		 * Time of the first file done, 0 before.
+		 */
+		private final AtomicLong start = new AtomicLong();
+
+		/**
+		 * Files done at the last summary, only used by the writer thread.
+		 */
+		private long reported;
+
+		/**
+		 * Record a file done.
+		 * 
+		 * @param size
+		 *            of the file
+		 */
+		void done(long size) {
+			start.compareAndSet(0, System.nanoTime());
+			files.incrementAndGet();
+			bytes.addAndGet(size);
+		}
+
+		/**
+		 * Summarize the progress since the first file.
+		 * 
+		 * @param activity
+		 *            kind of work
+		 * @param last
+		 *            true for the final summary, without estimate
+		 * @return summary, null if nothing was done, or nothing since the
+		 *         last periodic summary
+		 */
+		String summarize(Activity activity, boolean last) {
+			long doneFiles = files.get();
+			if (doneFiles == 0 || !last && doneFiles == reported) {
+				return null;
+			}
+			reported = doneFiles;
+			long doneBytes = bytes.get();
+			long totalFiles = expectedFiles.get();
+			long totalBytes = expectedBytes.get();
+			double seconds = Math.max(1e-3,
+					(System.nanoTime() - start.get()) / NANOS_PER_SECOND);
+
+			StringBuilder summary = new StringBuilder(activity.getLabel());
+			summary.append(' ').append(doneFiles);
+			if (totalFiles >= doneFiles) {
+				summary.append('/').append(totalFiles);
+			}
+			summary.append(" file(s)");
+			if (doneBytes > 0) {
+				summary.append(", ").append(megabytes(doneBytes));
+				if (totalBytes >= doneBytes) {
+					summary.append('/').append(megabytes(totalBytes));
+				}
+				summary.append(" MB");
+			}
+			summary.append(String.format(Locale.ENGLISH, ", %.1f files/s",
+					doneFiles / seconds));
+			if (doneBytes > 0) {
+				summary.append(String.format(Locale.ENGLISH, ", %.2f MB/s",
+						doneBytes / MEGABYTE / seconds));
+			}
+			if (!last && totalFiles > doneFiles) {
+				double remaining;
+				if (totalBytes > doneBytes && doneBytes > 0) {
+					remaining = (totalBytes - doneBytes) * seconds / doneBytes;
+				} else {
+					remaining = (totalFiles - doneFiles) * seconds / doneFiles;
+				}
+				summary.append(", ETA ").append(duration((long) remaining));
+			} else {
+				summary.append(String.format(Locale.ENGLISH, " in %.1f s",
+						seconds));
+			}
+			return summary.toString();
+		}
+
+		/**
+		 * @param size
+		 *            in bytes
+		 * @return size in megabytes with one decimal
+		 */
+		private static String megabytes(long size) {
+			return String.format(Locale.ENGLISH, "%.1f", size / MEGABYTE);
+		}
+
+		/**
+		 * @param seconds
+		 *            duration
+		 * @return minutes:seconds
+		 */
+		private static String duration(long seconds) {
+			return String.format(Locale.ENGLISH, "%d:%02d", seconds / 60,
+					seconds % 60);
+		}
+	}
+
+	/**
+	 * Marks the end of the queue.
+	 */
+	private static final Message END = new Message(Level.DEBUG, null);
+
+	/**
+	 * Delegate, only called from the writer thread until closed.
+	 */
+	private final Logger delegate;
+
+	/**
+	 * Delay between progress summaries in milliseconds.
+	 */
+	private final long interval;
+
+	/**
+	 * Pending messages.
+	 */
+	private final BlockingQueue<Message> queue = new LinkedBlockingQueue<Message>();
+
+	/**
+	 * Progress by activity, filled once.
+	 */
+	private final Map<Activity, Progress> progress = new EnumMap<Activity, Progress>(
+			Activity.class);
+
+	/**
+	 * Writer thread.
+	 */
+	private final Thread writer;
+
+	/**
+	 * True once closed: messages are then written directly.
+	 */
+	private volatile boolean closed;
+
+	/**
+	 * Constructor, starts the writer thread.
+	 * 
+	 * @param delegate
+	 *            to write to
+	 * @param interval
+	 *            delay between progress summaries in milliseconds
+	 */
+	public AsyncLogger(Logger delegate, long interval) {
+		this.delegate = delegate;
+		this.interval = interval > 0 ? interval : DEFAULT_INTERVAL;
+		for (Activity activity : Activity.values()) {
+			progress.put(activity, new Progress());
+		}
+		writer = new Thread(new Runnable() {
+			public void run() {
+				write();
+			}
+		}, "updatesite-logger");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * {@inheritDoc}.
+	 */
+	@Override
+	public boolean isEnabled(Level level) {
+		return delegate.isEnabled(level);
+	}
+
+	/**
+	 * {@inheritDoc}. Queued, unless closed.
+	 */
+	public void log(Level level, String message) {
+		if (closed) {
+			delegate.log(level, message);
+		} else {
+			queue.add(new Message(level, message));
+		}
+	}
+
+	/**
+	 * {@inheritDoc}. Counted, and queued at debug level.
+	 */
+	@Override
+	public void event(Event event) {
+		Progress activityProgress = progress.get(event.getActivity());
+		if (event.isExpected()) {
+			activityProgress.expectedFiles.addAndGet(event.getFiles());
+			activityProgress.expectedBytes.addAndGet(event.getBytes());
+		} else {
+			activityProgress.done(event.getBytes());
+			if (isEnabled(Level.DEBUG)) {
+				log(Level.DEBUG, event.toString());
+			}
+		}
+	}
+
+	/**
+	 * Write the pending messages and the final summaries, then stop the
+	 * writer thread. Later messages are written directly.
+	 */
+	public void close() {
+		if (closed) {
+			return;
+		}
+		queue.add(END);
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		closed = true;
+		Message message;
+		while ((message = queue.poll()) != null) {
+			delegate.log(message.level, message.text);
+		}
+	}
+
+	/**
+	 * Loop of the writer thread.
+	 */
+	private void write() {
+		long next = System.currentTimeMillis() + interval;
+		try {
+			while (true) {
+				Message message = queue.poll(
+						Math.max(0, next - System.currentTimeMillis()),
+						TimeUnit.MILLISECONDS);
+				if (message == END) {
+					break;
+				}
+				if (message != null) {
+					delegate.log(message.level, message.text);
+				}
+				if (System.currentTimeMillis() >= next) {
+					summarize(false);
+					next = System.currentTimeMillis() + interval;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		Message message;
+		while ((message = queue.poll()) != null && message != END) {
+			delegate.log(message.level, message.text);
+		}
+		summarize(true);
+	}
+
+	/**
+	 * Write the summary of each activity with new progress.
+	 * 
+	 * @param last
+	 *            true for the final summaries
+	 */
+	private void summarize(boolean last) {
+		for (Map.Entry<Activity, Progress> entry : progress.entrySet()) {
+			String summary = entry.getValue().summarize(entry.getKey(), last);
+			if (summary != null) {
+				delegate.info(summary);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,157 @@
+package org.eclipse.maven.mojo.updatesite.logger;
+
+/**
+ * Unit of work reported to a {@link Logger}: a file done, or the amount of
+ * work announced for an activity, to estimate the remaining time.
+ */
+public final class Event {
+
+	/**
+	 * Kind of work.
+	 */
+	public enum Activity {
+
+		UPLOAD("Uploaded"), DELETE("Deleted");
+
+		/**
+		 * Past participle, to start messages with.
+		 */
+		private final String label;
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param label
+		 *            past participle
+		 */
+		private Activity(String label) {
+			this.label = label;
+		}
+
+		/**
+		 * Getter for {@link Activity#label}.
+		 * 
+		 * @return past participle
+		 */
+		public String getLabel() {
+			return label;
+		}
+	}
+
+	/**
+	 * Kind of work.
+	 */
+	private final Activity activity;
+
+	/**
+	 * Remote path of the file done, null for announced work.
+	 */
+	private final String path;
+
+	/**
+	 * Number of files.
+	 */
+	private final long files;
+
+	/**
+	 * Number of bytes.
+	 */
+	private final long bytes;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param activity
+	 *            kind of work
+	 * @param path
+	 *            of the file done, null for announced work
+	 * @param files
+	 *            number of files
+	 * @param bytes
+	 *            number of bytes
+	 */
+	private Event(Activity activity, String path, long files, long bytes) {
+		this.activity = activity;
+		this.path = path;
+		this.files = files;
+		this.bytes = bytes;
+	}
+
+	/**
+	 * Announce work to come.
+	 * 
+	 * @param activity
+	 *            kind of work
+	 * @param files
+	 *            number of files to come
+	 * @param bytes
+	 *            number of bytes to come
+	 * @return event
+	 */
+	public static Event expected(Activity activity, long files, long bytes) {
+		return new Event(activity, null, files, bytes);
+	}
+
+	/**
+	 * Report a file done.
+	 * 
+	 * @param activity
+	 *            kind of work
+	 * @param path
+	 *            remote path of the file
+	 * @param bytes
+	 *            size of the file
+	 * @return event
+	 */
+	public static Event done(Activity activity, String path, long bytes) {
+		return new Event(activity, path, 1, bytes);
+	}
+
+	/**
+	 * @return kind of work
+	 */
+	public Activity getActivity() {
+		return activity;
+	}
+
+	/**
+	 * @return true for announced work, false for a file done
+	 */
+	public boolean isExpected() {
+		return path == null;
+	}
+
+	/**
+	 * @return remote path of the file done, null for announced work
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * @return number of files
+	 */
+	public long getFiles() {
+		return files;
+	}
+
+	/**
+	 * @return number of bytes
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * @return one line description
+	 */
+	@Override
+	public String toString() {
+		if (isExpected()) {
+			return activity.getLabel() + " expected: " + files + " file(s), "
+					+ bytes + " bytes";
+		}
+		return activity.getLabel() + ": " + path;
+	}
+
+}
@@ -1,5 +1,76 @@
 package org.eclipse.maven.mojo.updatesite.logger;
 
+/**
+ * Logger of the transfer classes, independent of Maven. Besides messages, it
+ * receives {@link Event}s for the work done per file, which implementations
+ * may aggregate instead of printing a line per file.
+ * 
+ * @author chelebithil
+ * 
+ */
 public interface Logger {
+
+	/**
+	 * Message levels, from the most verbose.
+	 */
+	enum Level {
+		DEBUG, INFO, WARN, ERROR
+	}
+
+	/**
+	 * @param level
+	 *            of a message
+	 * @return true if messages of this level are printed
+	 */
+	boolean isEnabled(Level level);
+
+	/**
+	 * Log a message.
+	 * 
+	 * @param level
+	 *            of the message
+	 * @param message
+	 *            to log
+	 */
+	void log(Level level, String message);
+
+	/**
+	 * Log a message at debug level.
+	 * 
+	 * @param message
+	 *            to log
+	 */
+	void debug(String message);
+
+	/**
+	 * Log a message at info level.
+	 * 
+	 * @param message
+	 *            to log
+	 */
 	void info(String message);
+
+	/**
+	 * Log a message at warn level.
+	 * 
+	 * @param message
+	 *            to log
+	 */
+	void warn(String message);
+
+	/**
+	 * Log a message at error level.
+	 * 
+	 * @param message
+	 *            to log
+	 */
+	void error(String message);
+
+	/**
+	 * Record a structured event.
+	 * 
+	 * @param event
+	 *            to record
+	 */
+	void event(Event event);
 }
@@ -0,0 +1,61 @@
+package org.eclipse.maven.mojo.updatesite.logger;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * {@link Logger} writing to a Maven {@link Log}.
+ */
+public class MavenLogger extends AbstractLogger {
+
+	/**
+	 * Delegate.
+	 */
+	private final Log log;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param log
+	 *            delegate
+	 */
+	public MavenLogger(Log log) {
+		this.log = log;
+	}
+
+	/**
+	 * {@inheritDoc}.
+	 */
+	@Override
+	public boolean isEnabled(Level level) {
+		switch (level) {
+		case DEBUG:
+			return log.isDebugEnabled();
+		case INFO:
+			return log.isInfoEnabled();
+		case WARN:
+			return log.isWarnEnabled();
+		default:
+			return log.isErrorEnabled();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}.
+	 */
+	public void log(Level level, String message) {
+		switch (level) {
+		case DEBUG:
+			log.debug(message);
+			break;
+		case INFO:
+			log.info(message);
+			break;
+		case WARN:
+			log.warn(message);
+			break;
+		default:
+			log.error(message);
+		}
+	}
+
+}
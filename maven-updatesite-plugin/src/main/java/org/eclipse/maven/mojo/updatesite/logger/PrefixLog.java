@@ -0,0 +1,157 @@
+package org.eclipse.maven.mojo.updatesite.logger;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * {@link Log} prefixing every message, to tell apart the output of sites
+ * deployed concurrently.
+ */
+public class PrefixLog implements Log {
+
+	/**
+	 * Delegate.
+	 */
+	private final Log log;
+
+	/**
+	 * Message prefix.
+	 */
+	private final String prefix;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param log
+	 *            delegate
+	 * @param prefix
+	 *            message prefix
+	 */
+	public PrefixLog(Log log, String prefix) {
+		this.log = log;
+		this.prefix = prefix;
+	}
+
+	/**
+	 * Prefix a message.
+	 * 
+	 * @param content
+	 *            message
+	 * @return prefixed message
+	 */
+	private CharSequence prefix(CharSequence content) {
+		return prefix + content;
+	}
+
+	/**
+	 * {@inheritDoc}.
+	 */
+	public boolean isDebugEnabled() {
+		return log.isDebugEnabled();
+	}
+
+	/**
+	 * {@inheritDoc}.
+	 */
+	public void debug(CharSequence content) {
+		log.debug(prefix(content));
+	}
+
+	/**
+	 * {@inheritDoc}.
+	 */
+	public void debug(CharSequence content, Throwable error) {
+		log.debug(prefix(content), error);
+	}
+
+	/**
+	 * {@inheritDoc}.
+	 */
+	public void debug(Throwable error) {
+		log.debug(prefix(error.getLocalizedMessage()), error);
+	}
+
+	/**
+	 * {@inheritDoc}.
+	 */
+	public boolean isInfoEnabled() {
+		return log.isInfoEnabled();
+	}
+
+	/**
+	 * {@inheritDoc}.
+	 */
+	public void info(CharSequence content) {
+		log.info(prefix(content));
+	}
+
+	/**
+	 * {@inheritDoc}.
+	 */
+	public void info(CharSequence content, Throwable error) {
+		log.info(prefix(content), error);
+	}
+
+	/**
+	 * {@inheritDoc}.
+	 */
+	public void info(Throwable error) {
+		log.info(prefix(error.getLocalizedMessage()), error);
+	}
+
+	/**
+	 * {@inheritDoc}.
+	 */
+	public boolean isWarnEnabled() {
+		return log.isWarnEnabled();
+	}
+
+	/**
+	 * {@inheritDoc}.
+	 */
+	public void warn(CharSequence content) {
+		log.warn(prefix(content));
+	}
+
+	/**
+	 * {@inheritDoc}.
+	 */
+	public void warn(CharSequence content, Throwable error) {
+		log.warn(prefix(content), error);
+	}
+
+	/**
+	 * {@inheritDoc}.
+	 */
+	public void warn(Throwable error) {
+		log.warn(prefix(error.getLocalizedMessage()), error);
+	}
+
+	/**
+	 * {@inheritDoc}.
+	 */
+	public boolean isErrorEnabled() {
+		return log.isErrorEnabled();
+	}
+
+	/**
+	 * {@inheritDoc}.
+	 */
+	public void error(CharSequence content) {
+		log.error(prefix(content));
+	}
+
+	/**
+	 * {@inheritDoc}.
+	 */
+	public void error(CharSequence content, Throwable error) {
+		log.error(prefix(content), error);
+	}
+
+	/**
+	 * {@inheritDoc}.
+	 */
+	public void error(Throwable error) {
+		log.error(prefix(error.getLocalizedMessage()), error);
+	}
+
+}
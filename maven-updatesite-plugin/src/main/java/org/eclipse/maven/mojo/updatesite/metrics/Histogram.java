@@ -0,0 +1,160 @@
+package org.eclipse.maven.mojo.updatesite.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histogram with power of two buckets in microseconds, from one
+ * microsecond to about a minute. Thread safe and lock free, so it can be fed
+ * by the upload channels concurrently.
+ */
+public class Histogram {
+
+	/**
+	 * Number of buckets, the last one holds everything above 2^(BUCKETS-2)
+	 * microseconds.
+	 */
+	private static final int BUCKETS = 28;
+
+	/**
+	 * Nanoseconds per microsecond.
+	 */
+	private static final long NANOS_PER_MICRO = 1000;
+
+	/**
+	 * Count per bucket.
+	 */
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+	/**
+	 * Number of recorded values.
+	 */
+	private final AtomicLong count = new AtomicLong();
+
+	/**
+	 * Sum of the recorded values in nanoseconds.
+	 */
+	private final AtomicLong total = new AtomicLong();
+
+	/**
+	 * Largest recorded value in nanoseconds.
+	 */
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Record a duration.
+	 *
+	 * @param nanos
+	 *            duration in nanoseconds
+	 */
+	public void record(long nanos) {
+		long micros = Math.max(0, nanos) / NANOS_PER_MICRO;
+		int bucket = micros == 0 ? 0 : 64 - Long.numberOfLeadingZeros(micros);
+		buckets.incrementAndGet(Math.min(bucket, BUCKETS - 1));
+		count.incrementAndGet();
+		total.addAndGet(nanos);
+		long current;
+		while ((current = max.get()) < nanos
+				&& !max.compareAndSet(current, nanos)) {
+			continue;
+		}
+	}
+
+	/**
+	 * Add the values recorded by another histogram.
+	 *
+	 * @param other
+	 *            histogram to add
+	 */
+	void merge(Histogram other) {
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets.addAndGet(i, other.buckets.get(i));
+		}
+		count.addAndGet(other.count.get());
+		total.addAndGet(other.total.get());
+		long current;
+		while ((current = max.get()) < other.max.get()
+				&& !max.compareAndSet(current, other.max.get())) {
+			continue;
+		}
+	}
+
+	/**
+	 * @return number of recorded values
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return sum of the recorded values in nanoseconds
+	 */
+	public long getTotal() {
+		return total.get();
+	}
+
+	/**
+	 * @return largest recorded value in nanoseconds
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Upper bound of the bucket holding a percentile.
+	 *
+	 * @param percentile
+	 *            between 0 and 100
+	 * @return bound in microseconds, 0 if empty
+	 */
+	public long getPercentile(double percentile) {
+		long rank = (long) Math.ceil(count.get() * percentile / 100);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += buckets.get(i);
+			if (seen >= rank && seen > 0) {
+				return getBound(i);
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * @param bucket
+	 *            index
+	 * @return upper bound of the bucket in microseconds
+	 */
+	private static long getBound(int bucket) {
+		return 1L << bucket;
+	}
+
+	/**
+	 * Write the statistics and the non empty buckets.
+	 *
+	 * @param json
+	 *            to write to, inside an object
+	 */
+	void write(JsonWriter json) {
+		json.name("count").value(count.get());
+		json.name("totalMillis").value(total.get() / NANOS_PER_MICRO / 1000);
+		json.name("meanMicros").value(
+				count.get() == 0 ? 0 : total.get() / count.get()
+						/ NANOS_PER_MICRO);
+		json.name("p50Micros").value(getPercentile(50));
+		json.name("p90Micros").value(getPercentile(90));
+		json.name("p99Micros").value(getPercentile(99));
+		json.name("maxMicros").value(max.get() / NANOS_PER_MICRO);
+		json.name("buckets").beginArray();
+		for (int i = 0; i < BUCKETS; i++) {
+			long bucketCount = buckets.get(i);
+			if (bucketCount > 0) {
+				json.beginObject();
+				json.name("leMicros").value(getBound(i));
+				json.name("count").value(bucketCount);
+				json.endObject();
+			}
+		}
+		json.endArray();
+	}
+
+}
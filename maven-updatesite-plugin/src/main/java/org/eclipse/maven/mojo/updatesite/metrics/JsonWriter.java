@@ -0,0 +1,225 @@
+package org.eclipse.maven.mojo.updatesite.metrics;
+
+/**
+ * Minimal streaming JSON writer, enough for the deploy report without a JSON
+ * library on the plugin class path. Output is indented by two spaces.
+ */
+public class JsonWriter {
+
+	/**
+	 * Output.
+	 */
+	private final StringBuilder builder = new StringBuilder();
+
+	/**
+	 * Current nesting depth.
+	 */
+	private int depth;
+
+	/**
+	 * True when the next value is the first of its object or array.
+	 */
+	private boolean first = true;
+
+	/**
+	 * True right after a name, the value follows on the same line.
+	 */
+	private boolean named;
+
+	/**
+	 * Open an object.
+	 *
+	 * @return this
+	 */
+	public JsonWriter beginObject() {
+		open('{');
+		return this;
+	}
+
+	/**
+	 * Close the current object.
+	 *
+	 * @return this
+	 */
+	public JsonWriter endObject() {
+		close('}');
+		return this;
+	}
+
+	/**
+	 * Open an array.
+	 *
+	 * @return this
+	 */
+	public JsonWriter beginArray() {
+		open('[');
+		return this;
+	}
+
+	/**
+	 * Close the current array.
+	 *
+	 * @return this
+	 */
+	public JsonWriter endArray() {
+		close(']');
+		return this;
+	}
+
+	/**
+	 * Write the name of the next member.
+	 *
+	 * @param name
+	 *            of the member
+	 * @return this
+	 */
+	public JsonWriter name(String name) {
+		separate();
+		string(name);
+		builder.append(": ");
+		named = true;
+		return this;
+	}
+
+	/**
+	 * Write a string value.
+	 *
+	 * @param value
+	 *            to write, null for JSON null
+	 * @return this
+	 */
+	public JsonWriter value(String value) {
+		separate();
+		if (value == null) {
+			builder.append("null");
+		} else {
+			string(value);
+		}
+		return this;
+	}
+
+	/**
+	 * Write a number value.
+	 *
+	 * @param value
+	 *            to write
+	 * @return this
+	 */
+	public JsonWriter value(long value) {
+		separate();
+		builder.append(value);
+		return this;
+	}
+
+	/**
+	 * Write a boolean value.
+	 *
+	 * @param value
+	 *            to write
+	 * @return this
+	 */
+	public JsonWriter value(boolean value) {
+		separate();
+		builder.append(value);
+		return this;
+	}
+
+	/**
+	 * @return the document written so far
+	 */
+	@Override
+	public String toString() {
+		return builder.toString();
+	}
+
+	/**
+	 * @param bracket
+	 *            opening bracket
+	 */
+	private void open(char bracket) {
+		separate();
+		builder.append(bracket);
+		depth++;
+		first = true;
+	}
+
+	/**
+	 * @param bracket
+	 *            closing bracket
+	 */
+	private void close(char bracket) {
+		depth--;
+		if (!first) {
+			newLine();
+		}
+		builder.append(bracket);
+		first = false;
+		if (depth == 0) {
+			builder.append('\n');
+		}
+	}
+
+	/**
+	 * Write the comma and indentation before a value or a name.
+	 */
+	private void separate() {
+		if (named) {
+			named = false;
+			return;
+		}
+		if (depth == 0) {
+			return;
+		}
+		if (!first) {
+			builder.append(',');
+		}
+		newLine();
+		first = false;
+	}
+
+	/**
+	 * Start a new indented line.
+	 */
+	private void newLine() {
+		builder.append('\n');
+		for (int i = 0; i < depth; i++) {
+			builder.append("  ");
+		}
+	}
+
+	/**
+	 * @param value
+	 *            to write quoted and escaped
+	 */
+	private void string(String value) {
+		builder.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '"':
+				builder.append("\\\"");
+				break;
+			case '\\':
+				builder.append("\\\\");
+				break;
+			case '\n':
+				builder.append("\\n");
+				break;
+			case '\r':
+				builder.append("\\r");
+				break;
+			case '\t':
+				builder.append("\\t");
+				break;
+			default:
+				if (c < ' ') {
+					builder.append(String.format("\\u%04x", (int) c));
+				} else {
+					builder.append(c);
+				}
+			}
+		}
+		builder.append('"');
+	}
+
+}
@@ -0,0 +1,504 @@
+package org.eclipse.maven.mojo.updatesite.metrics;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and operation timers of the deployment of one site, broken down by
+ * phase. The deployment moves from phase to phase with
+ * {@link Metrics#startPhase(String)}; work running aside, such as a
+ * background rmtree, is attributed to its own phase with
+ * {@link Metrics#enter(String)} on its thread.
+ */
+public class Metrics {
+
+	/**
+	 * Session, repository and child folder creation.
+	 */
+	public static final String INIT = "init";
+
+	/**
+	 * Deletion of remote trees.
+	 */
+	public static final String RMTREE = "rmtree";
+
+	/**
+	 * Upload of the site.
+	 */
+	public static final String UPLOAD = "upload";
+
+	/**
+	 * Update of the composite files of the site.
+	 */
+	public static final String COMPOSITE = "composite";
+
+	/**
+	 * Update of the composite files of the parents.
+	 */
+	public static final String PARENT = "parent";
+
+	/**
+	 * Counters and timers of a phase.
+	 */
+	public static class Phase {
+
+		/**
+		 * Files uploaded.
+		 */
+		private final AtomicLong files = new AtomicLong();
+
+		/**
+		 * Bytes uploaded.
+		 */
+		private final AtomicLong bytesUploaded = new AtomicLong();
+
+		/**
+		 * Bytes downloaded.
+		 */
+		private final AtomicLong bytesDownloaded = new AtomicLong();
+
+		/**
+		 * Operations retried after a failure.
+		 */
+		private final AtomicLong retries = new AtomicLong();
+
+		/**
+		 * Wall time spent in the phase, in nanoseconds.
+		 */
+		private final AtomicLong duration = new AtomicLong();
+
+		/**
+		 * Latency per remote operation, each being at least a round trip.
+		 */
+		private final ConcurrentMap<String, Histogram> operations = new ConcurrentHashMap<String, Histogram>();
+
+		/**
+		 * @return files uploaded
+		 */
+		public long getFiles() {
+			return files.get();
+		}
+
+		/**
+		 * @return bytes uploaded
+		 */
+		public long getBytesUploaded() {
+			return bytesUploaded.get();
+		}
+
+		/**
+		 * @return bytes downloaded
+		 */
+		public long getBytesDownloaded() {
+			return bytesDownloaded.get();
+		}
+
+		/**
+		 * @return operations retried
+		 */
+		public long getRetries() {
+			return retries.get();
+		}
+
+		/**
+		 * @return wall time in nanoseconds
+		 */
+		public long getDuration() {
+			return duration.get();
+		}
+
+		/**
+		 * @return number of remote operations, all types
+		 */
+		public long getOperations() {
+			long count = 0;
+			for (Histogram histogram : operations.values()) {
+				count += histogram.getCount();
+			}
+			return count;
+		}
+
+		/**
+		 * @param operation
+		 *            type, as passed to {@link Metrics#time(String, long)}
+		 * @return latency of the operation, empty if never run
+		 */
+		public Histogram getOperation(String operation) {
+			Histogram histogram = operations.get(operation);
+			return histogram != null ? histogram : new Histogram();
+		}
+
+		/**
+		 * @param operation
+		 *            type
+		 * @return its histogram, created on first use
+		 */
+		private Histogram histogram(String operation) {
+			Histogram histogram = operations.get(operation);
+			if (histogram == null) {
+				operations.putIfAbsent(operation, new Histogram());
+				histogram = operations.get(operation);
+			}
+			return histogram;
+		}
+
+		/**
+		 * @param json
+		 *            to write to, inside an object
+		 */
+		private void write(JsonWriter json) {
+			long millis = duration.get() / NANOS_PER_MILLI;
+			json.name("durationMillis").value(millis);
+			json.name("files").value(files.get());
+			json.name("bytesUploaded").value(bytesUploaded.get());
+			json.name("bytesDownloaded").value(bytesDownloaded.get());
+			json.name("uploadBytesPerSecond").value(
+					millis == 0 ? 0 : bytesUploaded.get() * 1000 / millis);
+			json.name("retries").value(retries.get());
+			json.name("roundTrips").value(getOperations());
+			json.name("operations").beginObject();
+			List<String> names = new ArrayList<String>(operations.keySet());
+			Collections.sort(names);
+			for (String name : names) {
+				json.name(name).beginObject();
+				operations.get(name).write(json);
+				json.endObject();
+			}
+			json.endObject();
+		}
+
+	}
+
+	/**
+	 * {@link InputStream} counting the bytes read through it.
+	 */
+	public static class CountingInputStream extends FilterInputStream {
+
+		/**
+		 * Bytes read.
+		 */
+		private long count;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param inputStream
+		 *            to count
+		 */
+		public CountingInputStream(InputStream inputStream) {
+			super(inputStream);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0) {
+				count++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = super.read(b, off, len);
+			if (read > 0) {
+				count += read;
+			}
+			return read;
+		}
+
+		/**
+		 * @return bytes read so far, skipped ones excluded
+		 */
+		public long getCount() {
+			return count;
+		}
+
+	}
+
+	/**
+	 * Nanoseconds per millisecond.
+	 */
+	private static final long NANOS_PER_MILLI = 1000000;
+
+	/**
+	 * Phases by name, in order of first use.
+	 */
+	private final Map<String, Phase> phases = new LinkedHashMap<String, Phase>();
+
+	/**
+	 * Phase of the deployment.
+	 */
+	private String phase = INIT;
+
+	/**
+	 * Start of the deployment, in nanoseconds.
+	 */
+	private final long start = System.nanoTime();
+
+	/**
+	 * Start of the current phase, in nanoseconds.
+	 */
+	private long phaseStart = start;
+
+	/**
+	 * End of the deployment, in nanoseconds, 0 until finished.
+	 */
+	private long end;
+
+	/**
+	 * Phase entered by the current thread, overriding the deployment phase.
+	 */
+	private final ThreadLocal<String> entered = new ThreadLocal<String>();
+
+	/**
+	 * Move the deployment to a phase, closing the current one.
+	 *
+	 * @param name
+	 *            of the phase
+	 */
+	public synchronized void startPhase(String name) {
+		long now = System.nanoTime();
+		getPhase(phase).duration.addAndGet(now - phaseStart);
+		phase = name;
+		phaseStart = now;
+	}
+
+	/**
+	 * Close the current phase, at the end of the deployment.
+	 */
+	public synchronized void finish() {
+		startPhase(phase);
+		end = phaseStart;
+	}
+
+	/**
+	 * Attribute the work of the current thread to a phase until
+	 * {@link Metrics#exit(String, long)}, whatever the deployment phase.
+	 *
+	 * @param name
+	 *            of the phase
+	 * @return start time, to pass to exit
+	 */
+	public long enter(String name) {
+		entered.set(name);
+		return System.nanoTime();
+	}
+
+	/**
+	 * Stop attributing the work of the current thread to an entered phase.
+	 *
+	 * @param name
+	 *            of the entered phase
+	 * @param start
+	 *            as returned by {@link Metrics#enter(String)}
+	 */
+	public void exit(String name, long start) {
+		entered.remove();
+		getPhase(name).duration.addAndGet(System.nanoTime() - start);
+	}
+
+	/**
+	 * Record a remote operation.
+	 *
+	 * @param operation
+	 *            type, like stat or put
+	 * @param start
+	 *            of the operation, from {@link System#nanoTime()}
+	 */
+	public void time(String operation, long start) {
+		current().histogram(operation).record(System.nanoTime() - start);
+	}
+
+	/**
+	 * Record an uploaded file.
+	 *
+	 * @param bytes
+	 *            size of the file
+	 */
+	public void uploaded(long bytes) {
+		uploaded(1, bytes);
+	}
+
+	/**
+	 * Record uploaded files.
+	 *
+	 * @param files
+	 *            number of files
+	 * @param bytes
+	 *            total size of the files
+	 */
+	public void uploaded(long files, long bytes) {
+		Phase current = current();
+		current.files.addAndGet(files);
+		current.bytesUploaded.addAndGet(bytes);
+	}
+
+	/**
+	 * Record downloaded bytes.
+	 *
+	 * @param bytes
+	 *            downloaded
+	 */
+	public void downloaded(long bytes) {
+		current().bytesDownloaded.addAndGet(bytes);
+	}
+
+	/**
+	 * Record a retried operation.
+	 */
+	public void retried() {
+		current().retries.incrementAndGet();
+	}
+
+	/**
+	 * Count the bytes of a file read from the server, and time the transfer
+	 * until the stream is closed.
+	 *
+	 * @param inputStream
+	 *            remote content
+	 * @param operation
+	 *            type
+	 * @param start
+	 *            of the transfer, from {@link System#nanoTime()}
+	 * @return counting stream
+	 */
+	public InputStream download(InputStream inputStream,
+			final String operation, final long start) {
+		return new CountingInputStream(inputStream) {
+
+			private boolean closed;
+
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					if (!closed) {
+						closed = true;
+						downloaded(getCount());
+						time(operation, start);
+					}
+				}
+			}
+		};
+	}
+
+	/**
+	 * Count the bytes of a file sent to the server, and time the transfer
+	 * until the stream is closed.
+	 *
+	 * @param outputStream
+	 *            remote file
+	 * @param operation
+	 *            type
+	 * @param start
+	 *            of the transfer, from {@link System#nanoTime()}
+	 * @return counting stream
+	 */
+	public OutputStream upload(OutputStream outputStream,
+			final String operation, final long start) {
+		return new FilterOutputStream(outputStream) {
+
+			private long count;
+
+			private boolean closed;
+
+			@Override
+			public void write(int b) throws IOException {
+				out.write(b);
+				count++;
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+				count += len;
+			}
+
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					if (!closed) {
+						closed = true;
+						uploaded(count);
+						time(operation, start);
+					}
+				}
+			}
+		};
+	}
+
+	/**
+	 * @param name
+	 *            of the phase
+	 * @return its counters, created on first use
+	 */
+	public synchronized Phase getPhase(String name) {
+		Phase result = phases.get(name);
+		if (result == null) {
+			result = new Phase();
+			phases.put(name, result);
+		}
+		return result;
+	}
+
+	/**
+	 * @return phase of the current thread
+	 */
+	private Phase current() {
+		String name = entered.get();
+		if (name != null) {
+			return getPhase(name);
+		}
+		synchronized (this) {
+			return getPhase(phase);
+		}
+	}
+
+	/**
+	 * Write the phases and their total. Entered phases run alongside the
+	 * others, so the total duration is the wall time of the deployment, not
+	 * the sum of the phases.
+	 *
+	 * @param json
+	 *            to write to, inside an object
+	 */
+	public synchronized void write(JsonWriter json) {
+		Phase total = new Phase();
+		json.name("phases").beginObject();
+		for (Map.Entry<String, Phase> entry : phases.entrySet()) {
+			Phase value = entry.getValue();
+			json.name(entry.getKey()).beginObject();
+			value.write(json);
+			json.endObject();
+			total.files.addAndGet(value.files.get());
+			total.bytesUploaded.addAndGet(value.bytesUploaded.get());
+			total.bytesDownloaded.addAndGet(value.bytesDownloaded.get());
+			total.retries.addAndGet(value.retries.get());
+			for (Map.Entry<String, Histogram> operation : value.operations
+					.entrySet()) {
+				total.histogram(operation.getKey()).merge(operation.getValue());
+			}
+		}
+		json.endObject();
+		total.duration.set((end != 0 ? end : System.nanoTime()) - start);
+		json.name("total").beginObject();
+		total.write(json);
+		json.endObject();
+	}
+
+}
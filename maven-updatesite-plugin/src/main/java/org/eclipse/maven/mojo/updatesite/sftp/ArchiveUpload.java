@@ -0,0 +1,232 @@
+package org.eclipse.maven.mojo.updatesite.sftp;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.eclipse.maven.mojo.updatesite.logger.Logger;
+
+import com.jcraft.jsch.ChannelExec;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.SftpException;
+
+/**
+ * Upload a local folder as a single tar stream unpacked remotely by
+ * <code>tar -x</code> on an exec channel of the session. One channel and no
+ * per-file round trip, whatever the number of files. Requires a shell
+ * access with tar on the server, see {@link ArchiveUpload#isAvailable()}.
+ */
+public class ArchiveUpload {
+
+	/**
+	 * Size of the stream buffer, a multiple of the tar block size.
+	 */
+	private static final int BUFFER_SIZE = 32768;
+
+	/**
+	 * Delay between two checks of the remote command termination.
+	 */
+	private static final long POLL_DELAY = 50;
+
+	/**
+	 * How long to wait for the availability probe, some servers silently
+	 * ignore exec requests.
+	 */
+	private static final long PROBE_TIMEOUT = 10000;
+
+	/**
+	 * Expected output of the availability probe. Checking the output and not
+	 * only the status rules out servers forcing sftp for every command.
+	 */
+	private static final String PROBE_MARKER = "updatesite-tar";
+
+	/**
+	 * Connection whose session is used.
+	 */
+	private final Sftp sftp;
+
+	/**
+	 * Logger.
+	 */
+	private final Logger logger;
+
+	/**
+	 * Result of the availability probe, null until probed.
+	 */
+	private Boolean available;
+
+	/**
+	 * Number of files of the last archive.
+	 */
+	private int files;
+
+	/**
+	 * Number of bytes of file content of the last archive.
+	 */
+	private long bytes;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param sftp
+	 *            connection whose session is used
+	 * @param logger
+	 *            logger
+	 */
+	public ArchiveUpload(Sftp sftp, Logger logger) {
+		this.sftp = sftp;
+		this.logger = logger;
+	}
+
+	/**
+	 * Check once if the server runs commands and has tar.
+	 * 
+	 * @return true if archives can be unpacked remotely
+	 */
+	public boolean isAvailable() {
+		if (available == null) {
+			try {
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				int status = exec("command -v tar >/dev/null && echo "
+						+ PROBE_MARKER, null, out, PROBE_TIMEOUT);
+				available = Boolean.valueOf(status == 0
+						&& out.toString().trim().equals(PROBE_MARKER));
+			} catch (JSchException e) {
+				logger.info("Remote commands not available: "
+						+ e.getLocalizedMessage());
+				available = Boolean.FALSE;
+			} catch (IOException e) {
+				logger.info("Remote commands not available: "
+						+ e.getLocalizedMessage());
+				available = Boolean.FALSE;
+			}
+		}
+		return available.booleanValue();
+	}
+
+	/**
+	 * Upload the content of a folder, the remote destination being created
+	 * if needed. Modification times are kept.
+	 * 
+	 * @param folder
+	 *            local folder
+	 * @param dst
+	 *            remote destination
+	 * @throws IOException
+	 *             if the archive could not be sent or unpacked
+	 * @throws JSchException
+	 *             if the exec channel could not be opened
+	 * @throws SftpException
+	 *             on error
+	 */
+	public void upload(File folder, String dst) throws IOException,
+			JSchException, SftpException {
+		String path = quote(RemoteCache.resolve(sftp.pwd(), dst));
+		logger.info("Uploading archive of " + folder + " to " + dst);
+		ByteArrayOutputStream err = new ByteArrayOutputStream();
+		int status;
+		try {
+			status = exec("mkdir -p " + path + " && tar -xf - -C " + path,
+					folder, err, 0);
+		} finally {
+			sftp.invalidate(dst);
+		}
+		if (status != 0) {
+			throw new IOException("Remote tar failed with status " + status
+					+ ": " + err.toString().trim());
+		}
+		sftp.getMetrics().uploaded(files, bytes);
+		logger.info("Uploaded " + files + " files, " + bytes + " bytes");
+	}
+
+	/**
+	 * Run a command, feeding it the tar of a folder as standard input.
+	 * 
+	 * @param command
+	 *            remote command
+	 * @param folder
+	 *            to archive, null for no input
+	 * @param output
+	 *            receives the command error output if a folder is given, its
+	 *            standard output otherwise
+	 * @param timeout
+	 *            in milliseconds, 0 to wait until the command ends
+	 * @return exit status, -1 if unknown
+	 * @throws IOException
+	 *             on error
+	 * @throws JSchException
+	 *             on error
+	 */
+	private int exec(String command, File folder, OutputStream output,
+			long timeout) throws JSchException, IOException {
+		long start = System.nanoTime();
+		ChannelExec channel = sftp.openExec(command);
+		if (folder != null) {
+			channel.setErrStream(output);
+		} else {
+			channel.setOutputStream(output);
+		}
+		try {
+			OutputStream outputStream = new BufferedOutputStream(
+					channel.getOutputStream(), BUFFER_SIZE);
+			channel.connect();
+			try {
+				if (folder != null) {
+					TarWriter tarWriter = new TarWriter(outputStream);
+					tarWriter.addFolder(folder, "");
+					tarWriter.finish();
+					files = tarWriter.getFiles();
+					bytes = tarWriter.getBytes();
+				}
+			} finally {
+				outputStream.close();
+			}
+			return waitFor(channel, timeout);
+		} finally {
+			sftp.closeExec(channel);
+			sftp.getMetrics().time("exec", start);
+		}
+	}
+
+	/**
+	 * Wait for the end of a command.
+	 * 
+	 * @param channel
+	 *            connected channel
+	 * @param timeout
+	 *            in milliseconds, 0 for none
+	 * @return exit status, -1 if unknown or timed out
+	 * @throws IOException
+	 *             if interrupted
+	 */
+	static int waitFor(ChannelExec channel, long timeout) throws IOException {
+		long deadline = System.currentTimeMillis() + timeout;
+		while (!channel.isClosed()) {
+			if (timeout > 0 && System.currentTimeMillis() > deadline) {
+				return -1;
+			}
+			try {
+				Thread.sleep(POLL_DELAY);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for "
+						+ "the remote command");
+			}
+		}
+		return channel.getExitStatus();
+	}
+
+	/**
+	 * Quote a path for a POSIX shell.
+	 * 
+	 * @param path
+	 *            to quote
+	 * @return single quoted path
+	 */
+	static String quote(String path) {
+		return "'" + path.replace("'", "'\\''") + "'";
+	}
+
+}
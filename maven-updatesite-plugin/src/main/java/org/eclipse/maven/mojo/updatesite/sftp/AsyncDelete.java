@@ -0,0 +1,228 @@
+package org.eclipse.maven.mojo.updatesite.sftp;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.maven.mojo.updatesite.logger.Logger;
+
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.SftpException;
+
+/**
+ * Delete remote folders in background, on dedicated channels of the
+ * session, so that the deploy does not wait for them. Several folders are
+ * deleted concurrently, each on its own channel, when more than one thread
+ * is given. When the session has no free slot, see {@link ChannelLimit}, a
+ * folder waits for a channel released by another deletion.
+ * <p>
+ * A folder which could not be deleted, or not within the time given to
+ * {@link AsyncDelete#await(long)}, is only logged: it is left for a later
+ * deploy, which finds it by its name. Deletion is never done on the
+ * connection itself, which would hold the deploy for as long as it takes.
+ */
+public class AsyncDelete {
+
+	/**
+	 * Milliseconds given to the interrupted deletions to return.
+	 */
+	private static final long CLOSE_TIMEOUT = 5000;
+
+	/**
+	 * Connection owning the session.
+	 */
+	private final RemoteFileSystem sftp;
+
+	/**
+	 * Logger.
+	 */
+	private final Logger logger;
+
+	/**
+	 * Number of deleting threads.
+	 */
+	private final int threads;
+
+	/**
+	 * Executor, created on first deletion.
+	 */
+	private ExecutorService executorService;
+
+	/**
+	 * Channels not in use by a deleting thread.
+	 */
+	private final BlockingQueue<RemoteFileSystem> channels = new LinkedBlockingQueue<RemoteFileSystem>();
+
+	/**
+	 * Channels opened, to close on {@link AsyncDelete#await(long)}.
+	 */
+	private final List<RemoteFileSystem> opened = new
+			ArrayList<RemoteFileSystem>();
+
+	/**
+	 * Folders queued and not deleted yet, in order.
+	 */
+	private final Set<String> pending = new LinkedHashSet<String>();
+
+	/**
+	 * Constructor of a single deleting thread.
+	 * 
+	 * @param sftp
+	 *            connection whose session is shared
+	 * @param logger
+	 *            logger
+	 */
+	public AsyncDelete(RemoteFileSystem sftp, Logger logger) {
+		this(sftp, logger, 1);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param sftp
+	 *            connection whose session is shared
+	 * @param logger
+	 *            logger
+	 * @param threads
+	 *            maximum number of folders deleted concurrently
+	 */
+	public AsyncDelete(RemoteFileSystem sftp, Logger logger, int threads) {
+		this.sftp = sftp;
+		this.logger = logger;
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * Queue the deletion of a folder and its content.
+	 * 
+	 * @param folder
+	 *            absolute remote path
+	 */
+	public synchronized void delete(final String folder) {
+		if (executorService == null) {
+			executorService = Executors.newFixedThreadPool(threads);
+		}
+		synchronized (pending) {
+			pending.add(folder);
+		}
+		executorService.execute(new Runnable() {
+			public void run() {
+				// at most one channel per thread: one is free or none was
+				// opened by this thread yet
+				RemoteFileSystem channel = channels.poll();
+				try {
+					if (channel == null) {
+						channel = sftp.openChannel();
+						if (channel != null) {
+							synchronized (opened) {
+								opened.add(channel);
+							}
+						} else if (isOpened()) {
+							channel = channels.take();
+						} else {
+							// no channel at all: left to a later deploy
+							return;
+						}
+					}
+					delete(channel, folder);
+				} catch (InterruptedException e) {
+					// abandoned by await
+				} catch (JSchException e) {
+					logger.warn("Could not delete " + folder + ": "
+							+ e.getLocalizedMessage());
+				} catch (SftpException e) {
+					logger.warn("Could not delete " + folder + ": "
+							+ e.getLocalizedMessage());
+				} finally {
+					if (channel != null) {
+						channels.add(channel);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return true if a channel was opened
+	 */
+	private boolean isOpened() {
+		synchronized (opened) {
+			return !opened.isEmpty();
+		}
+	}
+
+	/**
+	 * Wait for the queued deletions, at most for a given time, and close the
+	 * channels. The deletions still running are interrupted and their
+	 * folders, like the ones which could not be deleted, are logged as left
+	 * for a later deploy. Must be called before the session is disconnected.
+	 *
+	 * @param timeout
+	 *            milliseconds to wait at most
+	 */
+	public synchronized void await(long timeout) {
+		if (executorService == null) {
+			return;
+		}
+		executorService.shutdown();
+		try {
+			if (!executorService.awaitTermination(timeout,
+					TimeUnit.MILLISECONDS)) {
+				executorService.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			executorService.shutdownNow();
+		}
+		// makes the deletions blocked on the network fail
+		synchronized (opened) {
+			for (RemoteFileSystem channel : opened) {
+				channel.disconnect();
+			}
+			opened.clear();
+		}
+		try {
+			executorService.awaitTermination(CLOSE_TIMEOUT,
+					TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		channels.clear();
+		executorService = null;
+		synchronized (pending) {
+			for (String folder : pending) {
+				logger.info("Left for a later deploy: " + folder);
+			}
+			pending.clear();
+		}
+	}
+
+	/**
+	 * Delete a folder and its content, logging a failure.
+	 * 
+	 * @param channel
+	 *            to delete on
+	 * @param folder
+	 *            absolute remote path
+	 */
+	private void delete(RemoteFileSystem channel, String folder) {
+		try {
+			channel.rmtree(folder, true);
+			channel.rmdir(folder);
+			synchronized (pending) {
+				pending.remove(folder);
+			}
+			logger.info("Deleted: " + folder);
+		} catch (SftpException e) {
+			logger.warn("Could not delete " + folder + ": "
+					+ e.getLocalizedMessage());
+		}
+	}
+
+}
@@ -0,0 +1,91 @@
+package org.eclipse.maven.mojo.updatesite.sftp;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Semaphore;
+
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+
+/**
+ * Channels of an ssh session, counted across all the connections
+ * multiplexed over it, pooled or not. OpenSSH refuses the channels of a
+ * session beyond its MaxSessions, 10 by default.
+ * <p>
+ * Only the first channel of a connection waits for a free slot. Additional
+ * channels, for parallel transfers or alongside a transfer, are taken only
+ * if one is free: their users fall back to a channel they already own, so
+ * that connections holding slots never wait for each other.
+ */
+public final class ChannelLimit {
+
+	/**
+	 * Maximum number of channels open at once on a session, sftp and exec
+	 * ones, below the default MaxSessions of OpenSSH.
+	 */
+	public static final int MAX_CHANNELS = 8;
+
+	/**
+	 * Limits by session.
+	 */
+	private static final Map<Session, ChannelLimit> LIMITS = new WeakHashMap<Session, ChannelLimit>();
+
+	/**
+	 * Free slots.
+	 */
+	private final Semaphore slots = new Semaphore(MAX_CHANNELS, true);
+
+	/**
+	 * Constructor.
+	 */
+	private ChannelLimit() {
+	}
+
+	/**
+	 * Limit of a session.
+	 *
+	 * @param session
+	 *            ssh session
+	 * @return limit shared by the connections of the session
+	 */
+	static synchronized ChannelLimit of(Session session) {
+		ChannelLimit limit = LIMITS.get(session);
+		if (limit == null) {
+			limit = new ChannelLimit();
+			LIMITS.put(session, limit);
+		}
+		return limit;
+	}
+
+	/**
+	 * Wait for a free slot, for the first channel of a connection.
+	 *
+	 * @throws JSchException
+	 *             if interrupted
+	 */
+	void acquire() throws JSchException {
+		try {
+			slots.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new JSchException("Interrupted while waiting for a channel");
+		}
+	}
+
+	/**
+	 * Take a slot if one is free, for an additional channel.
+	 *
+	 * @return true if taken
+	 */
+	boolean tryAcquire() {
+		return slots.tryAcquire();
+	}
+
+	/**
+	 * Free the slot of a closed channel.
+	 */
+	void release() {
+		slots.release();
+	}
+
+}
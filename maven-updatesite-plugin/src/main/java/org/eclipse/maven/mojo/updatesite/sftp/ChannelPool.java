@@ -0,0 +1,221 @@
+package org.eclipse.maven.mojo.updatesite.sftp;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.SftpException;
+
+/**
+ * Run a batch of remote tasks concurrently, each on a channel of its own
+ * opened from a single {@link RemoteFileSystem}, multiplexed over one ssh
+ * session for sftp, so that their round trips overlap. Channels are opened by
+ * the tasks needing one, concurrently, and reused by the next tasks. A batch
+ * of one task runs on the connection itself, without opening a channel.
+ * <p>
+ * When the session has no free slot, see {@link ChannelLimit}, the task
+ * runs on the connection itself, idle while the batch runs, or waits for a
+ * channel released by another task.
+ * <p>
+ * When a task fails, the tasks not started yet are cancelled and the running
+ * ones are waited for: no task is left using the connection, or files of the
+ * caller, once the batch returns.
+ */
+public class ChannelPool {
+
+	/**
+	 * Remote task.
+	 *
+	 * @param <T>
+	 *            result type
+	 */
+	public interface Task<T> {
+
+		/**
+		 * Run the task.
+		 *
+		 * @param channel
+		 *            owned by the task until it returns, the working folder
+		 *            is undefined
+		 * @return result
+		 * @throws Exception
+		 *             on error
+		 */
+		T run(RemoteFileSystem channel) throws Exception ;
+	}
+
+	/**
+	 * Connection owning the session.
+	 */
+	private final RemoteFileSystem sftp;
+
+	/**
+	 * Maximum number of channels.
+	 */
+	private final int size;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param sftp
+	 *            connection whose session is shared
+	 * @param size
+	 *            maximum number of concurrent channels
+	 */
+	public ChannelPool(RemoteFileSystem sftp, int size) {
+		this.sftp = sftp;
+		this.size = Math.max(1, size);
+	}
+
+	/**
+	 * Run tasks and wait for all of them, even when one fails.
+	 *
+	 * @param <T>
+	 *            result type
+	 * @param tasks
+	 *            to run
+	 * @return results, in the order of the tasks
+	 * @throws SftpException
+	 *             thrown by the first failed task
+	 * @throws IOException
+	 *             thrown by the first failed task, or on interruption
+	 * @throws JSchException
+	 *             thrown by the first failed task, or if no channel could be
+	 *             opened
+	 */
+	public <T> List<T> execute(List<? extends Task<T>> tasks)
+			throws SftpException, IOException, JSchException {
+		List<T> results = new ArrayList<T>(tasks.size());
+		if (tasks.isEmpty()) {
+			return results;
+		}
+		if (tasks.size() == 1) {
+			try {
+				results.add(tasks.get(0).run(sftp));
+			} catch (Exception e) {
+				throw rethrow(e);
+			}
+			return results;
+		}
+		int threads = Math.min(size, tasks.size());
+		final BlockingQueue<RemoteFileSystem> channels = new LinkedBlockingQueue<RemoteFileSystem>();
+		final AtomicBoolean lent = new AtomicBoolean();
+		final List<RemoteFileSystem> opened = Collections
+				.synchronizedList(new ArrayList<RemoteFileSystem>(threads));
+		ExecutorService executorService = Executors.newFixedThreadPool(threads);
+		List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+		try {
+			for (final Task<T> task : tasks) {
+				futures.add(executorService.submit(new Callable<T>() {
+					public T call() throws Exception {
+						// at most one channel per thread: one is free or none
+						// was opened by this thread yet
+						RemoteFileSystem channel = channels.poll();
+						if (channel == null) {
+							channel = sftp.openChannel();
+							if (channel != null) {
+								opened.add(channel);
+							} else if (lent.compareAndSet(false, true)) {
+								channel = sftp;
+							} else {
+								channel = channels.take();
+							}
+						}
+						try {
+							return task.run(channel);
+						} finally {
+							channels.add(channel);
+						}
+					}
+				}));
+			}
+			for (Future<T> future : futures) {
+				results.add(future.get());
+			}
+			return results;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(e.getLocalizedMessage());
+		} catch (ExecutionException e) {
+			throw rethrow(e.getCause());
+		} finally {
+			for (Future<T> future : futures) {
+				future.cancel(false);
+			}
+			executorService.shutdown();
+			awaitTermination(executorService);
+			synchronized (opened) {
+				for (RemoteFileSystem channel : opened) {
+					channel.disconnect();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Wait for the running tasks to return. An interruption interrupts them,
+	 * but they are still waited for, then the interruption is restored.
+	 *
+	 * @param executorService
+	 *            shut down
+	 */
+	private static void awaitTermination(ExecutorService executorService) {
+		boolean interrupted = false;
+		while (true) {
+			try {
+				if (executorService.awaitTermination(1, TimeUnit.MINUTES)) {
+					break;
+				}
+			} catch (InterruptedException e) {
+				interrupted = true;
+				executorService.shutdownNow();
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Rethrow the failure of a task as one of the declared exceptions.
+	 *
+	 * @param cause
+	 *            failure
+	 * @return never returns, declared to be thrown by the caller
+	 * @throws SftpException
+	 *             if the cause is one
+	 * @throws IOException
+	 *             if the cause is one, or wraps any other cause
+	 * @throws JSchException
+	 *             if the cause is one
+	 */
+	private static IOException rethrow(Throwable cause) throws SftpException,
+			IOException, JSchException {
+		if (cause instanceof SftpException) {
+			throw (SftpException) cause;
+		}
+		if (cause instanceof IOException) {
+			throw (IOException) cause;
+		}
+		if (cause instanceof JSchException) {
+			throw (JSchException) cause;
+		}
+		if (cause instanceof RuntimeException) {
+			throw (RuntimeException) cause;
+		}
+		return new IOException(cause.getLocalizedMessage(), cause);
+	}
+
+}
@@ -0,0 +1,166 @@
+package org.eclipse.maven.mojo.updatesite.sftp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.eclipse.maven.mojo.updatesite.checksum.Manifest;
+import org.eclipse.maven.mojo.updatesite.logger.Logger;
+
+import com.jcraft.jsch.ChannelExec;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.SftpException;
+
+/**
+ * Check the uploaded files against their {@link Manifest#SHA256} by running
+ * <code>sha256sum -c</code> on an exec channel of the session, so that the
+ * content is hashed where it has been written. Requires a shell access with
+ * sha256sum on the server, see {@link ChecksumVerification#isAvailable()}.
+ */
+public class ChecksumVerification {
+
+	/**
+	 * How long to wait for the availability probe, some servers silently
+	 * ignore exec requests.
+	 */
+	private static final long PROBE_TIMEOUT = 10000;
+
+	/**
+	 * Expected output of the availability probe.
+	 */
+	private static final String PROBE_MARKER = "updatesite-sha256sum";
+
+	/**
+	 * Suffix of the lines of the files that match.
+	 */
+	private static final String OK = ": OK";
+
+	/**
+	 * Connection whose session is used.
+	 */
+	private final Sftp sftp;
+
+	/**
+	 * Logger.
+	 */
+	private final Logger logger;
+
+	/**
+	 * Result of the availability probe, null until probed.
+	 */
+	private Boolean available;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param sftp
+	 *            connection whose session is used
+	 * @param logger
+	 *            logger
+	 */
+	public ChecksumVerification(Sftp sftp, Logger logger) {
+		this.sftp = sftp;
+		this.logger = logger;
+	}
+
+	/**
+	 * Check once if the server runs commands and has sha256sum.
+	 *
+	 * @return true if checksums can be verified remotely
+	 */
+	public boolean isAvailable() {
+		if (available == null) {
+			try {
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				int status = exec("command -v sha256sum >/dev/null && echo "
+						+ PROBE_MARKER, out, PROBE_TIMEOUT);
+				available = Boolean.valueOf(status == 0
+						&& out.toString().trim().equals(PROBE_MARKER));
+			} catch (JSchException e) {
+				logger.info("Remote commands not available: "
+						+ e.getLocalizedMessage());
+				available = Boolean.FALSE;
+			} catch (IOException e) {
+				logger.info("Remote commands not available: "
+						+ e.getLocalizedMessage());
+				available = Boolean.FALSE;
+			}
+		}
+		return available.booleanValue();
+	}
+
+	/**
+	 * Verify the files of a remote folder against the manifest it contains.
+	 *
+	 * @param dst
+	 *            remote folder holding {@link Manifest#SHA256}
+	 * @throws IOException
+	 *             if a file is missing or does not match
+	 * @throws JSchException
+	 *             if the exec channel could not be opened
+	 * @throws SftpException
+	 *             on error
+	 */
+	public void verify(String dst) throws IOException, JSchException,
+			SftpException {
+		String path = ArchiveUpload.quote(RemoteCache.resolve(sftp.pwd(),
+				dst));
+		logger.info("Verifying remote checksums of " + dst);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		int status = exec("cd " + path + " && sha256sum -c "
+				+ Manifest.SHA256, out, 0);
+		if (status != 0) {
+			throw new IOException("Remote checksums of " + dst
+					+ " do not match, status " + status + ": "
+					+ failures(out.toString("UTF-8")));
+		}
+	}
+
+	/**
+	 * Keep the lines of the files that do not match.
+	 *
+	 * @param output
+	 *            of sha256sum
+	 * @return failed lines
+	 */
+	private static String failures(String output) {
+		StringBuilder builder = new StringBuilder();
+		for (String line : output.split("\n")) {
+			if (line.length() > 0 && !line.endsWith(OK)) {
+				builder.append('\n').append(line);
+			}
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Run a command without input.
+	 *
+	 * @param command
+	 *            remote command
+	 * @param output
+	 *            receives the standard and error outputs
+	 * @param timeout
+	 *            in milliseconds, 0 to wait until the command ends
+	 * @return exit status, -1 if unknown
+	 * @throws IOException
+	 *             on error
+	 * @throws JSchException
+	 *             on error
+	 */
+	private int exec(String command, OutputStream output, long timeout)
+			throws JSchException, IOException {
+		long start = System.nanoTime();
+		ChannelExec channel = sftp.openExec(command);
+		channel.setOutputStream(output);
+		channel.setErrStream(output);
+		try {
+			channel.connect();
+			return ArchiveUpload.waitFor(channel, timeout);
+		} finally {
+			sftp.closeExec(channel);
+			sftp.getMetrics().time("exec", start);
+		}
+	}
+
+}
@@ -0,0 +1,400 @@
+package org.eclipse.maven.mojo.updatesite.sftp;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.maven.mojo.updatesite.checksum.Manifest;
+import org.eclipse.maven.mojo.updatesite.logger.Event;
+import org.eclipse.maven.mojo.updatesite.logger.Event.Activity;
+import org.eclipse.maven.mojo.updatesite.logger.Logger;
+
+import com.jcraft.jsch.SftpException;
+
+/**
+ * Synchronize a local folder with a remote one: upload only new or modified
+ * files and delete remote files which no longer exist locally.
+ * <p>
+ * A file is considered unchanged when the remote size and modification time
+ * match the local ones. Uploaded files get the local modification time so
+ * that the next deploy can compare it. When checksum comparison is enabled,
+ * files of equal size are compared by MD5 instead of modification time: the
+ * remote MD5s are computed on the server by {@link RemoteChecksums}, in one
+ * command for the whole folder, the remote content is never downloaded. When
+ * the server cannot run md5sum, the modification time is compared.
+ * <p>
+ * When the local {@link Manifest} and the one of the previous deploy are
+ * given, files of equal size listed in both are compared by SHA-256 from the
+ * manifests, without reading the remote content nor relying on modification
+ * times, which change at every build. The manifest files themselves are left
+ * in place at the root of the remote folder.
+ */
+public class DeltaUpload {
+
+	/**
+	 * Size of the digest read buffer.
+	 */
+	private static final int BUFFER_SIZE = 8192;
+
+	/**
+	 * Connection used to list, create and delete.
+	 */
+	private final RemoteFileSystem sftp;
+
+	/**
+	 * Logger.
+	 */
+	private final Logger logger;
+
+	/**
+	 * Compare content instead of modification time.
+	 */
+	private final boolean checksum;
+
+	/**
+	 * Checksums of the local files, null if none.
+	 */
+	private Manifest localManifest;
+
+	/**
+	 * Checksums of the remote files, from the previous deploy, null if none.
+	 */
+	private Manifest remoteManifest;
+
+	/**
+	 * Synchronized remote folder.
+	 */
+	private String root;
+
+	/**
+	 * MD5 of the remote files by relative path, computed on first use, null
+	 * until then or if they could not be.
+	 */
+	private Map<String, String> remoteMd5;
+
+	/**
+	 * True once the remote MD5s have been computed or found unavailable.
+	 */
+	private boolean remoteMd5Computed;
+
+	/**
+	 * Number of uploaded files.
+	 */
+	private int uploaded;
+
+	/**
+	 * Number of unchanged files.
+	 */
+	private int unchanged;
+
+	/**
+	 * Number of deleted remote files.
+	 */
+	private int deleted;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param sftp
+	 *            connection
+	 * @param logger
+	 *            logger
+	 * @param checksum
+	 *            true to compare content by MD5, computed on the server
+	 */
+	public DeltaUpload(RemoteFileSystem sftp, Logger logger, boolean checksum) {
+		this.sftp = sftp;
+		this.logger = logger;
+		this.checksum = checksum;
+	}
+
+	/**
+	 * Compare files by checksum from manifests.
+	 * 
+	 * @param localManifest
+	 *            checksums of the local files
+	 * @param remoteManifest
+	 *            checksums of the remote files, null if there is none
+	 */
+	public void setManifests(Manifest localManifest, Manifest remoteManifest) {
+		this.localManifest = localManifest;
+		this.remoteManifest = remoteManifest;
+	}
+
+	/**
+	 * Recursively synchronize a folder.
+	 * 
+	 * @param folder
+	 *            local folder
+	 * @param dst
+	 *            existing remote folder
+	 * @param parallelUpload
+	 *            queue of files, null to upload sequentially
+	 * @throws SftpException
+	 *             on error
+	 * @throws IOException
+	 *             on error
+	 */
+	public void synchronize(File folder, String dst,
+			ParallelUpload parallelUpload) throws SftpException, IOException {
+		root = dst;
+		Map<String, RemoteFile> remoteFiles = list(dst);
+		if (localManifest != null) {
+			remoteFiles.remove(Manifest.SHA256);
+			remoteFiles.remove(Manifest.MD5);
+		}
+		synchronize(folder, dst, "", remoteFiles, parallelUpload);
+	}
+
+	/**
+	 * Recursively synchronize a folder.
+	 * 
+	 * @param folder
+	 *            local folder
+	 * @param dst
+	 *            existing remote folder
+	 * @param prefix
+	 *            path of the folder relative to the synchronized one
+	 * @param remoteFiles
+	 *            listing of the remote folder
+	 * @param parallelUpload
+	 *            queue of files, null to upload sequentially
+	 * @throws SftpException
+	 *             on error
+	 * @throws IOException
+	 *             on error
+	 */
+	private void synchronize(File folder, String dst, String prefix,
+			Map<String, RemoteFile> remoteFiles, ParallelUpload parallelUpload)
+			throws SftpException, IOException {
+		File[] listFiles = folder.listFiles();
+		Arrays.sort(listFiles);
+		for (File file : listFiles) {
+			String path = dst + "/" + file.getName();
+			String relativePath = prefix + file.getName();
+			RemoteFile attrs = remoteFiles.remove(file.getName());
+			if (attrs != null && attrs.isDir() != file.isDirectory()) {
+				delete(path, attrs);
+				attrs = null;
+			}
+			if (file.isDirectory()) {
+				if (attrs == null) {
+					sftp.mkdir(path);
+				}
+				synchronize(file, path, relativePath + "/", list(path),
+						parallelUpload);
+			} else if (attrs != null
+					&& !isModified(file, path, relativePath, attrs)) {
+				unchanged++;
+			} else {
+				logger.event(Event
+						.expected(Activity.UPLOAD, 1, file.length()));
+				uploaded++;
+				if (parallelUpload != null) {
+					parallelUpload.add(file, path);
+				} else {
+					sftp.put(file, path, true);
+				}
+			}
+		}
+		for (Map.Entry<String, RemoteFile> orphan : remoteFiles.entrySet()) {
+			delete(dst + "/" + orphan.getKey(), orphan.getValue());
+		}
+	}
+
+	/**
+	 * Log a summary of the synchronization.
+	 */
+	public void logSummary() {
+		logger.info("Delta: " + uploaded + " file(s) to upload, " + unchanged
+				+ " unchanged, " + deleted + " deleted");
+	}
+
+	/**
+	 * Getter for {@link DeltaUpload#uploaded}.
+	 * 
+	 * @return number of uploaded or queued files
+	 */
+	public int getUploaded() {
+		return uploaded;
+	}
+
+	/**
+	 * Getter for {@link DeltaUpload#unchanged}.
+	 * 
+	 * @return number of unchanged files
+	 */
+	public int getUnchanged() {
+		return unchanged;
+	}
+
+	/**
+	 * Getter for {@link DeltaUpload#deleted}.
+	 * 
+	 * @return number of deleted remote files
+	 */
+	public int getDeleted() {
+		return deleted;
+	}
+
+	/**
+	 * List a remote folder.
+	 * 
+	 * @param dst
+	 *            remote folder
+	 * @return attributes by filename
+	 * @throws SftpException
+	 *             on error
+	 */
+	private Map<String, RemoteFile> list(String dst) throws SftpException {
+		List<RemoteFile> ls = sftp.ls(dst);
+		Map<String, RemoteFile> remoteFiles = new HashMap<String, RemoteFile>(
+				ls.size() * 2);
+		for (RemoteFile remoteFile : ls) {
+			if (".".equals(remoteFile.getFilename())
+					|| "..".equals(remoteFile.getFilename())) {
+				continue;
+			}
+			remoteFiles.put(remoteFile.getFilename(), remoteFile);
+		}
+		return remoteFiles;
+	}
+
+	/**
+	 * Delete a remote file or folder.
+	 * 
+	 * @param path
+	 *            remote path
+	 * @param attrs
+	 *            remote attributes
+	 * @throws SftpException
+	 *             on error
+	 */
+	private void delete(String path, RemoteFile attrs) throws SftpException {
+		if (attrs.isDir()) {
+			sftp.rmtree(path, true);
+			sftp.rmdir(path);
+		} else {
+			sftp.rm(path);
+		}
+		deleted++;
+	}
+
+	/**
+	 * Compare a local file with its remote counterpart.
+	 * 
+	 * @param file
+	 *            local file
+	 * @param path
+	 *            remote path
+	 * @param relativePath
+	 *            path relative to the synchronized folder, as in manifests
+	 * @param attrs
+	 *            remote attributes
+	 * @return true if the file must be uploaded
+	 * @throws SftpException
+	 *             on error
+	 * @throws IOException
+	 *             on error
+	 */
+	private boolean isModified(File file, String path, String relativePath,
+			RemoteFile attrs) throws SftpException, IOException {
+		if (attrs.getSize() != file.length()) {
+			return true;
+		}
+		if (localManifest != null && remoteManifest != null) {
+			String local = localManifest.getSha256(relativePath);
+			String remote = remoteManifest.getSha256(relativePath);
+			if (local != null && remote != null) {
+				return !local.equals(remote);
+			}
+		}
+		if (checksum) {
+			String remote = getRemoteMd5(path, relativePath);
+			if (remote != null) {
+				return !remote.equals(hex(digest(new FileInputStream(file))));
+			}
+		}
+		return attrs.getMTime() != (int) (file.lastModified() / 1000);
+	}
+
+	/**
+	 * MD5 of a remote file. Over sftp, the MD5s of the synchronized folder
+	 * are computed on the server by one command at the first call. A local
+	 * file system reads the file in place.
+	 * 
+	 * @param path
+	 *            remote path
+	 * @param relativePath
+	 *            path relative to the synchronized folder
+	 * @return hexadecimal MD5, null if unknown
+	 * @throws SftpException
+	 *             on error
+	 * @throws IOException
+	 *             on error
+	 */
+	private String getRemoteMd5(String path, String relativePath)
+			throws SftpException, IOException {
+		if (!(sftp instanceof Sftp)) {
+			return hex(digest(sftp.get(path)));
+		}
+		if (!remoteMd5Computed) {
+			remoteMd5Computed = true;
+			remoteMd5 = new RemoteChecksums((Sftp) sftp, logger).md5(root);
+			if (remoteMd5 == null) {
+				logger.info("Files of equal size compared by "
+						+ "modification time");
+			}
+		}
+		return remoteMd5 == null ? null : remoteMd5.get(relativePath);
+	}
+
+	/**
+	 * Hexadecimal form of a digest, as printed by md5sum.
+	 * 
+	 * @param digest
+	 *            bytes
+	 * @return lower case hexadecimal
+	 */
+	private static String hex(byte[] digest) {
+		StringBuilder builder = new StringBuilder(digest.length * 2);
+		for (byte b : digest) {
+			builder.append(Character.forDigit((b >> 4) & 0xf, 16));
+			builder.append(Character.forDigit(b & 0xf, 16));
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * MD5 of a stream.
+	 * 
+	 * @param inputStream
+	 *            to digest, closed on return
+	 * @return digest
+	 * @throws IOException
+	 *             on error
+	 */
+	private byte[] digest(InputStream inputStream) throws IOException {
+		try {
+			MessageDigest messageDigest = MessageDigest.getInstance("MD5");
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int read;
+			while ((read = inputStream.read(buffer)) != -1) {
+				messageDigest.update(buffer, 0, read);
+			}
+			return messageDigest.digest();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e.getLocalizedMessage());
+		} finally {
+			inputStream.close();
+		}
+	}
+
+}
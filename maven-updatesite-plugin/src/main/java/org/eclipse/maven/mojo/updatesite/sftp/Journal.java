@@ -0,0 +1,359 @@
+package org.eclipse.maven.mojo.updatesite.sftp;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Local append-only journal of a deployment: steps completed, files started
+ * and files completed. A deployment interrupted by a dropped connection
+ * reopens the journal of the same site and version, skips what it records
+ * as done and resumes what it records as started. Every line is flushed as
+ * it is written, and a truncated last line is ignored.
+ * <p>
+ * Format, one record per line after the header:
+ *
+ * <pre>
+ * S step
+ * K key value
+ * P size mtime path
+ * F size mtime path
+ * </pre>
+ */
+public class Journal {
+
+	/**
+	 * First line prefix, followed by the deployment identity.
+	 */
+	private static final String HEADER = "updatesite-journal 1 ";
+
+	/**
+	 * Completed step.
+	 */
+	private static final char STEP = 'S';
+
+	/**
+	 * Key value pair.
+	 */
+	private static final char KEY = 'K';
+
+	/**
+	 * File transfer started.
+	 */
+	private static final char STARTED = 'P';
+
+	/**
+	 * File transfer completed.
+	 */
+	private static final char UPLOADED = 'F';
+
+	/**
+	 * Journal file.
+	 */
+	private final File file;
+
+	/**
+	 * True if the journal was left by an interrupted deployment.
+	 */
+	private final boolean resumed;
+
+	/**
+	 * Completed steps.
+	 */
+	private final Set<String> steps = new HashSet<String>();
+
+	/**
+	 * Recorded values.
+	 */
+	private final Map<String, String> values = new HashMap<String, String>();
+
+	/**
+	 * Started files, path to "size mtime".
+	 */
+	private final Map<String, String> started = new HashMap<String, String>();
+
+	/**
+	 * Completed files, path to "size mtime".
+	 */
+	private final Map<String, String> uploaded = new HashMap<String, String>();
+
+	/**
+	 * Output, appending.
+	 */
+	private Writer writer;
+
+	/**
+	 * Open the journal of a deployment, resuming it if the file holds the
+	 * journal of the same deployment, starting it over otherwise.
+	 *
+	 * @param file
+	 *            journal file
+	 * @param identity
+	 *            of the deployment, such as site and version, on one line
+	 * @throws IOException
+	 *             on error
+	 */
+	public Journal(File file, String identity) throws IOException {
+		this.file = file;
+		String header = HEADER + identity;
+		resumed = file.isFile() && load(header);
+		if (!resumed) {
+			clear();
+		}
+		file.getParentFile().mkdirs();
+		writer = new OutputStreamWriter(new FileOutputStream(file, resumed),
+				"UTF-8");
+		if (!resumed) {
+			writeLine(header);
+		}
+	}
+
+	/**
+	 * Read an existing journal.
+	 *
+	 * @param header
+	 *            expected first line
+	 * @return true if it is the journal of the same deployment
+	 * @throws IOException
+	 *             on error
+	 */
+	private boolean load(String header) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(file), "UTF-8"));
+		try {
+			if (!header.equals(reader.readLine())) {
+				return false;
+			}
+			String line;
+			while ((line = reader.readLine()) != null) {
+				read(line);
+			}
+			return true;
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Parse a record, ignoring malformed ones.
+	 *
+	 * @param line
+	 *            record
+	 */
+	private void read(String line) {
+		if (line.length() < 2 || line.charAt(1) != ' ') {
+			return;
+		}
+		String content = line.substring(2);
+		switch (line.charAt(0)) {
+		case STEP:
+			steps.add(content);
+			break;
+		case KEY:
+			int space = content.indexOf(' ');
+			if (space > 0) {
+				values.put(content.substring(0, space),
+						content.substring(space + 1));
+			}
+			break;
+		case STARTED:
+		case UPLOADED:
+			int first = content.indexOf(' ');
+			int second = first < 0 ? -1 : content.indexOf(' ', first + 1);
+			if (second > 0) {
+				(line.charAt(0) == STARTED ? started : uploaded).put(
+						content.substring(second + 1),
+						content.substring(0, second));
+			}
+			break;
+		default:
+		}
+	}
+
+	/**
+	 * Forget the loaded records.
+	 */
+	private void clear() {
+		steps.clear();
+		values.clear();
+		started.clear();
+		uploaded.clear();
+	}
+
+	/**
+	 * Getter for {@link Journal#resumed}.
+	 *
+	 * @return true if the journal was left by an interrupted deployment
+	 */
+	public boolean isResumed() {
+		return resumed;
+	}
+
+	/**
+	 * Getter for {@link Journal#file}.
+	 *
+	 * @return journal file
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @param step
+	 *            name
+	 * @return true if recorded as completed
+	 */
+	public synchronized boolean isDone(String step) {
+		return steps.contains(step);
+	}
+
+	/**
+	 * Record a completed step.
+	 *
+	 * @param step
+	 *            name, without line break
+	 * @throws IOException
+	 *             on error
+	 */
+	public synchronized void done(String step) throws IOException {
+		steps.add(step);
+		writeLine(STEP + " " + step);
+	}
+
+	/**
+	 * @param key
+	 *            name
+	 * @return recorded value, null if none
+	 */
+	public synchronized String get(String key) {
+		return values.get(key);
+	}
+
+	/**
+	 * Record a value.
+	 *
+	 * @param key
+	 *            name, without space
+	 * @param value
+	 *            without line break
+	 * @throws IOException
+	 *             on error
+	 */
+	public synchronized void put(String key, String value) throws IOException {
+		values.put(key, value);
+		writeLine(KEY + " " + key + " " + value);
+	}
+
+	/**
+	 * @param path
+	 *            remote path
+	 * @param local
+	 *            local file
+	 * @return true if the transfer of this version of the file was started
+	 */
+	public synchronized boolean isStarted(String path, File local) {
+		return version(local).equals(started.get(path));
+	}
+
+	/**
+	 * Record the start of a file transfer.
+	 *
+	 * @param path
+	 *            remote path
+	 * @param local
+	 *            local file
+	 * @throws IOException
+	 *             on error
+	 */
+	public synchronized void started(String path, File local)
+			throws IOException {
+		String version = version(local);
+		started.put(path, version);
+		writeLine(STARTED + " " + version + " " + path);
+	}
+
+	/**
+	 * @param path
+	 *            remote path
+	 * @param local
+	 *            local file
+	 * @return true if the transfer of this version of the file completed
+	 */
+	public synchronized boolean isUploaded(String path, File local) {
+		return version(local).equals(uploaded.get(path));
+	}
+
+	/**
+	 * Record a completed file transfer.
+	 *
+	 * @param path
+	 *            remote path
+	 * @param local
+	 *            local file
+	 * @throws IOException
+	 *             on error
+	 */
+	public synchronized void uploaded(String path, File local)
+			throws IOException {
+		String version = version(local);
+		uploaded.put(path, version);
+		writeLine(UPLOADED + " " + version + " " + path);
+	}
+
+	/**
+	 * Close the journal, keeping it for the next deployment.
+	 */
+	public synchronized void close() {
+		if (writer != null) {
+			try {
+				writer.close();
+			} catch (IOException e) {
+				// nothing left to flush
+			}
+			writer = null;
+		}
+	}
+
+	/**
+	 * Close and delete the journal, once the deployment completed.
+	 */
+	public synchronized void delete() {
+		close();
+		file.delete();
+	}
+
+	/**
+	 * Identify the version of a local file.
+	 *
+	 * @param local
+	 *            file
+	 * @return "size mtime"
+	 */
+	private static String version(File local) {
+		return local.length() + " " + local.lastModified();
+	}
+
+	/**
+	 * Append and flush a line.
+	 *
+	 * @param line
+	 *            to append
+	 * @throws IOException
+	 *             on error
+	 */
+	private void writeLine(String line) throws IOException {
+		writer.write(line);
+		writer.write('\n');
+		writer.flush();
+	}
+
+}
@@ -0,0 +1,505 @@
+package org.eclipse.maven.mojo.updatesite.sftp;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.maven.mojo.updatesite.logger.Event;
+import org.eclipse.maven.mojo.updatesite.logger.Event.Activity;
+import org.eclipse.maven.mojo.updatesite.logger.Logger;
+import org.eclipse.maven.mojo.updatesite.metrics.Metrics;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.SftpException;
+
+/**
+ * {@link RemoteFileSystem} on a folder of the build host, for
+ * <code>file://</code> URLs such as NFS mounts: no ssh session, and files
+ * are uploaded by {@link FileChannel#transferTo(long, long,
+ * java.nio.channels.WritableByteChannel)}, which lets the kernel copy them
+ * without going through the JVM heap.
+ * <p>
+ * Nothing is cached: lookups are as cheap as the file system makes them.
+ * Channels only differ by their current folder.
+ */
+public class LocalFileSystem implements RemoteFileSystem {
+
+	/**
+	 * Size of the buffer copying streams.
+	 */
+	private static final int BUFFER_SIZE = 8192;
+
+	/**
+	 * Logger.
+	 */
+	private final Logger logger;
+
+	/**
+	 * Current folder, absolute.
+	 */
+	private String cwd = "/";
+
+	/**
+	 * Metrics of the operations.
+	 */
+	private Metrics metrics = new Metrics();
+
+	/**
+	 * Secondary channel, null until used.
+	 */
+	private LocalFileSystem auxiliary;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param logger
+	 *            logger
+	 */
+	public LocalFileSystem(Logger logger) {
+		this.logger = logger;
+	}
+
+	/**
+	 * Constructor of a channel.
+	 * 
+	 * @param parent
+	 *            opening channel
+	 */
+	private LocalFileSystem(LocalFileSystem parent) {
+		this(parent.logger);
+		this.cwd = parent.cwd;
+		this.metrics = parent.metrics;
+	}
+
+	public void setMetrics(Metrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public LocalFileSystem openChannel() {
+		return new LocalFileSystem(this);
+	}
+
+	public synchronized LocalFileSystem auxiliary() {
+		if (auxiliary == null) {
+			auxiliary = openChannel();
+		}
+		return auxiliary;
+	}
+
+	public void cd(String path) throws SftpException {
+		File folder = file(path);
+		if (!folder.isDirectory()) {
+			throw error(folder, path);
+		}
+		cwd = RemoteCache.resolve(cwd, path);
+	}
+
+	public String pwd() {
+		return cwd;
+	}
+
+	public String getCurrentFolderName() {
+		int i = cwd.lastIndexOf('/');
+		if (i >= 0 && cwd.length() > 1) {
+			return cwd.substring(i + 1);
+		}
+		return cwd;
+	}
+
+	public List<RemoteFile> ls(String path) throws SftpException {
+		long start = System.nanoTime();
+		File folder = file(path);
+		File[] files = folder.listFiles();
+		metrics.time("ls", start);
+		if (files == null) {
+			throw error(folder, path);
+		}
+		List<RemoteFile> ls = new ArrayList<RemoteFile>(files.length);
+		for (File file : files) {
+			ls.add(toRemoteFile(file.getName(), file));
+		}
+		return ls;
+	}
+
+	public RemoteFile stat(String path) throws SftpException {
+		long start = System.nanoTime();
+		File file = file(path);
+		try {
+			if (!file.exists()) {
+				throw error(file, path);
+			}
+			return toRemoteFile(path, file);
+		} finally {
+			metrics.time("stat", start);
+		}
+	}
+
+	public boolean fileExists(String path) {
+		long start = System.nanoTime();
+		boolean exists = file(path).exists();
+		metrics.time("stat", start);
+		return exists;
+	}
+
+	public boolean fileDoesNotExist(String path) {
+		return !fileExists(path);
+	}
+
+	public void mkdir(String path) throws SftpException {
+		long start = System.nanoTime();
+		File folder = file(path);
+		boolean created = folder.mkdir();
+		metrics.time("mkdir", start);
+		if (!created) {
+			// mkdir(2) reports an existing folder first
+			throw folder.exists() ? exists(path) : error(folder, path,
+					Access.CREATE);
+		}
+	}
+
+	public void rmdir(String path) throws SftpException {
+		long start = System.nanoTime();
+		File folder = file(path);
+		boolean deleted = folder.isDirectory() && folder.delete();
+		metrics.time("rmdir", start);
+		if (!deleted) {
+			throw error(folder, path, Access.DELETE);
+		}
+	}
+
+	public void rm(String path) throws SftpException {
+		long start = System.nanoTime();
+		File file = file(path);
+		boolean deleted = file.isFile() && file.delete();
+		metrics.time("rm", start);
+		if (!deleted) {
+			throw error(file, path, Access.DELETE);
+		}
+	}
+
+	public void rename(String oldPath, String newPath) throws SftpException {
+		long start = System.nanoTime();
+		File oldFile = file(oldPath);
+		File newFile = file(newPath);
+		// rename(2) replaces an existing file, sftp does not
+		boolean renamed = !newFile.exists() && oldFile.renameTo(newFile);
+		metrics.time("rename", start);
+		if (!renamed) {
+			throw newFile.exists() ? exists(newPath) : error(oldFile,
+					oldPath, Access.DELETE);
+		}
+	}
+
+	/**
+	 * Recorded in the {@link Metrics#RMTREE} phase, whatever the current
+	 * phase of the deployment. Each deleted file is reported as an
+	 * {@link Event}, not logged.
+	 */
+	public void rmtree(String folder, boolean deleteFolder)
+			throws SftpException {
+		long start = metrics.enter(Metrics.RMTREE);
+		try {
+			logger.debug("Deleting content of: " + folder);
+			rmtreeContent(file(folder), deleteFolder);
+		} finally {
+			metrics.exit(Metrics.RMTREE, start);
+		}
+	}
+
+	private void rmtreeContent(File folder, boolean deleteFolder)
+			throws SftpException {
+		File[] files = folder.listFiles();
+		if (files == null) {
+			throw error(folder, folder.getPath());
+		}
+		for (File file : files) {
+			long start;
+			if (file.isDirectory()) {
+				rmtreeContent(file, deleteFolder);
+				if (!deleteFolder) {
+					continue;
+				}
+				start = System.nanoTime();
+				if (!file.delete()) {
+					throw error(file, file.getPath(), Access.DELETE);
+				}
+				metrics.time("rmdir", start);
+			} else {
+				long length = file.length();
+				start = System.nanoTime();
+				if (!file.delete()) {
+					throw error(file, file.getPath(), Access.DELETE);
+				}
+				metrics.time("rm", start);
+				logger.event(Event.done(Activity.DELETE, file.getPath(),
+						length));
+			}
+		}
+	}
+
+	/**
+	 * The transfer is recorded when the stream is closed.
+	 */
+	public InputStream get(String path) throws SftpException {
+		long start = System.nanoTime();
+		File file = file(path);
+		try {
+			return metrics.download(new FileInputStream(file), "get", start);
+		} catch (FileNotFoundException e) {
+			throw error(file, path);
+		}
+	}
+
+	public void put(InputStream inputStream, String dst) throws SftpException {
+		long start = System.nanoTime();
+		File file = file(dst);
+		long count = 0;
+		try {
+			FileOutputStream outputStream;
+			try {
+				outputStream = new FileOutputStream(file);
+			} catch (FileNotFoundException e) {
+				throw error(file, dst, Access.CREATE);
+			}
+			try {
+				byte[] buffer = new byte[BUFFER_SIZE];
+				int read;
+				while ((read = inputStream.read(buffer)) != -1) {
+					outputStream.write(buffer, 0, read);
+					count += read;
+				}
+			} finally {
+				outputStream.close();
+			}
+		} catch (IOException e) {
+			throw new SftpException(ChannelSftp.SSH_FX_FAILURE,
+					e.getLocalizedMessage(), e);
+		}
+		metrics.time("put", start);
+		metrics.uploaded(count);
+	}
+
+	/**
+	 * The transfer is recorded when the stream is closed.
+	 */
+	public OutputStream put(String dst) throws SftpException {
+		long start = System.nanoTime();
+		File file = file(dst);
+		try {
+			return metrics.upload(new FileOutputStream(file), "put", start);
+		} catch (FileNotFoundException e) {
+			throw error(file, dst, Access.CREATE);
+		}
+	}
+
+	public void put(File file, String dst, boolean preserveMtime)
+			throws SftpException, IOException {
+		transfer(file, dst, false);
+		if (preserveMtime) {
+			setMtime(dst, (int) (file.lastModified() / 1000));
+		}
+		logger.event(Event.done(Activity.UPLOAD, dst, file.length()));
+	}
+
+	public void resume(File file, String dst, boolean preserveMtime)
+			throws SftpException, IOException {
+		transfer(file, dst, true);
+		if (preserveMtime) {
+			setMtime(dst, (int) (file.lastModified() / 1000));
+		}
+		logger.event(Event.done(Activity.UPLOAD, dst, file.length()));
+	}
+
+	/**
+	 * Copy a local file with {@link FileChannel#transferTo(long, long,
+	 * java.nio.channels.WritableByteChannel)}.
+	 * 
+	 * @param file
+	 *            to copy
+	 * @param dst
+	 *            path of the copy
+	 * @param resume
+	 *            true to only append what the copy is missing
+	 * @throws SftpException
+	 *             if the copy can not be written, or is longer than the file
+	 *             when resumed
+	 * @throws IOException
+	 *             on error
+	 */
+	private void transfer(File file, String dst, boolean resume)
+			throws SftpException, IOException {
+		long start = System.nanoTime();
+		File target = file(dst);
+		long position = resume && target.isFile() ? target.length() : 0;
+		FileInputStream inputStream = new FileInputStream(file);
+		try {
+			FileChannel source = inputStream.getChannel();
+			long size = source.size();
+			if (position > size) {
+				throw new SftpException(ChannelSftp.SSH_FX_FAILURE,
+						"failed to resume " + dst + ": longer than " + file);
+			}
+			FileOutputStream outputStream;
+			try {
+				outputStream = new FileOutputStream(target, resume);
+			} catch (FileNotFoundException e) {
+				throw error(target, dst, Access.CREATE);
+			}
+			try {
+				FileChannel channel = outputStream.getChannel();
+				long written = position;
+				while (written < size) {
+					long transferred = source.transferTo(written, size
+							- written, channel);
+					if (transferred == 0) {
+						// the source shrank since its size was read
+						throw new SftpException(ChannelSftp.SSH_FX_FAILURE,
+								"failed to write " + dst + ": " + file
+										+ " ends at " + source.size()
+										+ " instead of " + size);
+					}
+					written += transferred;
+				}
+			} finally {
+				outputStream.close();
+			}
+			metrics.time(resume ? "resume" : "put", start);
+			metrics.uploaded(size - position);
+		} finally {
+			inputStream.close();
+		}
+	}
+
+	public void setMtime(String path, int mtime) throws SftpException {
+		long start = System.nanoTime();
+		File file = file(path);
+		boolean set = file.setLastModified(mtime * 1000L);
+		metrics.time("setMtime", start);
+		if (!set) {
+			throw error(file, path, Access.WRITE);
+		}
+	}
+
+	public void invalidateFolder(String folder) {
+		// nothing cached
+	}
+
+	public void disconnect() {
+		synchronized (this) {
+			auxiliary = null;
+		}
+	}
+
+	/**
+	 * @param path
+	 *            absolute or relative to the current folder
+	 * @return local file
+	 */
+	private File file(String path) {
+		return new File(RemoteCache.resolve(cwd, path));
+	}
+
+	/**
+	 * @param path
+	 *            as given to the operation
+	 * @return {@link ChannelSftp#SSH_FX_FAILURE}, as an sftp server answers
+	 *         when creating an existing file
+	 */
+	private static SftpException exists(String path) {
+		return new SftpException(ChannelSftp.SSH_FX_FAILURE, path);
+	}
+
+	/**
+	 * @param file
+	 *            a read failed on
+	 * @param path
+	 *            as given to the operation
+	 * @return error of {@link #error(File, String, Access)}
+	 */
+	private static SftpException error(File file, String path) {
+		return error(file, path, Access.READ);
+	}
+
+	/**
+	 * @param file
+	 *            the operation failed on
+	 * @param path
+	 *            as given to the operation
+	 * @param access
+	 *            needed by the operation
+	 * @return {@link ChannelSftp#SSH_FX_PERMISSION_DENIED} if the file, or
+	 *         its folder when created or deleted, does not grant the access,
+	 *         {@link ChannelSftp#SSH_FX_NO_SUCH_FILE} if the file or its
+	 *         folder is missing, {@link ChannelSftp#SSH_FX_FAILURE}
+	 *         otherwise, as an sftp server answers
+	 */
+	private static SftpException error(File file, String path, Access access) {
+		File folder = file.getAbsoluteFile().getParentFile();
+		boolean denied;
+		if (!file.exists()) {
+			denied = access == Access.CREATE && folder != null
+					&& folder.isDirectory() && !folder.canWrite();
+			if (!denied) {
+				return new SftpException(ChannelSftp.SSH_FX_NO_SUCH_FILE, path);
+			}
+		} else if (access == Access.READ) {
+			denied = !file.canRead();
+		} else if (access == Access.DELETE) {
+			denied = folder != null && !folder.canWrite();
+		} else {
+			denied = !file.canWrite();
+		}
+		if (denied) {
+			return new SftpException(ChannelSftp.SSH_FX_PERMISSION_DENIED,
+					path);
+		}
+		return new SftpException(ChannelSftp.SSH_FX_FAILURE, path);
+	}
+
+	/**
+	 * Access an operation needs, to tell a permission failure.
+	 */
+	private enum Access {
+
+		/**
+		 * Read the file, or list the folder.
+		 */
+		READ,
+
+		/**
+		 * Create the file in its folder, or overwrite it.
+		 */
+		CREATE,
+
+		/**
+		 * Change the file.
+		 */
+		WRITE,
+
+		/**
+		 * Remove the file from its folder, or rename it.
+		 */
+		DELETE
+
+	}
+
+	/**
+	 * @param filename
+	 *            of the entry
+	 * @param file
+	 *            local file
+	 * @return attributes of the file
+	 */
+	private static RemoteFile toRemoteFile(String filename, File file) {
+		return new RemoteFile(filename, file.isDirectory(), file.length(),
+				(int) (file.lastModified() / 1000));
+	}
+
+}
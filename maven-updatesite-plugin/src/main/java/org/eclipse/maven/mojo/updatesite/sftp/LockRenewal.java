@@ -0,0 +1,189 @@
+package org.eclipse.maven.mojo.updatesite.sftp;
+
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.maven.mojo.updatesite.logger.Logger;
+
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.SftpException;
+
+/**
+ * Keep the {@link RemoteLock}s of a deployment alive while they are held:
+ * their modification time is changed several times per lease, so that the
+ * deploys waiting for them never take them for the locks of a dead deploy.
+ * <p>
+ * All the locks are touched by one timer thread, on one channel of the
+ * session. The channel is reserved by {@link #reserve(RemoteFileSystem)}
+ * before the transfers take the free slots of the session, see
+ * {@link ChannelLimit}, or opened by the first lock otherwise. A lock is not
+ * acquired without a channel to renew it.
+ */
+public class LockRenewal {
+
+	/**
+	 * Number of renewals per lease.
+	 */
+	private static final int RENEWALS = 3;
+
+	/**
+	 * Shortest delay between two renewals, in milliseconds.
+	 */
+	private static final long MIN_PERIOD = 100;
+
+	/**
+	 * Delay between two renewals, in milliseconds.
+	 */
+	private final long period;
+
+	/**
+	 * Logger.
+	 */
+	private final Logger logger;
+
+	/**
+	 * Locks held.
+	 */
+	private final Set<RemoteLock> locks = new LinkedHashSet<RemoteLock>();
+
+	/**
+	 * Channel the locks are renewed on, null until opened.
+	 */
+	private RemoteFileSystem channel;
+
+	/**
+	 * Timer, started by the first lock.
+	 */
+	private ScheduledExecutorService executorService;
+
+	/**
+	 * Last modification time set, in seconds.
+	 */
+	private int mtime;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param lease
+	 *            milliseconds after which an unchanged lock is considered
+	 *            left by a dead deploy
+	 * @param logger
+	 *            logger
+	 */
+	public LockRenewal(long lease, Logger logger) {
+		this.period = Math.max(MIN_PERIOD, lease / RENEWALS);
+		this.logger = logger;
+	}
+
+	/**
+	 * Open the channel the locks are renewed on, if not yet opened.
+	 *
+	 * @param sftp
+	 *            connection whose session is used, owned by the calling
+	 *            thread
+	 * @throws IOException
+	 *             if the session has no free slot
+	 */
+	public synchronized void reserve(RemoteFileSystem sftp)
+			throws IOException {
+		if (channel != null) {
+			return;
+		}
+		try {
+			channel = sftp.openChannel();
+		} catch (JSchException e) {
+			throw new IOException("Could not open a channel to renew locks: "
+					+ e.getLocalizedMessage(), e);
+		} catch (SftpException e) {
+			throw new IOException("Could not open a channel to renew locks: "
+					+ e.getLocalizedMessage(), e);
+		}
+		if (channel == null) {
+			throw new IOException("No channel left to renew locks, "
+					+ ChannelLimit.MAX_CHANNELS + " are open");
+		}
+	}
+
+	/**
+	 * Renew a lock until {@link #remove(RemoteLock)}.
+	 *
+	 * @param lock
+	 *            just acquired
+	 * @param sftp
+	 *            connection of the lock, owned by the calling thread
+	 * @throws IOException
+	 *             if no channel could be reserved to renew it
+	 */
+	synchronized void add(RemoteLock lock, RemoteFileSystem sftp)
+			throws IOException {
+		reserve(sftp);
+		locks.add(lock);
+		if (executorService == null) {
+			executorService = Executors
+					.newSingleThreadScheduledExecutor(new ThreadFactory() {
+						public Thread newThread(Runnable runnable) {
+							Thread thread = new Thread(runnable, "lock-renewal");
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+			executorService.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					renew();
+				}
+			}, period, period, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Stop renewing a lock, before it is released.
+	 *
+	 * @param lock
+	 *            to forget
+	 */
+	synchronized void remove(RemoteLock lock) {
+		locks.remove(lock);
+	}
+
+	/**
+	 * Touch the locks held. The modification time changes at each renewal,
+	 * even within the same second.
+	 */
+	private synchronized void renew() {
+		if (channel == null || locks.isEmpty()) {
+			return;
+		}
+		int now = (int) (System.currentTimeMillis() / 1000);
+		mtime = now > mtime ? now : mtime + 1;
+		for (RemoteLock lock : locks) {
+			try {
+				channel.setMtime(lock.getPath(), mtime);
+			} catch (SftpException e) {
+				logger.warn("Could not renew lock " + lock.getPath() + ": "
+						+ e.getLocalizedMessage());
+			}
+		}
+	}
+
+	/**
+	 * Stop the timer and close the channel. Must be called before the
+	 * session is disconnected.
+	 */
+	public synchronized void close() {
+		if (executorService != null) {
+			executorService.shutdownNow();
+			executorService = null;
+		}
+		if (channel != null) {
+			channel.disconnect();
+			channel = null;
+		}
+		locks.clear();
+	}
+
+}
@@ -0,0 +1,268 @@
+package org.eclipse.maven.mojo.updatesite.sftp;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.SftpException;
+
+/**
+ * Upload a queue of files through a pool of channels opened from a single
+ * {@link RemoteFileSystem}, multiplexed over one ssh session for sftp. The
+ * pool gets the channels the session can still open, see
+ * {@link ChannelLimit}, and falls back to the connection itself when it gets
+ * none.
+ */
+public class ParallelUpload {
+
+	/**
+	 * Connection owning the session.
+	 */
+	private final RemoteFileSystem sftp;
+
+	/**
+	 * Number of channels to open.
+	 */
+	private final int channels;
+
+	/**
+	 * Work queue of pending transfers.
+	 */
+	private final Queue<Transfer> queue = new ConcurrentLinkedQueue<Transfer>();
+
+	/**
+	 * Failed transfers by remote path.
+	 */
+	private final Map<String, Exception> failures = Collections
+			.synchronizedMap(new LinkedHashMap<String, Exception>());
+
+	/**
+	 * Copy local modification time to uploaded files.
+	 */
+	private boolean preserveMtime;
+
+	/**
+	 * Journal recording started and completed transfers, null if none.
+	 */
+	private Journal journal;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param sftp
+	 *            connection whose session is shared
+	 * @param channels
+	 *            number of concurrent channels
+	 */
+	public ParallelUpload(RemoteFileSystem sftp, int channels) {
+		this.sftp = sftp;
+		this.channels = Math.max(1, channels);
+	}
+
+	/**
+	 * Setter for {@link ParallelUpload#preserveMtime}.
+	 * 
+	 * @param preserveMtime
+	 *            true to copy local modification time
+	 */
+	public void setPreserveMtime(boolean preserveMtime) {
+		this.preserveMtime = preserveMtime;
+	}
+
+	/**
+	 * Setter for {@link ParallelUpload#journal}.
+	 * 
+	 * @param journal
+	 *            journal recording the transfers, null for none
+	 */
+	public void setJournal(Journal journal) {
+		this.journal = journal;
+	}
+
+	/**
+	 * Queue a file.
+	 * 
+	 * @param file
+	 *            local file
+	 * @param dst
+	 *            remote destination
+	 */
+	public void add(File file, String dst) {
+		add(file, dst, false);
+	}
+
+	/**
+	 * Queue a file.
+	 * 
+	 * @param file
+	 *            local file
+	 * @param dst
+	 *            remote destination
+	 * @param resume
+	 *            true to append to a partially written remote file
+	 */
+	public void add(File file, String dst, boolean resume) {
+		queue.add(new Transfer(file, dst, resume));
+	}
+
+	/**
+	 * Drain the queue through the channel pool. A failing file does not stop
+	 * the other transfers.
+	 * 
+	 * @return failures by remote path, empty on success
+	 * @throws JSchException
+	 *             if no channel could be opened
+	 * @throws SftpException
+	 *             if no channel could be opened
+	 */
+	public Map<String, Exception> execute() throws JSchException,
+			SftpException {
+		int size = Math.min(channels, queue.size());
+		if (size == 0) {
+			return failures;
+		}
+		List<RemoteFileSystem> pool = new ArrayList<RemoteFileSystem>(size);
+		ExecutorService executorService = null;
+		try {
+			for (int i = 0; i < size; i++) {
+				RemoteFileSystem channel = sftp.openChannel();
+				if (channel == null) {
+					break;
+				}
+				pool.add(channel);
+			}
+			if (pool.isEmpty()) {
+				// no slot left on the session
+				drain(sftp);
+				return failures;
+			}
+			executorService = Executors.newFixedThreadPool(pool.size());
+			for (final RemoteFileSystem channel : pool) {
+				executorService.execute(new Runnable() {
+					public void run() {
+						drain(channel);
+					}
+				});
+			}
+			executorService.shutdown();
+			executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SftpException(ChannelSftp.SSH_FX_FAILURE,
+					"Upload interrupted");
+		} finally {
+			if (executorService != null) {
+				executorService.shutdownNow();
+			}
+			for (RemoteFileSystem channel : pool) {
+				channel.disconnect();
+			}
+		}
+		return failures;
+	}
+
+	/**
+	 * Upload queued files until the queue is empty.
+	 * 
+	 * @param channel
+	 *            owned by the calling thread
+	 */
+	private void drain(RemoteFileSystem channel) {
+		Transfer transfer;
+		while ((transfer = queue.poll()) != null) {
+			try {
+				transfer(channel, transfer.file, transfer.dst,
+						transfer.resume, preserveMtime, journal);
+			} catch (SftpException e) {
+				failures.put(transfer.dst, e);
+			} catch (IOException e) {
+				failures.put(transfer.dst, e);
+			}
+		}
+	}
+
+	/**
+	 * Upload a file, recording its start and completion in the journal.
+	 * 
+	 * @param channel
+	 *            connection
+	 * @param file
+	 *            local file
+	 * @param dst
+	 *            remote destination
+	 * @param resume
+	 *            true to append to a partially written remote file
+	 * @param preserveMtime
+	 *            true to copy local modification time
+	 * @param journal
+	 *            journal, null for none
+	 * @throws SftpException
+	 *             on error
+	 * @throws IOException
+	 *             on error
+	 */
+	static void transfer(RemoteFileSystem channel, File file, String dst,
+			boolean resume, boolean preserveMtime, Journal journal)
+			throws SftpException, IOException {
+		if (journal != null && !resume) {
+			journal.started(dst, file);
+		}
+		if (resume) {
+			channel.resume(file, dst, preserveMtime);
+		} else {
+			channel.put(file, dst, preserveMtime);
+		}
+		if (journal != null) {
+			journal.uploaded(dst, file);
+		}
+	}
+
+	/**
+	 * Pending file transfer.
+	 */
+	private static class Transfer {
+
+		/**
+		 * Local file.
+		 */
+		private final File file;
+
+		/**
+		 * Remote destination.
+		 */
+		private final String dst;
+
+		/**
+		 * Append to a partially written remote file.
+		 */
+		private final boolean resume;
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param file
+		 *            local file
+		 * @param dst
+		 *            remote destination
+		 * @param resume
+		 *            true to append to a partially written remote file
+		 */
+		Transfer(File file, String dst, boolean resume) {
+			this.file = file;
+			this.dst = dst;
+			this.resume = resume;
+		}
+	}
+
+}
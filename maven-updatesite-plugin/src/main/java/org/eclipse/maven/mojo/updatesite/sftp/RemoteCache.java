@@ -0,0 +1,237 @@
+package org.eclipse.maven.mojo.updatesite.sftp;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Cache of the remote tree shared by all the channels of a session. Keys are
+ * normalized absolute paths.
+ * <ul>
+ * <li>listings: names found in a folder by a full <code>ls</code></li>
+ * <li>existence: result of single <code>stat</code> calls</li>
+ * </ul>
+ */
+class RemoteCache {
+
+	/**
+	 * Folder content by absolute path.
+	 */
+	private final ConcurrentMap<String, Set<String>> listings = new ConcurrentHashMap<String, Set<String>>();
+
+	/**
+	 * Known existence by absolute path.
+	 */
+	private final ConcurrentMap<String, Boolean> existence = new ConcurrentHashMap<String, Boolean>();
+
+	/**
+	 * Lookup a path.
+	 * 
+	 * @param path
+	 *            absolute path
+	 * @return {@link Boolean#TRUE} or {@link Boolean#FALSE} if known, null
+	 *         otherwise
+	 */
+	Boolean exists(String path) {
+		Boolean exists = existence.get(path);
+		if (exists != null) {
+			return exists;
+		}
+		Set<String> names = listing(parent(path));
+		if (names != null) {
+			return Boolean.valueOf(names.contains(name(path)));
+		}
+		return null;
+	}
+
+	/**
+	 * Cached listing of a folder.
+	 * 
+	 * @param folder
+	 *            absolute path, may be null
+	 * @return names or null if unknown
+	 */
+	private Set<String> listing(String folder) {
+		if (folder == null) {
+			return null;
+		}
+		return listings.get(folder);
+	}
+
+	/**
+	 * Record the result of a <code>stat</code>.
+	 * 
+	 * @param path
+	 *            absolute path
+	 * @param exists
+	 *            true if found
+	 */
+	void stated(String path, boolean exists) {
+		existence.put(path, Boolean.valueOf(exists));
+	}
+
+	/**
+	 * Record the content of a folder.
+	 * 
+	 * @param folder
+	 *            absolute path
+	 * @param names
+	 *            of the folder entries
+	 */
+	void listed(String folder, Collection<String> names) {
+		Set<String> set = Collections
+				.newSetFromMap(new ConcurrentHashMap<String, Boolean>(
+						names.size() * 2));
+		set.addAll(names);
+		listings.put(folder, set);
+		existence.put(folder, Boolean.TRUE);
+	}
+
+	/**
+	 * Record a newly created file or folder.
+	 * 
+	 * @param path
+	 *            absolute path
+	 */
+	void created(String path) {
+		existence.put(path, Boolean.TRUE);
+		Set<String> names = listing(parent(path));
+		if (names != null) {
+			names.add(name(path));
+		}
+	}
+
+	/**
+	 * Record a newly created folder, known to be empty.
+	 * 
+	 * @param path
+	 *            absolute path
+	 */
+	void createdFolder(String path) {
+		created(path);
+		listed(path, Collections.<String> emptySet());
+	}
+
+	/**
+	 * Record a deleted file or folder.
+	 * 
+	 * @param path
+	 *            absolute path
+	 */
+	void deleted(String path) {
+		invalidateTree(path);
+		existence.put(path, Boolean.FALSE);
+		Set<String> names = listing(parent(path));
+		if (names != null) {
+			names.remove(name(path));
+		}
+	}
+
+	/**
+	 * Forget what is known of the entries of a folder, the content of its
+	 * sub folders excluded.
+	 * 
+	 * @param folder
+	 *            absolute path
+	 */
+	void invalidateFolder(String folder) {
+		listings.remove(folder);
+		for (Iterator<String> iterator = existence.keySet().iterator(); iterator
+				.hasNext();) {
+			if (folder.equals(parent(iterator.next()))) {
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * Forget everything known below a folder, the folder itself excluded.
+	 * 
+	 * @param folder
+	 *            absolute path
+	 */
+	void invalidateTree(String folder) {
+		listings.remove(folder);
+		String prefix = folder.endsWith("/") ? folder : folder + "/";
+		for (Iterator<String> iterator = listings.keySet().iterator(); iterator
+				.hasNext();) {
+			if (iterator.next().startsWith(prefix)) {
+				iterator.remove();
+			}
+		}
+		for (Iterator<String> iterator = existence.keySet().iterator(); iterator
+				.hasNext();) {
+			if (iterator.next().startsWith(prefix)) {
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * Parent of an absolute path.
+	 * 
+	 * @param path
+	 *            absolute path
+	 * @return parent or null for the root
+	 */
+	static String parent(String path) {
+		int i = path.lastIndexOf('/');
+		if (i < 0 || path.length() == 1) {
+			return null;
+		}
+		if (i == 0) {
+			return "/";
+		}
+		return path.substring(0, i);
+	}
+
+	/**
+	 * Last segment of an absolute path.
+	 * 
+	 * @param path
+	 *            absolute path
+	 * @return name
+	 */
+	static String name(String path) {
+		return path.substring(path.lastIndexOf('/') + 1);
+	}
+
+	/**
+	 * Resolve a path against a working directory and remove "." and ".."
+	 * segments.
+	 * 
+	 * @param cwd
+	 *            absolute working directory
+	 * @param path
+	 *            absolute or relative path
+	 * @return normalized absolute path
+	 */
+	static String resolve(String cwd, String path) {
+		String absolute = path.startsWith("/") ? path : cwd + "/" + path;
+		StringBuilder builder = new StringBuilder();
+		String[] segments = absolute.split("/");
+		int[] marks = new int[segments.length];
+		int depth = 0;
+		for (String segment : segments) {
+			if (segment.length() == 0 || ".".equals(segment)) {
+				continue;
+			}
+			if ("..".equals(segment)) {
+				if (depth > 0) {
+					builder.setLength(marks[--depth]);
+				}
+				continue;
+			}
+			marks[depth++] = builder.length();
+			builder.append('/').append(segment);
+		}
+		if (builder.length() == 0) {
+			return "/";
+		}
+		return builder.toString();
+	}
+
+}
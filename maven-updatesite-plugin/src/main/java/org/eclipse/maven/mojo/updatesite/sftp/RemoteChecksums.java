@@ -0,0 +1,160 @@
+package org.eclipse.maven.mojo.updatesite.sftp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.maven.mojo.updatesite.logger.Logger;
+
+import com.jcraft.jsch.ChannelExec;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.SftpException;
+
+/**
+ * Compute the MD5 of the files of a remote folder by running
+ * <code>md5sum</code> on an exec channel of the session, so that the
+ * content is hashed where it is stored instead of being downloaded. One
+ * command hashes the whole tree. Requires a shell access with md5sum on the
+ * server.
+ */
+public class RemoteChecksums {
+
+	/**
+	 * How long to wait for the availability probe, some servers silently
+	 * ignore exec requests.
+	 */
+	private static final long PROBE_TIMEOUT = 10000;
+
+	/**
+	 * Expected output of the availability probe.
+	 */
+	private static final String PROBE_MARKER = "updatesite-md5sum";
+
+	/**
+	 * Prefix of the paths listed by find.
+	 */
+	private static final String CURRENT = "./";
+
+	/**
+	 * Separator of the checksum and the path in md5sum lines.
+	 */
+	private static final String SEPARATOR = "  ";
+
+	/**
+	 * Connection whose session is used.
+	 */
+	private final Sftp sftp;
+
+	/**
+	 * Logger.
+	 */
+	private final Logger logger;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param sftp
+	 *            connection whose session is used
+	 * @param logger
+	 *            logger
+	 */
+	public RemoteChecksums(Sftp sftp, Logger logger) {
+		this.sftp = sftp;
+		this.logger = logger;
+	}
+
+	/**
+	 * Hash the files below a remote folder.
+	 *
+	 * @param dst
+	 *            remote folder
+	 * @return hexadecimal MD5 by path relative to the folder, null if the
+	 *         server cannot run md5sum
+	 * @throws SftpException
+	 *             on error
+	 */
+	public Map<String, String> md5(String dst) throws SftpException {
+		String path = ArchiveUpload.quote(RemoteCache.resolve(sftp.pwd(),
+				dst));
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			int status = exec("command -v md5sum >/dev/null && echo "
+					+ PROBE_MARKER, out, PROBE_TIMEOUT);
+			if (status != 0 || !out.toString().trim().equals(PROBE_MARKER)) {
+				logger.info("Remote md5sum not available");
+				return null;
+			}
+			out.reset();
+			status = exec("cd " + path
+					+ " && find . -type f -exec md5sum {} +", out, 0);
+			if (status != 0) {
+				logger.info("Remote md5sum failed with status " + status);
+				return null;
+			}
+			return parse(out.toString("UTF-8"));
+		} catch (JSchException e) {
+			logger.info("Remote commands not available: "
+					+ e.getLocalizedMessage());
+		} catch (IOException e) {
+			logger.info("Remote commands not available: "
+					+ e.getLocalizedMessage());
+		}
+		return null;
+	}
+
+	/**
+	 * Read the output of md5sum. The lines of the paths md5sum escapes, which
+	 * start with a backslash, are skipped.
+	 *
+	 * @param output
+	 *            of md5sum
+	 * @return hexadecimal MD5 by relative path
+	 */
+	private static Map<String, String> parse(String output) {
+		Map<String, String> checksums = new HashMap<String, String>();
+		for (String line : output.split("\n")) {
+			int index = line.indexOf(SEPARATOR);
+			if (index <= 0 || line.startsWith("\\")) {
+				continue;
+			}
+			String path = line.substring(index + SEPARATOR.length());
+			if (path.startsWith(CURRENT)) {
+				path = path.substring(CURRENT.length());
+			}
+			checksums.put(path, line.substring(0, index));
+		}
+		return checksums;
+	}
+
+	/**
+	 * Run a command without input.
+	 *
+	 * @param command
+	 *            remote command
+	 * @param output
+	 *            receives the standard output
+	 * @param timeout
+	 *            in milliseconds, 0 to wait until the command ends
+	 * @return exit status, -1 if unknown
+	 * @throws IOException
+	 *             on error
+	 * @throws JSchException
+	 *             on error
+	 */
+	private int exec(String command, OutputStream output, long timeout)
+			throws JSchException, IOException {
+		long start = System.nanoTime();
+		ChannelExec channel = sftp.openExec(command);
+		channel.setOutputStream(output);
+		try {
+			channel.connect();
+			return ArchiveUpload.waitFor(channel, timeout);
+		} finally {
+			sftp.closeExec(channel);
+			sftp.getMetrics().time("exec", start);
+		}
+	}
+
+}
@@ -0,0 +1,85 @@
+package org.eclipse.maven.mojo.updatesite.sftp;
+
+/**
+ * Entry of a {@link RemoteFileSystem} folder listing, or attributes of a
+ * path.
+ */
+public final class RemoteFile {
+
+	/**
+	 * Name in the listed folder, or path as given to
+	 * {@link RemoteFileSystem#stat(String)}.
+	 */
+	private final String filename;
+
+	/**
+	 * True for a folder.
+	 */
+	private final boolean dir;
+
+	/**
+	 * Size in bytes.
+	 */
+	private final long size;
+
+	/**
+	 * Modification time in seconds.
+	 */
+	private final int mtime;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param filename
+	 *            name or path
+	 * @param dir
+	 *            true for a folder
+	 * @param size
+	 *            in bytes
+	 * @param mtime
+	 *            modification time in seconds
+	 */
+	public RemoteFile(String filename, boolean dir, long size, int mtime) {
+		this.filename = filename;
+		this.dir = dir;
+		this.size = size;
+		this.mtime = mtime;
+	}
+
+	/**
+	 * Getter for {@link RemoteFile#filename}.
+	 * 
+	 * @return name or path
+	 */
+	public String getFilename() {
+		return filename;
+	}
+
+	/**
+	 * Getter for {@link RemoteFile#dir}.
+	 * 
+	 * @return true for a folder
+	 */
+	public boolean isDir() {
+		return dir;
+	}
+
+	/**
+	 * Getter for {@link RemoteFile#size}.
+	 * 
+	 * @return size in bytes
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * Getter for {@link RemoteFile#mtime}.
+	 * 
+	 * @return modification time in seconds
+	 */
+	public int getMTime() {
+		return mtime;
+	}
+
+}
@@ -0,0 +1,145 @@
+package org.eclipse.maven.mojo.updatesite.sftp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+import org.eclipse.maven.mojo.updatesite.metrics.Metrics;
+
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.SftpException;
+
+/**
+ * File system sites are deployed to: {@link Sftp} for
+ * <code>sftp://</code> URLs, {@link LocalFileSystem} for
+ * <code>file://</code> ones.
+ * <p>
+ * Failures are reported as {@link SftpException}s carrying the SFTP status
+ * code, {@link com.jcraft.jsch.ChannelSftp#SSH_FX_NO_SUCH_FILE} for a
+ * missing path, {@link com.jcraft.jsch.ChannelSftp#SSH_FX_PERMISSION_DENIED}
+ * for a path the user may not access and
+ * {@link com.jcraft.jsch.ChannelSftp#SSH_FX_FAILURE} for an existing one,
+ * whatever the implementation: the locking and existence checks built on
+ * top of it branch on these codes. Relative paths are
+ * resolved against the current folder, like SFTP does.
+ */
+public interface RemoteFileSystem {
+
+	/**
+	 * Record the operations of this file system, and of the channels opened
+	 * from it, in the given metrics.
+	 */
+	void setMetrics(Metrics metrics);
+
+	/**
+	 * Open an additional channel with its own current folder, initially the
+	 * current folder of this one. Disconnecting it leaves this one open. Null
+	 * when the session has no free slot, see {@link ChannelLimit}: the caller
+	 * then makes do with the channels it already owns.
+	 */
+	RemoteFileSystem openChannel() throws JSchException, SftpException;
+
+	/**
+	 * Secondary channel, opened on first use and kept until
+	 * {@link #disconnect()}, for transfers running alongside this one. Null
+	 * when the session has no free slot: the caller then transfers on this
+	 * one, after its current transfer.
+	 */
+	RemoteFileSystem auxiliary() throws JSchException, SftpException;
+
+	void cd(String path) throws SftpException;
+
+	String pwd() throws SftpException;
+
+	/**
+	 * Name of the current folder.
+	 */
+	String getCurrentFolderName() throws SftpException;
+
+	/**
+	 * List a folder. The "." and ".." entries may be listed.
+	 */
+	List<RemoteFile> ls(String path) throws SftpException;
+
+	/**
+	 * Attributes of a path, always looked up.
+	 */
+	RemoteFile stat(String path) throws SftpException;
+
+	/**
+	 * Possibly answered from what is known of the folder.
+	 */
+	boolean fileExists(String path) throws SftpException;
+
+	boolean fileDoesNotExist(String path) throws SftpException;
+
+	/**
+	 * Create a folder, failing if it exists: creating a folder is the atomic
+	 * operation {@link RemoteLock} relies on.
+	 */
+	void mkdir(String path) throws SftpException;
+
+	void rmdir(String path) throws SftpException;
+
+	void rm(String path) throws SftpException;
+
+	/**
+	 * Rename a file or folder, failing if the new path exists.
+	 */
+	void rename(String oldPath, String newPath) throws SftpException;
+
+	/**
+	 * Delete the files below a folder, and the sub folders if
+	 * <code>deleteFolder</code>. The folder itself is kept.
+	 */
+	void rmtree(String folder, boolean deleteFolder) throws SftpException;
+
+	InputStream get(String path) throws SftpException;
+
+	void put(InputStream inputStream, String dst) throws SftpException;
+
+	/**
+	 * Open a file for writing. The file is complete once the stream is
+	 * closed.
+	 */
+	OutputStream put(String dst) throws SftpException;
+
+	/**
+	 * Upload a local file.
+	 * 
+	 * @param preserveMtime
+	 *            copy the local modification time to the remote file so that
+	 *            later deploys can compare it
+	 */
+	void put(File file, String dst, boolean preserveMtime)
+			throws SftpException, IOException;
+
+	/**
+	 * Finish the upload of a partially written file: only the bytes the
+	 * remote file is missing are written.
+	 * 
+	 * @param preserveMtime
+	 *            copy the local modification time to the remote file so that
+	 *            later deploys can compare it
+	 */
+	void resume(File file, String dst, boolean preserveMtime)
+			throws SftpException, IOException;
+
+	/**
+	 * @param mtime
+	 *            modification time in seconds
+	 */
+	void setMtime(String path, int mtime) throws SftpException;
+
+	/**
+	 * Forget what is known of the entries of a folder, which other
+	 * deployments may have changed. Ignored by implementations which do not
+	 * cache lookups.
+	 */
+	void invalidateFolder(String folder) throws SftpException;
+
+	void disconnect();
+
+}
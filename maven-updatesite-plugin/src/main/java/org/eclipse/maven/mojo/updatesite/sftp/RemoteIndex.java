@@ -0,0 +1,522 @@
+package org.eclipse.maven.mojo.updatesite.sftp;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.SftpException;
+
+/**
+ * Index of the remote tree kept at the base path of a site, in
+ * {@link RemoteIndex#FILENAME}: the folders and the files with their size and
+ * SHA-256, by path relative to the base path.
+ * <p>
+ * One download tells which folders a deploy will look into: each recorded
+ * folder is listed once, entering its content in the remote cache, instead
+ * of a <code>stat</code> per path. A folder no longer found, removed out of
+ * band or by another deploy, is dropped from the index with its content, so
+ * the index is never trusted beyond what the listings confirm.
+ * <p>
+ * The changes of a deploy are recorded as they are made and, at the end of
+ * a successful deploy, replayed on the index read again from the server,
+ * which is then replaced through a temporary file renamed into place. The
+ * caller holds the lock of the base path meanwhile, so that the changes of
+ * concurrent deploys are merged rather than overwritten.
+ * <p>
+ * Format, one record per line after the header:
+ *
+ * <pre>
+ * D folder
+ * F size sha256 file
+ * </pre>
+ *
+ * The composite children recorded by earlier versions are ignored.
+ */
+public class RemoteIndex {
+
+	/**
+	 * Name of the index, in the base path.
+	 */
+	public static final String FILENAME = ".updatesite-index";
+
+	/**
+	 * First line.
+	 */
+	private static final String HEADER = "updatesite-index 1";
+
+	/**
+	 * Unknown size or checksum.
+	 */
+	private static final String UNKNOWN = "-";
+
+	/**
+	 * Kind of change.
+	 */
+	private enum Operation {
+		ADD_FOLDER, ADD_FILE, REMOVE_TREE
+	}
+
+	/**
+	 * Change made by a deploy, replayed on the index read again from the
+	 * server.
+	 */
+	private static final class Change {
+
+		/**
+		 * Kind of change.
+		 */
+		private final Operation operation;
+
+		/**
+		 * Path relative to the base path.
+		 */
+		private final String path;
+
+		/**
+		 * "size sha256" of an added file, null otherwise.
+		 */
+		private final String value;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param operation
+		 *            kind of change
+		 * @param path
+		 *            path relative to the base path
+		 * @param value
+		 *            "size sha256" of an added file, null otherwise
+		 */
+		private Change(Operation operation, String path, String value) {
+			this.operation = operation;
+			this.path = path;
+			this.value = value;
+		}
+	}
+
+	/**
+	 * Absolute base path.
+	 */
+	private final String base;
+
+	/**
+	 * Folders, relative to the base path.
+	 */
+	private final SortedSet<String> folders = new TreeSet<String>();
+
+	/**
+	 * "size sha256" by file, relative to the base path.
+	 */
+	private final SortedMap<String, String> files = new TreeMap<String, String>();
+
+	/**
+	 * Changes made since the index was read, in order.
+	 */
+	private final List<Change> changes = new ArrayList<Change>();
+
+	/**
+	 * True if the index was read from the server.
+	 */
+	private boolean loaded;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param base
+	 *            absolute base path
+	 */
+	RemoteIndex(String base) {
+		this.base = base;
+	}
+
+	/**
+	 * Read the index of a base path and list the folders it records, which
+	 * enters their content in the remote cache. The folders not found are
+	 * dropped from the index.
+	 *
+	 * @param sftp
+	 *            connection
+	 * @param basePath
+	 *            base path of the site
+	 * @return index, empty if there is none
+	 * @throws SftpException
+	 *             on error
+	 * @throws IOException
+	 *             on error
+	 */
+	public static RemoteIndex open(RemoteFileSystem sftp, String basePath)
+			throws SftpException, IOException {
+		RemoteIndex index = new RemoteIndex(RemoteCache.resolve(sftp.pwd(),
+				basePath));
+		index.loaded = index.read(sftp);
+		if (index.loaded) {
+			index.verify(sftp);
+		}
+		return index;
+	}
+
+	/**
+	 * Read the index from the server, if any.
+	 *
+	 * @param sftp
+	 *            connection
+	 * @return true if read
+	 * @throws SftpException
+	 *             on error
+	 * @throws IOException
+	 *             on error
+	 */
+	private boolean read(RemoteFileSystem sftp) throws SftpException,
+			IOException {
+		InputStream inputStream;
+		try {
+			inputStream = sftp.get(base + "/" + FILENAME);
+		} catch (SftpException e) {
+			if (e.id != ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+				throw e;
+			}
+			return false;
+		}
+		return read(inputStream);
+	}
+
+	/**
+	 * List the base path and the recorded folders, parents first, and forget
+	 * the folders and files not found.
+	 *
+	 * @param sftp
+	 *            connection
+	 * @throws SftpException
+	 *             on error
+	 */
+	private synchronized void verify(RemoteFileSystem sftp)
+			throws SftpException {
+		List<String> listed = new ArrayList<String>(folders.size() + 1);
+		listed.add("");
+		listed.addAll(folders);
+		for (String folder : listed) {
+			if (folder.length() > 0 && !folders.contains(folder)) {
+				// below a folder not found
+				continue;
+			}
+			Set<String> names = new HashSet<String>();
+			try {
+				for (RemoteFile file : sftp.ls(absolute(folder))) {
+					names.add(file.getFilename());
+				}
+			} catch (SftpException e) {
+				if (e.id != ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+					throw e;
+				}
+				change(Operation.REMOVE_TREE, folder, null);
+				continue;
+			}
+			String prefix = folder.length() == 0 ? "" : folder + "/";
+			for (String path : children(folders.tailSet(prefix), prefix)) {
+				if (!names.contains(path.substring(prefix.length()))) {
+					change(Operation.REMOVE_TREE, path, null);
+				}
+			}
+			for (String path : children(files.tailMap(prefix).keySet(),
+					prefix)) {
+				if (!names.contains(path.substring(prefix.length()))) {
+					change(Operation.REMOVE_TREE, path, null);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param paths
+	 *            sorted relative paths, from the prefix on
+	 * @param prefix
+	 *            of the folder, empty for the base path
+	 * @return the paths directly in the folder
+	 */
+	private static List<String> children(Iterable<String> paths,
+			String prefix) {
+		List<String> children = new ArrayList<String>();
+		for (String path : paths) {
+			if (!path.startsWith(prefix)) {
+				break;
+			}
+			if (path.indexOf('/', prefix.length()) < 0) {
+				children.add(path);
+			}
+		}
+		return children;
+	}
+
+	/**
+	 * Replay the changes made since the index was read on the index found on
+	 * the server now, and write the result through a temporary file renamed
+	 * into place. The caller holds the lock of the base path, if any.
+	 *
+	 * @param sftp
+	 *            connection
+	 * @throws SftpException
+	 *             on error
+	 * @throws IOException
+	 *             on error
+	 */
+	public synchronized void store(RemoteFileSystem sftp)
+			throws SftpException, IOException {
+		RemoteIndex current = new RemoteIndex(base);
+		current.read(sftp);
+		for (Change change : changes) {
+			current.apply(change);
+		}
+		String path = base + "/" + FILENAME;
+		String temporary = path + ".tmp-" + System.currentTimeMillis();
+		Writer writer = new OutputStreamWriter(sftp.put(temporary), "UTF-8");
+		try {
+			current.write(writer);
+		} finally {
+			writer.close();
+		}
+		if (sftp.fileExists(path)) {
+			sftp.rm(path);
+		}
+		sftp.rename(temporary, path);
+	}
+
+	/**
+	 * Getter for {@link RemoteIndex#base}.
+	 *
+	 * @return absolute base path
+	 */
+	public String getBase() {
+		return base;
+	}
+
+	/**
+	 * Getter for {@link RemoteIndex#loaded}.
+	 *
+	 * @return true if the index was read from the server
+	 */
+	public boolean isLoaded() {
+		return loaded;
+	}
+
+	/**
+	 * Record a folder and its parents below the base path.
+	 *
+	 * @param path
+	 *            absolute path
+	 */
+	public synchronized void addFolder(String path) {
+		String relative = relative(path);
+		if (relative != null && relative.length() > 0) {
+			change(Operation.ADD_FOLDER, relative, null);
+		}
+	}
+
+	/**
+	 * Record a file.
+	 *
+	 * @param path
+	 *            absolute path
+	 * @param size
+	 *            in bytes, negative if unknown
+	 * @param sha256
+	 *            checksum, null if unknown
+	 */
+	public synchronized void addFile(String path, long size, String sha256) {
+		String relative = relative(path);
+		if (relative == null || relative.length() == 0) {
+			return;
+		}
+		change(Operation.ADD_FILE, relative, (size < 0 ? UNKNOWN : Long
+				.toString(size))
+				+ " " + (sha256 == null ? UNKNOWN : sha256));
+	}
+
+	/**
+	 * Forget a folder and its content.
+	 *
+	 * @param path
+	 *            absolute path
+	 */
+	public synchronized void removeTree(String path) {
+		String relative = relative(path);
+		if (relative != null) {
+			change(Operation.REMOVE_TREE, relative, null);
+		}
+	}
+
+	/**
+	 * Apply a change and record it for {@link #store(RemoteFileSystem)}.
+	 *
+	 * @param operation
+	 *            kind of change
+	 * @param relative
+	 *            path relative to the base path
+	 * @param value
+	 *            "size sha256" of an added file, null otherwise
+	 */
+	private void change(Operation operation, String relative, String value) {
+		Change change = new Change(operation, relative, value);
+		apply(change);
+		changes.add(change);
+	}
+
+	/**
+	 * Apply a change.
+	 *
+	 * @param change
+	 *            to apply
+	 */
+	private void apply(Change change) {
+		switch (change.operation) {
+		case ADD_FILE:
+			files.put(change.path, change.value);
+			int i = change.path.lastIndexOf('/');
+			if (i > 0) {
+				addFolders(change.path.substring(0, i));
+			}
+			break;
+		case ADD_FOLDER:
+			addFolders(change.path);
+			break;
+		case REMOVE_TREE:
+			removeTree(folders.iterator(), change.path);
+			removeTree(files.keySet().iterator(), change.path);
+			break;
+		default:
+		}
+	}
+
+	/**
+	 * Record a folder and its parents.
+	 *
+	 * @param relative
+	 *            path relative to the base path
+	 */
+	private void addFolders(String relative) {
+		while (relative != null && relative.length() > 0) {
+			folders.add(relative);
+			int i = relative.lastIndexOf('/');
+			relative = i < 0 ? null : relative.substring(0, i);
+		}
+	}
+
+	/**
+	 * Remove a path and the paths below it.
+	 *
+	 * @param paths
+	 *            to filter
+	 * @param relative
+	 *            path to remove
+	 */
+	private static void removeTree(Iterator<String> paths, String relative) {
+		while (paths.hasNext()) {
+			String path = paths.next();
+			if (relative.length() == 0 || path.equals(relative)
+					|| path.startsWith(relative + "/")) {
+				paths.remove();
+			}
+		}
+	}
+
+	/**
+	 * @param path
+	 *            absolute path
+	 * @return path relative to the base path, empty for the base path, null
+	 *         if outside
+	 */
+	private String relative(String path) {
+		if (path.equals(base)) {
+			return "";
+		}
+		String prefix = base.endsWith("/") ? base : base + "/";
+		return path.startsWith(prefix) ? path.substring(prefix.length())
+				: null;
+	}
+
+	/**
+	 * @param relative
+	 *            path relative to the base path
+	 * @return absolute path
+	 */
+	private String absolute(String relative) {
+		return base.endsWith("/") ? base + relative : base + "/" + relative;
+	}
+
+	/**
+	 * Parse an index, ignoring malformed records.
+	 *
+	 * @param inputStream
+	 *            content, closed on return
+	 * @return false if the header is not the expected one
+	 * @throws IOException
+	 *             on error
+	 */
+	synchronized boolean read(InputStream inputStream) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				inputStream, "UTF-8"));
+		try {
+			if (!HEADER.equals(reader.readLine())) {
+				return false;
+			}
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.length() < 3 || line.charAt(1) != ' ') {
+					continue;
+				}
+				String content = line.substring(2);
+				switch (line.charAt(0)) {
+				case 'D':
+					folders.add(content);
+					break;
+				case 'F':
+					int first = content.indexOf(' ');
+					int second = first < 0 ? -1 : content.indexOf(' ',
+							first + 1);
+					if (second > 0) {
+						files.put(content.substring(second + 1),
+								content.substring(0, second));
+					}
+					break;
+				default:
+				}
+			}
+			return true;
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Serialize the index.
+	 *
+	 * @param writer
+	 *            output, left open
+	 * @throws IOException
+	 *             on error
+	 */
+	synchronized void write(Writer writer) throws IOException {
+		writer.write(HEADER);
+		writer.write('\n');
+		for (String folder : folders) {
+			writer.write("D " + folder + "\n");
+		}
+		for (Map.Entry<String, String> file : files.entrySet()) {
+			writer.write("F " + file.getValue() + " " + file.getKey() + "\n");
+		}
+	}
+
+}
@@ -0,0 +1,269 @@
+package org.eclipse.maven.mojo.updatesite.sftp;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Random;
+
+import org.eclipse.maven.mojo.updatesite.logger.Logger;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.SftpException;
+
+/**
+ * Exclusive lock on a remote folder, held while its composite files are
+ * read, merged and written back, so that concurrent deploys adding children
+ * to the same composite do not overwrite each other.
+ * <p>
+ * The lock is the folder {@link RemoteLock#NAME}, created by an atomic
+ * <code>mkdir</code> and removed on release. A deploy finding it waits with
+ * an exponential backoff, up to a timeout. A lock left by a deploy that died
+ * is broken once its modification time has been seen unchanged for the
+ * lease duration: the lease is measured with the local clock only, so that
+ * no clock synchronization with the server is needed. The holder keeps
+ * changing the modification time while it holds the lock, see
+ * {@link LockRenewal}, however long it holds it.
+ * <p>
+ * Once acquired, what the remote cache knows of the folder entries is
+ * dropped: the composite files are looked up and read again under the lock.
+ */
+public class RemoteLock {
+
+	/**
+	 * Name of the lock folder.
+	 */
+	public static final String NAME = ".updatesite-lock";
+
+	/**
+	 * Infix of the name a stale lock is renamed to before its removal.
+	 */
+	private static final String BROKEN_INFIX = ".broken-";
+
+	/**
+	 * First delay between two attempts, in milliseconds.
+	 */
+	private static final long MIN_DELAY = 50;
+
+	/**
+	 * Longest delay between two attempts, in milliseconds.
+	 */
+	private static final long MAX_DELAY = 2000;
+
+	/**
+	 * Jitter of the delays, spreading deploys started together.
+	 */
+	private static final Random RANDOM = new Random();
+
+	/**
+	 * Connection.
+	 */
+	private final RemoteFileSystem sftp;
+
+	/**
+	 * Absolute path of the locked folder.
+	 */
+	private final String folder;
+
+	/**
+	 * Absolute path of the lock folder.
+	 */
+	private final String path;
+
+	/**
+	 * Renews the lock while held, null if none.
+	 */
+	private final LockRenewal renewal;
+
+	/**
+	 * Logger.
+	 */
+	private final Logger logger;
+
+	/**
+	 * True between {@link RemoteLock#acquire(long, long)} and
+	 * {@link RemoteLock#release()}.
+	 */
+	private boolean held;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param sftp
+	 *            connection
+	 * @param folder
+	 *            absolute path of the folder to lock
+	 * @param logger
+	 *            logger
+	 */
+	public RemoteLock(RemoteFileSystem sftp, String folder, Logger logger) {
+		this(sftp, folder, null, logger);
+	}
+
+	/**
+	 * Constructor of a lock renewed while held.
+	 *
+	 * @param sftp
+	 *            connection
+	 * @param folder
+	 *            absolute path of the folder to lock
+	 * @param renewal
+	 *            renewing the lock while held, null for none
+	 * @param logger
+	 *            logger
+	 */
+	public RemoteLock(RemoteFileSystem sftp, String folder,
+			LockRenewal renewal, Logger logger) {
+		this.sftp = sftp;
+		this.folder = folder;
+		this.path = folder.endsWith("/") ? folder + NAME : folder + "/" + NAME;
+		this.renewal = renewal;
+		this.logger = logger;
+	}
+
+	/**
+	 * Getter for {@link RemoteLock#path}.
+	 *
+	 * @return absolute path of the lock folder
+	 */
+	String getPath() {
+		return path;
+	}
+
+	/**
+	 * Wait for the lock.
+	 *
+	 * @param lease
+	 *            milliseconds after which an unchanged lock is considered
+	 *            left by a dead deploy
+	 * @param timeout
+	 *            milliseconds to wait at most
+	 * @throws SftpException
+	 *             if the lock could not be created for another reason than
+	 *             being held
+	 * @throws IOException
+	 *             on timeout or interruption, or if the lock can not be
+	 *             renewed
+	 */
+	public void acquire(long lease, long timeout) throws SftpException,
+			IOException {
+		long start = System.currentTimeMillis();
+		long delay = MIN_DELAY;
+		int observedMTime = -1;
+		long observedSince = start;
+		while (true) {
+			try {
+				sftp.mkdir(path);
+				held = true;
+				if (renewal != null) {
+					try {
+						renewal.add(this, sftp);
+					} catch (IOException e) {
+						release();
+						throw e;
+					}
+				}
+				sftp.invalidateFolder(folder);
+				return;
+			} catch (SftpException e) {
+				if (e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE
+						|| e.id == ChannelSftp.SSH_FX_PERMISSION_DENIED) {
+					throw e;
+				}
+			}
+
+			RemoteFile attrs;
+			try {
+				attrs = sftp.stat(path);
+			} catch (SftpException e) {
+				if (e.id != ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+					throw e;
+				}
+				// released meanwhile
+				continue;
+			}
+
+			long now = System.currentTimeMillis();
+			if (attrs.getMTime() != observedMTime) {
+				if (observedMTime == -1) {
+					logger.info("Waiting for lock " + path);
+				}
+				observedMTime = attrs.getMTime();
+				observedSince = now;
+			} else if (now - observedSince >= lease) {
+				breakLock(observedMTime);
+				observedMTime = -1;
+				continue;
+			}
+			if (now - start >= timeout) {
+				throw new IOException("Timed out after " + timeout
+						+ " ms waiting for lock " + path);
+			}
+
+			try {
+				Thread.sleep(delay + RANDOM.nextInt((int) delay));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted waiting for lock "
+						+ path);
+			}
+			delay = Math.min(delay * 2, MAX_DELAY);
+		}
+	}
+
+	/**
+	 * Remove a stale lock, unless it was replaced since it was observed. The
+	 * lock is first renamed to a name of its own, atomically: a lock created
+	 * by another deploy between the check and the removal is never removed.
+	 * A renamed lock found renewed or replaced is put back.
+	 *
+	 * @param observedMTime
+	 *            modification time of the stale lock
+	 * @throws SftpException
+	 *             on error
+	 */
+	private void breakLock(int observedMTime) throws SftpException {
+		String broken = path + BROKEN_INFIX
+				+ Long.toHexString(RANDOM.nextLong() & Long.MAX_VALUE);
+		try {
+			sftp.rename(path, broken);
+		} catch (SftpException e) {
+			// released or broken by another deploy
+			if (e.id != ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+				throw e;
+			}
+			return;
+		}
+		if (sftp.stat(broken).getMTime() != observedMTime) {
+			try {
+				sftp.rename(broken, path);
+				return;
+			} catch (SftpException e) {
+				logger.warn("Could not put back lock " + path + ": "
+						+ e.getLocalizedMessage());
+			}
+		} else {
+			logger.warn("Breaking stale lock " + path);
+		}
+		sftp.rmdir(broken);
+	}
+
+	/**
+	 * Release the lock if held. A failure is only logged: the lock will be
+	 * broken once its lease expires.
+	 */
+	public void release() {
+		if (!held) {
+			return;
+		}
+		held = false;
+		if (renewal != null) {
+			renewal.remove(this);
+		}
+		try {
+			sftp.rmdir(path);
+		} catch (SftpException e) {
+			logger.warn("Could not release lock " + path + ": "
+					+ e.getLocalizedMessage());
+		}
+	}
+
+}
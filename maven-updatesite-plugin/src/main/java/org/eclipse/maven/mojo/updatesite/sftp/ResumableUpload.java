@@ -0,0 +1,219 @@
+package org.eclipse.maven.mojo.updatesite.sftp;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.maven.mojo.updatesite.logger.Event;
+import org.eclipse.maven.mojo.updatesite.logger.Event.Activity;
+import org.eclipse.maven.mojo.updatesite.logger.Logger;
+
+import com.jcraft.jsch.SftpException;
+
+/**
+ * Upload a local folder, recording every transfer in a {@link Journal} so
+ * that an interrupted upload can be resumed by the next deployment.
+ * <p>
+ * When the journal is resumed, each remote folder is listed once and:
+ * <ul>
+ * <li>a file the journal records as uploaded, with the same local size and
+ * modification time and a remote size equal to the local one, is skipped;</li>
+ * <li>a file the journal records as started, shorter remotely than locally,
+ * is completed by appending the missing bytes;</li>
+ * <li>any other file is uploaded again.</li>
+ * </ul>
+ */
+public class ResumableUpload {
+
+	/**
+	 * Connection used to list and create folders.
+	 */
+	private final RemoteFileSystem sftp;
+
+	/**
+	 * Journal of the deployment.
+	 */
+	private final Journal journal;
+
+	/**
+	 * Logger.
+	 */
+	private final Logger logger;
+
+	/**
+	 * Number of uploaded files.
+	 */
+	private int uploaded;
+
+	/**
+	 * Number of completed partial files.
+	 */
+	private int resumed;
+
+	/**
+	 * Number of files already uploaded by a previous deployment.
+	 */
+	private int skipped;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param sftp
+	 *            connection
+	 * @param journal
+	 *            journal of the deployment
+	 * @param logger
+	 *            logger
+	 */
+	public ResumableUpload(RemoteFileSystem sftp, Journal journal,
+			Logger logger) {
+		this.sftp = sftp;
+		this.journal = journal;
+		this.logger = logger;
+	}
+
+	/**
+	 * Recursively upload a folder.
+	 *
+	 * @param folder
+	 *            local folder
+	 * @param dst
+	 *            existing remote folder
+	 * @param parallelUpload
+	 *            queue of files, null to upload sequentially
+	 * @throws SftpException
+	 *             on error
+	 * @throws IOException
+	 *             on error
+	 */
+	public void upload(File folder, String dst, ParallelUpload parallelUpload)
+			throws SftpException, IOException {
+		upload(folder, dst, journal.isResumed(), parallelUpload);
+	}
+
+	/**
+	 * Recursively upload a folder.
+	 *
+	 * @param folder
+	 *            local folder
+	 * @param dst
+	 *            existing remote folder
+	 * @param compare
+	 *            true to compare with the remote content, false if the remote
+	 *            folder is known to be new or empty
+	 * @param parallelUpload
+	 *            queue of files, null to upload sequentially
+	 * @throws SftpException
+	 *             on error
+	 * @throws IOException
+	 *             on error
+	 */
+	private void upload(File folder, String dst, boolean compare,
+			ParallelUpload parallelUpload) throws SftpException, IOException {
+		Map<String, RemoteFile> remoteFiles = compare ? list(dst)
+				: new HashMap<String, RemoteFile>();
+		File[] listFiles = folder.listFiles();
+		Arrays.sort(listFiles);
+		for (File file : listFiles) {
+			String path = dst + "/" + file.getName();
+			RemoteFile attrs = remoteFiles.get(file.getName());
+			if (file.isDirectory()) {
+				boolean exists = attrs != null && attrs.isDir();
+				if (!exists && !compare && sftp.fileExists(path)) {
+					exists = true;
+				}
+				if (!exists) {
+					sftp.mkdir(path);
+				}
+				upload(file, path, compare && exists, parallelUpload);
+				continue;
+			}
+			boolean resume = false;
+			if (attrs != null && !attrs.isDir()) {
+				if (attrs.getSize() == file.length()
+						&& journal.isUploaded(path, file)) {
+					skipped++;
+					continue;
+				}
+				resume = attrs.getSize() < file.length()
+						&& journal.isStarted(path, file);
+			}
+			logger.event(Event.expected(Activity.UPLOAD, 1, file.length()));
+			if (resume) {
+				resumed++;
+			} else {
+				uploaded++;
+			}
+			if (parallelUpload != null) {
+				parallelUpload.add(file, path, resume);
+			} else {
+				ParallelUpload.transfer(sftp, file, path, resume, false,
+						journal);
+			}
+		}
+	}
+
+	/**
+	 * Log a summary of the upload.
+	 */
+	public void logSummary() {
+		if (journal.isResumed()) {
+			logger.info("Resume: " + skipped + " file(s) already uploaded, "
+					+ resumed + " partial, " + uploaded + " to upload");
+		}
+	}
+
+	/**
+	 * Getter for {@link ResumableUpload#uploaded}.
+	 *
+	 * @return number of uploaded or queued files
+	 */
+	public int getUploaded() {
+		return uploaded;
+	}
+
+	/**
+	 * Getter for {@link ResumableUpload#resumed}.
+	 *
+	 * @return number of completed or queued partial files
+	 */
+	public int getResumed() {
+		return resumed;
+	}
+
+	/**
+	 * Getter for {@link ResumableUpload#skipped}.
+	 *
+	 * @return number of files already uploaded
+	 */
+	public int getSkipped() {
+		return skipped;
+	}
+
+	/**
+	 * List a remote folder.
+	 *
+	 * @param dst
+	 *            remote folder
+	 * @return attributes by filename
+	 * @throws SftpException
+	 *             on error
+	 */
+	private Map<String, RemoteFile> list(String dst) throws SftpException {
+		List<RemoteFile> ls = sftp.ls(dst);
+		Map<String, RemoteFile> remoteFiles = new HashMap<String, RemoteFile>(
+				ls.size() * 2);
+		for (RemoteFile remoteFile : ls) {
+			if (".".equals(remoteFile.getFilename())
+					|| "..".equals(remoteFile.getFilename())) {
+				continue;
+			}
+			remoteFiles.put(remoteFile.getFilename(), remoteFile);
+		}
+		return remoteFiles;
+	}
+
+}
@@ -0,0 +1,230 @@
+package org.eclipse.maven.mojo.updatesite.sftp;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+
+/**
+ * SSH sessions shared by all the deployments of the build, keyed by
+ * user@host:port and identity. Known hosts and identity are loaded once per
+ * {@link JSch} instance, the handshake is done once per session. Sessions
+ * found disconnected are transparently reopened. The pool is closed once the
+ * last module of the reactor has been reached and no mojo execution uses it
+ * any more, since modules built in parallel may finish in any order, or by
+ * a shutdown hook as a last resort. A later reactor of the same JVM, as
+ * run by a build daemon, starts over with a fresh pool.
+ * <p>
+ * Sessions to different hosts are opened concurrently: the pool is only
+ * locked to look them up, the handshake holds the lock of its key.
+ */
+public final class SessionPool {
+
+	/**
+	 * Singleton, shared by the mojo executions of the plugin realm.
+	 */
+	private static final SessionPool INSTANCE = new SessionPool();
+
+	/**
+	 * {@link JSch} by known hosts and identity files.
+	 */
+	private final Map<String, JSch> jschs = new HashMap<String, JSch>();
+
+	/**
+	 * Sessions by key.
+	 */
+	private final Map<String, Session> sessions = new HashMap<String, Session>();
+
+	/**
+	 * Locks of the keys, held while their session is opened.
+	 */
+	private final Map<String, Object> locks = new HashMap<String, Object>();
+
+	/**
+	 * Reactor of the mojo executions, null if unknown.
+	 */
+	private WeakReference<Object> reactor;
+
+	/**
+	 * Number of mojo executions using the pool.
+	 */
+	private int users;
+
+	/**
+	 * True once the execution of the last module of the reactor released the
+	 * pool.
+	 */
+	private boolean reactorEnded;
+
+	/**
+	 * Shutdown hook registration state.
+	 */
+	private boolean hooked;
+
+	/**
+	 * Constructor.
+	 */
+	private SessionPool() {
+	}
+
+	/**
+	 * Getter for the singleton.
+	 * 
+	 * @return the pool
+	 */
+	public static SessionPool getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Register a mojo execution using the pool, until
+	 * {@link #release(boolean)}. The first execution of another reactor
+	 * forgets that the previous one ended.
+	 * 
+	 * @param reactor
+	 *            projects of the reactor of the execution, null if unknown
+	 */
+	public synchronized void retain(Object reactor) {
+		if (reactor != null
+				&& (this.reactor == null || this.reactor.get() != reactor)) {
+			this.reactor = new WeakReference<Object>(reactor);
+			reactorEnded = false;
+		}
+		users++;
+	}
+
+	/**
+	 * Unregister a mojo execution. The sessions are closed when no execution
+	 * uses them and the last module of the reactor has been reached.
+	 * 
+	 * @param lastProject
+	 *            true if the execution is the one of the last module of the
+	 *            reactor
+	 */
+	public synchronized void release(boolean lastProject) {
+		users--;
+		if (lastProject) {
+			reactorEnded = true;
+		}
+		if (users <= 0 && reactorEnded) {
+			users = 0;
+			close();
+		}
+	}
+
+	/**
+	 * Borrow a connected session, opening it if needed.
+	 * 
+	 * @param knownHost
+	 *            known hosts file
+	 * @param identity
+	 *            identity file
+	 * @param pass
+	 *            identity passphrase
+	 * @param user
+	 *            remote user
+	 * @param host
+	 *            remote host
+	 * @param port
+	 *            remote port
+	 * @return connected session
+	 * @throws JSchException
+	 *             on connection error
+	 */
+	public Session borrow(String knownHost, String identity, String pass,
+			String user, String host, int port) throws JSchException {
+		String key = user + "@" + host + ":" + port + "#" + identity;
+		Object lock;
+		synchronized (this) {
+			lock = locks.get(key);
+			if (lock == null) {
+				lock = new Object();
+				locks.put(key, lock);
+			}
+		}
+		synchronized (lock) {
+			JSch jsch;
+			synchronized (this) {
+				Session session = sessions.get(key);
+				if (session != null && session.isConnected()) {
+					return session;
+				}
+				sessions.remove(key);
+				String jschKey = knownHost + "#" + identity;
+				jsch = jschs.get(jschKey);
+				if (jsch == null) {
+					jsch = new JSch();
+					jsch.setKnownHosts(knownHost);
+					jsch.addIdentity(identity, pass);
+					jschs.put(jschKey, jsch);
+				}
+			}
+			Session session = jsch.getSession(user, host, port);
+			session.connect();
+			synchronized (this) {
+				sessions.put(key, session);
+				registerShutdownHook();
+			}
+			return session;
+		}
+	}
+
+	/**
+	 * Drop a session which failed, so that the next borrow reconnects. Only
+	 * for a disconnected session: a connected one may carry the transfers of
+	 * other deployments.
+	 * 
+	 * @param session
+	 *            to drop
+	 */
+	public synchronized void invalidate(Session session) {
+		for (Iterator<Session> iterator = sessions.values().iterator(); iterator
+				.hasNext();) {
+			if (iterator.next() == session) {
+				iterator.remove();
+			}
+		}
+		session.disconnect();
+	}
+
+	/**
+	 * Disconnect all the sessions.
+	 */
+	public synchronized void close() {
+		for (Session session : sessions.values()) {
+			session.disconnect();
+		}
+		sessions.clear();
+		jschs.clear();
+	}
+
+	/**
+	 * Getter for {@link SessionPool#reactorEnded}.
+	 * 
+	 * @return true if the sessions are closed once unused
+	 */
+	synchronized boolean isReactorEnded() {
+		return reactorEnded;
+	}
+
+	/**
+	 * Make sure the sessions do not outlive the JVM.
+	 */
+	private void registerShutdownHook() {
+		if (hooked) {
+			return;
+		}
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				close();
+			}
+		});
+		hooked = true;
+	}
+
+}
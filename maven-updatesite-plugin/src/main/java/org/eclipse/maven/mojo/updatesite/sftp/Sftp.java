@@ -1,25 +1,51 @@
 package org.eclipse.maven.mojo.updatesite.sftp;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.List;
 
+import org.eclipse.maven.mojo.updatesite.logger.Event;
+import org.eclipse.maven.mojo.updatesite.logger.Event.Activity;
 import org.eclipse.maven.mojo.updatesite.logger.Logger;
+import org.eclipse.maven.mojo.updatesite.metrics.Metrics;
+import org.eclipse.maven.mojo.updatesite.metrics.Metrics.CountingInputStream;
 
 import com.jcraft.jsch.Channel;
+import com.jcraft.jsch.ChannelExec;
 import com.jcraft.jsch.ChannelSftp;
 import com.jcraft.jsch.ChannelSftp.LsEntry;
 import com.jcraft.jsch.JSch;
 import com.jcraft.jsch.JSchException;
 import com.jcraft.jsch.Session;
+import com.jcraft.jsch.SftpATTRS;
 import com.jcraft.jsch.SftpException;
 
-public class Sftp {
+/**
+ * {@link RemoteFileSystem} over the sftp channels of an ssh session.
+ * Lookups are cached in a {@link RemoteCache} shared by the channels of the
+ * session.
+ * 
+ * @author chelebithil
+ * 
+ */
+public class Sftp implements RemoteFileSystem {
 
 	private final String knownHost;
 	private final String identity;
 	private ChannelSftp sftpChannel;
 	private Session session;
 	private Logger logger;
+	private boolean sessionOwner = true;
+	private RemoteCache cache = new RemoteCache();
+	private Sftp auxiliary;
+	private SessionPool sessionPool;
+	private Metrics metrics = new Metrics();
+	private ChannelLimit channelLimit;
+	private boolean slot;
 
 	public Sftp(Logger logger, String knownHost, String identity) {
 		this.logger = logger;
@@ -27,112 +53,409 @@ public class Sftp {
 		this.identity = identity;
 	}
 
+	private Sftp(Sftp parent, ChannelSftp sftpChannel) {
+		this(parent.logger, parent.knownHost, parent.identity);
+		this.session = parent.session;
+		this.sftpChannel = sftpChannel;
+		this.sessionOwner = false;
+		this.cache = parent.cache;
+		this.metrics = parent.metrics;
+		this.channelLimit = parent.channelLimit;
+		this.slot = true;
+	}
+
+	/**
+	 * Borrow sessions from the given pool instead of opening a new one per
+	 * connection.
+	 */
+	public void setSessionPool(SessionPool sessionPool) {
+		this.sessionPool = sessionPool;
+	}
+
+	public void setMetrics(Metrics metrics) {
+		this.metrics = metrics;
+	}
+
+	Metrics getMetrics() {
+		return metrics;
+	}
+
 	public void openSession(String user, String pass, String host, int port)
 			throws JSchException {
-		JSch jsch = new JSch();
+		if (sessionPool == null) {
+			JSch jsch = new JSch();
 
-		session = jsch.getSession(user, host, port);
+			session = jsch.getSession(user, host, port);
 
-		jsch.setKnownHosts(knownHost);
-		jsch.addIdentity(identity, pass);
+			jsch.setKnownHosts(knownHost);
+			jsch.addIdentity(identity, pass);
 
-		session.connect();
+			long start = System.nanoTime();
+			session.connect();
+			metrics.time("connect", start);
+
+			sftpChannel = openFirstChannel();
+			return;
+		}
 
+		long start = System.nanoTime();
+		session = sessionPool.borrow(knownHost, identity, pass, user, host,
+				port);
+		metrics.time("connect", start);
+		try {
+			sftpChannel = openFirstChannel();
+		} catch (JSchException e) {
+			if (session.isConnected()) {
+				// the server refused the channel, e.g. over its MaxSessions:
+				// the session may carry the transfers of other deployments
+				throw e;
+			}
+			// pooled session went stale: reconnect once
+			logger.warn("Reconnecting to " + host + ": "
+					+ e.getLocalizedMessage());
+			metrics.retried();
+			sessionPool.invalidate(session);
+			session = sessionPool.borrow(knownHost, identity, pass, user,
+					host, port);
+			sftpChannel = openFirstChannel();
+		}
+
+	}
+
+	/**
+	 * The channel is multiplexed over the session of this connection, which
+	 * stays owned by this instance. Null when the session has no free slot,
+	 * see {@link ChannelLimit}.
+	 */
+	public Sftp openChannel() throws JSchException, SftpException {
+		if (!channelLimit.tryAcquire()) {
+			return null;
+		}
+		Sftp sftp;
+		try {
+			sftp = new Sftp(this, openSftpChannel());
+		} catch (JSchException e) {
+			channelLimit.release();
+			throw e;
+		}
+		try {
+			sftp.cd(pwd());
+		} catch (SftpException e) {
+			sftp.disconnect();
+			throw e;
+		}
+		return sftp;
+	}
+
+	public synchronized Sftp auxiliary() throws JSchException, SftpException {
+		if (auxiliary == null) {
+			auxiliary = openChannel();
+		}
+		return auxiliary;
+	}
+
+	/**
+	 * Open the channel of this connection, waiting for a free slot of the
+	 * session.
+	 */
+	private ChannelSftp openFirstChannel() throws JSchException {
+		channelLimit = ChannelLimit.of(session);
+		channelLimit.acquire();
+		try {
+			ChannelSftp channel = openSftpChannel();
+			slot = true;
+			return channel;
+		} finally {
+			if (!slot) {
+				channelLimit.release();
+			}
+		}
+	}
+
+	private ChannelSftp openSftpChannel() throws JSchException {
+		long start = System.nanoTime();
 		Channel channel = session.openChannel("sftp");
 		channel.connect();
+		metrics.time("channel", start);
+		return (ChannelSftp) channel;
+	}
 
-		sftpChannel = (ChannelSftp) channel;
+	/**
+	 * Prepare a command on an exec channel of the session. The caller connects
+	 * it and closes it with {@link #closeExec(ChannelExec)}. Fails when the
+	 * session has no free slot, see {@link ChannelLimit}.
+	 */
+	ChannelExec openExec(String command) throws JSchException {
+		if (!channelLimit.tryAcquire()) {
+			throw new JSchException("No channel left on the session, "
+					+ ChannelLimit.MAX_CHANNELS + " are open");
+		}
+		try {
+			ChannelExec channel = (ChannelExec) session.openChannel("exec");
+			channel.setCommand(command);
+			return channel;
+		} catch (JSchException e) {
+			channelLimit.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Disconnect a channel opened by {@link #openExec(String)}.
+	 */
+	void closeExec(ChannelExec channel) {
+		channel.disconnect();
+		channelLimit.release();
+	}
 
+	/**
+	 * Forget what the remote cache knows below a folder changed by other
+	 * means than this connection.
+	 */
+	void invalidate(String folder) throws SftpException {
+		cache.invalidateTree(absolute(folder));
+	}
+
+	public void invalidateFolder(String folder) throws SftpException {
+		cache.invalidateFolder(absolute(folder));
 	}
 
 	public void cd(String path) throws SftpException {
+		long start = System.nanoTime();
 		sftpChannel.cd(path);
+		metrics.time("cd", start);
 
 	}
 
+	/**
+	 * List a folder and record its content in the remote cache.
+	 */
 	@SuppressWarnings("unchecked")
-	public List<LsEntry> ls(String path) throws SftpException {
-		return sftpChannel.ls(path);
+	public List<RemoteFile> ls(String path) throws SftpException {
+		long start = System.nanoTime();
+		List<LsEntry> ls = sftpChannel.ls(path);
+		metrics.time("ls", start);
+		List<RemoteFile> files = new ArrayList<RemoteFile>(ls.size());
+		List<String> names = new ArrayList<String>(ls.size());
+		for (LsEntry lsEntry : ls) {
+			files.add(toRemoteFile(lsEntry.getFilename(), lsEntry.getAttrs()));
+			if (!".".equals(lsEntry.getFilename())
+					&& !"..".equals(lsEntry.getFilename())) {
+				names.add(lsEntry.getFilename());
+			}
+		}
+		cache.listed(absolute(path), names);
+		return files;
 	}
 
 	public void rm(String path) throws SftpException {
+		long start = System.nanoTime();
 		sftpChannel.rm(path);
+		metrics.time("rm", start);
+		cache.deleted(absolute(path));
 	}
 
 	public void rmdir(String path) throws SftpException {
+		long start = System.nanoTime();
 		sftpChannel.rmdir(path);
+		metrics.time("rmdir", start);
+		cache.deleted(absolute(path));
 	}
 
+	/**
+	 * Answered from the remote cache when the path or its parent listing is
+	 * known, by a single <code>stat</code> otherwise.
+	 */
 	public boolean fileExists(String path) throws SftpException {
-		String dir;
-		String filename;
-		int i = path.lastIndexOf('/');
-		if (i > 0) {
-			dir = path.substring(0, i);
-			filename = path.substring(i + 1);
-		} else {
-			dir = ".";
-			filename = path;
-		}
-		List<LsEntry> ls = ls(dir);
-
-		for (Object object : ls) {
-			if (object instanceof LsEntry) {
-				LsEntry lsEntry = (LsEntry) object;
-				if (lsEntry.getFilename().equals(filename)) {
-					return true;
-				}
-
+		String absolutePath = absolute(path);
+		Boolean exists = cache.exists(absolutePath);
+		if (exists != null) {
+			return exists.booleanValue();
+		}
+		boolean found;
+		long start = System.nanoTime();
+		try {
+			sftpChannel.stat(absolutePath);
+			found = true;
+		} catch (SftpException e) {
+			if (e.id != ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+				throw e;
 			}
+			found = false;
+		} finally {
+			metrics.time("stat", start);
+		}
+		cache.stated(absolutePath, found);
+		return found;
+	}
+
+	public RemoteFile stat(String path) throws SftpException {
+		long start = System.nanoTime();
+		try {
+			return toRemoteFile(path, sftpChannel.stat(path));
+		} finally {
+			metrics.time("stat", start);
 		}
-		return false;
 	}
 
 	public boolean fileDoesNotExist(String filename) throws SftpException {
 		return !fileExists(filename);
 	}
 
+	public void rename(String oldPath, String newPath) throws SftpException {
+		long start = System.nanoTime();
+		sftpChannel.rename(oldPath, newPath);
+		metrics.time("rename", start);
+		cache.deleted(absolute(oldPath));
+		cache.invalidateTree(absolute(newPath));
+		cache.created(absolute(newPath));
+	}
+
 	public void mkdir(String path) throws SftpException {
+		long start = System.nanoTime();
 		sftpChannel.mkdir(path);
+		metrics.time("mkdir", start);
+		cache.createdFolder(absolute(path));
 
 	}
 
+	/**
+	 * Open a remote file for reading. The transfer is recorded when the
+	 * stream is closed.
+	 */
 	public InputStream get(String path) throws SftpException {
-		return sftpChannel.get(path);
+		long start = System.nanoTime();
+		return metrics.download(sftpChannel.get(path), "get", start);
 	}
 
 	public void put(InputStream inputStream, String dst) throws SftpException {
-		sftpChannel.put(inputStream, dst);
+		CountingInputStream countingInputStream = new CountingInputStream(
+				inputStream);
+		long start = System.nanoTime();
+		sftpChannel.put(countingInputStream, dst);
+		metrics.time("put", start);
+		metrics.uploaded(countingInputStream.getCount());
+		cache.created(absolute(dst));
+
+	}
 
+	/**
+	 * The content is sent as it is written.
+	 */
+	public OutputStream put(String dst) throws SftpException {
+		long start = System.nanoTime();
+		OutputStream outputStream = metrics.upload(sftpChannel.put(dst),
+				"put", start);
+		cache.created(absolute(dst));
+		return outputStream;
+	}
+
+	public void put(File file, String dst, boolean preserveMtime)
+			throws SftpException, IOException {
+		InputStream inputStream = new FileInputStream(file);
+		try {
+			put(inputStream, dst);
+		} finally {
+			inputStream.close();
+		}
+		if (preserveMtime) {
+			setMtime(dst, (int) (file.lastModified() / 1000));
+		}
+		logger.event(Event.done(Activity.UPLOAD, dst, file.length()));
+	}
+
+	/**
+	 * The server appends what the remote file is missing.
+	 */
+	public void resume(File file, String dst, boolean preserveMtime)
+			throws SftpException, IOException {
+		CountingInputStream countingInputStream = new CountingInputStream(
+				new FileInputStream(file));
+		try {
+			long start = System.nanoTime();
+			sftpChannel.put(countingInputStream, dst, null, ChannelSftp.RESUME);
+			metrics.time("resume", start);
+		} finally {
+			countingInputStream.close();
+		}
+		metrics.uploaded(countingInputStream.getCount());
+		cache.created(absolute(dst));
+		if (preserveMtime) {
+			setMtime(dst, (int) (file.lastModified() / 1000));
+		}
+		logger.event(Event.done(Activity.UPLOAD, dst, file.length()));
+	}
+
+	public void setMtime(String path, int mtime) throws SftpException {
+		long start = System.nanoTime();
+		sftpChannel.setMtime(path, mtime);
+		metrics.time("setMtime", start);
 	}
 
 	public void disconnect() {
+		synchronized (this) {
+			if (auxiliary != null) {
+				auxiliary.disconnect();
+				auxiliary = null;
+			}
+		}
 		if (sftpChannel != null) {
 			sftpChannel.disconnect();
 		}
-		if (session != null) {
+		synchronized (this) {
+			if (slot) {
+				slot = false;
+				channelLimit.release();
+			}
+		}
+		if (session != null && sessionOwner && sessionPool == null) {
 			session.disconnect();
 		}
 	}
 
+	/**
+	 * Recorded in the {@link Metrics#RMTREE} phase, whatever the current
+	 * phase of the deployment. Each deleted file is reported as an
+	 * {@link Event}, not logged. What the remote cache knows below the
+	 * folder is dropped, also when the deletion fails part way.
+	 */
 	public void rmtree(String folder, boolean deleteFolder)
 			throws SftpException {
-		logger.info("Deleting content of: " + folder);
-		List<LsEntry> ls = ls(folder);
-		for (LsEntry lsEntry : ls) {
-			if (".".equals(lsEntry.getFilename())
-					|| "..".equals(lsEntry.getFilename())) {
+		long start = metrics.enter(Metrics.RMTREE);
+		try {
+			rmtreeContent(folder, deleteFolder);
+		} finally {
+			try {
+				cache.invalidateTree(absolute(folder));
+			} finally {
+				metrics.exit(Metrics.RMTREE, start);
+			}
+		}
+	}
+
+	private void rmtreeContent(String folder, boolean deleteFolder)
+			throws SftpException {
+		logger.debug("Deleting content of: " + folder);
+		List<RemoteFile> ls = ls(folder);
+		for (RemoteFile remoteFile : ls) {
+			if (".".equals(remoteFile.getFilename())
+					|| "..".equals(remoteFile.getFilename())) {
 				continue;
 			}
-			String filename = folder + "/" + lsEntry.getFilename();
-			if (lsEntry.getAttrs().isDir()) {
-				rmtree(filename, deleteFolder);
+			String filename = folder + "/" + remoteFile.getFilename();
+			if (remoteFile.isDir()) {
+				rmtreeContent(filename, deleteFolder);
 				if (deleteFolder) {
+					long start = System.nanoTime();
 					sftpChannel.rmdir(filename);
+					metrics.time("rmdir", start);
 				}
 			} else {
-				logger.info("Deleting: " + filename);
+				long start = System.nanoTime();
 				sftpChannel.rm(filename);
+				metrics.time("rm", start);
+				logger.event(Event.done(Activity.DELETE, filename,
+						remoteFile.getSize()));
 			}
 		}
 
@@ -152,4 +475,13 @@ public class Sftp {
 		return sftpChannel.pwd();
 	}
 
+	private static RemoteFile toRemoteFile(String filename, SftpATTRS attrs) {
+		return new RemoteFile(filename, attrs.isDir(), attrs.getSize(),
+				attrs.getMTime());
+	}
+
+	private String absolute(String path) throws SftpException {
+		return RemoteCache.resolve(sftpChannel.pwd(), path);
+	}
+
 }
@@ -0,0 +1,290 @@
+package org.eclipse.maven.mojo.updatesite.sftp;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Minimal ustar writer, enough to stream a local folder to a remote
+ * <code>tar -x</code>. Names longer than the ustar limits use the GNU long
+ * name extension. Modification times are kept.
+ */
+public class TarWriter {
+
+	/**
+	 * Size of a tar block.
+	 */
+	private static final int BLOCK_SIZE = 512;
+
+	/**
+	 * Largest size of an entry in the octal header field.
+	 */
+	private static final long MAX_SIZE = 077777777777L;
+
+	/**
+	 * Length of the name field.
+	 */
+	private static final int NAME_LENGTH = 100;
+
+	/**
+	 * Length of the prefix field.
+	 */
+	private static final int PREFIX_LENGTH = 155;
+
+	/**
+	 * Regular file type flag.
+	 */
+	private static final byte TYPE_FILE = '0';
+
+	/**
+	 * Directory type flag.
+	 */
+	private static final byte TYPE_DIRECTORY = '5';
+
+	/**
+	 * GNU long name type flag.
+	 */
+	private static final byte TYPE_LONG_NAME = 'L';
+
+	/**
+	 * Names encoding.
+	 */
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * Archive output.
+	 */
+	private final OutputStream out;
+
+	/**
+	 * Copy buffer.
+	 */
+	private final byte[] buffer = new byte[BLOCK_SIZE * 16];
+
+	/**
+	 * Number of files written.
+	 */
+	private int files;
+
+	/**
+	 * Number of bytes of file content written.
+	 */
+	private long bytes;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param out
+	 *            archive output
+	 */
+	public TarWriter(OutputStream out) {
+		this.out = out;
+	}
+
+	/**
+	 * Recursively add the content of a folder.
+	 * 
+	 * @param folder
+	 *            local folder
+	 * @param path
+	 *            entry path of the folder, empty for the archive root
+	 * @throws IOException
+	 *             on error
+	 */
+	public void addFolder(File folder, String path) throws IOException {
+		File[] listFiles = folder.listFiles();
+		Arrays.sort(listFiles);
+		for (File file : listFiles) {
+			String name = path + file.getName();
+			if (file.isDirectory()) {
+				writeHeader(name + "/", TYPE_DIRECTORY, 0, file.lastModified(),
+						0755);
+				addFolder(file, name + "/");
+			} else {
+				addFile(file, name);
+			}
+		}
+	}
+
+	/**
+	 * Add a regular file.
+	 * 
+	 * @param file
+	 *            local file
+	 * @param name
+	 *            entry path
+	 * @throws IOException
+	 *             on error
+	 */
+	public void addFile(File file, String name) throws IOException {
+		long size = file.length();
+		if (size > MAX_SIZE) {
+			throw new IOException(file + " is too large for a tar entry");
+		}
+		writeHeader(name, TYPE_FILE, size, file.lastModified(), 0644);
+		InputStream inputStream = new FileInputStream(file);
+		try {
+			long remaining = size;
+			int read;
+			while (remaining > 0
+					&& (read = inputStream.read(buffer, 0,
+							(int) Math.min(buffer.length, remaining))) != -1) {
+				out.write(buffer, 0, read);
+				remaining -= read;
+			}
+			if (remaining != 0) {
+				throw new IOException(file + " changed while archiving");
+			}
+		} finally {
+			inputStream.close();
+		}
+		pad(size);
+		files++;
+		bytes += size;
+	}
+
+	/**
+	 * Write the end of archive marker. The output is not closed.
+	 * 
+	 * @throws IOException
+	 *             on error
+	 */
+	public void finish() throws IOException {
+		out.write(new byte[BLOCK_SIZE * 2]);
+		out.flush();
+	}
+
+	/**
+	 * Getter for {@link TarWriter#files}.
+	 * 
+	 * @return number of files written
+	 */
+	public int getFiles() {
+		return files;
+	}
+
+	/**
+	 * Getter for {@link TarWriter#bytes}.
+	 * 
+	 * @return number of bytes of file content written
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Write an entry header, preceded by a GNU long name entry if needed.
+	 * 
+	 * @param name
+	 *            entry path
+	 * @param type
+	 *            type flag
+	 * @param size
+	 *            content size
+	 * @param lastModified
+	 *            modification time in milliseconds
+	 * @param mode
+	 *            permissions
+	 * @throws IOException
+	 *             on error
+	 */
+	private void writeHeader(String name, byte type, long size,
+			long lastModified, int mode) throws IOException {
+		byte[] nameBytes = name.getBytes(UTF_8);
+		byte[] prefixBytes = new byte[0];
+		if (nameBytes.length > NAME_LENGTH) {
+			int split = findSplit(nameBytes);
+			if (split > 0) {
+				prefixBytes = Arrays.copyOfRange(nameBytes, 0, split);
+				nameBytes = Arrays.copyOfRange(nameBytes, split + 1,
+						nameBytes.length);
+			} else {
+				byte[] longName = Arrays.copyOf(nameBytes,
+						nameBytes.length + 1);
+				writeHeader("././@LongLink", TYPE_LONG_NAME,
+						longName.length, 0, 0);
+				out.write(longName);
+				pad(longName.length);
+				nameBytes = Arrays.copyOf(nameBytes, NAME_LENGTH);
+			}
+		}
+
+		byte[] header = new byte[BLOCK_SIZE];
+		System.arraycopy(nameBytes, 0, header, 0, nameBytes.length);
+		octal(header, 100, 8, mode);
+		octal(header, 108, 8, 0);
+		octal(header, 116, 8, 0);
+		octal(header, 124, 12, size);
+		octal(header, 136, 12, lastModified / 1000);
+		header[156] = type;
+		System.arraycopy("ustar\u000000".getBytes(UTF_8), 0, header, 257, 8);
+		System.arraycopy(prefixBytes, 0, header, 345, prefixBytes.length);
+
+		Arrays.fill(header, 148, 156, (byte) ' ');
+		long checksum = 0;
+		for (byte b : header) {
+			checksum += b & 0xff;
+		}
+		octal(header, 148, 7, checksum);
+		out.write(header);
+	}
+
+	/**
+	 * Find where to split a name between the prefix and name fields.
+	 * 
+	 * @param nameBytes
+	 *            full name
+	 * @return index of the separating '/', or -1 if none fits
+	 */
+	private int findSplit(byte[] nameBytes) {
+		for (int i = Math.min(PREFIX_LENGTH, nameBytes.length - 1); i > 0; i--) {
+			if (nameBytes[i] == '/' && nameBytes.length - i - 1 <= NAME_LENGTH
+					&& nameBytes.length - i - 1 > 0) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Write a zero padded, NUL terminated octal number.
+	 * 
+	 * @param header
+	 *            header block
+	 * @param offset
+	 *            field offset
+	 * @param length
+	 *            field length including the terminator
+	 * @param value
+	 *            to write
+	 */
+	private void octal(byte[] header, int offset, int length, long value) {
+		String octal = Long.toOctalString(value);
+		int digits = length - 1;
+		for (int i = 0; i < digits; i++) {
+			int index = octal.length() - digits + i;
+			header[offset + i] = (byte) (index < 0 ? '0' : octal.charAt(index));
+		}
+		header[offset + digits] = 0;
+	}
+
+	/**
+	 * Pad the content of an entry to a block boundary.
+	 * 
+	 * @param size
+	 *            content size
+	 * @throws IOException
+	 *             on error
+	 */
+	private void pad(long size) throws IOException {
+		int remainder = (int) (size % BLOCK_SIZE);
+		if (remainder != 0) {
+			out.write(new byte[BLOCK_SIZE - remainder]);
+		}
+	}
+
+}
@@ -0,0 +1,901 @@
+package org.eclipse.maven.mojo.updatesite;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.jar.JarFile;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.maven.model.Model;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.settings.Server;
+import org.apache.maven.settings.Settings;
+import org.eclipse.maven.mojo.updatesite.checksum.Manifest;
+import org.eclipse.maven.mojo.updatesite.configuration.Retention;
+import org.eclipse.maven.mojo.updatesite.configuration.Site;
+import org.eclipse.maven.mojo.updatesite.harness.EmbeddedSftpServer;
+import org.eclipse.maven.mojo.updatesite.harness.SiteGenerator;
+import org.eclipse.maven.mojo.updatesite.harness.Traffic;
+import org.eclipse.maven.mojo.updatesite.sftp.ChannelLimit;
+import org.eclipse.maven.mojo.updatesite.sftp.RemoteIndex;
+import org.eclipse.maven.mojo.updatesite.sftp.RemoteLock;
+import org.eclipse.maven.mojo.updatesite.sftp.SessionPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DeployMojoEndToEndTestCase {
+
+	private static final String SERVER_ID = "embedded";
+
+	private static final String PARENT = "releases";
+
+	private static final String UPLOAD = "upload";
+
+	private static final String COMPOSITE = "composite";
+
+	private static final String PARENT_UPDATE = "parent";
+
+	private static final long LATENCY = 10;
+
+	private EmbeddedSftpServer server;
+
+	private File work;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new EmbeddedSftpServer();
+		server.getTraffic()
+				.phase(COMPOSITE,
+						"/www/" + PARENT + "/[^/]+/(composite.*|p2\\.index)")
+				.phase(PARENT_UPDATE,
+						"/www/" + PARENT + "/(composite.*|p2\\.index)")
+				.phase(UPLOAD, "/www/" + PARENT + "/[^/]+/[^/]+(/.*)?");
+		work = File.createTempFile("site", "");
+		work.delete();
+		work.mkdirs();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		server.stop();
+		EmbeddedSftpServer.delete(work);
+	}
+
+	@Test
+	public void newSite() throws Exception {
+		File site = generate("new", 20, 4, 1024, 65536);
+
+		File report = new File(work, "target/updatesite-report.json");
+		DeployMojo mojo = mojo(site, "1.0.0", site("site", 1));
+		set(mojo, "report", report);
+		mojo.execute();
+
+		File remote = remote("site");
+		assertEquals(tree(site), tree(new File(remote, "1.0.0")));
+		assertTrue(new File(remote, "compositeContent.xml").isFile());
+		assertTrue(new File(remote, "compositeArtifacts.jar").isFile());
+		assertTrue(new File(remote, "p2.index").isFile());
+		assertTrue(new File(remote.getParentFile(), "compositeContent.xml")
+				.isFile());
+
+		Traffic traffic = server.getTraffic();
+		assertEquals(size(site), traffic.get(UPLOAD).getBytesWritten());
+		assertTrue(traffic.get(COMPOSITE).getRequests() > 0);
+		assertTrue(traffic.get(PARENT_UPDATE).getRequests() > 0);
+		report("new site", traffic);
+
+		String json = read(report);
+		for (String phase : new String[] { "init", "upload", "composite",
+				"parent" }) {
+			assertTrue(json, json.contains("\"" + phase + "\": {"));
+		}
+		assertTrue(json, json.contains("\"completed\": true"));
+		assertTrue(json, json.contains("\"bytesUploaded\": " + size(site)));
+	}
+
+	@Test
+	public void secondVersion() throws Exception {
+		File first = generate("first", 10, 2, 1024, 4096);
+		File second = generate("second", 10, 2, 1024, 4096);
+
+		deploy(first, "1.0.0", site("site", 1));
+		server.getTraffic().reset();
+		deploy(second, "1.0.1", site("site", 1));
+
+		String composite = read(new File(remote("site"),
+				"compositeContent.xml"));
+		assertTrue(composite.contains("'1.0.0'")
+				|| composite.contains("\"1.0.0\""));
+		assertTrue(composite.contains("'1.0.1'")
+				|| composite.contains("\"1.0.1\""));
+		assertEquals(size(second), server.getTraffic().get(UPLOAD)
+				.getBytesWritten());
+		report("second version", server.getTraffic());
+	}
+
+	@Test
+	public void parallelUploadUnderLatency() throws Exception {
+		File site = generate("latency", 40, 4, 512, 2048);
+		server.setLatency(LATENCY);
+
+		deploy(site, "1.0.0", site("sequential", 1));
+		Traffic.Phase sequential = server.getTraffic().get(UPLOAD);
+		report("sequential, " + LATENCY + " ms", server.getTraffic());
+
+		server.getTraffic().reset();
+		deploy(site, "1.0.0", site("parallel", 4));
+		Traffic.Phase parallel = server.getTraffic().get(UPLOAD);
+		report("parallel, " + LATENCY + " ms", server.getTraffic());
+
+		assertEquals(sequential.getBytesWritten(), parallel.getBytesWritten());
+		// the connection creating the version folder, then the upload
+		// channels
+		assertEquals(1, sequential.getChannels());
+		assertEquals(1 + 4, parallel.getChannels());
+	}
+
+	@Test
+	public void deltaRedeploy() throws Exception {
+		File site = generate("delta", 20, 2, 1024, 8192);
+
+		// first deploy in delta mode too, so that the mtimes are preserved
+		DeployMojo mojo = mojo(site, "1.0.0", site("site", 2));
+		set(mojo, "delta", true);
+		mojo.execute();
+		server.getTraffic().reset();
+		mojo = mojo(site, "1.0.0", site("site", 2));
+		set(mojo, "delta", true);
+		mojo.execute();
+
+		assertEquals(tree(site), tree(new File(remote("site"), "1.0.0")));
+		assertEquals(0, server.getTraffic().get(UPLOAD).getBytesWritten());
+		report("delta redeploy", server.getTraffic());
+	}
+
+	@Test
+	public void deltaRedeployAfterRebuild() throws Exception {
+		File site = generate("rebuild", 20, 2, 1024, 8192);
+		File checksums = new File(work, "target/updatesite-checksums");
+
+		DeployMojo mojo = mojo(site, "1.0.0", site("site", 1));
+		set(mojo, "checksums", true);
+		set(mojo, "checksumDirectory", checksums);
+		mojo.execute();
+		File version = new File(remote("site"), "1.0.0");
+		assertEquals(read(new File(checksums, Manifest.SHA256)), read(new File(
+				version, Manifest.SHA256)));
+
+		// rebuilt with identical content: every modification time changes
+		for (String path : tree(site).keySet()) {
+			new File(site, path).setLastModified(System.currentTimeMillis()
+					- 3600000);
+		}
+		server.getTraffic().reset();
+		mojo = mojo(site, "1.0.0", site("site", 2));
+		set(mojo, "delta", true);
+		set(mojo, "checksums", true);
+		set(mojo, "checksumDirectory", checksums);
+		mojo.execute();
+
+		Map<String, Long> expected = tree(site);
+		expected.put(Manifest.SHA256, new File(checksums, Manifest.SHA256)
+				.length());
+		expected.put(Manifest.MD5, new File(checksums, Manifest.MD5).length());
+		assertEquals(expected, tree(version));
+		assertEquals(size(checksums), server.getTraffic().get(UPLOAD)
+				.getBytesWritten());
+		report("delta redeploy after rebuild", server.getTraffic());
+	}
+
+	@Test
+	public void deltaChecksumWithoutDownload() throws Exception {
+		server.setCommands(true);
+		File site = generate("md5", 20, 2, 1024, 8192);
+
+		DeployMojo mojo = mojo(site, "1.0.0", site("site", 1));
+		set(mojo, "delta", true);
+		mojo.execute();
+
+		// rebuilt: every modification time changes, one file is modified
+		for (String path : tree(site).keySet()) {
+			new File(site, path).setLastModified(System.currentTimeMillis()
+					- 3600000);
+		}
+		String path = tree(site).keySet().iterator().next();
+		RandomAccessFile file = new RandomAccessFile(new File(site, path),
+				"rw");
+		try {
+			int first = file.read();
+			file.seek(0);
+			file.write(~first);
+		} finally {
+			file.close();
+		}
+		server.getTraffic().reset();
+		mojo = mojo(site, "1.0.0", site("site", 1));
+		set(mojo, "delta", true);
+		set(mojo, "deltaChecksum", true);
+		mojo.execute();
+
+		assertEquals(tree(site), tree(new File(remote("site"), "1.0.0")));
+		Traffic.Phase upload = server.getTraffic().get(UPLOAD);
+		assertEquals(new File(site, path).length(), upload.getBytesWritten());
+		assertTrue("Remote files downloaded",
+				upload.getBytesOut() < size(site) / 4);
+		report("delta checksum", server.getTraffic());
+	}
+
+	@Test
+	public void verifyChecksumsAfterUpload() throws Exception {
+		server.setCommands(true);
+		File site = generate("verify", 10, 1, 1024, 4096);
+		File checksums = new File(work, "target/updatesite-checksums");
+
+		DeployMojo mojo = mojo(site, "1.0.0", site("site", 1));
+		set(mojo, "checksums", true);
+		set(mojo, "checksumDirectory", checksums);
+		set(mojo, "verifyChecksums", true);
+		mojo.execute();
+
+		// corrupted on the server, same size: delta trusts the manifest
+		File version = new File(remote("site"), "1.0.0");
+		String path = tree(version).keySet().iterator().next();
+		RandomAccessFile file = new RandomAccessFile(new File(version, path),
+				"rw");
+		try {
+			int first = file.read();
+			file.seek(0);
+			file.write(~first);
+		} finally {
+			file.close();
+		}
+		mojo = mojo(site, "1.0.0", site("site", 1));
+		set(mojo, "delta", true);
+		set(mojo, "checksums", true);
+		set(mojo, "checksumDirectory", checksums);
+		set(mojo, "verifyChecksums", true);
+		try {
+			mojo.execute();
+			fail("Should fail!");
+		} catch (MojoExecutionException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains(path));
+		}
+	}
+
+	@Test
+	public void deepHierarchy() throws Exception {
+		File site = generate("deep", 4, 1, 512, 1024);
+		Site first = site("first", 1);
+		first.setParent(PARENT + "/vendor/product/stream");
+		Site second = site("second", 1);
+		second.setParent(PARENT + "/vendor/product/stream");
+
+		deploy(site, "1.0.0", first);
+		File stream = new File(server.getRoot(), "www/" + PARENT
+				+ "/vendor/product/stream");
+		// earlier versions listed the site name at every level
+		File top = stream.getParentFile().getParentFile().getParentFile();
+		for (File level = stream.getParentFile(); !level.equals(top
+				.getParentFile()); level = level.getParentFile()) {
+			listStale(level, "first");
+		}
+		assertTrue(new File(top, "first").mkdir());
+		deploy(site, "1.0.1", first);
+		server.getTraffic().reset();
+		deploy(site, "1.0.0", second);
+		report("deep hierarchy", server.getTraffic());
+
+		assertEquals(Arrays.asList("first", "second"), children(stream));
+		assertEquals(Arrays.asList("stream"),
+				children(stream.getParentFile()));
+		assertEquals(Arrays.asList("product"), children(stream
+				.getParentFile().getParentFile()));
+		// a folder of that name is kept
+		assertEquals(Arrays.asList("first", "vendor"), children(top));
+		assertEquals(Arrays.asList("1.0.0"), children(new File(stream,
+				"second")));
+	}
+
+	@Test
+	public void remoteIndex() throws Exception {
+		File first = generate("first", 10, 2, 1024, 4096);
+		File second = generate("second", 10, 2, 1024, 4096);
+
+		DeployMojo mojo = mojo(first, "1.0.0", site("site", 1));
+		set(mojo, "remoteIndex", true);
+		mojo.execute();
+		File indexFile = new File(server.getRoot(), "www/"
+				+ RemoteIndex.FILENAME);
+		String index = read(indexFile);
+		assertTrue(index, index.startsWith("updatesite-index 1\n"));
+		assertTrue(index, index.contains("\nD " + PARENT + "/site/1.0.0\n"));
+		assertTrue(index, index.contains(" " + PARENT
+				+ "/site/compositeContent.xml\n"));
+		assertFalse(index, index.contains("\nC "));
+
+		server.getTraffic().reset();
+		mojo = mojo(second, "1.0.1", site("site", 1));
+		set(mojo, "remoteIndex", true);
+		mojo.execute();
+		Traffic traffic = server.getTraffic();
+		report("second version with index", traffic);
+		// the parent is read, found listing the site and left as is
+		assertEquals(0, traffic.get(PARENT_UPDATE).getBytesWritten());
+		assertTrue(traffic.get(COMPOSITE).getBytesWritten() > 0);
+		index = read(indexFile);
+		assertTrue(index, index.contains("\nD " + PARENT + "/site/1.0.1\n"));
+		assertTrue(index, index.contains("\nD " + PARENT + "/site/1.0.0\n"));
+
+		// removed out of band: dropped from the index, not trusted
+		EmbeddedSftpServer.delete(new File(remote("site"), "1.0.0"));
+		server.getTraffic().reset();
+		mojo = mojo(second, "1.0.1", site("site", 1));
+		set(mojo, "remoteIndex", true);
+		mojo.execute();
+		assertEquals(0, server.getTraffic().get(COMPOSITE).getBytesWritten());
+		index = read(indexFile);
+		assertFalse(index, index.contains("/site/1.0.0"));
+		assertTrue(index, index.contains("\nD " + PARENT + "/site/1.0.1\n"));
+		String[] base = new File(server.getRoot(), "www").list();
+		Arrays.sort(base);
+		assertEquals(Arrays.asList(RemoteIndex.FILENAME, PARENT),
+				Arrays.asList(base));
+		String composite = read(new File(remote("site"),
+				"compositeContent.xml"));
+		assertTrue(composite.contains("'1.0.1'")
+				|| composite.contains("\"1.0.1\""));
+	}
+
+	@Test
+	public void concurrentDeploys() throws Exception {
+		final File site = generate("concurrent", 4, 1, 512, 1024);
+		server.setLatency(LATENCY);
+		final String parent = PARENT + "/vendor";
+		final List<Throwable> failures = Collections
+				.synchronizedList(new ArrayList<Throwable>());
+		List<Thread> threads = new ArrayList<Thread>();
+		List<String> names = new ArrayList<String>();
+		for (int i = 0; i < 4; i++) {
+			final String name = "product" + i;
+			names.add(name);
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					try {
+						Site product = site(name, 1);
+						product.setParent(parent);
+						DeployMojo mojo = mojo(site, "1.0.0", product);
+						set(mojo, "lockComposites", true);
+						set(mojo, "lockLease", 120);
+						set(mojo, "lockTimeout", 60);
+						mojo.execute();
+					} catch (Throwable e) {
+						failures.add(e);
+					}
+				}
+			});
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		report("concurrent deploys", server.getTraffic());
+
+		assertEquals(Collections.emptyList(), failures);
+		File vendor = new File(server.getRoot(), "www/" + parent);
+		assertEquals(names, children(vendor));
+		assertEquals(Arrays.asList("vendor"), children(vendor.getParentFile()));
+		assertFalse(new File(vendor, RemoteLock.NAME).exists());
+	}
+
+	@Test
+	public void staleLock() throws Exception {
+		File site = generate("stale", 4, 1, 512, 1024);
+		deploy(site, "1.0.0", site("site", 1));
+		File lock = new File(remote("site"), RemoteLock.NAME);
+		lock.mkdirs();
+
+		DeployMojo mojo = mojo(site, "1.0.1", site("site", 1));
+		set(mojo, "lockComposites", true);
+		set(mojo, "lockLease", 1);
+		set(mojo, "lockTimeout", 30);
+		mojo.execute();
+
+		assertFalse(lock.exists());
+		assertEquals(Arrays.asList("1.0.0", "1.0.1"), children(remote("site")));
+	}
+
+	@Test
+	public void retention() throws Exception {
+		File site = generate("retention", 4, 1, 512, 1024);
+		Retention retention = new Retention();
+		retention.setKeepLast(2);
+		retention.setKeep("1\\.0\\.0");
+		String[] versions = { "1.0.0", "1.0.1", "1.0.2", "1.0.3", "1.0.4" };
+		for (int i = 0; i < versions.length; i++) {
+			Site product = site("site", 1);
+			product.setRetention(retention);
+			DeployMojo mojo = mojo(site, versions[i], product);
+			set(mojo, "streamingComposites", i % 2 == 1);
+			mojo.execute();
+		}
+
+		File remote = remote("site");
+		assertEquals(Arrays.asList("1.0.0", "1.0.3", "1.0.4"),
+				children(remote));
+		String[] folders = remote.list(new FilenameFilter() {
+			public boolean accept(File dir, String name) {
+				return new File(dir, name).isDirectory();
+			}
+		});
+		Arrays.sort(folders);
+		assertEquals(Arrays.asList("1.0.0", "1.0.3", "1.0.4"),
+				Arrays.asList(folders));
+		String artifacts = read(new File(remote, "compositeArtifacts.xml"));
+		assertTrue(artifacts, artifacts.contains("size=\"3\"")
+				|| artifacts.contains("size='3'"));
+	}
+
+	@Test
+	public void resumeInterruptedDeploy() throws Exception {
+		File site = generate("resume", 20, 2, 1024, 8192);
+		File journals = new File(work, "target/updatesite-journal");
+		File[] jars = new File(site, "plugins").listFiles();
+		Arrays.sort(jars);
+		File last = jars[jars.length - 1];
+		File partial = jars[0];
+
+		// the last jar can not be written: the upload fails after the others
+		File version = new File(remote("site"), "1.0.0");
+		File obstacle = new File(version, "plugins/" + last.getName());
+		obstacle.mkdirs();
+		DeployMojo mojo = mojo(site, "1.0.0", site("site", 1));
+		set(mojo, "resume", true);
+		set(mojo, "journalDirectory", journals);
+		try {
+			mojo.execute();
+			fail("upload should fail");
+		} catch (MojoExecutionException e) {
+			assertEquals(1, journals.list().length);
+		}
+		obstacle.delete();
+		File remotePartial = new File(version, "plugins/" + partial.getName());
+		long half = remotePartial.length() / 2;
+		RandomAccessFile truncate = new RandomAccessFile(remotePartial, "rw");
+		try {
+			truncate.setLength(half);
+		} finally {
+			truncate.close();
+		}
+
+		server.getTraffic().reset();
+		mojo = mojo(site, "1.0.0", site("site", 1));
+		set(mojo, "resume", true);
+		set(mojo, "journalDirectory", journals);
+		mojo.execute();
+
+		assertEquals(tree(site), tree(version));
+		assertArrayEquals(read(partial).getBytes("UTF-8"), read(remotePartial)
+				.getBytes("UTF-8"));
+		assertEquals(last.length() + partial.length() - half, server
+				.getTraffic().get(UPLOAD).getBytesWritten());
+		assertTrue(new File(remote("site"), "compositeContent.xml").isFile());
+		assertEquals(0, journals.list().length);
+		report("resumed deploy", server.getTraffic());
+	}
+
+	@Test
+	public void rebuildAfterInterruptedDeploy() throws Exception {
+		File site = generate("rebuild", 6, 1, 1024, 4096);
+		File journals = new File(work, "target/updatesite-journal");
+
+		// the parent composite can not be read: the deploy fails after the
+		// upload
+		File obstacle = new File(remote("site").getParentFile(),
+				"compositeArtifacts.xml");
+		obstacle.mkdirs();
+		DeployMojo mojo = mojo(site, "1.0.0-SNAPSHOT", site("site", 1));
+		set(mojo, "resume", true);
+		set(mojo, "journalDirectory", journals);
+		try {
+			mojo.execute();
+			fail("parent update should fail");
+		} catch (MojoExecutionException e) {
+			assertEquals(1, journals.list().length);
+		}
+		obstacle.delete();
+
+		// rebuilt without clean: one jar changed, another removed
+		File[] jars = new File(site, "plugins").listFiles();
+		Arrays.sort(jars);
+		assertTrue(jars[0].delete());
+		FileOutputStream outputStream = new FileOutputStream(jars[1]);
+		try {
+			outputStream.write("rebuilt".getBytes("UTF-8"));
+		} finally {
+			outputStream.close();
+		}
+
+		mojo = mojo(site, "1.0.0-SNAPSHOT", site("site", 1));
+		set(mojo, "resume", true);
+		set(mojo, "journalDirectory", journals);
+		mojo.execute();
+
+		assertEquals(tree(site), tree(new File(remote("site"),
+				"1.0.0-SNAPSHOT")));
+		assertEquals(0, journals.list().length);
+	}
+
+	@Test
+	public void aggregate() throws Exception {
+		File site = generate("aggregate", 2, 1, 512, 1024);
+		// deployed before aggregation: merged by the first aggregating deploy
+		writeContent(site, "shared 1", "feature 1.0.0");
+		deploy(site, "1.0.0", site("site", 1));
+		String[] versions = { "1.0.1", "1.0.2" };
+		for (int i = 0; i < versions.length; i++) {
+			writeContent(site, "shared 1", "feature " + versions[i]);
+			DeployMojo mojo = mojo(site, versions[i], site("site", 1));
+			set(mojo, "aggregate", true);
+			set(mojo, "streamingComposites", i % 2 == 1);
+			mojo.execute();
+		}
+
+		File remote = remote("site");
+		assertEquals(Arrays.asList("aggregate"), children(remote));
+		String artifacts = read(new File(remote, "compositeArtifacts.xml"));
+		for (String version : new String[] { "1.0.0", "1.0.1", "1.0.2" }) {
+			assertTrue(artifacts, artifacts.contains("location=\"" + version
+					+ "\"")
+					|| artifacts.contains("location='" + version + "'"));
+		}
+		File folder = new File(remote, "aggregate");
+		assertTrue(new File(folder, "p2.index").exists());
+		assertTrue(new File(folder, "aggregate.index").exists());
+		assertFalse(new File(folder, "content.xml").exists());
+		JarFile jar = new JarFile(new File(folder, "content.jar"));
+		String content;
+		try {
+			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+			InputStream inputStream = jar.getInputStream(jar
+					.getEntry("content.xml"));
+			int b;
+			while ((b = inputStream.read()) != -1) {
+				outputStream.write(b);
+			}
+			inputStream.close();
+			content = outputStream.toString("UTF-8");
+		} finally {
+			jar.close();
+		}
+		assertTrue(content, content.contains("<units size=\"4\">"));
+		assertEquals(content, 2, content.split("id=\"shared\"").length);
+		for (String version : new String[] { "1.0.0", "1.0.1", "1.0.2" }) {
+			assertTrue(content, content.contains("id=\"feature\" version=\""
+					+ version + "\""));
+		}
+	}
+
+	@Test
+	public void compositeUpdatedByLegacyWriter() throws Exception {
+		File site = generate("legacy", 5, 1, 1024, 4096);
+		deploy(site, "1.0.0", site("site", 1));
+
+		// a writer unaware of the jars adds a child to the xml only
+		File remote = remote("site");
+		File xml = new File(remote, "compositeArtifacts.xml");
+		String content = read(xml).replace("</children>",
+				"<child location='legacy'/></children>");
+		FileOutputStream outputStream = new FileOutputStream(xml);
+		try {
+			outputStream.write(content.getBytes("UTF-8"));
+		} finally {
+			outputStream.close();
+		}
+		xml.setLastModified(new File(remote, "compositeArtifacts.jar")
+				.lastModified() + 10000);
+
+		deploy(site, "1.0.1", site("site", 1));
+		List<String> children = children(remote);
+		assertEquals(children.toString(), 3, children.size());
+		assertTrue(children.toString(), children.contains("legacy"));
+	}
+
+	@Test
+	public void sharedSessions() throws Exception {
+		File site = generate("shared", 10, 2, 1024, 4096);
+
+		DeployMojo mojo = mojo(site, "1.0.0", site("first", 2));
+		set(mojo, "sites", Arrays.asList(site("first", 2), site("second", 2)));
+		set(mojo, "siteParallelism", 2);
+		// both sites update the parent composite
+		set(mojo, "lockComposites", true);
+		set(mojo, "lockLease", 120);
+		set(mojo, "lockTimeout", 60);
+		mojo.execute();
+
+		assertEquals(tree(site), tree(new File(remote("first"), "1.0.0")));
+		assertEquals(tree(site), tree(new File(remote("second"), "1.0.0")));
+		assertEquals(1, server.getSessions());
+		assertEquals(0, server.getOpenSessions(5000));
+	}
+
+	@Test
+	public void channelLimitPerSession() throws Exception {
+		File site = generate("limit", 20, 2, 512, 1024);
+		String parent = PARENT + "/vendor/product/stream/train";
+		List<Site> sites = new ArrayList<Site>();
+		for (String name : new String[] { "first", "second" }) {
+			Site product = site(name, 4);
+			product.setParent(parent);
+			sites.add(product);
+		}
+
+		for (String version : new String[] { "1.0.0", "1.0.1" }) {
+			DeployMojo mojo = mojo(site, version, sites.get(0));
+			set(mojo, "sites", sites);
+			set(mojo, "siteParallelism", 2);
+			set(mojo, "lockComposites", true);
+			set(mojo, "lockLease", 120);
+			set(mojo, "lockTimeout", 60);
+			mojo.execute();
+		}
+		report("channel limit", server.getTraffic());
+
+		int peak = server.getTraffic().getPeakChannels();
+		assertTrue(String.valueOf(peak), peak <= ChannelLimit.MAX_CHANNELS);
+		File train = new File(server.getRoot(), "www/" + parent);
+		assertEquals(Arrays.asList("first", "second"), children(train));
+		assertEquals(Arrays.asList("train"), children(train.getParentFile()));
+		for (String name : new String[] { "first", "second" }) {
+			assertEquals(Arrays.asList("1.0.0", "1.0.1"), children(new File(
+					train, name)));
+			assertEquals(tree(site), tree(new File(train, name + "/1.0.1")));
+		}
+	}
+
+	@Test
+	public void sessionsOutliveLastModuleOfParallelReactor() throws Exception {
+		File first = generate("module-first", 5, 1, 1024, 4096);
+		File second = generate("module-second", 5, 1, 1024, 4096);
+
+		// another module of the reactor is still deploying
+		SessionPool.getInstance().retain(null);
+		try {
+			// the last module finishes first
+			deploy(first, "1.0.0", site("site", 1));
+			assertEquals(1, server.getOpenSessions(0));
+			deploy(second, "1.0.1", site("site", 1));
+		} finally {
+			SessionPool.getInstance().release(false);
+		}
+
+		assertEquals(Arrays.asList("1.0.0", "1.0.1"), children(remote("site")));
+		assertEquals(1, server.getSessions());
+		assertEquals(0, server.getOpenSessions(5000));
+	}
+
+	@Test
+	public void localDeploy() throws Exception {
+		File first = generate("local-first", 10, 2, 1024, 4096);
+		File second = generate("local-second", 10, 2, 1024, 4096);
+		File www = new File(work, "nfs/www");
+		www.mkdirs();
+
+		File report = new File(work, "target/updatesite-report.json");
+		Site site = site("site", 4);
+		site.setServerId(null);
+		site.setBaseURL("file://" + www.getAbsolutePath());
+		DeployMojo mojo = mojo(first, "1.0.0", site);
+		set(mojo, "report", report);
+		mojo.execute();
+		File remote = new File(www, PARENT + "/site");
+		// given up by earlier deploys, and still being deleted
+		File abandoned = new File(remote, ".0.9.old-1000");
+		File deleting = new File(remote, ".0.8.old-"
+				+ System.currentTimeMillis());
+		assertTrue(new File(abandoned, "plugins").mkdirs());
+		assertTrue(deleting.mkdir());
+		mojo = mojo(second, "1.0.1", site);
+		set(mojo, "staged", true);
+		mojo.execute();
+
+		assertFalse(abandoned.exists());
+		assertTrue(deleting.delete());
+		assertEquals(tree(first), tree(new File(remote, "1.0.0")));
+		assertEquals(tree(second), tree(new File(remote, "1.0.1")));
+		assertEquals(Arrays.asList("1.0.0", "1.0.1"), children(remote));
+		assertEquals(Arrays.asList("site"), children(remote.getParentFile()));
+		assertEquals(0, server.getTraffic().get(UPLOAD).getRequests());
+		String json = read(report);
+		assertTrue(json, json.contains("\"bytesUploaded\": " + size(first)));
+	}
+
+	private File generate(String name, int jars, int directories,
+			int minSize, int maxSize) throws IOException {
+		File folder = new File(work, name);
+		new SiteGenerator().jars(jars).directories(directories)
+				.size(minSize, maxSize).seed(name.hashCode()).generate(folder);
+		return folder;
+	}
+
+	private Site site(String name, int parallelism) {
+		Site site = new Site();
+		site.setServerId(SERVER_ID);
+		site.setBaseURL("sftp://localhost:" + server.getPort() + "/www");
+		site.setParent(PARENT);
+		site.setName(name);
+		site.setParallelism(parallelism);
+		return site;
+	}
+
+	private File remote(String name) {
+		return new File(server.getRoot(), "www/" + PARENT + "/" + name);
+	}
+
+	private void deploy(File siteDirectory, String version, Site site)
+			throws Exception {
+		mojo(siteDirectory, version, site).execute();
+	}
+
+	private DeployMojo mojo(File siteDirectory, String version, Site site)
+			throws Exception {
+		Model model = new Model();
+		model.setGroupId("org.eclipse.maven.updatesite");
+		model.setArtifactId("generated");
+		model.setVersion(version);
+
+		Server credentials = new Server();
+		credentials.setId(SERVER_ID);
+		credentials.setUsername(EmbeddedSftpServer.USER);
+		credentials.setPassphrase(EmbeddedSftpServer.PASSPHRASE);
+		Settings settings = new Settings();
+		settings.addServer(credentials);
+
+		DeployMojo mojo = new DeployMojo();
+		set(mojo, "mavenProject", new MavenProject(model));
+		set(mojo, "settings", settings);
+		set(mojo, "sites", Arrays.asList(site));
+		set(mojo, "knownHost", server.getKnownHosts().getAbsolutePath());
+		set(mojo, "identity", server.getIdentity().getAbsolutePath());
+		set(mojo, "siteDirectory", siteDirectory);
+		set(mojo, "parallelism", 1);
+		set(mojo, "siteParallelism", 1);
+		set(mojo, "compressComposites", true);
+		set(mojo, "reuseSessions", true);
+		set(mojo, "deleteTimeout", 60);
+		return mojo;
+	}
+
+	private static void set(Object object, String name, Object value)
+			throws Exception {
+		Field field = object.getClass().getDeclaredField(name);
+		field.setAccessible(true);
+		field.set(object, value);
+	}
+
+	private static void listStale(File folder, String child)
+			throws IOException {
+		for (String name : new String[] { "compositeContent",
+				"compositeArtifacts" }) {
+			File file = new File(folder, name + ".xml");
+			String content = read(file).replace("</children>",
+					"<child location='" + child + "'/></children>");
+			FileOutputStream outputStream = new FileOutputStream(file);
+			try {
+				outputStream.write(content.getBytes("UTF-8"));
+			} finally {
+				outputStream.close();
+			}
+			new File(folder, name + ".jar").delete();
+		}
+	}
+
+	private static List<String> children(File folder) throws IOException {
+		List<String> children = new ArrayList<String>();
+		Matcher matcher = Pattern.compile("<child location=['\"]([^'\"]+)")
+				.matcher(read(new File(folder, "compositeContent.xml")));
+		while (matcher.find()) {
+			children.add(matcher.group(1));
+		}
+		Collections.sort(children);
+		return children;
+	}
+
+	private static Map<String, Long> tree(File folder) {
+		Map<String, Long> tree = new TreeMap<String, Long>();
+		tree(folder, "", tree);
+		return tree;
+	}
+
+	private static void tree(File folder, String prefix, Map<String, Long> tree) {
+		for (File file : folder.listFiles()) {
+			if (file.isDirectory()) {
+				tree.put(prefix + file.getName() + "/", -1L);
+				tree(file, prefix + file.getName() + "/", tree);
+			} else {
+				tree.put(prefix + file.getName(), file.length());
+			}
+		}
+	}
+
+	private static long size(File folder) {
+		long size = 0;
+		for (Long length : tree(folder).values()) {
+			if (length > 0) {
+				size += length;
+			}
+		}
+		return size;
+	}
+
+	private static String read(File file) throws IOException {
+		InputStream inputStream = new FileInputStream(file);
+		try {
+			byte[] content = new byte[(int) file.length()];
+			int read = 0;
+			while (read < content.length) {
+				read += inputStream.read(content, read, content.length - read);
+			}
+			return new String(content, "UTF-8");
+		} finally {
+			inputStream.close();
+		}
+	}
+
+	private static void writeContent(File site, String... units)
+			throws IOException {
+		StringBuilder builder = new StringBuilder(
+				"<?xml version='1.0' encoding='UTF-8'?>\n"
+						+ "<?metadataRepository version='1.1.0'?>\n"
+						+ "<repository name='generated'>\n  <units size='"
+						+ units.length + "'>\n");
+		for (String unit : units) {
+			String[] key = unit.split(" ");
+			builder.append("    <unit id='" + key[0] + "' version='" + key[1]
+					+ "'/>\n");
+		}
+		builder.append("  </units>\n</repository>\n");
+		FileOutputStream outputStream = new FileOutputStream(new File(site,
+				"content.xml"));
+		try {
+			outputStream.write(builder.toString().getBytes("UTF-8"));
+		} finally {
+			outputStream.close();
+		}
+	}
+
+	/**
+	 * Print the traffic of a deployment when the updatesite.traffic system
+	 * property is set.
+	 */
+	private static void report(String title, Traffic traffic) {
+		if (Boolean.getBoolean("updatesite.traffic")) {
+			System.out.println(title + "\n" + traffic);
+		}
+	}
+
+}
@@ -1,6 +1,7 @@
 package org.eclipse.maven.mojo.updatesite;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.util.regex.Matcher;
@@ -30,4 +31,17 @@ public class SftpPatternTestCase {
 
 	}
 
+	@Test
+	public void testFile() {
+		Matcher matcher = DeployMojo.FILE_PATTERN
+				.matcher("file:///mnt/nfs/my/path/to");
+		assertTrue("Should match!", matcher.matches());
+		assertEquals("Should match!", "/mnt/nfs/my/path/to",
+				matcher.group(DeployMojo.FILE_PATTERN_PATH));
+		assertFalse("Relative path should not match!", DeployMojo.FILE_PATTERN
+				.matcher("file://my/path").matches());
+		assertFalse("sftp URL should not match!", DeployMojo.FILE_PATTERN
+				.matcher("sftp://myhost/my/path").matches());
+	}
+
 }
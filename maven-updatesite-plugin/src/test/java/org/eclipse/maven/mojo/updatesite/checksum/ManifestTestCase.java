@@ -0,0 +1,125 @@
+package org.eclipse.maven.mojo.updatesite.checksum;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ManifestTestCase {
+
+	private File folder;
+
+	@Before
+	public void setUp() throws IOException {
+		folder = File.createTempFile("manifest", "");
+		folder.delete();
+		folder.mkdirs();
+	}
+
+	@After
+	public void tearDown() {
+		delete(folder);
+	}
+
+	@Test
+	public void testCompute() throws Exception {
+		write("abc", "abc".getBytes("US-ASCII"));
+		write("empty", new byte[0]);
+		byte[] large = new byte[Manifest.BUFFER_SIZE * 3 + 17];
+		new Random(42).nextBytes(large);
+		write("plugins/large.jar", large);
+
+		Manifest manifest = Manifest.compute(folder, 2);
+
+		assertEquals(Arrays.asList("abc", "empty", "plugins/large.jar"),
+				manifest.getPaths());
+		assertEquals("ba7816bf8f01cfea414140de5dae2223"
+				+ "b00361a396177a9cb410ff61f20015ad",
+				manifest.getSha256("abc"));
+		assertEquals("900150983cd24fb0d6963f7d28e17f72",
+				manifest.getMd5("abc"));
+		assertEquals("e3b0c44298fc1c149afbf4c8996fb924"
+				+ "27ae41e4649b934ca495991b7852b855",
+				manifest.getSha256("empty"));
+		assertEquals(digest("SHA-256", large),
+				manifest.getSha256("plugins/large.jar"));
+		assertEquals(digest("MD5", large), manifest.getMd5("plugins/large.jar"));
+	}
+
+	@Test
+	public void testWriteRead() throws Exception {
+		write("a b", "content".getBytes("US-ASCII"));
+		write("features/f.jar", new byte[100]);
+		Manifest manifest = Manifest.compute(folder, 0);
+		File target = new File(folder, "target");
+
+		File[] files = manifest.write(target);
+
+		Manifest read = Manifest.read(new FileInputStream(files[0]));
+		assertEquals(manifest.getPaths(), read.getPaths());
+		assertEquals(manifest.getSha256("a b"), read.getSha256("a b"));
+		assertNull(read.getMd5("a b"));
+		assertEquals(Manifest.MD5, files[1].getName());
+	}
+
+	@Test
+	public void testFingerprint() throws Exception {
+		write("abc", "abc".getBytes("US-ASCII"));
+		write("plugins/a.jar", new byte[100]);
+		String fingerprint = Manifest.compute(folder, 1).getFingerprint();
+		String files = Manifest.fingerprint(folder);
+		assertEquals(fingerprint, Manifest.compute(folder, 2).getFingerprint());
+		assertEquals(files, Manifest.fingerprint(folder));
+
+		write("abc", "abd".getBytes("US-ASCII"));
+		new File(folder, "abc").setLastModified(0);
+		assertFalse(fingerprint.equals(Manifest.compute(folder, 1)
+				.getFingerprint()));
+		assertFalse(files.equals(Manifest.fingerprint(folder)));
+	}
+
+	private void write(String path, byte[] content) throws IOException {
+		File file = new File(folder, path);
+		file.getParentFile().mkdirs();
+		OutputStream outputStream = new FileOutputStream(file);
+		try {
+			outputStream.write(content);
+		} finally {
+			outputStream.close();
+		}
+	}
+
+	private static String digest(String algorithm, byte[] content)
+			throws Exception {
+		byte[] digest = MessageDigest.getInstance(algorithm).digest(content);
+		String hex = new BigInteger(1, digest).toString(16);
+		while (hex.length() < digest.length * 2) {
+			hex = "0" + hex;
+		}
+		return hex;
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File child : files) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+}
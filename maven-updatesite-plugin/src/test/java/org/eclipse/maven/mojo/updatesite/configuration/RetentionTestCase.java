@@ -0,0 +1,61 @@
+package org.eclipse.maven.mojo.updatesite.configuration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class RetentionTestCase {
+
+	private static final long DAY = 24L * 60 * 60 * 1000;
+
+	private static final long NOW = 100 * DAY;
+
+	private final List<String> children = Arrays.asList("1.0.0", "1.1.0",
+			"1.2.0", "1.3.0", "http://mirror/1.0.0", "1.4.0");
+
+	@Test
+	public void testDisabled() {
+		Retention retention = new Retention();
+		retention.setKeep(".*");
+		assertFalse(retention.isEnabled());
+		assertEquals(Collections.emptyList(), retention.expired(children,
+				Collections.<String, Long> emptyMap(), "1.4.0", NOW));
+	}
+
+	@Test
+	public void testKeepLast() {
+		Retention retention = new Retention();
+		retention.setKeepLast(2);
+		assertEquals(Arrays.asList("1.0.0", "1.1.0", "1.2.0"),
+				retention.expired(children,
+						Collections.<String, Long> emptyMap(), "1.4.0", NOW));
+		assertEquals(Arrays.asList("1.1.0", "1.2.0"), retention.expired(
+				children, Collections.<String, Long> emptyMap(), "1.0.0", NOW));
+	}
+
+	@Test
+	public void testKeepDaysAndRegex() {
+		Map<String, Long> modified = new HashMap<String, Long>();
+		modified.put("1.0.0", NOW - 30 * DAY);
+		modified.put("1.1.0", NOW - 20 * DAY);
+		modified.put("1.2.0", NOW - 5 * DAY);
+		modified.put("1.4.0", NOW);
+		Retention retention = new Retention();
+		retention.setKeepDays(10);
+		retention.setKeep("1\\.0\\..*");
+		assertEquals(Arrays.asList("1.1.0", "1.3.0"),
+				retention.expired(children, modified, "1.4.0", NOW));
+
+		retention.setKeepLast(3);
+		assertEquals(Arrays.asList("1.1.0"),
+				retention.expired(children, modified, "1.4.0", NOW));
+	}
+
+}
@@ -0,0 +1,383 @@
+package org.eclipse.maven.mojo.updatesite.harness;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.security.KeyPair;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import org.apache.sshd.common.NamedFactory;
+import org.apache.sshd.common.channel.Channel;
+import org.apache.sshd.common.channel.ChannelListener;
+import org.apache.sshd.common.file.virtualfs.VirtualFileSystemFactory;
+import org.apache.sshd.common.session.Session;
+import org.apache.sshd.common.session.SessionListener;
+import org.apache.sshd.server.Command;
+import org.apache.sshd.server.CommandFactory;
+import org.apache.sshd.server.SshServer;
+import org.apache.sshd.server.auth.pubkey.AcceptAllPublickeyAuthenticator;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+import org.apache.sshd.server.subsystem.sftp.SftpSubsystemFactory;
+
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+
+/**
+ * SSH server on localhost serving a temporary folder over sftp, with the
+ * known hosts and identity files needed to connect to it with JSch. Any
+ * public key is accepted.
+ * <p>
+ * The sftp requests are recorded in a {@link Traffic}, and the responses can
+ * be delayed to model a distant server. Exec requests fail unless enabled
+ * by {@link EmbeddedSftpServer#setCommands(boolean)}.
+ */
+public class EmbeddedSftpServer {
+
+	/**
+	 * Passphrase of the generated identity.
+	 */
+	public static final String PASSPHRASE = "updatesite";
+
+	/**
+	 * User to connect as.
+	 */
+	public static final String USER = "updatesite";
+
+	/**
+	 * RSA key size.
+	 */
+	private static final int KEY_SIZE = 2048;
+
+	/**
+	 * Server.
+	 */
+	private final SshServer sshd;
+
+	/**
+	 * Temporary folder holding the keys and the root.
+	 */
+	private final File base;
+
+	/**
+	 * Root of the served file system.
+	 */
+	private final File root;
+
+	/**
+	 * Known hosts file.
+	 */
+	private final File knownHosts;
+
+	/**
+	 * Private key file.
+	 */
+	private final File identity;
+
+	/**
+	 * Requests served.
+	 */
+	private final Traffic traffic = new Traffic();
+
+	/**
+	 * Number of ssh sessions opened since the start.
+	 */
+	private final AtomicInteger sessions = new AtomicInteger();
+
+	/**
+	 * Number of ssh sessions currently open.
+	 */
+	private final AtomicInteger openSessions = new AtomicInteger();
+
+	/**
+	 * Delay of the sftp responses in milliseconds.
+	 */
+	private volatile long latency;
+
+	/**
+	 * Run the exec requests, otherwise they fail as if the shell did not
+	 * know the command.
+	 */
+	private volatile boolean commands;
+
+	/**
+	 * Paths of the files whose removal fails, null for none.
+	 */
+	private volatile Pattern failedRemovals;
+
+	/**
+	 * Start a server on a free port.
+	 * 
+	 * @throws IOException
+	 *             if the server could not start
+	 * @throws JSchException
+	 *             if the identity could not be generated
+	 */
+	public EmbeddedSftpServer() throws IOException, JSchException {
+		base = File.createTempFile("sftp", "");
+		base.delete();
+		root = new File(base, "root");
+		root.mkdirs();
+
+		SimpleGeneratorHostKeyProvider keyProvider = new SimpleGeneratorHostKeyProvider(
+				new File(base, "host.ser").toPath());
+		keyProvider.setAlgorithm("RSA");
+		keyProvider.setKeySize(KEY_SIZE);
+
+		sshd = SshServer.setUpDefaultServer();
+		sshd.setHost("localhost");
+		sshd.setPort(0);
+		sshd.setKeyPairProvider(keyProvider);
+		sshd.setPublickeyAuthenticator(AcceptAllPublickeyAuthenticator.INSTANCE);
+		sshd.setSubsystemFactories(Collections
+				.<NamedFactory<Command>> singletonList(new SftpSubsystemFactory() {
+					@Override
+					public Command create() {
+						return new TrafficSftpSubsystem(this,
+								EmbeddedSftpServer.this);
+					}
+				}));
+		sshd.setCommandFactory(new CommandFactory() {
+			public Command createCommand(String command) {
+				return new ShellCommand(command, root, commands);
+			}
+		});
+		sshd.setFileSystemFactory(new VirtualFileSystemFactory(root.toPath()));
+		sshd.addSessionListener(new SessionListener() {
+			@Override
+			public void sessionCreated(Session session) {
+				sessions.incrementAndGet();
+				openSessions.incrementAndGet();
+			}
+
+			@Override
+			public void sessionClosed(Session session) {
+				openSessions.decrementAndGet();
+			}
+		});
+		sshd.addChannelListener(new ChannelListener() {
+			@Override
+			public void channelOpenSuccess(Channel channel) {
+				traffic.channelOpened(channel.getSession());
+			}
+
+			@Override
+			public void channelClosed(Channel channel, Throwable reason) {
+				traffic.channelClosed(channel.getSession());
+			}
+		});
+		sshd.start();
+
+		knownHosts = new File(base, "known_hosts");
+		writeKnownHosts(keyProvider.loadKeys().iterator().next());
+
+		identity = new File(base, "id_rsa");
+		com.jcraft.jsch.KeyPair keyPair = com.jcraft.jsch.KeyPair.genKeyPair(
+				new JSch(), com.jcraft.jsch.KeyPair.RSA, KEY_SIZE);
+		keyPair.setPassphrase(PASSPHRASE);
+		keyPair.writePrivateKey(identity.getAbsolutePath());
+	}
+
+	/**
+	 * Write the host key in the OpenSSH known hosts format.
+	 * 
+	 * @param hostKey
+	 *            of the server
+	 * @throws IOException
+	 *             on error
+	 */
+	private void writeKnownHosts(KeyPair hostKey) throws IOException {
+		RSAPublicKey publicKey = (RSAPublicKey) hostKey.getPublic();
+		ByteArrayOutputStream blob = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(blob);
+		writeBytes(out, "ssh-rsa".getBytes("US-ASCII"));
+		writeBytes(out, publicKey.getPublicExponent().toByteArray());
+		writeBytes(out, publicKey.getModulus().toByteArray());
+		Writer writer = new FileWriter(knownHosts);
+		try {
+			writer.write("[localhost]:" + getPort() + " ssh-rsa "
+					+ Base64.getEncoder().encodeToString(blob.toByteArray())
+					+ "\n");
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Write a length prefixed SSH string.
+	 * 
+	 * @param out
+	 *            to write to
+	 * @param bytes
+	 *            to write
+	 * @throws IOException
+	 *             on error
+	 */
+	private static void writeBytes(DataOutputStream out, byte[] bytes)
+			throws IOException {
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Getter for the listening port.
+	 * 
+	 * @return port
+	 */
+	public int getPort() {
+		return sshd.getPort();
+	}
+
+	/**
+	 * Getter for {@link EmbeddedSftpServer#root}.
+	 * 
+	 * @return local folder seen as "/" by the clients
+	 */
+	public File getRoot() {
+		return root;
+	}
+
+	/**
+	 * Getter for {@link EmbeddedSftpServer#knownHosts}.
+	 * 
+	 * @return known hosts file
+	 */
+	public File getKnownHosts() {
+		return knownHosts;
+	}
+
+	/**
+	 * Getter for {@link EmbeddedSftpServer#identity}.
+	 * 
+	 * @return private key file, protected by
+	 *         {@link EmbeddedSftpServer#PASSPHRASE}
+	 */
+	public File getIdentity() {
+		return identity;
+	}
+
+	/**
+	 * Getter for {@link EmbeddedSftpServer#traffic}.
+	 * 
+	 * @return requests served since the start or the last reset
+	 */
+	public Traffic getTraffic() {
+		return traffic;
+	}
+
+	/**
+	 * Getter for {@link EmbeddedSftpServer#sessions}.
+	 * 
+	 * @return number of ssh sessions opened since the start
+	 */
+	public int getSessions() {
+		return sessions.get();
+	}
+
+	/**
+	 * Wait for the ssh sessions closed by the clients to be closed on the
+	 * server side too.
+	 * 
+	 * @param timeout
+	 *            in milliseconds
+	 * @return number of ssh sessions still open
+	 * @throws InterruptedException
+	 *             if interrupted
+	 */
+	public int getOpenSessions(long timeout) throws InterruptedException {
+		long end = System.currentTimeMillis() + timeout;
+		while (openSessions.get() > 0 && System.currentTimeMillis() < end) {
+			Thread.sleep(10);
+		}
+		return openSessions.get();
+	}
+
+	/**
+	 * Getter for {@link EmbeddedSftpServer#latency}.
+	 * 
+	 * @return delay of the sftp responses in milliseconds
+	 */
+	public long getLatency() {
+		return latency;
+	}
+
+	/**
+	 * Setter for {@link EmbeddedSftpServer#latency}. Responses are delayed
+	 * in order, so pipelined requests pay it once, like on a real link.
+	 * Change it between deployments, not during one.
+	 * 
+	 * @param latency
+	 *            delay of the sftp responses in milliseconds, 0 for none
+	 */
+	public void setLatency(long latency) {
+		this.latency = latency;
+	}
+
+	/**
+	 * Setter for {@link EmbeddedSftpServer#commands}.
+	 * 
+	 * @param commands
+	 *            true to run the exec requests with <code>sh -c</code> in the
+	 *            root
+	 */
+	public void setCommands(boolean commands) {
+		this.commands = commands;
+	}
+
+	/**
+	 * Setter for {@link EmbeddedSftpServer#failedRemovals}.
+	 * 
+	 * @param failedRemovals
+	 *            paths of the files whose removal is denied, null for none
+	 */
+	public void setFailedRemovals(Pattern failedRemovals) {
+		this.failedRemovals = failedRemovals;
+	}
+
+	/**
+	 * @param path
+	 *            of a file to remove, as sent by the client
+	 * @return true if its removal must fail
+	 */
+	boolean isRemovalFailed(String path) {
+		Pattern pattern = failedRemovals;
+		return pattern != null && pattern.matcher(path).matches();
+	}
+
+	/**
+	 * Stop the server and delete its files.
+	 * 
+	 * @throws IOException
+	 *             on error
+	 */
+	public void stop() throws IOException {
+		try {
+			sshd.stop(true);
+		} finally {
+			delete(base);
+		}
+	}
+
+	/**
+	 * Recursively delete a local file.
+	 * 
+	 * @param file
+	 *            to delete
+	 */
+	public static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+}
@@ -0,0 +1,166 @@
+package org.eclipse.maven.mojo.updatesite.harness;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.sshd.server.Command;
+import org.apache.sshd.server.Environment;
+import org.apache.sshd.server.ExitCallback;
+
+/**
+ * Exec request run by <code>sh -c</code> in the root of the served file
+ * system. Single quoted absolute paths, as sent by the plugin, are resolved
+ * in the root like the sftp paths.
+ */
+class ShellCommand implements Command, Runnable {
+
+	/**
+	 * Status of a command the shell does not find.
+	 */
+	static final int NOT_FOUND = 127;
+
+	/**
+	 * Size of the copy buffers.
+	 */
+	private static final int BUFFER_SIZE = 8192;
+
+	/**
+	 * Command to run.
+	 */
+	private final String command;
+
+	/**
+	 * Root of the served file system.
+	 */
+	private final File root;
+
+	/**
+	 * Run the command, false to fail as if the shell did not find it.
+	 */
+	private final boolean enabled;
+
+	private InputStream in;
+
+	private OutputStream out;
+
+	private OutputStream err;
+
+	private ExitCallback callback;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param command
+	 *            to run
+	 * @param root
+	 *            root of the served file system
+	 * @param enabled
+	 *            false to fail as if the shell did not find the command
+	 */
+	ShellCommand(String command, File root, boolean enabled) {
+		this.command = command;
+		this.root = root;
+		this.enabled = enabled;
+	}
+
+	public void setInputStream(InputStream in) {
+		this.in = in;
+	}
+
+	public void setOutputStream(OutputStream out) {
+		this.out = out;
+	}
+
+	public void setErrorStream(OutputStream err) {
+		this.err = err;
+	}
+
+	public void setExitCallback(ExitCallback callback) {
+		this.callback = callback;
+	}
+
+	public void start(Environment env) throws IOException {
+		new Thread(this, "shell").start();
+	}
+
+	public void destroy() {
+		// the process ends with its input
+	}
+
+	public void run() {
+		int status = NOT_FOUND;
+		try {
+			if (enabled) {
+				status = execute();
+			}
+			out.flush();
+			err.flush();
+		} catch (IOException e) {
+			status = -1;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			status = -1;
+		}
+		callback.onExit(status);
+	}
+
+	/**
+	 * Run the command, copying the streams of the channel.
+	 *
+	 * @return exit status
+	 * @throws IOException
+	 *             on error
+	 * @throws InterruptedException
+	 *             if interrupted
+	 */
+	private int execute() throws IOException, InterruptedException {
+		Process process = new ProcessBuilder("sh", "-c", command.replace(
+				"'/", "'" + root.getAbsolutePath() + "/")).directory(root)
+				.start();
+		// not joined: the client may never close its input
+		copy(in, process.getOutputStream(), true);
+		Thread output = copy(process.getInputStream(), out, false);
+		Thread error = copy(process.getErrorStream(), err, false);
+		output.join();
+		error.join();
+		return process.waitFor();
+	}
+
+	/**
+	 * Copy a stream in a new thread.
+	 *
+	 * @param from
+	 *            to read
+	 * @param to
+	 *            to write
+	 * @param close
+	 *            close the destination at the end of the source
+	 * @return started thread
+	 */
+	private static Thread copy(final InputStream from, final OutputStream to,
+			final boolean close) {
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				byte[] buffer = new byte[BUFFER_SIZE];
+				try {
+					int read;
+					while ((read = from.read(buffer)) >= 0) {
+						to.write(buffer, 0, read);
+						to.flush();
+					}
+					if (close) {
+						to.close();
+					}
+				} catch (IOException e) {
+					// the process or the channel ended first
+				}
+			}
+		}, "shell-copy");
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
+
+}
@@ -0,0 +1,168 @@
+package org.eclipse.maven.mojo.updatesite.harness;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * Generate synthetic update sites: jars of random content spread over
+ * folders, next to minimal content.xml and artifacts.xml files. The same
+ * seed gives the same site.
+ */
+public class SiteGenerator {
+
+	/**
+	 * Number of jars.
+	 */
+	private int jars = 10;
+
+	/**
+	 * Number of folders holding the jars.
+	 */
+	private int directories = 2;
+
+	/**
+	 * Minimum jar size in bytes.
+	 */
+	private int minSize = 1024;
+
+	/**
+	 * Maximum jar size in bytes.
+	 */
+	private int maxSize = 1024;
+
+	/**
+	 * Seed of the content and sizes.
+	 */
+	private long seed;
+
+	/**
+	 * @param jars
+	 *            number of jars
+	 * @return this
+	 */
+	public SiteGenerator jars(int jars) {
+		this.jars = jars;
+		return this;
+	}
+
+	/**
+	 * @param directories
+	 *            number of folders holding the jars, at least 1
+	 * @return this
+	 */
+	public SiteGenerator directories(int directories) {
+		if (directories < 1) {
+			throw new IllegalArgumentException("At least one directory: "
+					+ directories);
+		}
+		this.directories = directories;
+		return this;
+	}
+
+	/**
+	 * @param minSize
+	 *            minimum jar size in bytes
+	 * @param maxSize
+	 *            maximum jar size in bytes
+	 * @return this
+	 */
+	public SiteGenerator size(int minSize, int maxSize) {
+		if (minSize < 0 || maxSize < minSize) {
+			throw new IllegalArgumentException("Invalid size range: "
+					+ minSize + ".." + maxSize);
+		}
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		return this;
+	}
+
+	/**
+	 * @param seed
+	 *            of the content and sizes
+	 * @return this
+	 */
+	public SiteGenerator seed(long seed) {
+		this.seed = seed;
+		return this;
+	}
+
+	/**
+	 * Generate the site. The first two folders are plugins and features,
+	 * the next ones are nested in binary.
+	 *
+	 * @param folder
+	 *            to generate into, created if needed
+	 * @return total size of the jars in bytes
+	 * @throws IOException
+	 *             on error
+	 */
+	public long generate(File folder) throws IOException {
+		Random random = new Random(seed);
+		File[] folders = new File[directories];
+		for (int i = 0; i < directories; i++) {
+			String name;
+			if (i == 0) {
+				name = "plugins";
+			} else if (i == 1) {
+				name = "features";
+			} else {
+				name = "binary/folder" + i;
+			}
+			folders[i] = new File(folder, name);
+			folders[i].mkdirs();
+		}
+
+		long total = 0;
+		byte[] buffer = new byte[8192];
+		for (int i = 0; i < jars; i++) {
+			int size = minSize + random.nextInt(maxSize - minSize + 1);
+			File jar = new File(folders[i % directories], "bundle" + i
+					+ "_1.0.0.jar");
+			OutputStream outputStream = new FileOutputStream(jar);
+			try {
+				for (int left = size; left > 0; left -= buffer.length) {
+					random.nextBytes(buffer);
+					outputStream.write(buffer, 0, Math.min(left, buffer.length));
+				}
+			} finally {
+				outputStream.close();
+			}
+			total += size;
+		}
+
+		write(new File(folder, "content.xml"),
+				"<?xml version='1.0' encoding='UTF-8'?>\n"
+						+ "<?metadataRepository version='1.1.0'?>\n"
+						+ "<repository name='generated' "
+						+ "type='org.eclipse.equinox.internal.p2.metadata.repository.LocalMetadataRepository' "
+						+ "version='1'>\n  <units size='0'/>\n</repository>\n");
+		write(new File(folder, "artifacts.xml"),
+				"<?xml version='1.0' encoding='UTF-8'?>\n"
+						+ "<?artifactRepository version='1.1.0'?>\n"
+						+ "<repository name='generated' "
+						+ "type='org.eclipse.equinox.p2.artifact.repository.simpleRepository' "
+						+ "version='1'>\n  <artifacts size='0'/>\n</repository>\n");
+		return total;
+	}
+
+	/**
+	 * @param file
+	 *            to write
+	 * @param content
+	 *            of the file
+	 * @throws IOException
+	 *             on error
+	 */
+	private static void write(File file, String content) throws IOException {
+		OutputStream outputStream = new FileOutputStream(file);
+		try {
+			outputStream.write(content.getBytes("UTF-8"));
+		} finally {
+			outputStream.close();
+		}
+	}
+
+}
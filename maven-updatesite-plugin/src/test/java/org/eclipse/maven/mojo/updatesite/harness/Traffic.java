@@ -0,0 +1,279 @@
+package org.eclipse.maven.mojo.updatesite.harness;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Sftp requests seen by an {@link EmbeddedSftpServer}, grouped in phases by
+ * the remote path they apply to. Each request is a round trip for the
+ * client. The channels open on each ssh session are counted too.
+ */
+public class Traffic {
+
+	/**
+	 * Phase of the requests matching no other phase.
+	 */
+	public static final String OTHER = "other";
+
+	/**
+	 * Counters of a phase.
+	 */
+	public static class Phase {
+
+		private final AtomicLong requests = new AtomicLong();
+
+		private final AtomicLong bytesIn = new AtomicLong();
+
+		private final AtomicLong bytesOut = new AtomicLong();
+
+		private final AtomicLong bytesWritten = new AtomicLong();
+
+		private final AtomicLong first = new AtomicLong(Long.MAX_VALUE);
+
+		private final AtomicLong last = new AtomicLong(Long.MIN_VALUE);
+
+		private final Set<Object> channels = Collections
+				.synchronizedSet(Collections
+						.newSetFromMap(new IdentityHashMap<Object, Boolean>()));
+
+		void request(Object channel, int length, int written, long now) {
+			channels.add(channel);
+			requests.incrementAndGet();
+			bytesIn.addAndGet(length);
+			bytesWritten.addAndGet(written);
+			long current;
+			while ((current = first.get()) > now
+					&& !first.compareAndSet(current, now)) {
+				continue;
+			}
+		}
+
+		void response(int length, long now) {
+			bytesOut.addAndGet(length);
+			long current;
+			while ((current = last.get()) < now
+					&& !last.compareAndSet(current, now)) {
+				continue;
+			}
+		}
+
+		/**
+		 * @return number of requests, that is of round trips
+		 */
+		public long getRequests() {
+			return requests.get();
+		}
+
+		/**
+		 * @return number of sftp channels which sent requests
+		 */
+		public int getChannels() {
+			return channels.size();
+		}
+
+		/**
+		 * @return bytes of the requests, payload included
+		 */
+		public long getBytesIn() {
+			return bytesIn.get();
+		}
+
+		/**
+		 * @return bytes of the responses, payload included
+		 */
+		public long getBytesOut() {
+			return bytesOut.get();
+		}
+
+		/**
+		 * @return bytes of file content written, the payload of the writes
+		 */
+		public long getBytesWritten() {
+			return bytesWritten.get();
+		}
+
+		/**
+		 * @return milliseconds between the first request and the last
+		 *         response of the phase, 0 if none
+		 */
+		public long getSpan() {
+			if (requests.get() == 0 || last.get() < first.get()) {
+				return 0;
+			}
+			return (last.get() - first.get()) / 1000000;
+		}
+
+	}
+
+	/**
+	 * Phase names by path pattern, in matching order.
+	 */
+	private final Map<Pattern, String> patterns = new LinkedHashMap<Pattern, String>();
+
+	/**
+	 * Counters by phase name.
+	 */
+	private final Map<String, Phase> phases = new LinkedHashMap<String, Phase>();
+
+	/**
+	 * Number of open channels by ssh session.
+	 */
+	private final Map<Object, Integer> channels = new HashMap<Object, Integer>();
+
+	/**
+	 * Highest number of channels open at once on one ssh session.
+	 */
+	private int peakChannels;
+
+	/**
+	 * Declare a phase. Paths are matched against the patterns in declaration
+	 * order.
+	 *
+	 * @param name
+	 *            of the phase
+	 * @param regex
+	 *            matching the whole remote path
+	 * @return this
+	 */
+	public synchronized Traffic phase(String name, String regex) {
+		patterns.put(Pattern.compile(regex), name);
+		phases.put(name, new Phase());
+		return this;
+	}
+
+	/**
+	 * Reset all the counters.
+	 */
+	public synchronized void reset() {
+		for (String name : new ArrayList<String>(phases.keySet())) {
+			phases.put(name, new Phase());
+		}
+		phases.remove(OTHER);
+		peakChannels = 0;
+		for (int open : channels.values()) {
+			peakChannels = Math.max(peakChannels, open);
+		}
+	}
+
+	/**
+	 * @return highest number of channels open at once on one ssh session,
+	 *         sftp and exec ones
+	 */
+	public synchronized int getPeakChannels() {
+		return peakChannels;
+	}
+
+	/**
+	 * Record a channel opened.
+	 *
+	 * @param session
+	 *            ssh session of the channel
+	 */
+	synchronized void channelOpened(Object session) {
+		Integer open = channels.get(session);
+		open = open == null ? 1 : open + 1;
+		channels.put(session, open);
+		peakChannels = Math.max(peakChannels, open);
+	}
+
+	/**
+	 * Record a channel closed.
+	 *
+	 * @param session
+	 *            ssh session of the channel
+	 */
+	synchronized void channelClosed(Object session) {
+		Integer open = channels.get(session);
+		if (open == null || open <= 1) {
+			channels.remove(session);
+		} else {
+			channels.put(session, open - 1);
+		}
+	}
+
+	/**
+	 * Get the counters of a phase.
+	 *
+	 * @param name
+	 *            of the phase
+	 * @return counters, empty if the phase saw no request
+	 */
+	public synchronized Phase get(String name) {
+		Phase phase = phases.get(name);
+		return phase != null ? phase : new Phase();
+	}
+
+	/**
+	 * @return total of all the phases
+	 */
+	public synchronized Phase getTotal() {
+		Phase total = new Phase();
+		for (Phase phase : phases.values()) {
+			total.requests.addAndGet(phase.getRequests());
+			total.bytesIn.addAndGet(phase.getBytesIn());
+			total.bytesOut.addAndGet(phase.getBytesOut());
+			total.bytesWritten.addAndGet(phase.getBytesWritten());
+			total.channels.addAll(phase.channels);
+			if (phase.getRequests() > 0) {
+				total.request(null, 0, 0, phase.first.get());
+				total.requests.decrementAndGet();
+				total.response(0, phase.last.get());
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * Find the phase of a path.
+	 *
+	 * @param path
+	 *            remote path, null if unknown
+	 * @return counters of its phase
+	 */
+	synchronized Phase classify(String path) {
+		String name = OTHER;
+		if (path != null) {
+			for (Map.Entry<Pattern, String> entry : patterns.entrySet()) {
+				if (entry.getKey().matcher(path).matches()) {
+					name = entry.getValue();
+					break;
+				}
+			}
+		}
+		Phase phase = phases.get(name);
+		if (phase == null) {
+			phase = new Phase();
+			phases.put(name, phase);
+		}
+		return phase;
+	}
+
+	/**
+	 * @return one line per phase and the total
+	 */
+	@Override
+	public synchronized String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append(String.format("%-12s %10s %12s %12s %12s %10s%n",
+				"phase", "requests", "bytes in", "bytes out", "written",
+				"span ms"));
+		Map<String, Phase> lines = new LinkedHashMap<String, Phase>(phases);
+		lines.put("total", getTotal());
+		for (Map.Entry<String, Phase> line : lines.entrySet()) {
+			Phase phase = line.getValue();
+			builder.append(String.format("%-12s %10d %12d %12d %12d %10d%n",
+					line.getKey(), phase.getRequests(), phase.getBytesIn(),
+					phase.getBytesOut(), phase.getBytesWritten(),
+					phase.getSpan()));
+		}
+		return builder.toString();
+	}
+
+}
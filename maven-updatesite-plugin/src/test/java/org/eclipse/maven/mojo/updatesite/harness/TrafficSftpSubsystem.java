@@ -0,0 +1,224 @@
+package org.eclipse.maven.mojo.updatesite.harness;
+
+import java.io.IOException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.LinkOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sshd.common.util.buffer.Buffer;
+import org.apache.sshd.common.util.buffer.ByteArrayBuffer;
+import org.apache.sshd.server.subsystem.sftp.SftpSubsystem;
+import org.apache.sshd.server.subsystem.sftp.SftpSubsystemFactory;
+
+/**
+ * {@link SftpSubsystem} recording its requests in a {@link Traffic} and
+ * delaying its responses by a fixed latency. Responses keep their order, so
+ * pipelined requests, such as the writes of a put, pay the latency once.
+ * The removal of the files the server selects is denied.
+ */
+class TrafficSftpSubsystem extends SftpSubsystem {
+
+	/**
+	 * Requests whose first field is a path.
+	 */
+	private static final int[] PATH_REQUESTS = { 3, 7, 9, 11, 13, 14, 15, 16,
+			17, 18, 19 };
+
+	/**
+	 * Requests whose first field is a handle.
+	 */
+	private static final int[] HANDLE_REQUESTS = { 4, 5, 6, 8, 10, 12 };
+
+	/**
+	 * SSH_FXP_INIT, the only request without id.
+	 */
+	private static final int INIT = 1;
+
+	/**
+	 * SSH_FXP_VERSION, response to init.
+	 */
+	private static final int VERSION = 2;
+
+	/**
+	 * SSH_FXP_CLOSE.
+	 */
+	private static final int CLOSE = 4;
+
+	/**
+	 * SSH_FXP_WRITE.
+	 */
+	private static final int WRITE = 6;
+
+	/**
+	 * SSH_FXP_HANDLE, response to open and opendir.
+	 */
+	private static final int HANDLE = 102;
+
+	/**
+	 * Size of the length prefix of a packet.
+	 */
+	private static final int LENGTH_SIZE = 4;
+
+	/**
+	 * Server providing the traffic and the latency.
+	 */
+	private final EmbeddedSftpServer server;
+
+	/**
+	 * Sends the delayed responses, in order.
+	 */
+	private final ScheduledExecutorService scheduler = Executors
+			.newSingleThreadScheduledExecutor();
+
+	/**
+	 * Paths of the requests waiting for a response, by id.
+	 */
+	private final Map<Integer, String> pending = new ConcurrentHashMap<Integer, String>();
+
+	/**
+	 * Paths of the open handles.
+	 */
+	private final Map<String, String> paths = new ConcurrentHashMap<String, String>();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param factory
+	 *            providing the configuration of the subsystem
+	 * @param server
+	 *            providing the traffic and the latency
+	 */
+	TrafficSftpSubsystem(SftpSubsystemFactory factory,
+			EmbeddedSftpServer server) {
+		super(factory.getExecutorService(), factory.isShutdownOnExit(),
+				factory.getUnsupportedAttributePolicy(), factory
+						.getFileSystemAccessor(), factory
+						.getErrorStatusDataHandler());
+		this.server = server;
+	}
+
+	@Override
+	protected void process(Buffer buffer) throws IOException {
+		int start = buffer.rpos();
+		int length = buffer.getInt();
+		int type = buffer.getUByte();
+		if (type != INIT) {
+			int id = buffer.getInt();
+			String path = null;
+			int written = 0;
+			if (contains(PATH_REQUESTS, type)) {
+				path = buffer.getString();
+			} else if (contains(HANDLE_REQUESTS, type)) {
+				String handle = buffer.getString();
+				path = paths.get(handle);
+				if (type == WRITE) {
+					buffer.getLong();
+					written = buffer.getInt();
+				} else if (type == CLOSE) {
+					paths.remove(handle);
+				}
+			}
+			server.getTraffic().classify(path).request(this,
+					LENGTH_SIZE + length, written, System.nanoTime());
+			if (path != null) {
+				pending.put(id, path);
+			}
+		}
+		buffer.rpos(start);
+		super.process(buffer);
+	}
+
+	@Override
+	protected void send(Buffer buffer) throws IOException {
+		final Buffer copy = new ByteArrayBuffer(Arrays.copyOfRange(
+				buffer.array(), buffer.rpos(), buffer.wpos()));
+		long latency = server.getLatency();
+		if (latency <= 0) {
+			record(copy);
+			super.send(copy);
+			return;
+		}
+		scheduler.schedule(new Runnable() {
+			public void run() {
+				try {
+					record(copy);
+					sendNow(copy);
+				} catch (IOException e) {
+					// the channel is closing, nobody waits for the response
+				}
+			}
+		}, latency, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Send a response without delay.
+	 *
+	 * @param buffer
+	 *            response
+	 * @throws IOException
+	 *             on error
+	 */
+	private void sendNow(Buffer buffer) throws IOException {
+		super.send(buffer);
+	}
+
+	/**
+	 * Record a response in the phase of its request.
+	 *
+	 * @param buffer
+	 *            response, not consumed
+	 */
+	private void record(Buffer buffer) {
+		int start = buffer.rpos();
+		int length = buffer.available();
+		int type = buffer.getUByte();
+		String path = null;
+		if (type != VERSION) {
+			int id = buffer.getInt();
+			path = pending.remove(id);
+			if (type == HANDLE && path != null) {
+				paths.put(buffer.getString(), path);
+			}
+		}
+		buffer.rpos(start);
+		server.getTraffic().classify(path).response(LENGTH_SIZE + length,
+				System.nanoTime());
+	}
+
+	@Override
+	protected void doRemove(int id, String path, LinkOption... options)
+			throws IOException {
+		if (server.isRemovalFailed(path)) {
+			throw new AccessDeniedException(path);
+		}
+		super.doRemove(id, path, options);
+	}
+
+	@Override
+	public void destroy() {
+		scheduler.shutdown();
+		super.destroy();
+	}
+
+	/**
+	 * @param values
+	 *            to search
+	 * @param value
+	 *            to find
+	 * @return true if found
+	 */
+	private static boolean contains(int[] values, int value) {
+		for (int candidate : values) {
+			if (candidate == value) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,72 @@
+package org.eclipse.maven.mojo.updatesite.logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.maven.mojo.updatesite.logger.Event.Activity;
+import org.junit.Test;
+
+public class AsyncLoggerTestCase {
+
+	private static class ListLogger extends AbstractLogger {
+
+		private final List<String> lines = Collections
+				.synchronizedList(new ArrayList<String>());
+
+		private final boolean debug;
+
+		ListLogger(boolean debug) {
+			this.debug = debug;
+		}
+
+		@Override
+		public boolean isEnabled(Level level) {
+			return debug || level != Level.DEBUG;
+		}
+
+		public void log(Level level, String message) {
+			lines.add(level + " " + message);
+		}
+	}
+
+	@Test
+	public void testAggregation() {
+		ListLogger delegate = new ListLogger(false);
+		AsyncLogger logger = new AsyncLogger(delegate, 60000);
+		logger.info("first");
+		logger.event(Event.expected(Activity.UPLOAD, 2, 2048));
+		for (int i = 0; i < 1000; i++) {
+			logger.event(Event.done(Activity.DELETE, "/file" + i, 10));
+		}
+		logger.event(Event.done(Activity.UPLOAD, "/a", 1024));
+		logger.warn("last");
+		logger.close();
+		logger.info("after close");
+
+		assertEquals(5, delegate.lines.size());
+		assertEquals("INFO first", delegate.lines.get(0));
+		assertEquals("WARN last", delegate.lines.get(1));
+		assertTrue(delegate.lines.get(2),
+				delegate.lines.get(2).startsWith("INFO Uploaded 1/2 file(s)"));
+		assertTrue(delegate.lines.get(3),
+				delegate.lines.get(3).startsWith("INFO Deleted 1000 file(s)"));
+		assertEquals("INFO after close", delegate.lines.get(4));
+	}
+
+	@Test
+	public void testDebug() {
+		ListLogger delegate = new ListLogger(true);
+		AsyncLogger logger = new AsyncLogger(delegate, 60000);
+		logger.event(Event.done(Activity.DELETE, "/file", 0));
+		logger.close();
+
+		assertEquals("DEBUG Deleted: /file", delegate.lines.get(0));
+		assertTrue(delegate.lines.get(1),
+				delegate.lines.get(1).startsWith("INFO Deleted 1 file(s)"));
+	}
+
+}
@@ -0,0 +1,78 @@
+package org.eclipse.maven.mojo.updatesite.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+
+import org.junit.Test;
+
+public class MetricsTestCase {
+
+	@Test
+	public void testPhases() throws Exception {
+		Metrics metrics = new Metrics();
+		metrics.time("stat", System.nanoTime());
+
+		metrics.startPhase(Metrics.UPLOAD);
+		OutputStream outputStream = metrics.upload(new ByteArrayOutputStream(),
+				"put", System.nanoTime());
+		outputStream.write(new byte[100]);
+		outputStream.close();
+		outputStream.close();
+		metrics.uploaded(2, 50);
+
+		long start = metrics.enter(Metrics.RMTREE);
+		metrics.time("rm", System.nanoTime());
+		metrics.exit(Metrics.RMTREE, start);
+		metrics.time("put", System.nanoTime());
+		metrics.finish();
+
+		assertEquals(1, metrics.getPhase(Metrics.INIT).getOperations());
+		Metrics.Phase upload = metrics.getPhase(Metrics.UPLOAD);
+		assertEquals(3, upload.getFiles());
+		assertEquals(150, upload.getBytesUploaded());
+		assertEquals(2, upload.getOperation("put").getCount());
+		assertEquals(1, metrics.getPhase(Metrics.RMTREE).getOperation("rm")
+				.getCount());
+	}
+
+	@Test
+	public void testHistogram() {
+		Histogram histogram = new Histogram();
+		for (int i = 0; i < 90; i++) {
+			histogram.record(3000);
+		}
+		for (int i = 0; i < 10; i++) {
+			histogram.record(1000000);
+		}
+		assertEquals(100, histogram.getCount());
+		assertEquals(4, histogram.getPercentile(50));
+		assertEquals(4, histogram.getPercentile(90));
+		assertEquals(1024, histogram.getPercentile(99));
+		assertEquals(1000000, histogram.getMax());
+	}
+
+	@Test
+	public void testJson() {
+		Metrics metrics = new Metrics();
+		metrics.startPhase(Metrics.UPLOAD);
+		metrics.uploaded(10);
+		metrics.finish();
+		JsonWriter json = new JsonWriter();
+		json.beginObject();
+		json.name("site").value("a \"quoted\"\nname");
+		metrics.write(json);
+		json.endObject();
+		String report = json.toString();
+		assertTrue(report, report.startsWith("{\n  \"site\": "
+				+ "\"a \\\"quoted\\\"\\nname\",\n  \"phases\": {"));
+		assertTrue(report, report.contains("\"upload\": {\n"
+				+ "      \"durationMillis\": "));
+		assertTrue(report, report.contains("\"bytesUploaded\": 10,"));
+		assertTrue(report, report.contains("\"operations\": {}"));
+		assertTrue(report, report.endsWith("}\n"));
+	}
+
+}
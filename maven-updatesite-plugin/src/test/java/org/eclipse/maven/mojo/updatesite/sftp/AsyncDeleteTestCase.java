@@ -0,0 +1,78 @@
+package org.eclipse.maven.mojo.updatesite.sftp;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.eclipse.maven.mojo.updatesite.harness.EmbeddedSftpServer;
+import org.eclipse.maven.mojo.updatesite.logger.Logger;
+import org.eclipse.maven.mojo.updatesite.logger.MavenLogger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.SftpException;
+
+public class AsyncDeleteTestCase {
+
+	private File work;
+
+	private Logger logger;
+
+	@Before
+	public void setUp() throws Exception {
+		work = File.createTempFile("delete", "");
+		work.delete();
+		work.mkdirs();
+		logger = new MavenLogger(new SystemStreamLog());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		EmbeddedSftpServer.delete(work);
+	}
+
+	@Test
+	public void testDelete() throws Exception {
+		File folder = new File(work, "old/plugins");
+		folder.mkdirs();
+		AsyncDelete asyncDelete = new AsyncDelete(new LocalFileSystem(logger),
+				logger, 2);
+		asyncDelete.delete(folder.getParent());
+		asyncDelete.await(10000);
+		assertFalse(folder.getParentFile().exists());
+	}
+
+	@Test
+	public void testAwaitIsBounded() throws Exception {
+		File folder = new File(work, "old");
+		folder.mkdirs();
+		LocalFileSystem slow = new LocalFileSystem(logger) {
+			@Override
+			public LocalFileSystem openChannel() {
+				return this;
+			}
+
+			@Override
+			public void rmtree(String path, boolean deleteFolder)
+					throws SftpException {
+				try {
+					Thread.sleep(60000);
+				} catch (InterruptedException e) {
+					throw new SftpException(ChannelSftp.SSH_FX_FAILURE,
+							"Interrupted");
+				}
+			}
+		};
+		AsyncDelete asyncDelete = new AsyncDelete(slow, logger);
+		asyncDelete.delete(folder.getAbsolutePath());
+		long start = System.currentTimeMillis();
+		asyncDelete.await(200);
+		assertTrue(System.currentTimeMillis() - start < 10000);
+		assertTrue("Left for a later deploy", folder.isDirectory());
+	}
+
+}
@@ -0,0 +1,51 @@
+package org.eclipse.maven.mojo.updatesite.sftp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.eclipse.maven.mojo.updatesite.logger.MavenLogger;
+import org.junit.Test;
+
+public class ChannelPoolTestCase {
+
+	@Test
+	public void testFailureWaitsForRunningTasks() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		final AtomicBoolean running = new AtomicBoolean();
+		ChannelPool.Task<String> slow = new ChannelPool.Task<String>() {
+			public String run(RemoteFileSystem channel) throws Exception {
+				running.set(true);
+				started.countDown();
+				Thread.sleep(500);
+				running.set(false);
+				return "slow";
+			}
+		};
+		ChannelPool.Task<String> failing = new ChannelPool.Task<String>() {
+			public String run(RemoteFileSystem channel) throws Exception {
+				started.await(10, TimeUnit.SECONDS);
+				throw new IOException("failed");
+			}
+		};
+		List<ChannelPool.Task<String>> tasks = Arrays.asList(failing, slow);
+		ChannelPool pool = new ChannelPool(new LocalFileSystem(
+				new MavenLogger(new SystemStreamLog())), 2);
+		try {
+			pool.execute(tasks);
+			fail("Should fail!");
+		} catch (IOException e) {
+			assertEquals("failed", e.getMessage());
+		}
+		assertFalse("A task still runs", running.get());
+	}
+
+}
@@ -0,0 +1,202 @@
+package org.eclipse.maven.mojo.updatesite.sftp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.eclipse.maven.mojo.updatesite.harness.EmbeddedSftpServer;
+import org.eclipse.maven.mojo.updatesite.logger.MavenLogger;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.SftpException;
+
+public class LocalFileSystemTestCase {
+
+	private File work;
+
+	private LocalFileSystem fileSystem;
+
+	@Before
+	public void setUp() throws Exception {
+		work = File.createTempFile("local", "");
+		work.delete();
+		work.mkdirs();
+		fileSystem = new LocalFileSystem(new MavenLogger(new SystemStreamLog()));
+		fileSystem.cd(work.getAbsolutePath());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		EmbeddedSftpServer.delete(work);
+	}
+
+	@Test
+	public void testResume() throws Exception {
+		byte[] content = new byte[100000];
+		new Random(42).nextBytes(content);
+		File file = new File(work, "file.jar");
+		FileOutputStream outputStream = new FileOutputStream(file);
+		outputStream.write(content);
+		outputStream.close();
+
+		fileSystem.mkdir("site");
+		fileSystem.put(file, "site/file.jar", true);
+		assertArrayEquals(content, read(new File(work, "site/file.jar")));
+		RemoteFile stat = fileSystem.stat("site/file.jar");
+		assertEquals(content.length, stat.getSize());
+		assertEquals(file.lastModified() / 1000, stat.getMTime());
+
+		RandomAccessFile partial = new RandomAccessFile(new File(work,
+				"site/file.jar"), "rw");
+		partial.setLength(30000);
+		partial.close();
+		fileSystem.resume(file, "site/file.jar", false);
+		assertArrayEquals(content, read(new File(work, "site/file.jar")));
+	}
+
+	@Test
+	public void testStatusCodes() throws Exception {
+		fileSystem.mkdir("lock");
+		assertEquals(ChannelSftp.SSH_FX_FAILURE, status(new Operation() {
+			public void run() throws SftpException {
+				fileSystem.mkdir("lock");
+			}
+		}));
+		assertEquals(ChannelSftp.SSH_FX_NO_SUCH_FILE, status(new Operation() {
+			public void run() throws SftpException {
+				fileSystem.cd("missing");
+			}
+		}));
+		assertEquals(ChannelSftp.SSH_FX_NO_SUCH_FILE, status(new Operation() {
+			public void run() throws SftpException {
+				fileSystem.stat("missing");
+			}
+		}));
+
+		fileSystem.mkdir("staging");
+		assertEquals(ChannelSftp.SSH_FX_FAILURE, status(new Operation() {
+			public void run() throws SftpException {
+				fileSystem.rename("staging", "lock");
+			}
+		}));
+		fileSystem.rename("staging", "1.0.0");
+		assertTrue(fileSystem.fileExists("1.0.0"));
+		assertTrue(fileSystem.fileDoesNotExist("staging"));
+	}
+
+	@Test
+	public void testPermissionCodes() throws Exception {
+		fileSystem.mkdir("site");
+		fileSystem.mkdir("site/1.0.0");
+		fileSystem.put(new ByteArrayInputStream(new byte[10]),
+				"site/content.jar");
+		File site = new File(work, "site");
+		site.setWritable(false);
+		try {
+			// root is granted everything
+			Assume.assumeTrue(!site.canWrite());
+			assertEquals(ChannelSftp.SSH_FX_PERMISSION_DENIED,
+					status(new Operation() {
+						public void run() throws SftpException {
+							fileSystem.mkdir("site/" + RemoteLock.NAME);
+						}
+					}));
+			assertEquals(ChannelSftp.SSH_FX_PERMISSION_DENIED,
+					status(new Operation() {
+						public void run() throws SftpException {
+							fileSystem.rm("site/content.jar");
+						}
+					}));
+			assertEquals(ChannelSftp.SSH_FX_PERMISSION_DENIED,
+					status(new Operation() {
+						public void run() throws SftpException {
+							fileSystem.put("site/artifacts.jar");
+						}
+					}));
+			assertEquals(ChannelSftp.SSH_FX_FAILURE, status(new Operation() {
+				public void run() throws SftpException {
+					fileSystem.mkdir("site/1.0.0");
+				}
+			}));
+			assertEquals(ChannelSftp.SSH_FX_NO_SUCH_FILE,
+					status(new Operation() {
+						public void run() throws SftpException {
+							fileSystem.mkdir("missing/1.0.0");
+						}
+					}));
+		} finally {
+			site.setWritable(true);
+		}
+	}
+
+	@Test
+	public void testRmtree() throws Exception {
+		fileSystem.mkdir("site");
+		fileSystem.mkdir("site/plugins");
+		fileSystem.put(new ByteArrayInputStream(new byte[10]),
+				"site/content.jar");
+		fileSystem.put(new ByteArrayInputStream(new byte[10]),
+				"site/plugins/a.jar");
+
+		RemoteFileSystem channel = fileSystem.openChannel();
+		channel.cd("site");
+		assertEquals("site", channel.getCurrentFolderName());
+		assertEquals(work.getName(), fileSystem.getCurrentFolderName());
+
+		channel.rmtree(".", false);
+		assertTrue(new File(work, "site/plugins").isDirectory());
+		assertFalse(new File(work, "site/plugins/a.jar").exists());
+		assertFalse(new File(work, "site/content.jar").exists());
+
+		fileSystem.rmtree("site", true);
+		assertTrue(new File(work, "site").isDirectory());
+		assertEquals(0, new File(work, "site").list().length);
+	}
+
+	private interface Operation {
+
+		void run() throws SftpException;
+
+	}
+
+	private static int status(Operation operation) {
+		try {
+			operation.run();
+		} catch (SftpException e) {
+			return e.id;
+		}
+		fail("Should fail!");
+		return -1;
+	}
+
+	private static byte[] read(File file) throws IOException {
+		byte[] content = new byte[(int) file.length()];
+		FileInputStream inputStream = new FileInputStream(file);
+		try {
+			int offset = 0;
+			while (offset < content.length) {
+				offset += inputStream.read(content, offset, content.length
+						- offset);
+			}
+		} finally {
+			inputStream.close();
+		}
+		return content;
+	}
+
+}
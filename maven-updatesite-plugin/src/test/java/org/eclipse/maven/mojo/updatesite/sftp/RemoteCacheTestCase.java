@@ -0,0 +1,46 @@
+package org.eclipse.maven.mojo.updatesite.sftp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class RemoteCacheTestCase {
+
+	@Test
+	public void testResolve() {
+		assertEquals("/var/www/site", RemoteCache.resolve("/var/www", "site"));
+		assertEquals("/var/site", RemoteCache.resolve("/var/www", "../site"));
+		assertEquals("/site", RemoteCache.resolve("/var/www", "/site/./"));
+		assertEquals("/", RemoteCache.resolve("/var", "../.."));
+		assertEquals("/", RemoteCache.parent("/var"));
+		assertNull(RemoteCache.parent("/"));
+	}
+
+	@Test
+	public void testConsistency() {
+		RemoteCache cache = new RemoteCache();
+		assertNull(cache.exists("/www/a"));
+
+		cache.listed("/www", Arrays.asList("a", "b"));
+		assertEquals(Boolean.TRUE, cache.exists("/www/a"));
+		assertEquals(Boolean.FALSE, cache.exists("/www/c"));
+
+		cache.created("/www/c");
+		assertEquals(Boolean.TRUE, cache.exists("/www/c"));
+
+		cache.createdFolder("/www/d");
+		assertEquals(Boolean.FALSE, cache.exists("/www/d/x"));
+		cache.created("/www/d/x");
+
+		cache.deleted("/www/d");
+		assertEquals(Boolean.FALSE, cache.exists("/www/d"));
+		assertNull(cache.exists("/www/d/x"));
+
+		cache.invalidateTree("/www");
+		assertNull(cache.exists("/www/a"));
+	}
+
+}
@@ -0,0 +1,90 @@
+package org.eclipse.maven.mojo.updatesite.sftp;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.StringWriter;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.eclipse.maven.mojo.updatesite.harness.EmbeddedSftpServer;
+import org.eclipse.maven.mojo.updatesite.logger.MavenLogger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RemoteIndexTestCase {
+
+	private File work;
+
+	private RemoteFileSystem sftp;
+
+	@Before
+	public void setUp() throws Exception {
+		work = File.createTempFile("index", "");
+		work.delete();
+		work.mkdirs();
+		sftp = new LocalFileSystem(new MavenLogger(new SystemStreamLog()));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		EmbeddedSftpServer.delete(work);
+	}
+
+	@Test
+	public void testConcurrentChangesAreMerged() throws Exception {
+		String base = work.getAbsolutePath();
+		mkdirs("site/1.0.0", "site/1.0.1");
+		new File(work, "site/1.0.1/content.xml").createNewFile();
+		RemoteIndex index = RemoteIndex.open(sftp, base);
+		index.addFolder(base + "/site/1.0.0");
+		index.store(sftp);
+
+		RemoteIndex first = RemoteIndex.open(sftp, base);
+		RemoteIndex second = RemoteIndex.open(sftp, base);
+		first.addFile(base + "/site/1.0.1/content.xml", 3, null);
+		second.removeTree(base + "/site/1.0.0");
+		second.store(sftp);
+		first.store(sftp);
+
+		assertEquals("updatesite-index 1\n" //
+				+ "D site\n" //
+				+ "D site/1.0.1\n" //
+				+ "F 3 - site/1.0.1/content.xml\n", content(base));
+	}
+
+	@Test
+	public void testMissingFoldersAreDropped() throws Exception {
+		String base = work.getAbsolutePath();
+		mkdirs("site/1.0.0/plugins", "site/1.0.1");
+		RemoteIndex index = RemoteIndex.open(sftp, base);
+		index.addFolder(base + "/site/1.0.0/plugins");
+		index.addFolder(base + "/site/1.0.1");
+		index.store(sftp);
+		EmbeddedSftpServer.delete(new File(work, "site/1.0.0"));
+
+		index = RemoteIndex.open(sftp, base);
+		assertEquals("updatesite-index 1\n" //
+				+ "D site\n" //
+				+ "D site/1.0.1\n", content(index));
+		index.store(sftp);
+		assertEquals(content(index), content(base));
+	}
+
+	private void mkdirs(String... paths) {
+		for (String path : paths) {
+			new File(work, path).mkdirs();
+		}
+	}
+
+	private String content(String base) throws Exception {
+		return content(RemoteIndex.open(sftp, base));
+	}
+
+	private static String content(RemoteIndex index) throws Exception {
+		StringWriter writer = new StringWriter();
+		index.write(writer);
+		return writer.toString();
+	}
+
+}
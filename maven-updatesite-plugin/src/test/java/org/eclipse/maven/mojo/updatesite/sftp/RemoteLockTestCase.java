@@ -0,0 +1,102 @@
+package org.eclipse.maven.mojo.updatesite.sftp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.eclipse.maven.mojo.updatesite.harness.EmbeddedSftpServer;
+import org.eclipse.maven.mojo.updatesite.logger.Logger;
+import org.eclipse.maven.mojo.updatesite.logger.MavenLogger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RemoteLockTestCase {
+
+	private static final long LEASE = 1000;
+
+	private File work;
+
+	private Logger logger;
+
+	private LockRenewal renewal;
+
+	@Before
+	public void setUp() throws Exception {
+		work = File.createTempFile("lock", "");
+		work.delete();
+		work.mkdirs();
+		logger = new MavenLogger(new SystemStreamLog());
+		renewal = new LockRenewal(LEASE, logger);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		renewal.close();
+		EmbeddedSftpServer.delete(work);
+	}
+
+	@Test
+	public void testHolderOutlastsLease() throws Exception {
+		String folder = work.getAbsolutePath();
+		RemoteLock holder = new RemoteLock(new LocalFileSystem(logger),
+				folder, renewal, logger);
+		holder.acquire(LEASE, LEASE);
+
+		RemoteLock waiter = new RemoteLock(new LocalFileSystem(logger),
+				folder, logger);
+		try {
+			waiter.acquire(LEASE, 3 * LEASE);
+			fail("A live lock was broken");
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("Timed out"));
+		}
+		assertTrue(new File(work, RemoteLock.NAME).isDirectory());
+
+		holder.release();
+		waiter.acquire(LEASE, LEASE);
+		waiter.release();
+		assertFalse(new File(work, RemoteLock.NAME).exists());
+	}
+
+	@Test
+	public void testStaleLockIsBroken() throws Exception {
+		String folder = work.getAbsolutePath();
+		// left by a dead deploy
+		new File(work, RemoteLock.NAME).mkdir();
+
+		RemoteLock waiter = new RemoteLock(new LocalFileSystem(logger),
+				folder, logger);
+		waiter.acquire(LEASE, 10 * LEASE);
+		assertEquals(Arrays.asList(RemoteLock.NAME), Arrays.asList(work
+				.list()));
+		waiter.release();
+		assertEquals(0, work.list().length);
+	}
+
+	@Test
+	public void testLockNotRenewedIsNotAcquired() throws Exception {
+		LocalFileSystem full = new LocalFileSystem(logger) {
+			@Override
+			public LocalFileSystem openChannel() {
+				return null;
+			}
+		};
+		RemoteLock lock = new RemoteLock(full, work.getAbsolutePath(),
+				renewal, logger);
+		try {
+			lock.acquire(LEASE, LEASE);
+			fail("Should fail!");
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("No channel"));
+		}
+		assertFalse(new File(work, RemoteLock.NAME).exists());
+	}
+
+}
@@ -0,0 +1,32 @@
+package org.eclipse.maven.mojo.updatesite.sftp;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SessionPoolTestCase {
+
+	@Test
+	public void testNextReactorStartsOver() throws Exception {
+		SessionPool pool = SessionPool.getInstance();
+		List<String> first = new ArrayList<String>();
+		pool.retain(first);
+		pool.release(true);
+		assertTrue(pool.isReactorEnded());
+
+		// same JVM, as in a build daemon
+		List<String> second = new ArrayList<String>();
+		pool.retain(second);
+		assertFalse(pool.isReactorEnded());
+		pool.retain(second);
+		pool.release(false);
+		assertFalse(pool.isReactorEnded());
+		pool.release(true);
+		assertTrue(pool.isReactorEnded());
+	}
+
+}
@@ -0,0 +1,69 @@
+package org.eclipse.maven.mojo.updatesite.sftp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.regex.Pattern;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.eclipse.maven.mojo.updatesite.harness.EmbeddedSftpServer;
+import org.eclipse.maven.mojo.updatesite.logger.MavenLogger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jcraft.jsch.SftpException;
+
+public class SftpTestCase {
+
+	private static final int FILES = 10;
+
+	private EmbeddedSftpServer server;
+
+	private Sftp sftp;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new EmbeddedSftpServer();
+		sftp = new Sftp(new MavenLogger(new SystemStreamLog()), server
+				.getKnownHosts().getAbsolutePath(), server.getIdentity()
+				.getAbsolutePath());
+		sftp.openSession(EmbeddedSftpServer.USER,
+				EmbeddedSftpServer.PASSPHRASE, "localhost", server.getPort());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		sftp.disconnect();
+		server.stop();
+	}
+
+	@Test
+	public void testPartialRmtreeLeavesNoStaleEntry() throws Exception {
+		File folder = new File(server.getRoot(), "www/site");
+		folder.mkdirs();
+		for (int i = 0; i < FILES; i++) {
+			new File(folder, i + ".jar").createNewFile();
+		}
+		for (int i = 0; i < FILES; i++) {
+			assertTrue(sftp.fileExists("/www/site/" + i + ".jar"));
+		}
+
+		server.setFailedRemovals(Pattern.compile(".*/" + FILES / 2
+				+ "\\.jar"));
+		try {
+			sftp.rmtree("/www/site", false);
+			fail("Should fail!");
+		} catch (SftpException e) {
+			// the files listed before the denied one are deleted
+		}
+		for (int i = 0; i < FILES; i++) {
+			File file = new File(folder, i + ".jar");
+			assertEquals(file.getName(), file.exists(), sftp
+					.fileExists("/www/site/" + file.getName()));
+		}
+	}
+
+}